@@ -0,0 +1,46 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks jar. It runs benchmarks in throughput mode with
+ * gc profiler, so that allocation rate is reported along with throughput.
+ * Usual JMH command line options may be used to narrow the run, e.g.
+ * {@code java -jar benchmarks.jar Parse -p records=10000}.
+ *
+ * @author mg
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * Hidden constructor.
+     */
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Runs benchmarks.
+     *
+     * @param args JMH command line options.
+     * @throws RunnerException if a benchmark fails.
+     * @throws CommandLineOptionException if options are malformed.
+     */
+    public static void main(final String[] args) throws RunnerException,
+            CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .mode(Mode.Throughput)
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .jvmArgsAppend("-Xmx4g")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,101 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import com.bearsoft.citiesfetcher.Csv;
+import com.bearsoft.citiesfetcher.CsvWriter;
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * CSV encoding benchmark. It compares streaming {@code CsvWriter} with
+ * {@code Csv.to} followed by {@code String.getBytes}.
+ *
+ * @author mg
+ */
+@State(Scope.Benchmark)
+public class CsvBenchmark {
+
+    /**
+     * Output stream, consuming bytes with a blackhole.
+     */
+    private static final class BlackholeStream extends OutputStream {
+
+        /**
+         * Blackhole consuming bytes.
+         */
+        private final Blackhole sink;
+
+        /**
+         * Constructs the stream.
+         *
+         * @param aSink Blackhole consuming bytes.
+         */
+        BlackholeStream(final Blackhole aSink) {
+            sink = aSink;
+        }
+
+        @Override
+        public void write(final int aByte) {
+            sink.consume(aByte);
+        }
+
+        @Override
+        public void write(final byte[] aBuffer, final int aOffset,
+                final int aLength) {
+            sink.consume(aBuffer);
+        }
+    }
+
+    /**
+     * Number of cities to encode.
+     */
+    @Param({"10", "10000", "1000000"})
+    private int records;
+    /**
+     * Cities to encode.
+     */
+    private City[] cities;
+
+    /**
+     * Generates cities.
+     */
+    @Setup
+    public void setup() {
+        cities = Payloads.cities(records);
+    }
+
+    /**
+     * Encodes cities with {@code CsvWriter}.
+     *
+     * @param aSink Blackhole consuming bytes.
+     * @throws IOException if the writer throws it.
+     */
+    @Benchmark
+    public void csvWriter(final Blackhole aSink) throws IOException {
+        CsvWriter csv = new CsvWriter(new BlackholeStream(aSink));
+        for (City city : cities) {
+            csv.write(city);
+        }
+        csv.flush();
+    }
+
+    /**
+     * Encodes cities with {@code Csv.to}.
+     *
+     * @param aSink Blackhole consuming bytes.
+     */
+    @Benchmark
+    public void csvTo(final Blackhole aSink) {
+        for (City city : cities) {
+            aSink.consume(Csv.to(city).toString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
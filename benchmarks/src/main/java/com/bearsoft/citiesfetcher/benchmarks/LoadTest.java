@@ -0,0 +1,277 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import com.bearsoft.citiesfetcher.http.ConnectionPool;
+import com.bearsoft.citiesfetcher.http.PooledTransport;
+import com.bearsoft.citiesfetcher.http.Response;
+import com.bearsoft.citiesfetcher.http.Transport;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test harness for server mode. A number of client threads send
+ * requests to target urls in turn over keep-alive connections, until a
+ * total number of requests is sent. Every response body is read to the end.
+ * The harness reports requests per second and percentiles of latency of
+ * successful requests from the start of a request to the end of its body.
+ * It lives along with benchmarks, so that it is not shipped with the
+ * application.
+ *
+ * @author mg
+ * @see com.bearsoft.citiesfetcher.Server
+ */
+public final class LoadTest {
+
+    /**
+     * Urls, requested in turn.
+     */
+    private final List<URL> targets;
+    /**
+     * Number of client threads.
+     */
+    private final int concurrency;
+    /**
+     * Latencies of requests in nanos, -1 for failed ones.
+     */
+    private final long[] latencies;
+    /**
+     * Sorted latencies of successful requests in nanos.
+     */
+    private long[] succeeded = new long[0];
+    /**
+     * Time of the whole test in nanos.
+     */
+    private long elapsed;
+
+    /**
+     * Load test constructor.
+     *
+     * @param aTargets Urls to be requested in turn.
+     * @param aConcurrency Number of client threads.
+     * @param aRequests Total number of requests.
+     */
+    public LoadTest(final List<URL> aTargets, final int aConcurrency,
+            final int aRequests) {
+        targets = new ArrayList<>(aTargets);
+        concurrency = aConcurrency;
+        latencies = new long[aRequests];
+    }
+
+    /**
+     * Sends all requests and waits for their responses.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void run() throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        try (Transport transport = new PooledTransport(new ConnectionPool(
+                concurrency, IDLE_TIMEOUT), TIMEOUT, TIMEOUT)) {
+            long started = System.nanoTime();
+            for (int i = 0; i < concurrency; i++) {
+                clients.execute(() -> {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    for (int request = next.getAndIncrement();
+                            request < latencies.length;
+                            request = next.getAndIncrement()) {
+                        latencies[request] = request(transport,
+                                targets.get(request % targets.size()),
+                                buffer);
+                    }
+                });
+            }
+            clients.shutdown();
+            while (!clients.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                // Waits until all requests are sent.
+            }
+            elapsed = System.nanoTime() - started;
+        } catch (IOException ex) {
+            // Closing of the transport only closes idle connections.
+        } finally {
+            clients.shutdownNow();
+        }
+        succeeded = Arrays.stream(latencies).filter(aNanos -> aNanos >= 0)
+                .sorted().toArray();
+    }
+
+    /**
+     * Sends a request and reads its body to the end.
+     *
+     * @param aTransport A transport to send the request with.
+     * @param aUrl Requested url.
+     * @param aBuffer A buffer to read the body into.
+     * @return Latency of the request in nanos or -1 if it failed.
+     */
+    private static long request(final Transport aTransport, final URL aUrl,
+            final byte[] aBuffer) {
+        long started = System.nanoTime();
+        try (Response response = aTransport.get(aUrl,
+                Collections.emptyMap())) {
+            try (InputStream body = response.getBody()) {
+                while (body.read(aBuffer) != -1) {
+                    // Reads the whole body.
+                }
+            }
+            return response.getStatus() == OK ? System.nanoTime() - started
+                    : -1;
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Requests getter.
+     *
+     * @return Total number of requests.
+     */
+    public int getRequests() {
+        return latencies.length;
+    }
+
+    /**
+     * Failures getter.
+     *
+     * @return Number of failed requests and requests with a status other
+     * than 200.
+     */
+    public int getFailures() {
+        return latencies.length - succeeded.length;
+    }
+
+    /**
+     * Throughput getter.
+     *
+     * @return Requests per second of the whole test.
+     */
+    public double getRequestsPerSecond() {
+        return elapsed > 0 ? latencies.length * NANOS_PER_SECOND / elapsed
+                : 0;
+    }
+
+    /**
+     * Latency percentile getter.
+     *
+     * @param aPercentile A percentile from (0, 1], e.g. 0.99.
+     * @return Latency of successful requests at the percentile in nanos or
+     * 0 if there are no successful requests.
+     */
+    public long getLatencyNanos(final double aPercentile) {
+        if (succeeded.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(succeeded.length * aPercentile);
+        return succeeded[Math.max(Math.min(rank, succeeded.length), 1) - 1];
+    }
+
+    /**
+     * Formats results of the test.
+     *
+     * @return One line report with throughput and latency percentiles.
+     */
+    @Override
+    public String toString() {
+        return String.format(REPORT_MSG, getRequests(), getFailures(),
+                concurrency, getRequestsPerSecond(),
+                millis(getLatencyNanos(P50)), millis(getLatencyNanos(P90)),
+                millis(getLatencyNanos(P99)), millis(getLatencyNanos(1)));
+    }
+
+    /**
+     * Converts nanos to millis.
+     *
+     * @param aNanos A time in nanos.
+     * @return The time in fractional millis.
+     */
+    private static double millis(final long aNanos) {
+        return aNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Entry point of the harness. Arguments are the total number of
+     * requests, the number of client threads and urls to be requested.
+     *
+     * @param args Command line arguments array.
+     * @throws MalformedURLException if an url is malformed.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public static void main(final String[] args)
+            throws MalformedURLException, InterruptedException {
+        if (args.length < MIN_ARGS_LENGTH) {
+            System.out.println(USAGE_MSG);
+            return;
+        }
+        List<URL> targets = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            targets.add(new URL(args[i]));
+        }
+        LoadTest test = new LoadTest(targets, Integer.parseInt(args[1]),
+                Integer.parseInt(args[0]));
+        test.run();
+        System.out.println(test);
+    }
+
+    /**
+     * Http ok status code.
+     */
+    private static final int OK = 200;
+    /**
+     * Http timeouts in millis.
+     */
+    private static final int TIMEOUT = 30000;
+    /**
+     * Maximum idle time of a keep-alive connection in millis.
+     */
+    private static final long IDLE_TIMEOUT = 30000;
+    /**
+     * Size of the body buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Median.
+     */
+    private static final double P50 = 0.5;
+    /**
+     * 90 percentile.
+     */
+    private static final double P90 = 0.9;
+    /**
+     * 99 percentile.
+     */
+    private static final double P99 = 0.99;
+    /**
+     * Nanos in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+    /**
+     * Nanos in a milli.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+    /**
+     * Minimum number of arguments.
+     */
+    private static final int MIN_ARGS_LENGTH = 3;
+    /**
+     * Report of a test.
+     */
+    private static final String REPORT_MSG = "%d requests, %d failed, "
+            + "%d clients: %.1f requests per second, latency millis "
+            + "p50 %.2f, p90 %.2f, p99 %.2f, max %.2f";
+    /**
+     * Usage of the harness.
+     */
+    private static final String USAGE_MSG
+            = "Usage: LoadTest REQUESTS CLIENTS URL...\n"
+            + "For example:\n"
+            + "java -cp benchmarks/target/benchmarks.jar "
+            + "com.bearsoft.citiesfetcher.benchmarks.LoadTest 10000 16 "
+            + "\"http://localhost:8080/cities?q=Berlin\"";
+}
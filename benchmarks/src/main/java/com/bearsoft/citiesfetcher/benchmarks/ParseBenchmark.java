@@ -0,0 +1,112 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import com.bearsoft.citiesfetcher.JsonCitiesFeed;
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.CityTable;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Json parsing benchmark. It pulls all cities from a synthetic payload
+ * through byte based and reader based {@code JsonCitiesFeed} and fills a
+ * columnar {@code CityTable} with them.
+ *
+ * @author mg
+ */
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    /**
+     * Number of records in the payload.
+     */
+    @Param({"10", "10000", "1000000"})
+    private int records;
+    /**
+     * Utf-8 Json payload.
+     */
+    private byte[] json;
+
+    /**
+     * Generates the payload.
+     */
+    @Setup
+    public void setup() {
+        json = Payloads.json(records);
+    }
+
+    /**
+     * Pulls all cities from a feed.
+     *
+     * @param aFeed A feed to be drained.
+     * @param aSink Blackhole consuming cities.
+     * @return Number of cities pulled.
+     * @throws IOException if the feed throws it.
+     * @throws PartialCityJsonException if the feed throws it.
+     * @throws BadCitiesJsonException if the feed throws it.
+     */
+    private static int drain(final CitiesFeed aFeed, final Blackhole aSink)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        int pulled = 0;
+        Optional<City> city = aFeed.pull();
+        while (city.isPresent()) {
+            aSink.consume(city.get());
+            pulled++;
+            city = aFeed.pull();
+        }
+        return pulled;
+    }
+
+    /**
+     * Parses utf-8 bytes.
+     *
+     * @param aSink Blackhole consuming cities.
+     * @return Number of cities pulled.
+     * @throws Exception if parsing fails.
+     */
+    @Benchmark
+    public int parseBytes(final Blackhole aSink) throws Exception {
+        return drain(JsonCitiesFeed.create(new ByteArrayInputStream(json),
+                StandardCharsets.UTF_8), aSink);
+    }
+
+    /**
+     * Parses chars, decoded by a reader.
+     *
+     * @param aSink Blackhole consuming cities.
+     * @return Number of cities pulled.
+     * @throws Exception if parsing fails.
+     */
+    @Benchmark
+    public int parseReader(final Blackhole aSink) throws Exception {
+        return drain(JsonCitiesFeed.create(new InputStreamReader(
+                new ByteArrayInputStream(json), StandardCharsets.UTF_8)),
+                aSink);
+    }
+
+    /**
+     * Parses utf-8 bytes straight into a columnar table.
+     *
+     * @return The filled table.
+     * @throws Exception if parsing fails.
+     */
+    @Benchmark
+    public CityTable parseToTable() throws Exception {
+        CityTable table = new CityTable();
+        JsonCitiesFeed.create(new ByteArrayInputStream(json),
+                StandardCharsets.UTF_8).drainTo(table);
+        return table;
+    }
+}
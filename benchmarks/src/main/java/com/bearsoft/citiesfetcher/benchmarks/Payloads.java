@@ -0,0 +1,132 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import com.bearsoft.citiesfetcher.model.City;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * Synthetic payloads for benchmarks. Cities are generated deterministically
+ * and some of their names need CSV escaping or contain non ascii symbols.
+ * Json records mimic suggest endpoint records with extra fields, that are
+ * skipped by the parser.
+ *
+ * @author mg
+ */
+public final class Payloads {
+
+    /**
+     * Hidden constructor.
+     */
+    private Payloads() {
+    }
+
+    /**
+     * Generates cities.
+     *
+     * @param aCount Number of cities.
+     * @return Array of generated cities.
+     */
+    public static City[] cities(final int aCount) {
+        Random random = new Random(SEED);
+        City[] cities = new City[aCount];
+        for (int i = 0; i < aCount; i++) {
+            cities[i] = new City(FIRST_ID + i,
+                    NAMES[i % NAMES.length] + " " + i,
+                    TYPES[i % TYPES.length],
+                    coordinate(random, MAX_LATITUDE),
+                    coordinate(random, MAX_LONGITUDE));
+        }
+        return cities;
+    }
+
+    /**
+     * Generates a coordinate with up to six fraction digits, as the
+     * endpoint serves them.
+     *
+     * @param aRandom Random numbers source.
+     * @param aLimit Maximum magnitude of the coordinate.
+     * @return Generated coordinate.
+     */
+    private static double coordinate(final Random aRandom,
+            final double aLimit) {
+        return Math.round((aRandom.nextDouble() * 2 - 1) * aLimit
+                * COORDINATE_SCALE) / COORDINATE_SCALE;
+    }
+
+    /**
+     * Generates utf-8 Json array of suggest records.
+     *
+     * @param aCount Number of records.
+     * @return Json bytes.
+     */
+    public static byte[] json(final int aCount) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (JsonGenerator json = new JsonFactory().createGenerator(out)) {
+                json.writeStartArray();
+                int i = 0;
+                for (City city : cities(aCount)) {
+                    json.writeStartObject();
+                    json.writeNumberField("_id", city.getId());
+                    json.writeStringField("key", null);
+                    json.writeStringField("name", city.getName());
+                    json.writeStringField("fullName", city.getName()
+                            + ", Germany");
+                    json.writeStringField("iata_airport_code", null);
+                    json.writeStringField("type", city.getType());
+                    json.writeStringField("country", "Germany");
+                    json.writeObjectFieldStart("geo_position");
+                    json.writeNumberField("latitude", city.getLatitude());
+                    json.writeNumberField("longitude", city.getlongitude());
+                    json.writeEndObject();
+                    json.writeNumberField("location_id", i++);
+                    json.writeBooleanField("inEurope", true);
+                    json.writeStringField("countryCode", "DE");
+                    json.writeBooleanField("coreCountry", true);
+                    json.writeNullField("distance");
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Names of cities. Some of them need CSV escaping.
+     */
+    private static final String[] NAMES = {
+        "Berlin", "Frankfurt am Main", "Düsseldorf", "Berlin, Mitte",
+        "\"Neu\" Ulm", "Köln\r\nDeutz", "München", "Halle (Saale)"
+    };
+    /**
+     * Types of cities.
+     */
+    private static final String[] TYPES = {"location", "airport", "station"};
+    /**
+     * Random seed.
+     */
+    private static final long SEED = 20160701L;
+    /**
+     * Id of the first city.
+     */
+    private static final long FIRST_ID = 376217L;
+    /**
+     * Maximum latitude.
+     */
+    private static final double MAX_LATITUDE = 90;
+    /**
+     * Maximum longitude.
+     */
+    private static final double MAX_LONGITUDE = 180;
+    /**
+     * Scale of coordinates with six fraction digits.
+     */
+    private static final double COORDINATE_SCALE = 1e6;
+}
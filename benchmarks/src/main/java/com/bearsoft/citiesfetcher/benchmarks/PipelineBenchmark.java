@@ -0,0 +1,119 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import com.bearsoft.citiesfetcher.Application;
+import com.bearsoft.citiesfetcher.Settings;
+import com.bearsoft.citiesfetcher.http.Http;
+import com.bearsoft.citiesfetcher.http.Response;
+import com.bearsoft.citiesfetcher.http.Transport;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * End to end benchmark of feed to file path. {@code Application} fetches
+ * a synthetic payload from in memory transport, parses it and writes CSV
+ * file, so network doesn't affect numbers. Sequential and pipelined modes
+ * are compared.
+ *
+ * @author mg
+ */
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    /**
+     * Transport, serving the same in memory payload for every request.
+     */
+    private static final class PayloadTransport implements Transport {
+
+        /**
+         * Payload to be served.
+         */
+        private final byte[] payload;
+
+        /**
+         * Constructs the transport.
+         *
+         * @param aPayload Payload to be served.
+         */
+        PayloadTransport(final byte[] aPayload) {
+            payload = aPayload;
+        }
+
+        @Override
+        public Response get(final URL aUrl,
+                final Map<String, String> aHeaders) {
+            return new Response(Http.OK, "OK", Collections.singletonMap(
+                    Http.CONTENT_TYPE, "application/json;charset=UTF-8"),
+                    new ByteArrayInputStream(payload));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Number of records in the payload.
+     */
+    @Param({"10", "10000", "1000000"})
+    private int records;
+    /**
+     * Flag of pipelined mode.
+     */
+    @Param({"false", "true"})
+    private boolean pipelined;
+    /**
+     * Application under test.
+     */
+    private Application application;
+    /**
+     * Destination file.
+     */
+    private File destination;
+
+    /**
+     * Generates the payload and prepares the application.
+     *
+     * @throws Exception if settings can't be parsed.
+     */
+    @Setup
+    public void setup() throws Exception {
+        destination = File.createTempFile("pipeline-benchmark", ".csv");
+        Settings settings = pipelined
+                ? Settings.parse("Berlin", destination.getPath(), "--pipeline")
+                : Settings.parse("Berlin", destination.getPath());
+        application = new Application(settings,
+                new PayloadTransport(Payloads.json(records)));
+    }
+
+    /**
+     * Removes the destination file.
+     *
+     * @throws IOException if the application can't be closed.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        application.close();
+        destination.delete();
+    }
+
+    /**
+     * Fetches the payload to the destination file.
+     *
+     * @return Number of cities fetched.
+     * @throws Exception if fetching fails.
+     */
+    @Benchmark
+    public int feedToFile() throws Exception {
+        return application.fetch();
+    }
+}
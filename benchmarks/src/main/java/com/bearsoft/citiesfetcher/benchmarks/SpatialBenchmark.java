@@ -0,0 +1,166 @@
+package com.bearsoft.citiesfetcher.benchmarks;
+
+import com.bearsoft.citiesfetcher.geo.KdTree;
+import com.bearsoft.citiesfetcher.model.City;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Spatial queries benchmark. It compares nearest cities and radius queries
+ * of {@code KdTree} with a linear scan over the same cities. Every
+ * invocation queries the next of pregenerated random points.
+ *
+ * @author mg
+ */
+@State(Scope.Benchmark)
+public class SpatialBenchmark {
+
+    /**
+     * Number of indexed cities.
+     */
+    @Param({"10000", "1000000"})
+    private int records;
+    /**
+     * Cities in generation order.
+     */
+    private City[] cities;
+    /**
+     * Index of the cities.
+     */
+    private KdTree tree;
+    /**
+     * Query points, latitude and longitude for each.
+     */
+    private double[] points;
+    /**
+     * Index of the next query point.
+     */
+    private int next;
+
+    /**
+     * Generates cities, builds the index and query points.
+     */
+    @Setup
+    public void setup() {
+        cities = Payloads.cities(records);
+        tree = new KdTree(Arrays.asList(cities));
+        Random random = new Random(SEED);
+        points = new double[POINTS * 2];
+        for (int i = 0; i < POINTS; i++) {
+            points[2 * i] = (random.nextDouble() * 2 - 1) * MAX_LATITUDE;
+            points[2 * i + 1] = (random.nextDouble() * 2 - 1)
+                    * MAX_LONGITUDE;
+        }
+    }
+
+    /**
+     * Takes the next query point.
+     *
+     * @return Offset of the point latitude in points array.
+     */
+    private int nextPoint() {
+        next = (next + 1) % POINTS;
+        return 2 * next;
+    }
+
+    /**
+     * Finds nearest cities with the index.
+     *
+     * @return Nearest cities.
+     */
+    @Benchmark
+    public List<City> nearestTree() {
+        int at = nextPoint();
+        return tree.nearest(points[at], points[at + 1], NEAREST);
+    }
+
+    /**
+     * Finds nearest cities with a linear scan, keeping the nearest ones in
+     * a sorted array.
+     *
+     * @return Nearest cities.
+     */
+    @Benchmark
+    public List<City> nearestScan() {
+        int at = nextPoint();
+        City[] nearest = new City[NEAREST];
+        double[] distances = new double[NEAREST];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        for (City city : cities) {
+            double distance = KdTree.distance(points[at], points[at + 1],
+                    city.getLatitude(), city.getlongitude());
+            if (distance < distances[NEAREST - 1]) {
+                int i = NEAREST - 1;
+                while (i > 0 && distances[i - 1] > distance) {
+                    distances[i] = distances[i - 1];
+                    nearest[i] = nearest[i - 1];
+                    i--;
+                }
+                distances[i] = distance;
+                nearest[i] = city;
+            }
+        }
+        return Arrays.asList(nearest);
+    }
+
+    /**
+     * Finds cities within the radius with the index.
+     *
+     * @return Found cities.
+     */
+    @Benchmark
+    public List<City> withinTree() {
+        int at = nextPoint();
+        return tree.within(points[at], points[at + 1], RADIUS);
+    }
+
+    /**
+     * Finds cities within the radius with a linear scan.
+     *
+     * @return Found cities, not ordered.
+     */
+    @Benchmark
+    public List<City> withinScan() {
+        int at = nextPoint();
+        List<City> found = new ArrayList<>();
+        for (City city : cities) {
+            if (KdTree.distance(points[at], points[at + 1],
+                    city.getLatitude(), city.getlongitude()) <= RADIUS) {
+                found.add(city);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Random seed of query points.
+     */
+    private static final long SEED = 20160702L;
+    /**
+     * Number of pregenerated query points.
+     */
+    private static final int POINTS = 1024;
+    /**
+     * Number of nearest cities to be found.
+     */
+    private static final int NEAREST = 10;
+    /**
+     * Radius of radius queries in kilometres.
+     */
+    private static final double RADIUS = 100;
+    /**
+     * Maximum latitude.
+     */
+    private static final double MAX_LATITUDE = 90;
+    /**
+     * Maximum longitude.
+     */
+    private static final double MAX_LONGITUDE = 180;
+}
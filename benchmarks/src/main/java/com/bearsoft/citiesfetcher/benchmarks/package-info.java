@@ -0,0 +1,6 @@
+/**
+ * JMH benchmarks of the cities fetcher. They measure Json parsing, CSV
+ * encoding and the whole feed to file path over synthetic payloads. Also,
+ * there is a load test harness for server mode.
+ */
+package com.bearsoft.citiesfetcher.benchmarks;
@@ -1,18 +1,54 @@
 package com.bearsoft.citiesfetcher;
 
 import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.feed.DistinctCitiesFeed;
+import com.bearsoft.citiesfetcher.feed.LongHashSet;
+import com.bearsoft.citiesfetcher.http.AdaptiveLimiter;
+import com.bearsoft.citiesfetcher.http.CachingTransport;
+import com.bearsoft.citiesfetcher.http.ConnectionPool;
+import com.bearsoft.citiesfetcher.http.ContentEncoding;
+import com.bearsoft.citiesfetcher.http.CountingInputStream;
+import com.bearsoft.citiesfetcher.http.Http;
+import com.bearsoft.citiesfetcher.http.LimitingTransport;
+import com.bearsoft.citiesfetcher.http.PooledTransport;
+import com.bearsoft.citiesfetcher.http.Response;
+import com.bearsoft.citiesfetcher.http.RetryingTransport;
+import com.bearsoft.citiesfetcher.http.Transport;
 import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.CityTable;
 import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
 import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import com.bearsoft.citiesfetcher.suggest.PrefixIndex;
+import com.bearsoft.citiesfetcher.suggest.Suggestions;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,25 +58,358 @@ import java.util.logging.Logger;
  *
  * @author mg
  */
-public class Application {
+public class Application implements Closeable {
+
+    /**
+     * Download of a response with a result.
+     *
+     * @param <T> Type of the result.
+     */
+    @FunctionalInterface
+    private interface Download<T> {
+
+        /**
+         * Downloads cities from a response.
+         *
+         * @param aResponse A successful response.
+         * @return Result of the download.
+         * @throws IOException if some problem occurs while IO.
+         * @throws PartialCityJsonException If some part of mandatory data is
+         * absent.
+         * @throws BadCitiesJsonException if some bad structure discovered
+         * while parsing process.
+         */
+        T apply(Response aResponse) throws IOException,
+                PartialCityJsonException, BadCitiesJsonException;
+    }
+
+    /**
+     * Sink, appending cities to a table.
+     */
+    private static final class TableSink implements CitiesSink {
+
+        /**
+         * Table to append cities to.
+         */
+        private final CityTable table;
+
+        /**
+         * Sink constructor.
+         *
+         * @param aTable A table to append cities to.
+         */
+        TableSink(final CityTable aTable) {
+            table = aTable;
+        }
+
+        @Override
+        public void write(final City aCity) {
+            table.add(aCity);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Cancellation of an asynchronous fetch. While the response is opened,
+     * cancellation interrupts the fetching thread, so it gets out of
+     * connect, of waiting for the response head or of a backoff. After the
+     * response is opened, cancellation aborts it.
+     */
+    private static final class Cancellation {
+
+        /**
+         * Thread, opening the response, or null.
+         */
+        private Thread opening;
+        /**
+         * Opened response or null.
+         */
+        private Response response;
+        /**
+         * Flag of a cancelled fetch.
+         */
+        private boolean cancelled;
+
+        /**
+         * Marks the current thread as opening the response.
+         *
+         * @throws InterruptedIOException if the fetch is cancelled already.
+         */
+        synchronized void opening() throws InterruptedIOException {
+            if (cancelled) {
+                throw new InterruptedIOException(CANCELLED_MSG);
+            }
+            opening = Thread.currentThread();
+        }
+
+        /**
+         * Marks the response as opened or the opening as failed. An
+         * interruption by cancellation is cleared, so it doesn't leak to
+         * further tasks of the thread.
+         *
+         * @param aResponse The opened response or null.
+         */
+        synchronized void opened(final Response aResponse) {
+            opening = null;
+            response = aResponse;
+            if (cancelled) {
+                Thread.interrupted();
+                if (aResponse != null) {
+                    abort(aResponse);
+                }
+            }
+        }
+
+        /**
+         * Cancels the fetch.
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            if (opening != null) {
+                opening.interrupt();
+            } else if (response != null) {
+                abort(response);
+            }
+        }
+    }
+
+    /**
+     * Sink, dropping cities, e.g. when they are needed only by the index.
+     */
+    private static final class NullSink implements CitiesSink {
+
+        @Override
+        public void write(final City aCity) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 
     /**
      * Settings to be used by this {@code Fetcher}.
      */
     private final Settings settings;
+    /**
+     * Http transport, cities are fetched with.
+     */
+    private final Transport transport;
+    /**
+     * Metrics of all fetches.
+     */
+    private final Metrics metrics = new Metrics();
+    /**
+     * Ids of cities, fetched by all fetches, or null if cities are not
+     * deduplicated.
+     */
+    private final LongHashSet ids;
+    /**
+     * Autocomplete index of all fetched cities or null.
+     */
+    private final PrefixIndex index;
+    /**
+     * Coalescing of concurrent fetches of the same source or null.
+     */
+    private final SingleFlight flights;
+
+    /**
+     * {@code Fetcher} with settings constructor. It creates pooled keep-alive
+     * transport, configured with {@code aSettings}, and wraps it with on-disk
+     * cache if a cache directory is set.
+     *
+     * @param aSettings {@code Settings} instance for use by constructed
+     * {@code Fetcher}
+     * @throws IOException if the cache directory can't be prepared.
+     */
+    public Application(final Settings aSettings) throws IOException {
+        this(aSettings, transport(aSettings));
+    }
 
     /**
-     * {@code Fetcher} with settings constructor.
+     * {@code Fetcher} with settings and transport constructor. It allows to
+     * share warm connections between several {@code Application} instances.
      *
      * @param aSettings {@code Settings} instance for use by constructed
      * {@code Fetcher}
+     * @param aTransport Http transport to fetch cities with.
      */
-    public Application(final Settings aSettings) {
+    public Application(final Settings aSettings, final Transport aTransport) {
         settings = aSettings;
+        transport = aTransport;
+        ids = aSettings.isDedup() ? new LongHashSet(
+                aSettings.getExpectedIds()) : null;
+        index = aSettings.isAutocomplete() ? new PrefixIndex(
+                aSettings.getIndexCapacity(), SUGGESTIONS) : null;
+        flights = aSettings.isCoalesce() ? new SingleFlight() : null;
+        if (flights != null) {
+            metrics.track(flights);
+        }
+        layer(aTransport, RetryingTransport.class).ifPresent(metrics::track);
+        layer(aTransport, LimitingTransport.class).ifPresent(metrics::track);
+    }
+
+    /**
+     * Finds a layer of a stack of transport decorators by its type.
+     *
+     * @param <T> Type of the layer.
+     * @param aTransport The top of the stack.
+     * @param aType Class of the layer.
+     * @return The layer if it is present in the stack.
+     */
+    private static <T extends Transport> Optional<T> layer(
+            final Transport aTransport, final Class<T> aType) {
+        Transport layer = aTransport;
+        while (layer != null && !aType.isInstance(layer)) {
+            if (layer instanceof RetryingTransport) {
+                layer = ((RetryingTransport) layer).getTransport();
+            } else if (layer instanceof CachingTransport) {
+                layer = ((CachingTransport) layer).getTransport();
+            } else if (layer instanceof LimitingTransport) {
+                layer = ((LimitingTransport) layer).getTransport();
+            } else {
+                layer = null;
+            }
+        }
+        return Optional.ofNullable(aType.cast(layer));
     }
 
     /**
-     * Performs all fetching, parsing and writing work.
+     * Creates a transport, configured with settings. Retries wrap the cache,
+     * so that cache revalidations are retried too, while cache hits are not
+     * taken into account by hedging. Limits are applied under the cache, so
+     * that only network requests, including every retry and hedge, wait for
+     * them.
+     *
+     * @param aSettings {@code Settings} with transport configuration.
+     * @return Pooled keep-alive transport, optionally wrapped with limits,
+     * optionally wrapped with cache, wrapped with retries.
+     * @throws IOException if the cache directory can't be prepared.
+     */
+    private static Transport transport(final Settings aSettings)
+            throws IOException {
+        Transport transport = new PooledTransport(new ConnectionPool(
+                aSettings.getMaxConnections(), aSettings.getIdleTimeout()),
+                aSettings.getConnectTimeout(), aSettings.getReadTimeout());
+        if (aSettings.isAdaptive() || aSettings.getRps() > 0) {
+            transport = new LimitingTransport(transport,
+                    aSettings.isAdaptive() ? new AdaptiveLimiter(
+                            aSettings.getConcurrency(),
+                            aSettings.getMaxLimit()) : null,
+                    aSettings.getRps());
+        }
+        if (aSettings.getCache().isPresent()) {
+            transport = new CachingTransport(transport,
+                    aSettings.getCache().get(), aSettings.getCacheTtl(),
+                    aSettings.getCacheSize());
+        }
+        return new RetryingTransport(transport, aSettings.getAttempts(),
+                aSettings.getBackoff(), aSettings.isHedge());
+    }
+
+    /**
+     * Settings getter.
+     *
+     * @return {@code Settings} used by this {@code Application}.
+     */
+    public final Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Transport getter.
+     *
+     * @return Http transport, cities are fetched with.
+     */
+    public final Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Received bytes getter.
+     *
+     * @return Number of body bytes received from network by all fetches.
+     */
+    public final long getWireBytes() {
+        return metrics.getBytesIn();
+    }
+
+    /**
+     * Decoded bytes getter.
+     *
+     * @return Number of body bytes after content decoding by all fetches.
+     */
+    public final long getDecodedBytes() {
+        return metrics.getDecodedBytes();
+    }
+
+    /**
+     * Metrics getter.
+     *
+     * @return Metrics of all fetches by this {@code Application}.
+     */
+    public final Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Index getter.
+     *
+     * @return Autocomplete index of all fetched cities if it is enabled by
+     * settings.
+     */
+    public final Optional<PrefixIndex> getIndex() {
+        return Optional.ofNullable(index);
+    }
+
+    /**
+     * Suggests cities by a prefix of their names. If the index has a
+     * complete answer for the prefix, it is served without network
+     * request. Otherwise the prefix is fetched from the endpoint, its cities
+     * are added to the index and the prefix is marked as covered, unless
+     * some of them were evicted meanwhile.
+     *
+     * @param aPrefix A prefix of city names.
+     * @param aLimit Maximum number of suggested cities.
+     * @return Best ranked cities with the prefix.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     * @throws IllegalStateException if the index is not enabled.
+     */
+    public final Suggestions suggest(final String aPrefix, final int aLimit)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        if (index == null) {
+            throw new IllegalStateException(NO_INDEX_MSG);
+        }
+        Suggestions local = index.lookup(aPrefix, aLimit);
+        if (local.isComplete()) {
+            return local;
+        }
+        long epoch = index.epoch();
+        fetch(settings.citySource(aPrefix), new NullSink());
+        index.cover(aPrefix, epoch);
+        return index.lookup(aPrefix, aLimit);
+    }
+
+    /**
+     * Performs all fetching, parsing and writing work. The destination is
+     * opened only after the source responded successfully.
      *
      * @return Number of fetches cities.
      * @throws IOException if some problem occurs while File IO or while Json
@@ -52,18 +421,622 @@ public class Application {
      */
     public final int fetch() throws IOException, PartialCityJsonException,
             BadCitiesJsonException {
-        HttpURLConnection connection = (HttpURLConnection) settings
-                .getCitySource().openConnection();
+        if (settings.isResume()) {
+            return fetchResumable();
+        }
+        if (settings.getShards() > 0) {
+            try (Response response = open(settings.getCitySource())) {
+                return downloadSharded(response);
+            }
+        }
+        try (Response response = open(settings.getCitySource());
+                OutputStream out = openDestination()) {
+            if (settings.isDelta()) {
+                return downloadDelta(response, out);
+            }
+            return download(response, out);
+        }
+    }
+
+    /**
+     * Fetches cities from a response to shard files next to the destination
+     * and writes a manifest of the shards. Every shard file is written by
+     * its own thread, in the output format of settings.
+     *
+     * @param aResponse A response to fetch from.
+     * @return Number of fetched cities.
+     * @throws IOException if some problem occurs while File IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    private int downloadSharded(final Response aResponse) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        File destination = settings.getDestination();
+        List<File> files = new ArrayList<>();
+        List<CountingOutputStream> outs = new ArrayList<>();
+        List<CitiesSink> sinks = new ArrayList<>();
         try {
-            connection.setRequestProperty("Accept", JSON_MIME_TYPE);
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                return download(connection);
-            } else {
-                throw new IOException(connection.getResponseMessage());
+            for (int i = 0; i < settings.getShards(); i++) {
+                File file = ShardedSink.shard(destination, i);
+                CountingOutputStream out = new CountingOutputStream(
+                        new ChannelOutputStream(FileChannel.open(
+                                file.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING),
+                                settings.getBufferSize(),
+                                settings.getSyncPolicy()));
+                files.add(file);
+                outs.add(out);
+                sinks.add(sink(out));
+            }
+        } catch (IOException ex) {
+            for (CitiesSink sink : sinks) {
+                try {
+                    sink.close();
+                } catch (IOException closeEx) {
+                    ex.addSuppressed(closeEx);
+                }
+            }
+            throw ex;
+        }
+        int fetched;
+        ShardedSink sharded = new ShardedSink(sinks, settings.getShardBy(),
+                settings.getBatchSize(), settings.getQueueDepth());
+        try {
+            fetched = download(aResponse, sharded, null, null);
+        } finally {
+            try {
+                sharded.close();
+            } finally {
+                long written = 0;
+                for (CountingOutputStream out : outs) {
+                    written += out.getCount();
+                }
+                metrics.addWrite(written, 0);
+            }
+        }
+        sharded.writeManifest(ShardedSink.manifest(destination), files);
+        return fetched;
+    }
+
+    /**
+     * Fetches cities from a response and writes only their changes against
+     * the previous export to a stream. The previous export is represented
+     * by an index next to the destination. Without the index every city is
+     * written as added. The index is replaced by an index of fetched cities
+     * only after the fetch is complete, so a failed fetch is compared with
+     * the same previous export by the next run.
+     *
+     * @param aResponse A response to fetch from.
+     * @param aOut A stream to write delta lines to.
+     * @return Number of fetched cities.
+     * @throws IOException if some problem occurs while File IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    private int downloadDelta(final Response aResponse,
+            final OutputStream aOut) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        File indexFile = DeltaIndex.of(settings.getDestination());
+        DeltaIndex previous = DeltaIndex.load(indexFile)
+                .orElseGet(DeltaIndex::new);
+        CountingOutputStream out = new CountingOutputStream(aOut);
+        DeltaWriter delta = new DeltaWriter(out, previous);
+        int fetched = download(aResponse, delta, out, null);
+        DeltaIndex next = delta.finish();
+        metrics.addDelta(delta.getAdded(), delta.getChanged(),
+                delta.getRemoved());
+        next.store(indexFile);
+        return fetched;
+    }
+
+    /**
+     * Fetches cities from the source of settings to a caller supplied stream.
+     * The stream is flushed, but not closed.
+     *
+     * @param aOut A stream to write CSV lines to.
+     * @return Number of fetched cities.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public final int fetch(final OutputStream aOut) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        return fetch(settings.getCitySource(), aOut);
+    }
+
+    /**
+     * Fetches cities from a source to a caller supplied channel. The channel
+     * is not closed.
+     *
+     * @param aSource Cities source url.
+     * @param aChannel A channel to write CSV lines to.
+     * @return Number of fetched cities.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public final int fetch(final URL aSource,
+            final WritableByteChannel aChannel) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        return fetch(aSource, Channels.newOutputStream(aChannel));
+    }
+
+    /**
+     * Opens destination of settings. Standard output is wrapped, so that
+     * closing of the returned stream only flushes it. Standard output
+     * swallows write errors, e.g. of a closed pipe, so they are checked
+     * while flushing and reported as {@code IOException}. A file is written
+     * through a direct buffer and forced to disk according to the sync
+     * policy of settings.
+     *
+     * @return A stream to write CSV lines to.
+     * @throws IOException if the destination file can't be opened.
+     */
+    private OutputStream openDestination() throws IOException {
+        if (settings.isStdout()) {
+            PrintStream stdout = System.out;
+            return new FilterOutputStream(stdout) {
+                @Override
+                public void write(final byte[] aBuffer, final int aOffset,
+                        final int aLength) throws IOException {
+                    out.write(aBuffer, aOffset, aLength);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (stdout.checkError()) {
+                        throw new IOException(STDOUT_MSG);
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        } else {
+            return new ChannelOutputStream(FileChannel.open(
+                    settings.getDestination().toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING),
+                    settings.getBufferSize(), settings.getSyncPolicy());
+        }
+    }
+
+    /**
+     * Fetches cities from the source of settings to the destination file,
+     * resuming broken response bodies. Every written city advances a
+     * checkpoint. If the body breaks, the destination is truncated back to
+     * the last complete city and the rest of the body is requested with a
+     * range request, or the whole body is requested again if the server
+     * doesn't support ranges. If all attempts fail, the checkpoint is stored
+     * next to the destination, so a later run resumes the fetch.
+     *
+     * @return Number of fetched cities, including cities fetched by a
+     * previous run.
+     * @throws IOException if some problem occurs while File IO or while Json
+     * handling or if all attempts failed.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    private int fetchResumable() throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        URL source = settings.getCitySource();
+        File destination = settings.getDestination();
+        File checkpointFile = Checkpoint.of(destination);
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile, source)
+                .filter(loaded -> loaded.getWritten() <= destination.length())
+                .orElse(null);
+        int failures = 0;
+        try (ChannelOutputStream out = new ChannelOutputStream(
+                FileChannel.open(destination.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE),
+                settings.getBufferSize(), settings.getSyncPolicy())) {
+            while (true) {
+                try (Response response = open(source, checkpoint)) {
+                    if (response.getStatus() == Http.OK) {
+                        checkpoint = new Checkpoint(source,
+                                validator(response));
+                    }
+                    out.truncate(checkpoint.getWritten());
+                    try {
+                        download(response, out, checkpoint);
+                        break;
+                    } catch (IOException ex) {
+                        if (++failures > settings.getResumeAttempts()) {
+                            throw ex;
+                        }
+                        Logger.getLogger(Application.class.getName())
+                                .log(Level.WARNING, String.format(
+                                        BROKEN_BODY_MSG, source,
+                                        checkpoint.getCities(),
+                                        checkpoint.getOffset(),
+                                        ex.getMessage()));
+                    }
+                } catch (IOException ex) {
+                    if (checkpoint != null) {
+                        checkpoint.store(checkpointFile);
+                    }
+                    throw ex;
+                }
+            }
+        }
+        Files.deleteIfExists(checkpointFile.toPath());
+        return (int) checkpoint.getCities();
+    }
+
+    /**
+     * Requests a cities source from a checkpoint. A resumable checkpoint
+     * requests the rest of the body with 'Range' and 'If-Range' headers, so
+     * the server responds with the rest only if the body is not changed.
+     * Bodies are requested without content encoding, so that offsets of
+     * parsed bytes are offsets of received bytes.
+     *
+     * @param aSource Cities source url.
+     * @param aCheckpoint A checkpoint to resume from or null.
+     * @return Successful response with the whole body or partial response
+     * with the rest of the body from the checkpoint.
+     * @throws IOException if some problem occurs while IO or if the source
+     * responded with an error.
+     */
+    private Response open(final URL aSource, final Checkpoint aCheckpoint)
+            throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(ACCEPT, JSON_MIME_TYPE);
+        headers.put(ContentEncoding.ACCEPT_ENCODING, IDENTITY);
+        if (aCheckpoint != null && aCheckpoint.isResumable()) {
+            headers.put(RANGE, String.format(RANGE_FORMAT,
+                    aCheckpoint.getOffset()));
+            headers.put(IF_RANGE, aCheckpoint.getValidator());
+        }
+        Response response = transport.get(aSource, headers);
+        if (response.getStatus() == Http.OK) {
+            return response;
+        } else if (response.getStatus() == Http.PARTIAL_CONTENT
+                && headers.containsKey(RANGE)
+                && response.getHeader(CONTENT_RANGE).orElse("").startsWith(
+                        String.format(CONTENT_RANGE_FORMAT,
+                                aCheckpoint.getOffset()))) {
+            return response;
+        } else {
+            response.close();
+            throw new IOException(response.getMessage());
+        }
+    }
+
+    /**
+     * Looks up a validator of a response, suitable for 'If-Range' header.
+     *
+     * @param aResponse A response to examine.
+     * @return 'ETag' or 'Last-Modified' value or null if the response has no
+     * validator or it is content encoded.
+     */
+    private static String validator(final Response aResponse) {
+        if (!aResponse.getHeader(ContentEncoding.CONTENT_ENCODING)
+                .orElse(IDENTITY).equalsIgnoreCase(IDENTITY)) {
+            return null;
+        }
+        return aResponse.getHeader(CachingTransport.ETAG)
+                .orElse(aResponse.getHeader(CachingTransport.LAST_MODIFIED)
+                        .orElse(null));
+    }
+
+    /**
+     * Fetches cities from a source to a caller supplied stream. The stream is
+     * flushed, but not closed. If fetches are coalesced, a concurrent fetch
+     * of the same source is joined instead of a request, and its cities are
+     * deduplicated for every joined fetch separately.
+     *
+     * @param aSource Cities source url.
+     * @param aOut A stream to write CSV lines to.
+     * @return Number of fetched cities.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public final int fetch(final URL aSource, final OutputStream aOut)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        if (flights != null) {
+            CountingOutputStream out = new CountingOutputStream(aOut);
+            return replay(flights.run(aSource, () -> load(aSource, null)),
+                    sink(out), out, ids);
+        }
+        try (Response response = open(aSource)) {
+            return download(response, aOut);
+        }
+    }
+
+    /**
+     * Fetches cities from a source to a caller supplied sink in any output
+     * format. The sink is flushed, but not closed. If fetches are coalesced,
+     * a concurrent fetch of the same source is joined instead of a request,
+     * and its cities are deduplicated for every joined fetch separately.
+     *
+     * @param aSource Cities source url.
+     * @param aSink A sink to write cities to.
+     * @return Number of fetched cities.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public final int fetch(final URL aSource, final CitiesSink aSink)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        if (flights != null) {
+            return replay(flights.run(aSource, () -> load(aSource, null)),
+                    aSink, null, ids);
+        }
+        try (Response response = open(aSource)) {
+            return download(response, aSink, null, null);
+        }
+    }
+
+    /**
+     * Fetches cities from a source and appends them to a shared stream as a
+     * contiguous block, only if the fetch succeeds. If cities are
+     * deduplicated, they are fetched to memory and checked against ids of
+     * other fetches only while being appended, so ids of a failed fetch are
+     * not recorded and its cities remain free for other fetches. Appending
+     * is synchronized on the stream.
+     *
+     * @param aSource Cities source url.
+     * @param aOut A shared stream to write CSV lines to.
+     * @return Number of appended cities.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public final int append(final URL aSource, final OutputStream aOut)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        if (ids == null) {
+            ByteArrayOutputStream lines = new ByteArrayOutputStream();
+            int cities = fetch(aSource, lines);
+            synchronized (aOut) {
+                lines.writeTo(aOut);
             }
+            return cities;
+        }
+        CityTable table = flights != null
+                ? flights.run(aSource, () -> load(aSource, null))
+                : load(aSource, null);
+        synchronized (aOut) {
+            CountingOutputStream out = new CountingOutputStream(aOut);
+            return replay(table, sink(out), out, ids);
+        }
+    }
+
+    /**
+     * Fetches cities from a source to memory, so that they can be replayed
+     * to sinks of coalesced or appended fetches, dropping ones with ids,
+     * already recorded in a set.
+     *
+     * @param aSource Cities source url.
+     * @param aIds Ids of already fetched cities or null if cities are not
+     * deduplicated while loading.
+     * @return Table of fetched cities.
+     * @throws IOException if some problem occurs while IO or while Json
+     * handling.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    private CityTable load(final URL aSource, final LongHashSet aIds)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        try (Response response = open(aSource)) {
+            CityTable table = new CityTable();
+            download(response, new TableSink(table), null, null, aIds);
+            return table;
+        }
+    }
+
+    /**
+     * Writes fetched cities with ids, not recorded in a set, to a sink and
+     * records their ids. Dropped cities are counted as duplicates. Fetching
+     * is recorded by the fetch, that loaded the cities, so only encoding and
+     * writing are recorded.
+     *
+     * @param aTable Table of fetched cities.
+     * @param aSink A sink to write cities to.
+     * @param aOut Counted stream, the sink writes to, or null if the sink
+     * doesn't write bytes.
+     * @param aIds Ids of already written cities or null if cities are not
+     * deduplicated.
+     * @return Number of written cities.
+     * @throws IOException if the sink can't be written.
+     */
+    private int replay(final CityTable aTable, final CitiesSink aSink,
+            final CountingOutputStream aOut, final LongHashSet aIds)
+            throws IOException {
+        long started = System.nanoTime();
+        int written = 0;
+        try {
+            for (int row = 0; row < aTable.size(); row++) {
+                if (aIds == null || firstSeen(aIds, aTable.getId(row))) {
+                    aSink.write(aTable.get(row));
+                    written++;
+                }
+            }
+            aSink.flush();
         } finally {
-            connection.disconnect();
+            if (aIds != null) {
+                metrics.addDuplicates(aTable.size() - written);
+            }
+            long outNanos = aOut != null ? aOut.getNanos() : 0;
+            metrics.addEncode(System.nanoTime() - started - outNanos);
+            metrics.addWrite(aOut != null ? aOut.getCount() : 0, outNanos);
+        }
+        return written;
+    }
+
+    /**
+     * Records an id in a shared set. Access to the set is synchronized on
+     * the set itself, as {@code DistinctCitiesFeed} does.
+     *
+     * @param aIds A shared set of ids.
+     * @param aId An id of a city.
+     * @return True if the id is recorded for the first time.
+     */
+    private static boolean firstSeen(final LongHashSet aIds,
+            final long aId) {
+        synchronized (aIds) {
+            return aIds.add(aId);
+        }
+    }
+
+    /**
+     * Fetches cities from a source asynchronously to memory. The fetch runs
+     * on a caller supplied executor, so the number of threads, blocked by
+     * network, is bounded by the executor. Cancellation of the returned
+     * future closes the connection of the fetch.
+     *
+     * @param aSource Cities source url.
+     * @param aExecutor An executor to run the fetch on.
+     * @return A future, completed with a feed of all fetched cities, backed
+     * by a {@code CityTable}, or with an exception of the fetch.
+     */
+    public final CompletableFuture<CitiesFeed> fetchAsync(final URL aSource,
+            final Executor aExecutor) {
+        return async(aSource, aExecutor, (Response aResponse) -> {
+            CityTable table = new CityTable();
+            download(aResponse, new TableSink(table), null, null);
+            return table.feed();
+        });
+    }
+
+    /**
+     * Fetches cities from a source asynchronously to a caller supplied
+     * stream. The stream is flushed, but not closed. Cancellation of the
+     * returned future closes the connection of the fetch.
+     *
+     * @param aSource Cities source url.
+     * @param aOut A stream to write CSV lines to.
+     * @param aExecutor An executor to run the fetch on.
+     * @return A future, completed with number of fetched cities or with an
+     * exception of the fetch.
+     */
+    public final CompletableFuture<Integer> fetchAsync(final URL aSource,
+            final OutputStream aOut, final Executor aExecutor) {
+        return async(aSource, aExecutor,
+                (Response aResponse) -> download(aResponse, aOut));
+    }
+
+    /**
+     * Runs a download on an executor. If the returned future is cancelled
+     * before the download completes, opening of the response is
+     * interrupted or the response is aborted.
+     *
+     * @param <T> Type of the download result.
+     * @param aSource Cities source url.
+     * @param aExecutor An executor to run the download on.
+     * @param aDownload A download of the response.
+     * @return A future of the download result.
+     */
+    private <T> CompletableFuture<T> async(final URL aSource,
+            final Executor aExecutor, final Download<T> aDownload) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            aExecutor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                Cancellation cancellation = new Cancellation();
+                future.whenComplete((T aResult, Throwable aFailure) -> {
+                    if (future.isCancelled()) {
+                        cancellation.cancel();
+                    }
+                });
+                Response opened = null;
+                try {
+                    cancellation.opening();
+                    opened = open(aSource);
+                } catch (IOException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                    return;
+                } finally {
+                    cancellation.opened(opened);
+                }
+                try (Response response = opened) {
+                    future.complete(aDownload.apply(response));
+                } catch (IOException | PartialCityJsonException
+                        | BadCitiesJsonException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
         }
+        return future;
+    }
+
+    /**
+     * Aborts a response of a cancelled fetch.
+     *
+     * @param aResponse A response to be aborted.
+     */
+    private static void abort(final Response aResponse) {
+        try {
+            aResponse.abort();
+        } catch (IOException ex) {
+            Logger.getLogger(Application.class.getName())
+                    .log(Level.FINE, ex.getMessage());
+        }
+    }
+
+    /**
+     * Requests a cities source and ensures, that the source responded
+     * successfully.
+     *
+     * @param aSource Cities source url.
+     * @return Successful response.
+     * @throws IOException if some problem occurs while IO or if the source
+     * responded with an error.
+     */
+    private Response open(final URL aSource) throws IOException {
+        Response response = transport.get(aSource, REQUEST_HEADERS);
+        if (response.getStatus() == Http.OK) {
+            return response;
+        } else {
+            response.close();
+            throw new IOException(response.getMessage());
+        }
+    }
+
+    /**
+     * Closes transport of this {@code Application} and its idle connections.
+     *
+     * @throws IOException if some problem occurs while closing.
+     */
+    @Override
+    public void close() throws IOException {
+        transport.close();
     }
 
     /**
@@ -108,9 +1081,10 @@ public class Application {
     /**
      * Fetches all available cities from a connection to an endpoint. It takes
      * into account charset of http response while reading cities, but
-     * destination file is written in utf-8.
+     * destination is written in utf-8.
      *
-     * @param aConnection A connection to fetch from.
+     * @param aResponse A response to fetch from.
+     * @param aOut A stream to write CSV lines to.
      * @return Number of cities fetched.
      * @throws BadCitiesJsonException if some bad structure discovered while
      * parsing process.
@@ -119,32 +1093,190 @@ public class Application {
      * @throws IOException if some problem occurs while File IO or while Json
      * handling.
      */
-    private int download(final HttpURLConnection aConnection) throws
+    private int download(final Response aResponse,
+            final OutputStream aOut) throws
             BadCitiesJsonException, PartialCityJsonException, IOException {
-        String contentType = aConnection.getContentType();
+        return download(aResponse, aOut, null);
+    }
+
+    /**
+     * Fetches all available cities from a connection to an endpoint and
+     * advances a checkpoint with every written city. A partial response is
+     * parsed as the rest of the body from the checkpoint. If the body breaks,
+     * written cities are flushed and their size is recorded by the
+     * checkpoint.
+     *
+     * @param aResponse A response to fetch from.
+     * @param aOut A stream to write CSV lines to.
+     * @param aCheckpoint A checkpoint to advance or null.
+     * @return Number of cities fetched.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws IOException if some problem occurs while File IO or while Json
+     * handling.
+     */
+    private int download(final Response aResponse,
+            final OutputStream aOut, final Checkpoint aCheckpoint) throws
+            BadCitiesJsonException, PartialCityJsonException, IOException {
+        CountingOutputStream out = new CountingOutputStream(aOut);
+        return download(aResponse, sink(out), out, aCheckpoint);
+    }
+
+    /**
+     * Creates a sink of the output format of settings.
+     *
+     * @param aOut A stream to write to.
+     * @return A sink, writing to the stream.
+     */
+    private CitiesSink sink(final OutputStream aOut) {
+        return settings.getFormat() == Settings.Format.BINARY
+                ? new BinaryWriter(aOut)
+                : new CsvWriter(aOut, settings.getProjection());
+    }
+
+    /**
+     * Fetches all available cities from a connection to an endpoint to a
+     * sink and advances a checkpoint with every written city.
+     *
+     * @param aResponse A response to fetch from.
+     * @param aSink A sink to write cities to.
+     * @param aOut Counted stream, the sink writes to, or null if the sink
+     * doesn't write bytes.
+     * @param aCheckpoint A checkpoint to advance or null.
+     * @return Number of cities fetched.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws IOException if some problem occurs while File IO or while Json
+     * handling.
+     */
+    private int download(final Response aResponse, final CitiesSink aSink,
+            final CountingOutputStream aOut, final Checkpoint aCheckpoint)
+            throws BadCitiesJsonException, PartialCityJsonException,
+            IOException {
+        return download(aResponse, aSink, aOut, aCheckpoint, ids);
+    }
+
+    /**
+     * Fetches all available cities from a connection to an endpoint to a
+     * sink, dropping cities with ids, already recorded in a set.
+     *
+     * @param aResponse A response to fetch from.
+     * @param aSink A sink to write cities to.
+     * @param aOut Counted stream, the sink writes to, or null if the sink
+     * doesn't write bytes.
+     * @param aCheckpoint A checkpoint to advance or null.
+     * @param aIds Ids of already fetched cities or null if cities are not
+     * deduplicated.
+     * @return Number of cities fetched.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws IOException if some problem occurs while File IO or while Json
+     * handling.
+     */
+    private int download(final Response aResponse, final CitiesSink aSink,
+            final CountingOutputStream aOut, final Checkpoint aCheckpoint,
+            final LongHashSet aIds) throws BadCitiesJsonException,
+            PartialCityJsonException, IOException {
+        String contentType = aResponse.getHeader(Http.CONTENT_TYPE)
+                .orElse("");
         ensureJson(contentType);
         Charset charset = lookupCharset(contentType);
+        long started = System.nanoTime();
+        metrics.addExchange(aResponse.getTiming());
         int fetched = 0;
-        try (InputStream body = aConnection.getInputStream();
-                OutputStream out = new BufferedOutputStream(
-                        new FileOutputStream(settings.getDestination()))) {
-
-            CitiesFeed feed = JsonCitiesFeed.create(body, charset);
+        long pullNanos = 0;
+        long writeNanos = 0;
+        CountingInputStream wire = new CountingInputStream(
+                aResponse.getBody());
+        CountingInputStream decoded = new CountingInputStream(
+                ContentEncoding.decode(wire, aResponse.getHeader(
+                        ContentEncoding.CONTENT_ENCODING)));
+        DistinctCitiesFeed distinct = null;
+        try (InputStream body = decoded) {
+            long mark = System.nanoTime();
+            JsonCitiesFeed json = aResponse.getStatus() == Http.PARTIAL_CONTENT
+                    ? JsonCitiesFeed.resume(body, aCheckpoint.getOffset(),
+                            settings.getProjection())
+                    : JsonCitiesFeed.create(body, charset,
+                            settings.getProjection());
+            CitiesFeed feed = json;
+            if (index != null) {
+                feed = () -> {
+                    Optional<City> city = json.pull();
+                    if (city.isPresent()) {
+                        index.add(city.get());
+                    }
+                    return city;
+                };
+            }
+            if (aIds != null) {
+                distinct = new DistinctCitiesFeed(feed, aIds);
+                feed = distinct;
+            }
+            pullNanos += System.nanoTime() - mark;
 
-            Optional<City> city = feed.pull();
-            while (city.isPresent()) {
-                String line = Csv.to(city.get()).toString();
-                out.write(line.getBytes(StandardCharsets.UTF_8));
-                fetched++;
-                city = feed.pull();
+            if (settings.isPipelined()) {
+                Pipeline pipeline = new Pipeline(settings.getBatchSize(),
+                        settings.getQueueDepth());
+                try {
+                    fetched = pipeline.run(feed, aSink);
+                } finally {
+                    pullNanos += pipeline.getPullNanos();
+                    writeNanos += pipeline.getWriteNanos();
+                }
+            } else {
+                mark = System.nanoTime();
+                Optional<City> city = feed.pull();
+                long pulled = System.nanoTime();
+                pullNanos += pulled - mark;
+                while (city.isPresent()) {
+                    aSink.write(city.get());
+                    fetched++;
+                    if (aCheckpoint != null) {
+                        aCheckpoint.advance(json.getOffset(),
+                                city.get().getId());
+                    }
+                    mark = System.nanoTime();
+                    writeNanos += mark - pulled;
+                    city = feed.pull();
+                    pulled = System.nanoTime();
+                    pullNanos += pulled - mark;
+                }
+                aSink.flush();
+                writeNanos += System.nanoTime() - pulled;
+            }
+        } catch (IOException ex) {
+            if (aCheckpoint != null) {
+                aSink.flush();
+                aCheckpoint.setWritten(aCheckpoint.getWritten()
+                        + aOut.getCount());
             }
-            out.flush();
+            throw ex;
+        } finally {
+            metrics.addDownload(wire.getCount(), wire.getNanos());
+            metrics.addDecode(decoded.getCount(),
+                    decoded.getNanos() - wire.getNanos());
+            metrics.addParse(fetched, pullNanos - decoded.getNanos());
+            if (distinct != null) {
+                metrics.addDuplicates(distinct.getDropped());
+            }
+            long outNanos = aOut != null ? aOut.getNanos() : 0;
+            metrics.addEncode(writeNanos - outNanos);
+            metrics.addWrite(aOut != null ? aOut.getCount() : 0, outNanos);
+            metrics.addFetch(System.nanoTime() - started);
         }
         return fetched;
     }
 
     /**
-     * Entry point of the program.
+     * Entry point of the program. Errors and help are printed to standard
+     * error, so that they never mix with CSV lines on standard output.
      *
      * @param args Command line arguments array.
      */
@@ -155,12 +1287,12 @@ public class Application {
             Logger.getLogger(Application.class.getName())
                     .log(Level.SEVERE, ex.getMessage());
         } catch (BadArgumentsException ex) {
-            System.out.println(ex.getMessage());
-            System.out.println();
-            System.out.println(HELP_MSG);
+            System.err.println(ex.getMessage());
+            System.err.println();
+            System.err.println(HELP_MSG);
         } catch (BadCitiesJsonException | PartialCityJsonException
                 | FileAlreadyExistsException ex) {
-            System.out.println(ex.getMessage());
+            System.err.println(ex.getMessage());
         }
     }
 
@@ -185,18 +1317,136 @@ public class Application {
             BadCitiesJsonException,
             FileAlreadyExistsException {
         Settings settings = Settings.parse(args);
-        if (settings.getDestination().exists()) {
-            throw new FileAlreadyExistsException(settings.getDestination());
+        if (settings.isServe()) {
+            serve(settings);
+            return 0;
         }
-        Application fetcher = new Application(settings);
-        int fetched = fetcher.fetch();
-        System.out.println(WRITTEN_FILE_NSG);
-        System.out.println(settings.getDestination().getAbsolutePath());
-        if (fetched > 0) {
-            System.out.println(String.format(REPORT_MSG, fetched));
+        File written = settings.getShards() > 0
+                ? ShardedSink.manifest(settings.getDestination())
+                : settings.getDestination();
+        if (!settings.isStdout() && !settings.isDelta()
+                && !(settings.isResume() && Checkpoint.of(
+                        settings.getDestination()).exists())) {
+            for (File file : outputs(settings)) {
+                if (file.exists()) {
+                    throw new FileAlreadyExistsException(file);
+                }
+            }
+        }
+        // Standard output carries CSV lines, so reports go to standard error.
+        PrintStream report = settings.isStdout() ? System.err : System.out;
+        int fetched;
+        try (Application fetcher = new Application(settings)) {
+            if (settings.getQueries().isPresent()) {
+                try (OutputStream out = fetcher.openDestination()) {
+                    fetched = runBatch(fetcher, settings.getQueries().get(),
+                            out, report);
+                }
+            } else {
+                fetched = fetcher.fetch();
+            }
+            if (!settings.isStdout()) {
+                report.println(WRITTEN_FILE_NSG);
+                report.println(written.getAbsolutePath());
+            }
+            if (fetched > 0) {
+                report.println(String.format(REPORT_MSG, fetched));
+            }
+            if (settings.isDedup()) {
+                report.println(String.format(DEDUP_MSG,
+                        fetcher.getMetrics().getDuplicates()));
+            }
+            if (settings.isDelta()) {
+                report.println(String.format(DELTA_MSG,
+                        fetcher.getMetrics().getAdded(),
+                        fetcher.getMetrics().getChanged(),
+                        fetcher.getMetrics().getRemoved()));
+            }
+            report.println(String.format(TRAFFIC_MSG,
+                    fetcher.getWireBytes(), fetcher.getDecodedBytes()));
+            Optional<CachingTransport> cache = layer(fetcher.getTransport(),
+                    CachingTransport.class);
+            if (cache.isPresent()) {
+                report.println(String.format(CACHE_MSG, cache.get().getHits(),
+                        cache.get().getMisses(),
+                        cache.get().getRevalidations()));
+            }
+            if (settings.getStatsFile().isPresent()) {
+                fetcher.getMetrics().writeJson(settings.getStatsFile().get());
+            } else if (settings.isStats()) {
+                report.println(fetcher.getMetrics().toJson());
+            }
         }
         return fetched;
     }
+
+    /**
+     * Lists files, written by a fetch to a destination file. Sharded output
+     * consists of shard files and their manifest.
+     *
+     * @param aSettings {@code Settings} with a destination file.
+     * @return Files to be written.
+     */
+    private static List<File> outputs(final Settings aSettings) {
+        List<File> files = new ArrayList<>();
+        if (aSettings.getShards() > 0) {
+            for (int i = 0; i < aSettings.getShards(); i++) {
+                files.add(ShardedSink.shard(aSettings.getDestination(), i));
+            }
+            files.add(ShardedSink.manifest(aSettings.getDestination()));
+        } else {
+            files.add(aSettings.getDestination());
+        }
+        return files;
+    }
+
+    /**
+     * Serves cities requests as a local http service until the process is
+     * terminated.
+     *
+     * @param aSettings {@code Settings} of the application and the server.
+     * @throws IOException if the server can't be started.
+     */
+    private static void serve(final Settings aSettings) throws IOException {
+        try (Application fetcher = new Application(aSettings);
+                Server server = new Server(fetcher, new InetSocketAddress(
+                        InetAddress.getLoopbackAddress(),
+                        aSettings.getPort()), aSettings.getConcurrency())) {
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            System.out.println(String.format(SERVING_MSG,
+                    server.getAddress().getHostString(),
+                    server.getAddress().getPort(), Server.CITIES_PATH));
+            server.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fetches all queries from a file in batch mode.
+     *
+     * @param aFetcher {@code Application} to fetch queries with.
+     * @param aQueries A file with city names, one per line.
+     * @param aOut A stream to write CSV lines to.
+     * @param aReport A stream to print the batch report to.
+     * @return number of fetched cities.
+     * @throws IOException if queries file can't be read or destination
+     * can't be written.
+     */
+    private static int runBatch(final Application aFetcher,
+            final File aQueries, final OutputStream aOut,
+            final PrintStream aReport) throws IOException {
+        Batch batch = new Batch(aFetcher,
+                aFetcher.getSettings().getConcurrency());
+        int fetched;
+        try (BufferedReader queries = Files.newBufferedReader(
+                aQueries.toPath(), StandardCharsets.UTF_8)) {
+            fetched = batch.run(queries, aOut);
+        }
+        aReport.println(String.format(BATCH_REPORT_MSG,
+                batch.getProcessed(), batch.getFailures().size()));
+        return fetched;
+    }
     /**
      * Message about written file.
      */
@@ -206,6 +1456,57 @@ public class Application {
      * Message about number of fetched cities.
      */
     private static final String REPORT_MSG = "%d cities fetched.";
+    /**
+     * Message about dropped duplicate cities.
+     */
+    private static final String DEDUP_MSG = "%d duplicates dropped.";
+    /**
+     * Message about failed writing to standard output.
+     */
+    private static final String STDOUT_MSG = "Standard output failed.";
+    /**
+     * Message about a cancelled fetch.
+     */
+    private static final String CANCELLED_MSG = "Fetch is cancelled.";
+    /**
+     * Message about changes, written by a delta export.
+     */
+    private static final String DELTA_MSG
+            = "%d cities added, %d changed, %d removed.";
+    /**
+     * Message about received and decoded bytes.
+     */
+    private static final String TRAFFIC_MSG
+            = "%d bytes received, %d bytes decoded.";
+    /**
+     * Message about cache counters.
+     */
+    private static final String CACHE_MSG
+            = "Cache: %d hits, %d misses, %d revalidations.";
+    /**
+     * Message about suggestions without the index.
+     */
+    private static final String NO_INDEX_MSG = "Autocomplete index is not "
+            + "enabled. Use --autocomplete option";
+    /**
+     * Number of suggestions, served by the index without traversal.
+     */
+    private static final int SUGGESTIONS = 10;
+    /**
+     * Message about started server.
+     */
+    private static final String SERVING_MSG = "Serving http://%s:%d%s";
+    /**
+     * Message about processed and failed queries in batch mode.
+     */
+    private static final String BATCH_REPORT_MSG
+            = "%d queries processed, %d failed.";
+    /**
+     * Message about a broken response body, that is resumed.
+     */
+    private static final String BROKEN_BODY_MSG
+            = "Response body of %s broke after %d cities at byte %d (%s). "
+            + "Resuming";
     /**
      * Message indicating, that server didn't send a content-type header.
      */
@@ -221,19 +1522,131 @@ public class Application {
      * ";charset=" prefix for content-type header value parsing.
      */
     private static final String CHARSET_PREFIX = ";charset=";
+    /**
+     * 'Accept' header name.
+     */
+    private static final String ACCEPT = "Accept";
+    /**
+     * 'Range' header name.
+     */
+    private static final String RANGE = "Range";
+    /**
+     * 'If-Range' header name.
+     */
+    private static final String IF_RANGE = "If-Range";
+    /**
+     * 'Content-Range' header name.
+     */
+    private static final String CONTENT_RANGE = "Content-Range";
+    /**
+     * 'Range' header value format with the first byte of the rest of a body.
+     */
+    private static final String RANGE_FORMAT = "bytes=%d-";
+    /**
+     * 'Content-Range' header value prefix format with the first byte.
+     */
+    private static final String CONTENT_RANGE_FORMAT = "bytes %d-";
+    /**
+     * Identity content coding name.
+     */
+    private static final String IDENTITY = "identity";
     /**
      * Json mime type name constant.
      */
     private static final String JSON_MIME_TYPE = "application/json";
+    /**
+     * Headers of requests to cities sources.
+     */
+    private static final Map<String, String> REQUEST_HEADERS;
+
+    static {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(ACCEPT, JSON_MIME_TYPE);
+        headers.put(ContentEncoding.ACCEPT_ENCODING, ContentEncoding.ACCEPTED);
+        REQUEST_HEADERS = Collections.unmodifiableMap(headers);
+    }
     /**
      * Command line help message.
      */
     private static final String HELP_MSG = ""
             + "usage:\n\n"
-            + "java -jar your-jar-file.jar CITY_NAME [file-name.csv]\n\n"
+            + "java -jar your-jar-file.jar CITY_NAME [file-name.csv]\n"
+            + "java -jar your-jar-file.jar --queries=FILE [file-name.csv]"
+            + "\n\n"
             + "CITY_NAME - The city name template to narrow the search.\n"
             + "file-name.csv - File, fetched cities to be written to. "
-            + "Optional.\n\n"
+            + "Optional. \"-\" writes them to standard output.\n\n"
+            + "Options:\n"
+            + "--queries=FILE - Batch mode. Fetches city names from FILE, "
+            + "one per line.\n"
+            + "--concurrency=N - Number of concurrent fetches in batch "
+            + "mode. 4 by default.\n"
+            + "--endpoint=TEMPLATE - Endpoint url template with %s in place "
+            + "of a city name.\n"
+            + "--connect-timeout=MS, --read-timeout=MS - Http timeouts in "
+            + "millis. 10000 and 30000 by default.\n"
+            + "--max-connections=N - Maximum number of keep-alive "
+            + "connections per host. 8 by default.\n"
+            + "--idle-timeout=MS - Time in millis, an idle keep-alive "
+            + "connection is closed after. 30000 by default.\n"
+            + "--cache=DIR - Caches responses on disk in DIR directory.\n"
+            + "--cache-ttl=MS - Time in millis, a cached response is served "
+            + "without revalidation. 3600000 by default.\n"
+            + "--cache-size=MB - Maximum size of the cache in megabytes. "
+            + "64 by default.\n"
+            + "--pipeline - Parses Json and writes CSV on separate threads.\n"
+            + "--batch-size=N, --queue-depth=N - Number of cities in a batch "
+            + "and maximum number of batches, waiting for writing in "
+            + "pipelined mode. 256 and 16 by default.\n"
+            + "--stats[=FILE] - Prints per stage timings and throughput as a "
+            + "Json line or writes them to FILE.\n"
+            + "--format=csv|binary - Output format. Binary format is a "
+            + "columnar file, readable by MappedCitiesFeed. It is held in "
+            + "memory until all cities are fetched, so it doesn't stream "
+            + "large results. csv by default.\n"
+            + "--buffer-size=KB - Size of the destination file buffer in "
+            + "kilobytes. 1024 by default.\n"
+            + "--fsync=none|end|MB - Forces the destination file to disk "
+            + "never, once when it is written or every MB megabytes and at "
+            + "the end. none by default.\n"
+            + "--dedup[=N] - Drops cities with ids, already fetched by "
+            + "previous queries. N is expected number of distinct ids. "
+            + "65536 by default, 805306368 at most.\n"
+            + "--attempts=N - Maximum number of attempts of a request on "
+            + "5xx responses and connection errors. 3 by default.\n"
+            + "--backoff=MS - Base delay in millis before a repeated "
+            + "attempt. It doubles with every attempt and is randomized. "
+            + "100 by default.\n"
+            + "--hedge - Sends a duplicate request if a response is slower "
+            + "than 95 percentile of observed responses.\n"
+            + "--adaptive[=N] - Limits concurrent requests adaptively by "
+            + "observed latency and errors, starting from --concurrency, up "
+            + "to N. 64 by default.\n"
+            + "--rps=N - Sends at most N requests per second.\n"
+            + "--autocomplete[=N] - Keeps up to N fetched cities, 100000 "
+            + "by default, in a prefix index for Application.suggest().\n"
+            + "--coalesce - Concurrent fetches of the same city name share "
+            + "a single request and its parsed cities.\n"
+            + "--delta - Writes only cities, added, changed or removed since "
+            + "the previous run with the same file-name.csv, prefixed with "
+            + "added, changed or removed column. Ids and hashes of cities "
+            + "are kept in file-name.csv.index for the next run.\n"
+            + "--shards=N - Splits cities across N files, file-name.0.csv "
+            + "and so on, written by N threads, and lists the files with "
+            + "their numbers of cities in file-name.csv.manifest.\n"
+            + "--shard-by=id|round-robin - Routes cities to shards by a hash "
+            + "of ids or in turn. id by default.\n"
+            + "--fields=id,name,... - Writes only listed CSV columns of id, "
+            + "name, type, latitude and longitude and skips parsing of the "
+            + "rest. Columns keep this order.\n"
+            + "--serve[=PORT] - Runs as a local http service on PORT, 8080 "
+            + "by default, instead of a single fetch. It serves "
+            + "/cities?q=CITY_NAME&format=csv|json and /metrics. "
+            + "--concurrency is the number of concurrently served "
+            + "requests.\n"
+            + "--resume[=N] - Resumes a broken response body from the last "
+            + "complete city up to N times, 3 by default, and leaves a "
+            + "checkpoint for a later run if all attempts fail.\n\n"
             + "If CITY_NAME contains spaces, enclose it in qoutes please.\n"
             + "For example:\n"
             + "java -jar your-jar-file.jar \"Frankfurt am Main\"";
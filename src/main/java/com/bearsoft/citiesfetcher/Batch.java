@@ -0,0 +1,165 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Batch mode of the fetcher. Reads city names, one per line, and fetches them
+ * on a bounded pool of workers. Cities of every query are written to a shared
+ * output as a contiguous block of CSV lines. A failed query is recorded and
+ * doesn't stop the whole batch. Nothing of a failed query is written, and
+ * its cities are not counted as seen by deduplication.
+ *
+ * @author mg
+ */
+public final class Batch {
+
+    /**
+     * {@code Application} instance, fetching every query.
+     */
+    private final Application application;
+    /**
+     * Number of concurrent fetches.
+     */
+    private final int concurrency;
+    /**
+     * Number of cities fetched by all queries.
+     */
+    private final AtomicInteger fetched = new AtomicInteger();
+    /**
+     * Number of queries processed, including failed ones.
+     */
+    private final AtomicInteger processed = new AtomicInteger();
+    /**
+     * Failed queries with their causes. A query, repeated in the batch, is
+     * recorded as many times as it failed.
+     */
+    private final Queue<Map.Entry<String, Exception>> failures
+            = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Batch constructor.
+     *
+     * @param aApplication {@code Application} to fetch queries with.
+     * @param aConcurrency Number of concurrent fetches.
+     */
+    public Batch(final Application aApplication, final int aConcurrency) {
+        application = aApplication;
+        concurrency = aConcurrency;
+    }
+
+    /**
+     * Reads all queries and fetches them concurrently to {@code aOut}. The
+     * order of queries in the output is not guaranteed.
+     *
+     * @param aQueries A reader of city names, one per line. Blank lines are
+     * ignored.
+     * @param aOut A stream to write CSV lines to. It is not closed by this
+     * method.
+     * @return Number of cities fetched by all queries.
+     * @throws IOException if queries can't be read or the output can't be
+     * written.
+     */
+    public int run(final BufferedReader aQueries, final OutputStream aOut)
+            throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        Semaphore pending = new Semaphore(concurrency * PENDING_PER_WORKER);
+        try {
+            String line = aQueries.readLine();
+            while (line != null) {
+                String query = line.trim();
+                if (!query.isEmpty()) {
+                    pending.acquire();
+                    workers.execute(() -> {
+                        try {
+                            fetch(query, aOut);
+                        } finally {
+                            pending.release();
+                        }
+                    });
+                }
+                line = aQueries.readLine();
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+        aOut.flush();
+        return fetched.get();
+    }
+
+    /**
+     * Fetches a single query and appends its cities to the shared output.
+     * Any failure of the query, including unchecked ones, is recorded, so
+     * that it doesn't vanish in the pool of workers.
+     *
+     * @param aQuery A city name to be fetched.
+     * @param aOut A shared stream to write CSV lines to.
+     */
+    private void fetch(final String aQuery, final OutputStream aOut) {
+        try {
+            int cities = application.append(
+                    application.getSettings().citySource(aQuery), aOut);
+            fetched.addAndGet(cities);
+        } catch (IOException | PartialCityJsonException
+                | BadCitiesJsonException | RuntimeException ex) {
+            failures.add(new AbstractMap.SimpleImmutableEntry<>(aQuery, ex));
+            Logger.getLogger(Batch.class.getName())
+                    .log(Level.WARNING, String.format(QUERY_FAILED_MSG,
+                            aQuery, ex.getMessage()));
+        } finally {
+            processed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Number of processed queries getter.
+     *
+     * @return Number of queries processed, including failed ones.
+     */
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Failures getter.
+     *
+     * @return Unmodifiable list of failed queries with their causes, one
+     * entry per failure.
+     */
+    public List<Map.Entry<String, Exception>> getFailures() {
+        return Collections.unmodifiableList(new ArrayList<>(failures));
+    }
+
+    /**
+     * Message about a failed query.
+     */
+    private static final String QUERY_FAILED_MSG = "Query \"%s\" failed: %s";
+    /**
+     * Number of queries, waiting to be fetched, per worker. It bounds memory
+     * consumption while reading huge queries files.
+     */
+    private static final int PENDING_PER_WORKER = 2;
+}
@@ -0,0 +1,219 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.CityTable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of binary columnar cities files. Cities are accumulated in a
+ * {@code CityTable} and {@code flush()} writes them as a complete file.
+ * All numbers are little endian. A file consists of:
+ * <ul>
+ * <li>header of six ints: magic, version, number of rows, number of
+ * distinct names, number of distinct types and a reserved zero;</li>
+ * <li>ids column of longs;</li>
+ * <li>latitudes and longitudes columns of raw IEEE doubles;</li>
+ * <li>name codes and type codes columns of ints, -1 for null type;</li>
+ * <li>names and types dictionaries, each as int offsets of strings, one
+ * more than number of strings, followed by utf-8 bytes of strings.</li>
+ * </ul>
+ * Long and double columns are 8 bytes aligned, so they can be read from a
+ * memory mapped file in place. Columns can't be written before the number
+ * of rows is known, so the whole result is held in memory until
+ * {@code flush()}, and the format is not suitable for streaming of large
+ * results.
+ *
+ * @author mg
+ * @see MappedCitiesFeed
+ */
+public final class BinaryWriter implements CitiesSink {
+
+    /**
+     * Underlying stream.
+     */
+    private final OutputStream out;
+    /**
+     * Cities, written since the last flush.
+     */
+    private CityTable table = new CityTable();
+    /**
+     * Flag of a file, written by this writer.
+     */
+    private boolean written;
+    /**
+     * Encoding buffer.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Constructs a writer.
+     *
+     * @param aOut A stream to write files to.
+     */
+    public BinaryWriter(final OutputStream aOut) {
+        out = aOut;
+    }
+
+    /**
+     * Adds a {@code City} instance to the file being written.
+     *
+     * @param aCity instance to be written.
+     */
+    @Override
+    public void write(final City aCity) {
+        table.add(aCity);
+    }
+
+    /**
+     * Writes all cities since the last flush as a complete file and flushes
+     * the underlying stream. Cities, written after it, go to the next file.
+     * If there are no such cities, a file is written only if it is the
+     * first one, so an empty result is still a valid file.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (table.size() > 0 || !written) {
+            write(table);
+            table = new CityTable();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a table as a complete file.
+     *
+     * @param aTable A table to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    public void write(final CityTable aTable) throws IOException {
+        int rows = aTable.size();
+        putInt(MAGIC);
+        putInt(VERSION);
+        putInt(rows);
+        putInt(aTable.getDistinctNames());
+        putInt(aTable.getDistinctTypes());
+        putInt(0);
+        for (int row = 0; row < rows; row++) {
+            ensure(Long.BYTES);
+            buffer.putLong(aTable.getId(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            ensure(Double.BYTES);
+            buffer.putDouble(aTable.getLatitude(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            ensure(Double.BYTES);
+            buffer.putDouble(aTable.getLongitude(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            putInt(aTable.getNameCode(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            putInt(aTable.getTypeCode(row));
+        }
+        byte[][] names = new byte[aTable.getDistinctNames()][];
+        for (int code = 0; code < names.length; code++) {
+            names[code] = aTable.decodeName(code)
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        putDictionary(names);
+        byte[][] types = new byte[aTable.getDistinctTypes()][];
+        for (int code = 0; code < types.length; code++) {
+            types[code] = aTable.decodeType(code)
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        putDictionary(types);
+        drain();
+        written = true;
+    }
+
+    /**
+     * Writes a dictionary of strings.
+     *
+     * @param aStrings Utf-8 bytes of strings.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void putDictionary(final byte[][] aStrings) throws IOException {
+        int offset = 0;
+        putInt(offset);
+        for (byte[] string : aStrings) {
+            offset += string.length;
+            putInt(offset);
+        }
+        for (byte[] string : aStrings) {
+            drain();
+            out.write(string);
+        }
+    }
+
+    /**
+     * Puts an int into the buffer.
+     *
+     * @param aValue A value to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void putInt(final int aValue) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(aValue);
+    }
+
+    /**
+     * Ensures, that {@code aLength} bytes fit into the buffer.
+     *
+     * @param aLength Number of bytes to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void ensure(final int aLength) throws IOException {
+        if (buffer.remaining() < aLength) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes the buffer content to the underlying stream.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void drain() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * Flushes this writer and closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Magic number of binary cities files, "CITB" in ascii.
+     */
+    static final int MAGIC = 0x42544943;
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 1;
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER_SIZE = 6 * Integer.BYTES;
+    /**
+     * Size of the encoding buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+}
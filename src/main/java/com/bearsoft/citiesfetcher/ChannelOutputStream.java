@@ -0,0 +1,164 @@
+package com.bearsoft.citiesfetcher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output stream, writing to a file channel through a direct buffer. Bytes
+ * are copied into the buffer and the buffer is written to the channel when
+ * it is full, so the channel gets large writes without intermediate copies
+ * to temporary direct buffers. Data is forced to disk according to a
+ * {@code SyncPolicy}. The stream is not thread safe.
+ *
+ * @author mg
+ */
+public final class ChannelOutputStream extends OutputStream {
+
+    /**
+     * Underlying channel.
+     */
+    private final FileChannel channel;
+    /**
+     * Direct buffer.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Durability policy.
+     */
+    private final SyncPolicy policy;
+    /**
+     * Number of bytes written to the channel since the last forcing.
+     */
+    private long unsynced;
+    /**
+     * Number of times data was forced to disk.
+     */
+    private int syncs;
+    /**
+     * Flag of closed stream.
+     */
+    private boolean closed;
+
+    /**
+     * Constructs a stream.
+     *
+     * @param aChannel A channel to write to. It is closed with this stream.
+     * @param aBufferSize Size of the direct buffer in bytes.
+     * @param aPolicy Durability policy.
+     */
+    public ChannelOutputStream(final FileChannel aChannel,
+            final int aBufferSize, final SyncPolicy aPolicy) {
+        channel = aChannel;
+        buffer = ByteBuffer.allocateDirect(aBufferSize);
+        policy = aPolicy;
+    }
+
+    @Override
+    public void write(final int aByte) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) aByte);
+    }
+
+    @Override
+    public void write(final byte[] aBuffer, final int aOffset,
+            final int aLength) throws IOException {
+        int offset = aOffset;
+        int length = aLength;
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(aBuffer, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Writes the buffer content to the channel and forces data to disk if
+     * the policy interval is reached.
+     *
+     * @throws IOException if the channel throws it.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            unsynced += channel.write(buffer);
+        }
+        buffer.clear();
+        if (policy.getInterval() > 0 && unsynced >= policy.getInterval()) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces data to disk.
+     *
+     * @throws IOException if the channel throws it.
+     */
+    private void sync() throws IOException {
+        channel.force(false);
+        unsynced = 0;
+        syncs++;
+    }
+
+    /**
+     * Writes the buffer content to the channel. Data is not forced to disk
+     * unless the policy interval is reached.
+     *
+     * @throws IOException if the channel throws it.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Writes the buffer content to the channel, forces data to disk if the
+     * policy requires it and closes the channel.
+     *
+     * @throws IOException if the channel throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                drain();
+                if (policy.isAtEnd() && (unsynced > 0 || syncs == 0)) {
+                    sync();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Writes buffered bytes and cuts the file to a size. Subsequent bytes are
+     * written at the end of the cut file.
+     *
+     * @param aSize New size of the file. It should not exceed the current
+     * size.
+     * @throws IOException if a problem with IO occurs.
+     */
+    public void truncate(final long aSize) throws IOException {
+        drain();
+        channel.truncate(aSize);
+        channel.position(aSize);
+    }
+
+    /**
+     * Syncs getter.
+     *
+     * @return Number of times data was forced to disk.
+     */
+    public int getSyncs() {
+        return syncs;
+    }
+}
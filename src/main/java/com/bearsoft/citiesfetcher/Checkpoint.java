@@ -0,0 +1,279 @@
+package com.bearsoft.citiesfetcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Progress of a resumable fetch. It records how many bytes of a response body
+ * are received up to the end of the last city, written completely, the city
+ * itself and the size of the destination file with that city. A broken fetch
+ * truncates the destination back to the recorded size and requests the rest
+ * of the body from the recorded offset. A checkpoint is stored next to the
+ * destination file if a fetch fails, so a later run may resume it too.
+ *
+ * @author mg
+ */
+public final class Checkpoint {
+
+    /**
+     * Cities source url.
+     */
+    private final String source;
+    /**
+     * 'ETag' or 'Last-Modified' value of the response or null.
+     */
+    private final String validator;
+    /**
+     * Number of body bytes up to the end of the last complete city.
+     */
+    private long offset;
+    /**
+     * Number of cities, written completely.
+     */
+    private long cities;
+    /**
+     * Id of the last city, written completely.
+     */
+    private long lastId;
+    /**
+     * Size of the destination with all complete cities in bytes.
+     */
+    private long written;
+
+    /**
+     * Constructs a checkpoint at the start of a response body.
+     *
+     * @param aSource Cities source url.
+     * @param aValidator 'ETag' or 'Last-Modified' value of the response or
+     * null if the response can't be requested by ranges.
+     */
+    public Checkpoint(final URL aSource, final String aValidator) {
+        this(aSource.toExternalForm(), aValidator, 0, 0, 0, 0);
+    }
+
+    /**
+     * Constructs a checkpoint with all its values.
+     *
+     * @param aSource Cities source url.
+     * @param aValidator 'ETag' or 'Last-Modified' value or null.
+     * @param aOffset Number of body bytes up to the end of the last complete
+     * city.
+     * @param aCities Number of complete cities.
+     * @param aLastId Id of the last complete city.
+     * @param aWritten Size of the destination with all complete cities.
+     */
+    private Checkpoint(final String aSource, final String aValidator,
+            final long aOffset, final long aCities, final long aLastId,
+            final long aWritten) {
+        source = aSource;
+        validator = aValidator;
+        offset = aOffset;
+        cities = aCities;
+        lastId = aLastId;
+        written = aWritten;
+    }
+
+    /**
+     * Records a city, written completely.
+     *
+     * @param aOffset Number of body bytes up to the end of the city or -1 if
+     * the body can't be resumed.
+     * @param aId Id of the city.
+     */
+    public void advance(final long aOffset, final long aId) {
+        offset = aOffset;
+        lastId = aId;
+        cities++;
+    }
+
+    /**
+     * Records the size of the destination with all complete cities. It
+     * should be called after the cities are flushed.
+     *
+     * @param aWritten Size of the destination in bytes.
+     */
+    public void setWritten(final long aWritten) {
+        written = aWritten;
+    }
+
+    /**
+     * Resumability check.
+     *
+     * @return True if the rest of the body may be requested with a range
+     * request. A body without complete cities is requested from the start.
+     */
+    public boolean isResumable() {
+        return cities > 0 && offset >= 0 && validator != null;
+    }
+
+    /**
+     * Source getter.
+     *
+     * @return Cities source url.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Validator getter.
+     *
+     * @return 'ETag' or 'Last-Modified' value of the response or null.
+     */
+    public String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Offset getter.
+     *
+     * @return Number of body bytes up to the end of the last complete city.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Cities getter.
+     *
+     * @return Number of cities, written completely.
+     */
+    public long getCities() {
+        return cities;
+    }
+
+    /**
+     * Last id getter.
+     *
+     * @return Id of the last city, written completely.
+     */
+    public long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Written getter.
+     *
+     * @return Size of the destination with all complete cities in bytes.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Stores the checkpoint atomically.
+     *
+     * @param aFile A file to store the checkpoint to.
+     * @throws IOException if the file can't be written.
+     */
+    public void store(final File aFile) throws IOException {
+        Properties values = new Properties();
+        values.setProperty(SOURCE_PROPERTY, source);
+        if (validator != null) {
+            values.setProperty(VALIDATOR_PROPERTY, validator);
+        }
+        values.setProperty(OFFSET_PROPERTY, String.valueOf(offset));
+        values.setProperty(CITIES_PROPERTY, String.valueOf(cities));
+        values.setProperty(LAST_ID_PROPERTY, String.valueOf(lastId));
+        values.setProperty(WRITTEN_PROPERTY, String.valueOf(written));
+        Path target = aFile.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(),
+                aFile.getName(), TEMP_SUFFIX);
+        try {
+            try (Writer out = Files.newBufferedWriter(temp,
+                    StandardCharsets.UTF_8)) {
+                values.store(out, null);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Loads a checkpoint of a source.
+     *
+     * @param aFile A file with a stored checkpoint.
+     * @param aSource Cities source url.
+     * @return The checkpoint or empty value if the file is absent, malformed
+     * or it is a checkpoint of another source.
+     * @throws IOException if the file can't be read.
+     */
+    public static Optional<Checkpoint> load(final File aFile,
+            final URL aSource) throws IOException {
+        if (!aFile.exists()) {
+            return Optional.empty();
+        }
+        Properties values = new Properties();
+        try (Reader in = Files.newBufferedReader(aFile.toPath(),
+                StandardCharsets.UTF_8)) {
+            values.load(in);
+        }
+        try {
+            Checkpoint checkpoint = new Checkpoint(
+                    values.getProperty(SOURCE_PROPERTY, ""),
+                    values.getProperty(VALIDATOR_PROPERTY),
+                    Long.parseLong(values.getProperty(OFFSET_PROPERTY)),
+                    Long.parseLong(values.getProperty(CITIES_PROPERTY)),
+                    Long.parseLong(values.getProperty(LAST_ID_PROPERTY)),
+                    Long.parseLong(values.getProperty(WRITTEN_PROPERTY)));
+            return checkpoint.source.equals(aSource.toExternalForm())
+                    ? Optional.of(checkpoint) : Optional.empty();
+        } catch (NumberFormatException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Computes a checkpoint file of a destination.
+     *
+     * @param aDestination A destination file.
+     * @return A file next to the destination.
+     */
+    public static File of(final File aDestination) {
+        return new File(aDestination.getPath() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Suffix of checkpoint files.
+     */
+    public static final String CHECKPOINT_SUFFIX = ".resume";
+    /**
+     * Suffix of temporary files.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Source property name.
+     */
+    private static final String SOURCE_PROPERTY = "source";
+    /**
+     * Validator property name.
+     */
+    private static final String VALIDATOR_PROPERTY = "validator";
+    /**
+     * Offset property name.
+     */
+    private static final String OFFSET_PROPERTY = "bytes";
+    /**
+     * Cities property name.
+     */
+    private static final String CITIES_PROPERTY = "cities";
+    /**
+     * Last id property name.
+     */
+    private static final String LAST_ID_PROPERTY = "last-id";
+    /**
+     * Written property name.
+     */
+    private static final String WRITTEN_PROPERTY = "written";
+}
@@ -0,0 +1,26 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Destination of fetched cities in some output format. Cities are written
+ * one by one and {@code flush()} completes the written data in the
+ * underlying stream.
+ *
+ * @author mg
+ * @see CsvWriter
+ * @see BinaryWriter
+ */
+public interface CitiesSink extends Flushable, Closeable {
+
+    /**
+     * Writes a {@code City} instance.
+     *
+     * @param aCity instance to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    void write(City aCity) throws IOException;
+}
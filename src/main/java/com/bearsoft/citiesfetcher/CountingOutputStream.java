@@ -0,0 +1,77 @@
+package com.bearsoft.citiesfetcher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream, counting bytes written through it and time spent in writing
+ * and flushing.
+ *
+ * @author mg
+ */
+final class CountingOutputStream extends FilterOutputStream {
+
+    /**
+     * Number of bytes written.
+     */
+    private long count;
+    /**
+     * Time spent in writing and flushing in nanos.
+     */
+    private long nanos;
+
+    /**
+     * Constructs counting stream.
+     *
+     * @param aOut A stream to count bytes of.
+     */
+    CountingOutputStream(final OutputStream aOut) {
+        super(aOut);
+    }
+
+    /**
+     * Count getter.
+     *
+     * @return Number of bytes written so far.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Writing time getter.
+     *
+     * @return Time spent in writing and flushing so far in nanos.
+     */
+    long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public void write(final int aByte) throws IOException {
+        write(new byte[]{(byte) aByte}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] aBuffer, final int aOffset,
+            final int aLength) throws IOException {
+        long started = System.nanoTime();
+        try {
+            out.write(aBuffer, aOffset, aLength);
+            count += aLength;
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long started = System.nanoTime();
+        try {
+            out.flush();
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.bearsoft.citiesfetcher;
 
 import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.Projection;
 import java.util.regex.Pattern;
 
 /**
  * Transforms a {@code City} instance to CSV line. Every line ends with CRLF.
  * According to CSV specification, last line may end or mat not end with CRLF.
+ * It is a reference transformation. Streaming code uses {@code CsvWriter},
+ * producing the same bytes without intermediate strings.
  *
  * @author mg
+ * @see CsvWriter
  */
 public final class Csv {
 
@@ -35,17 +39,47 @@ public final class Csv {
      * to strings according to CSV specification.
      */
     public static StringBuilder to(final City aCity) {
+        return to(aCity, Projection.ALL);
+    }
+
+    /**
+     * Transforms projected fields of {@code City} instance to
+     * {@code StringBuilder}. Columns are in order of
+     * {@code Projection.Field} constants.
+     *
+     * @param aCity instance to be transformed to CSV line.
+     * @param aProjection Projected fields.
+     * @return {@code StringBuilder} instance with projected data of the city
+     * transformed to strings according to CSV specification.
+     */
+    public static StringBuilder to(final City aCity,
+            final Projection aProjection) {
         StringBuilder builder = new StringBuilder();
+        boolean separated = false;
+        for (Projection.Field field : aProjection.getFields()) {
+            if (separated) {
+                builder.append(',');
+            }
+            separated = true;
+            switch (field) {
+                case ID:
+                    builder.append(aCity.getId());
+                    break;
+                case NAME:
+                    builder.append(escape(aCity.getName()));
+                    break;
+                case TYPE:
+                    builder.append(escape(aCity.getType()));
+                    break;
+                case LATITUDE:
+                    builder.append(aCity.getLatitude());
+                    break;
+                default:
+                    builder.append(aCity.getlongitude());
+                    break;
+            }
+        }
         builder
-                .append(aCity.getId())
-                .append(',')
-                .append(escape(aCity.getName()))
-                .append(',')
-                .append(escape(aCity.getType()))
-                .append(',')
-                .append(aCity.getLatitude())
-                .append(',')
-                .append(aCity.getlongitude())
                 .append('\r')
                 .append('\n');
         return builder;
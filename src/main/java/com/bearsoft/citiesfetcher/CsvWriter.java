@@ -0,0 +1,566 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.CityTable;
+import com.bearsoft.citiesfetcher.model.Projection;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming CSV writer. It encodes {@code City} instances straight into a
+ * reusable utf-8 byte buffer without intermediate strings, producing the
+ * same bytes as {@code Csv.to(aCity).toString().getBytes(UTF_8)}. The buffer
+ * is written to the underlying stream only with complete lines, so a partial
+ * line never reaches the stream. Only columns of a projection are encoded,
+ * in the same way as {@code Csv.to(aCity, aProjection)} does.
+ *
+ * @author mg
+ * @see Csv
+ */
+public final class CsvWriter implements CitiesSink {
+
+    /**
+     * Underlying stream.
+     */
+    private final OutputStream out;
+    /**
+     * Flags of projected columns in order of {@code Projection.Field}.
+     */
+    private final boolean[] columns;
+    /**
+     * Encoding buffer.
+     */
+    private byte[] buffer;
+    /**
+     * End of encoded data in the buffer.
+     */
+    private int position;
+    /**
+     * Start of the line being encoded.
+     */
+    private int lineStart;
+    /**
+     * Number of lines written.
+     */
+    private long lines;
+
+    /**
+     * Constructs a writer with default buffer size.
+     *
+     * @param aOut A stream to write CSV lines to.
+     */
+    public CsvWriter(final OutputStream aOut) {
+        this(aOut, DEFAULT_BUFFER_SIZE, Projection.ALL);
+    }
+
+    /**
+     * Constructs a writer of projected columns with default buffer size.
+     *
+     * @param aOut A stream to write CSV lines to.
+     * @param aProjection Projected columns.
+     */
+    public CsvWriter(final OutputStream aOut, final Projection aProjection) {
+        this(aOut, DEFAULT_BUFFER_SIZE, aProjection);
+    }
+
+    /**
+     * Constructs a writer with specified buffer size.
+     *
+     * @param aOut A stream to write CSV lines to.
+     * @param aBufferSize Initial size of the buffer. The buffer grows if a
+     * line doesn't fit into it.
+     */
+    public CsvWriter(final OutputStream aOut, final int aBufferSize) {
+        this(aOut, aBufferSize, Projection.ALL);
+    }
+
+    /**
+     * Constructs a writer of projected columns with specified buffer size.
+     *
+     * @param aOut A stream to write CSV lines to.
+     * @param aBufferSize Initial size of the buffer. The buffer grows if a
+     * line doesn't fit into it.
+     * @param aProjection Projected columns.
+     */
+    public CsvWriter(final OutputStream aOut, final int aBufferSize,
+            final Projection aProjection) {
+        out = aOut;
+        buffer = new byte[aBufferSize];
+        Projection.Field[] fields = Projection.Field.values();
+        columns = new boolean[fields.length];
+        for (Projection.Field field : fields) {
+            columns[field.ordinal()] = aProjection.contains(field);
+        }
+    }
+
+    /**
+     * Encodes a {@code City} instance as CSV line.
+     *
+     * @param aCity instance to be written as CSV line.
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void write(final City aCity) throws IOException {
+        write(null, aCity.getId(), aCity.getName(), aCity.getType(),
+                aCity.getLatitude(), aCity.getlongitude());
+    }
+
+    /**
+     * Encodes a {@code City} instance as CSV line with a leading column,
+     * e.g. an operation of a delta.
+     *
+     * @param aLeading A value of the leading column.
+     * @param aCity instance to be written as CSV line.
+     * @throws IOException if the underlying stream throws it.
+     */
+    public void write(final String aLeading, final City aCity)
+            throws IOException {
+        write(aLeading, aCity.getId(), aCity.getName(), aCity.getType(),
+                aCity.getLatitude(), aCity.getlongitude());
+    }
+
+    /**
+     * Encodes an id as CSV line with a leading column and empty other
+     * projected columns, e.g. a removed city of a delta. The id column is
+     * written even if it is not projected.
+     *
+     * @param aLeading A value of the leading column.
+     * @param aId Id of a city.
+     * @throws IOException if the underlying stream throws it.
+     */
+    public void writeId(final String aLeading, final long aId)
+            throws IOException {
+        lineStart = position;
+        writeText(aLeading);
+        writeByte(',');
+        writeLong(aId);
+        for (int column = ID + 1; column < columns.length; column++) {
+            separate(columns[column]);
+        }
+        writeByte('\r');
+        writeByte('\n');
+        lineStart = position;
+        lines++;
+    }
+
+    /**
+     * Encodes a row of a {@code CityTable} as CSV line straight from the
+     * table columns.
+     *
+     * @param aTable A table to take the row from.
+     * @param aRow Index of the row.
+     * @throws IOException if the underlying stream throws it.
+     */
+    public void write(final CityTable aTable, final int aRow)
+            throws IOException {
+        write(null, aTable.getId(aRow), aTable.getName(aRow),
+                aTable.getType(aRow), aTable.getLatitude(aRow),
+                aTable.getLongitude(aRow));
+    }
+
+    /**
+     * Encodes projected city values as CSV line.
+     *
+     * @param aLeading A value of a leading column or null if there is no
+     * leading column.
+     * @param aId Id of a city.
+     * @param aName Name of a city.
+     * @param aType Type of a city or null.
+     * @param aLatitude Latitude of a city.
+     * @param aLongitude Longitude of a city.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void write(final String aLeading, final long aId,
+            final String aName, final String aType, final double aLatitude,
+            final double aLongitude) throws IOException {
+        lineStart = position;
+        boolean separated = false;
+        if (aLeading != null) {
+            writeText(aLeading);
+            separated = true;
+        }
+        if (columns[ID]) {
+            separate(separated);
+            writeLong(aId);
+            separated = true;
+        }
+        if (columns[NAME]) {
+            separate(separated);
+            writeText(aName);
+            separated = true;
+        }
+        if (columns[TYPE]) {
+            separate(separated);
+            writeText(aType);
+            separated = true;
+        }
+        if (columns[LATITUDE]) {
+            separate(separated);
+            writeDouble(aLatitude);
+            separated = true;
+        }
+        if (columns[LONGITUDE]) {
+            separate(separated);
+            writeDouble(aLongitude);
+        }
+        writeByte('\r');
+        writeByte('\n');
+        lineStart = position;
+        lines++;
+    }
+
+    /**
+     * Writes a comma, if a column was written before.
+     *
+     * @param aSeparated Flag of a column, written before.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void separate(final boolean aSeparated) throws IOException {
+        if (aSeparated) {
+            writeByte(',');
+        }
+    }
+
+    /**
+     * Number of written lines getter.
+     *
+     * @return Number of lines written so far.
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Ensures, that {@code aLength} bytes fit into the buffer. Complete lines
+     * are written to the underlying stream and a partial line is moved to
+     * the buffer start if needed. If it is not enough, the buffer grows.
+     *
+     * @param aLength Number of bytes to be encoded.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void ensure(final int aLength) throws IOException {
+        if (position + aLength > buffer.length) {
+            if (lineStart > 0) {
+                out.write(buffer, 0, lineStart);
+                System.arraycopy(buffer, lineStart, buffer, 0,
+                        position - lineStart);
+                position -= lineStart;
+                lineStart = 0;
+            }
+            if (position + aLength > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2,
+                        position + aLength)];
+                System.arraycopy(buffer, 0, grown, 0, position);
+                buffer = grown;
+            }
+        }
+    }
+
+    /**
+     * Writes a single ascii byte.
+     *
+     * @param aValue A byte to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void writeByte(final int aValue) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) aValue;
+    }
+
+    /**
+     * Writes an ascii string, e.g. a number formatted by JDK.
+     *
+     * @param aValue A string with ascii symbols only.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void writeAscii(final String aValue) throws IOException {
+        byte[] bytes = aValue.getBytes(StandardCharsets.US_ASCII);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Writes decimal digits of a long value without intermediate string.
+     *
+     * @param aValue A value to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void writeLong(final long aValue) throws IOException {
+        if (aValue == Long.MIN_VALUE) {
+            writeAscii(Long.toString(aValue));
+        } else {
+            ensure(MAX_LONG_LENGTH);
+            long value = aValue;
+            if (value < 0) {
+                buffer[position++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            long bound = DECIMAL_BASE;
+            while (digits < MAX_LONG_DIGITS && value >= bound) {
+                digits++;
+                bound *= DECIMAL_BASE;
+            }
+            int at = position + digits;
+            position = at;
+            do {
+                buffer[--at] = (byte) ('0' + value % DECIMAL_BASE);
+                value /= DECIMAL_BASE;
+            } while (value > 0);
+        }
+    }
+
+    /**
+     * Writes a double value in {@code Double.toString()} format. Values with
+     * short decimal representation in plain notation range are written
+     * without intermediate string. Others fall back to
+     * {@code Double.toString()}.
+     *
+     * @param aValue A value to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void writeDouble(final double aValue) throws IOException {
+        double magnitude = Math.abs(aValue);
+        if (magnitude >= MIN_PLAIN && magnitude < MAX_PLAIN) {
+            for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+                long unscaled = Math.round(aValue * POWERS_OF_TEN[scale]);
+                // Division of exact integers is correctly rounded, so
+                // the equality means, that the decimal is the shortest
+                // one, that is read back as the same double.
+                if (unscaled / POWERS_OF_TEN[scale] == aValue) {
+                    writeDecimal(unscaled, scale);
+                    return;
+                }
+            }
+        }
+        writeAscii(Double.toString(aValue));
+    }
+
+    /**
+     * Writes a decimal value in plain notation with at least one fraction
+     * digit.
+     *
+     * @param aUnscaled Unscaled value of the decimal.
+     * @param aScale Number of fraction digits in the unscaled value.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void writeDecimal(final long aUnscaled, final int aScale)
+            throws IOException {
+        long magnitude = Math.abs(aUnscaled);
+        long divisor = (long) POWERS_OF_TEN[aScale];
+        if (aUnscaled < 0) {
+            writeByte('-');
+        }
+        writeLong(magnitude / divisor);
+        writeByte('.');
+        if (aScale == 0) {
+            writeByte('0');
+        } else {
+            long fraction = magnitude % divisor;
+            int scale = aScale;
+            while (scale > 1 && fraction % DECIMAL_BASE == 0) {
+                fraction /= DECIMAL_BASE;
+                scale--;
+            }
+            ensure(scale);
+            for (int at = position + scale - 1; at >= position; at--) {
+                buffer[at] = (byte) ('0' + fraction % DECIMAL_BASE);
+                fraction /= DECIMAL_BASE;
+            }
+            position += scale;
+        }
+    }
+
+    /**
+     * Writes a text value according to CSV specification. If a value
+     * contains quotes, commas, carriage returns or line feeds, it is enclosed
+     * in quotes and quotes are escaped with another quotes. Null value is
+     * written as empty one.
+     *
+     * @param aValue A value to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    private void writeText(final String aValue) throws IOException {
+        if (aValue != null) {
+            int length = aValue.length();
+            boolean quoted = false;
+            for (int i = 0; i < length && !quoted; i++) {
+                char c = aValue.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            ensure(length * MAX_BYTES_PER_CHAR + 2);
+            if (quoted) {
+                buffer[position++] = '"';
+            }
+            for (int i = 0; i < length; i++) {
+                char c = aValue.charAt(i);
+                if (c < ONE_BYTE_LIMIT) {
+                    if (c == '"') {
+                        buffer[position++] = '"';
+                    }
+                    buffer[position++] = (byte) c;
+                } else if (c < TWO_BYTES_LIMIT) {
+                    buffer[position++] = (byte) (TWO_BYTES_LEAD
+                            | c >> SIX_BITS);
+                    buffer[position++] = (byte) (CONTINUATION
+                            | c & LOW_SIX_BITS);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(aValue.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c,
+                            aValue.charAt(++i));
+                    buffer[position++] = (byte) (FOUR_BYTES_LEAD
+                            | codePoint >> EIGHTEEN_BITS);
+                    buffer[position++] = (byte) (CONTINUATION
+                            | codePoint >> TWELVE_BITS & LOW_SIX_BITS);
+                    buffer[position++] = (byte) (CONTINUATION
+                            | codePoint >> SIX_BITS & LOW_SIX_BITS);
+                    buffer[position++] = (byte) (CONTINUATION
+                            | codePoint & LOW_SIX_BITS);
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate is replaced as String.getBytes()
+                    // does.
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (THREE_BYTES_LEAD
+                            | c >> TWELVE_BITS);
+                    buffer[position++] = (byte) (CONTINUATION
+                            | c >> SIX_BITS & LOW_SIX_BITS);
+                    buffer[position++] = (byte) (CONTINUATION
+                            | c & LOW_SIX_BITS);
+                }
+            }
+            if (quoted) {
+                buffer[position++] = '"';
+            }
+        }
+    }
+
+    /**
+     * Writes all encoded lines to the underlying stream and flushes it.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+        lineStart = 0;
+        out.flush();
+    }
+
+    /**
+     * Flushes this writer and closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Default size of the buffer.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Powers of ten, exactly representable as doubles. Length of the array
+     * bounds number of fraction digits written without {@code Double}
+     * formatting.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1d, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8
+    };
+    /**
+     * Lower bound of magnitudes, {@code Double.toString()} uses plain
+     * notation for.
+     */
+    private static final double MIN_PLAIN = 1e-3;
+    /**
+     * Upper bound of magnitudes, {@code Double.toString()} uses plain
+     * notation for.
+     */
+    private static final double MAX_PLAIN = 1e7;
+    /**
+     * Base of decimal digits.
+     */
+    private static final int DECIMAL_BASE = 10;
+    /**
+     * Maximum number of digits in a long value.
+     */
+    private static final int MAX_LONG_DIGITS = 19;
+    /**
+     * Maximum length of a long value with sign.
+     */
+    private static final int MAX_LONG_LENGTH = 20;
+    /**
+     * Maximum number of utf-8 bytes per char, escaped quote included.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    /**
+     * Upper bound of chars, encoded with one byte.
+     */
+    private static final char ONE_BYTE_LIMIT = 0x80;
+    /**
+     * Upper bound of chars, encoded with two bytes.
+     */
+    private static final char TWO_BYTES_LIMIT = 0x800;
+    /**
+     * Lead bits of two bytes sequence.
+     */
+    private static final int TWO_BYTES_LEAD = 0xC0;
+    /**
+     * Lead bits of three bytes sequence.
+     */
+    private static final int THREE_BYTES_LEAD = 0xE0;
+    /**
+     * Lead bits of four bytes sequence.
+     */
+    private static final int FOUR_BYTES_LEAD = 0xF0;
+    /**
+     * Lead bits of continuation bytes.
+     */
+    private static final int CONTINUATION = 0x80;
+    /**
+     * Mask of six low bits.
+     */
+    private static final int LOW_SIX_BITS = 0x3F;
+    /**
+     * Shift of six bits.
+     */
+    private static final int SIX_BITS = 6;
+    /**
+     * Shift of twelve bits.
+     */
+    private static final int TWELVE_BITS = 12;
+    /**
+     * Shift of eighteen bits.
+     */
+    private static final int EIGHTEEN_BITS = 18;
+    /**
+     * Index of id column flag.
+     */
+    private static final int ID = Projection.Field.ID.ordinal();
+    /**
+     * Index of name column flag.
+     */
+    private static final int NAME = Projection.Field.NAME.ordinal();
+    /**
+     * Index of type column flag.
+     */
+    private static final int TYPE = Projection.Field.TYPE.ordinal();
+    /**
+     * Index of latitude column flag.
+     */
+    private static final int LATITUDE = Projection.Field.LATITUDE.ordinal();
+    /**
+     * Index of longitude column flag.
+     */
+    private static final int LONGITUDE = Projection.Field.LONGITUDE
+            .ordinal();
+}
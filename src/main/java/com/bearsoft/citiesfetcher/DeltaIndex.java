@@ -0,0 +1,334 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Index of an exported snapshot of cities. It holds an id and a content hash
+ * of every exported city in two primitive arrays, sorted by id, so it takes
+ * 16 bytes per city in memory and on disk. The index is stored next to a
+ * delta destination, so the next delta export compares fetched cities with
+ * the index instead of the previous output. The index is not thread safe.
+ *
+ * @author mg
+ * @see DeltaWriter
+ */
+public final class DeltaIndex {
+
+    /**
+     * Ids of cities.
+     */
+    private long[] ids;
+    /**
+     * Content hashes of cities, parallel to ids.
+     */
+    private long[] hashes;
+    /**
+     * Number of cities.
+     */
+    private int size;
+    /**
+     * Flag of ids, sorted in ascending order.
+     */
+    private boolean sorted = true;
+
+    /**
+     * Constructs an empty index.
+     */
+    public DeltaIndex() {
+        this(new long[DEFAULT_CAPACITY], new long[DEFAULT_CAPACITY], 0);
+    }
+
+    /**
+     * Constructs an index of sorted ids and their hashes.
+     *
+     * @param aIds Ids of cities in ascending order.
+     * @param aHashes Content hashes of cities.
+     * @param aSize Number of cities.
+     */
+    private DeltaIndex(final long[] aIds, final long[] aHashes,
+            final int aSize) {
+        ids = aIds;
+        hashes = aHashes;
+        size = aSize;
+    }
+
+    /**
+     * Adds a city. Ids are expected to be unique.
+     *
+     * @param aId Id of the city.
+     * @param aHash Content hash of the city.
+     */
+    public void add(final long aId, final long aHash) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        if (size > 0 && ids[size - 1] >= aId) {
+            sorted = false;
+        }
+        ids[size] = aId;
+        hashes[size] = aHash;
+        size++;
+    }
+
+    /**
+     * Finds a city by id.
+     *
+     * @param aId Id of the city.
+     * @return Position of the city in the index or -1 if it is absent.
+     */
+    public int find(final long aId) {
+        sort();
+        int found = Arrays.binarySearch(ids, 0, size, aId);
+        return found >= 0 ? found : -1;
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Number of cities.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Id getter. Positions are in ascending order of ids.
+     *
+     * @param aPosition Position of a city.
+     * @return Id of the city.
+     */
+    public long getId(final int aPosition) {
+        sort();
+        return ids[aPosition];
+    }
+
+    /**
+     * Hash getter.
+     *
+     * @param aPosition Position of a city.
+     * @return Content hash of the city.
+     */
+    public long getHash(final int aPosition) {
+        sort();
+        return hashes[aPosition];
+    }
+
+    /**
+     * Sorts cities by id, if they were added out of order.
+     */
+    private void sort() {
+        if (!sorted) {
+            sort(0, size - 1);
+            sorted = true;
+        }
+    }
+
+    /**
+     * Sorts a range of cities by id with quick sort, keeping hashes in
+     * their places.
+     *
+     * @param aLow First position of the range.
+     * @param aHigh Last position of the range.
+     */
+    private void sort(final int aLow, final int aHigh) {
+        int low = aLow;
+        int high = aHigh;
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            long pivot = ids[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (ids[i] < pivot) {
+                    i++;
+                }
+                while (ids[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recursion goes to the smaller part, so the stack stays small.
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && ids[j - 1] > ids[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Swaps two cities.
+     *
+     * @param aFirst Position of the first city.
+     * @param aSecond Position of the second city.
+     */
+    private void swap(final int aFirst, final int aSecond) {
+        long id = ids[aFirst];
+        ids[aFirst] = ids[aSecond];
+        ids[aSecond] = id;
+        long hash = hashes[aFirst];
+        hashes[aFirst] = hashes[aSecond];
+        hashes[aSecond] = hash;
+    }
+
+    /**
+     * Stores the index to a file atomically, so an interrupted store leaves
+     * the previous index intact.
+     *
+     * @param aFile A file to be written.
+     * @throws IOException if the file can't be written.
+     */
+    public void store(final File aFile) throws IOException {
+        sort();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+                + size * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(ids[i]).putLong(hashes[i]);
+        }
+        Path target = aFile.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(),
+                aFile.getName(), TEMP_SUFFIX);
+        try {
+            Files.write(temp, buffer.array());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Loads an index from a file.
+     *
+     * @param aFile A file with a stored index.
+     * @return The index or empty value if the file is absent or malformed.
+     * @throws IOException if the file can't be read.
+     */
+    public static Optional<DeltaIndex> load(final File aFile)
+            throws IOException {
+        if (!aFile.exists()) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(
+                aFile.toPath()));
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            return Optional.empty();
+        }
+        int size = buffer.getInt();
+        if (size < 0 || buffer.remaining() != (long) size * ENTRY_SIZE) {
+            return Optional.empty();
+        }
+        long[] ids = new long[Math.max(size, DEFAULT_CAPACITY)];
+        long[] hashes = new long[ids.length];
+        for (int i = 0; i < size; i++) {
+            ids[i] = buffer.getLong();
+            hashes[i] = buffer.getLong();
+            if (i > 0 && ids[i - 1] >= ids[i]) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(new DeltaIndex(ids, hashes, size));
+    }
+
+    /**
+     * Computes a content hash of a city. It is a 64 bit FNV-1a hash of name,
+     * type and coordinates. Lengths of strings are hashed too, so values
+     * can't shift between fields.
+     *
+     * @param aCity A city to be hashed.
+     * @return Content hash of the city.
+     */
+    public static long hash(final City aCity) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, aCity.getName());
+        hash = hash(hash, aCity.getType());
+        hash = (hash ^ Double.doubleToLongBits(aCity.getLatitude()))
+                * FNV_PRIME;
+        hash = (hash ^ Double.doubleToLongBits(aCity.getlongitude()))
+                * FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * Adds a string to a hash.
+     *
+     * @param aHash A hash to be continued.
+     * @param aValue A string or null.
+     * @return Continued hash.
+     */
+    private static long hash(final long aHash, final String aValue) {
+        long hash = (aHash ^ (aValue != null ? aValue.length() : -1))
+                * FNV_PRIME;
+        if (aValue != null) {
+            for (int i = 0; i < aValue.length(); i++) {
+                hash = (hash ^ aValue.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Computes an index file of a destination.
+     *
+     * @param aDestination A destination file.
+     * @return A file next to the destination.
+     */
+    public static File of(final File aDestination) {
+        return new File(aDestination.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Suffix of index files.
+     */
+    public static final String INDEX_SUFFIX = ".index";
+    /**
+     * Suffix of temporary files.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Magic number of index files.
+     */
+    private static final int MAGIC = 0x43464449;
+    /**
+     * Size of the magic number and the number of cities in bytes.
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Size of an id and a hash in bytes.
+     */
+    private static final int ENTRY_SIZE = 16;
+    /**
+     * Default capacity of an empty index.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Maximum size of a range, sorted by insertion sort.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /**
+     * Offset basis of 64 bit FNV-1a hash.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /**
+     * Prime of 64 bit FNV-1a hash.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+}
@@ -0,0 +1,174 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.LongHashSet;
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+
+/**
+ * Delta CSV writer. It compares written cities with an index of the previous
+ * export by ids and content hashes and writes only added and changed cities
+ * as CSV lines, prefixed with "added" or "changed" column. Cities of the
+ * previous export, absent from the written ones, are written by
+ * {@code finish()} as "removed" lines with ids only. Unchanged cities are not
+ * written at all, so the size of the output is proportional to the number of
+ * changes. Repeated ids are written once. Meanwhile the writer builds an
+ * index of the written cities for the next export. Lines are encoded by
+ * {@code CsvWriter} straight to bytes.
+ *
+ * @author mg
+ * @see DeltaIndex
+ */
+public final class DeltaWriter implements CitiesSink {
+
+    /**
+     * Underlying writer.
+     */
+    private final CsvWriter out;
+    /**
+     * Index of the previous export.
+     */
+    private final DeltaIndex previous;
+    /**
+     * Positions of previous cities, met among the written ones.
+     */
+    private final BitSet kept = new BitSet();
+    /**
+     * Index of the written cities.
+     */
+    private final DeltaIndex next = new DeltaIndex();
+    /**
+     * Ids of the written cities.
+     */
+    private final LongHashSet written = new LongHashSet();
+    /**
+     * Number of added cities.
+     */
+    private long added;
+    /**
+     * Number of changed cities.
+     */
+    private long changed;
+    /**
+     * Number of removed cities.
+     */
+    private long removed;
+
+    /**
+     * Constructs a writer.
+     *
+     * @param aOut A stream to write delta lines to.
+     * @param aPrevious Index of the previous export.
+     */
+    public DeltaWriter(final OutputStream aOut, final DeltaIndex aPrevious) {
+        out = new CsvWriter(aOut);
+        previous = aPrevious;
+    }
+
+    /**
+     * Compares a {@code City} instance with the previous export and writes
+     * it if it is added or changed.
+     *
+     * @param aCity instance to be compared.
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void write(final City aCity) throws IOException {
+        if (!written.add(aCity.getId())) {
+            return;
+        }
+        long hash = DeltaIndex.hash(aCity);
+        next.add(aCity.getId(), hash);
+        int found = previous.find(aCity.getId());
+        if (found == -1) {
+            added++;
+            out.write(ADDED, aCity);
+        } else {
+            kept.set(found);
+            if (previous.getHash(found) != hash) {
+                changed++;
+                out.write(CHANGED, aCity);
+            }
+        }
+    }
+
+    /**
+     * Writes buffered lines to the underlying stream and flushes it.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes cities of the previous export, that were not written, as
+     * removed and flushes the underlying stream. It should be called once,
+     * after all cities are written.
+     *
+     * @return Index of the written cities for the next export.
+     * @throws IOException if the underlying stream throws it.
+     */
+    public DeltaIndex finish() throws IOException {
+        for (int i = kept.nextClearBit(0); i < previous.size();
+                i = kept.nextClearBit(i + 1)) {
+            removed++;
+            out.writeId(REMOVED, previous.getId(i));
+        }
+        out.flush();
+        return next;
+    }
+
+    /**
+     * Added getter.
+     *
+     * @return Number of cities, absent from the previous export.
+     */
+    public long getAdded() {
+        return added;
+    }
+
+    /**
+     * Changed getter.
+     *
+     * @return Number of cities with changed name, type or coordinates.
+     */
+    public long getChanged() {
+        return changed;
+    }
+
+    /**
+     * Removed getter.
+     *
+     * @return Number of cities of the previous export, absent from the
+     * written ones. It is known after {@code finish()}.
+     */
+    public long getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Flushes the writer and closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Operation column of added cities.
+     */
+    public static final String ADDED = "added";
+    /**
+     * Operation column of changed cities.
+     */
+    public static final String CHANGED = "changed";
+    /**
+     * Operation column of removed cities.
+     */
+    public static final String REMOVED = "removed";
+}
@@ -6,24 +6,32 @@
 package com.bearsoft.citiesfetcher;
 
 import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.CityTable;
 import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
 import com.bearsoft.citiesfetcher.feed.CitiesFeed;
 import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import com.bearsoft.citiesfetcher.model.Projection;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 /**
  * Json to city transformer. Transforms a part of Json tokens stream from
  * {@code JsonParser} to {@code City} instance. It can be called multiple times
  * for pulling data of consecutive cities from Json tokens stream. This class is
- * here because of it makes us free to use only 'jackson-core' library.
+ * here because of it makes us free to use only 'jackson-core' library. Fields
+ * out of a projection are skipped as tokens, so their strings are not created
+ * and their numbers are not parsed.
  *
  * @author mg
  * @see City
@@ -49,14 +57,52 @@ public final class JsonCitiesFeed implements CitiesFeed {
      * Json parser that is used as Json token source.
      */
     private final JsonParser parser;
+    /**
+     * Offset of the parser input start in the whole Json body.
+     */
+    private final long base;
+    /**
+     * Projected fields of cities.
+     */
+    private final Projection projection;
+    /**
+     * Flag of projected id.
+     */
+    private final boolean readId;
+    /**
+     * Flag of projected name.
+     */
+    private final boolean readName;
+    /**
+     * Flag of projected type.
+     */
+    private final boolean readType;
+    /**
+     * Flag of projected latitude.
+     */
+    private final boolean readLatitude;
+    /**
+     * Flag of projected longitude.
+     */
+    private final boolean readLongitude;
 
     /**
      * {@code JsonCitiesFeed} transformer constructor.
      *
      * @param aParser {@code JsonParser} to used as Json tokens source.
+     * @param aBase Offset of the parser input start in the whole Json body.
+     * @param aProjection Projected fields of cities.
      */
-    private JsonCitiesFeed(final JsonParser aParser) {
+    private JsonCitiesFeed(final JsonParser aParser, final long aBase,
+            final Projection aProjection) {
         parser = aParser;
+        base = aBase;
+        projection = aProjection;
+        readId = aProjection.contains(Projection.Field.ID);
+        readName = aProjection.contains(Projection.Field.NAME);
+        readType = aProjection.contains(Projection.Field.TYPE);
+        readLatitude = aProjection.contains(Projection.Field.LATITUDE);
+        readLongitude = aProjection.contains(Projection.Field.LONGITUDE);
     }
 
     /**
@@ -74,12 +120,89 @@ public final class JsonCitiesFeed implements CitiesFeed {
     @Override
     public Optional<City> pull() throws IOException,
             PartialCityJsonException, BadCitiesJsonException {
+        if (nextObject()) {
+            City.Builder builder = new City.Builder(projection);
+            readObject(builder);
+            return Optional.of(builder.toCity());
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Pulls object tokens and appends a city straight to a table, without
+     * {@code City} instance creation.
+     *
+     * @param aTable A table to append a row to.
+     * @return True if a row was appended and false if the cities array is
+     * over.
+     * @throws IOException if low level {@code IOException} is thrown.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public boolean pullInto(final CityTable aTable) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        if (nextObject()) {
+            City.Builder builder = new City.Builder(projection);
+            readObject(builder);
+            builder.addTo(aTable);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Pulls all remaining cities into a table.
+     *
+     * @param aTable A table to append rows to.
+     * @return Number of appended rows.
+     * @throws IOException if low level {@code IOException} is thrown.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public int drainTo(final CityTable aTable) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        int added = 0;
+        while (pullInto(aTable)) {
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Offset getter. Right after a city is pulled, it is the offset of the
+     * end of the city object. A body, broken after a pulled city, may be
+     * resumed from this offset by {@code resume} method.
+     *
+     * @return Number of Json body bytes, consumed by the parser, or -1 if
+     * the body is parsed as chars.
+     */
+    public long getOffset() {
+        long consumed = parser.getCurrentLocation().getByteOffset();
+        return consumed >= 0 ? base + consumed : -1;
+    }
+
+    /**
+     * Advances the parser to the next object of cities array.
+     *
+     * @return True if the parser is at the start of an object and false if
+     * it is at the end of the array.
+     * @throws IOException if low level {@code IOException} is thrown.
+     * @throws BadCitiesJsonException if neither object start, nor array end
+     * occurred.
+     */
+    private boolean nextObject() throws IOException, BadCitiesJsonException {
         JsonToken start = parser.nextToken();
         switch (start) {
             case END_ARRAY:
-                return Optional.empty();
+                return false;
             case START_OBJECT:
-                return readObject();
+                return true;
             default:
                 throw new BadCitiesJsonException(
                         FINISH_OR_NEXT_OBJECT_EXPECTED_MSG);
@@ -99,50 +222,78 @@ public final class JsonCitiesFeed implements CitiesFeed {
             = "Expected end of array or next object start";
 
     /**
-     * Reads an object from Json token stream.
+     * Reads an object from Json token stream. Values of fields out of the
+     * projection are not read, so scalars are left to the parser to skip and
+     * objects and arrays are skipped with their children.
      *
-     * @return {@code Optional<City>} instance.
+     * @param aBuilder A builder to accumulate fields of the object.
      * @throws IOException if a problem with IO occurred.
-     * @throws PartialCityJsonException if some mandatory fields of {@code City}
-     * are missing.
      */
-    private Optional<City> readObject() throws IOException,
-            PartialCityJsonException {
-        City.Builder builder = new City.Builder();
+    private void readObject(final City.Builder aBuilder) throws IOException {
         walkObject(() -> {
             String fieldName = parser.getCurrentName();
             switch (fieldName) {
                 case "_id":
-                    builder.id(parser.getLongValue());
+                    if (readId) {
+                        aBuilder.id(parser.getLongValue());
+                    } else {
+                        skipObjectOrArray();
+                    }
                     break;
                 case "name":
-                    builder.name(parser.getText());
+                    if (readName) {
+                        aBuilder.name(parser.getText());
+                    } else {
+                        skipObjectOrArray();
+                    }
                     break;
                 case "type":
-                    builder.type(parser.getText());
+                    if (readType) {
+                        aBuilder.type(parser.getText());
+                    } else {
+                        skipObjectOrArray();
+                    }
                     break;
                 case "geo_position":
-                    walkObject(() -> {
-                        String geoFieldName = parser.getCurrentName();
-                        switch (geoFieldName) {
-                            case "latitude":
-                                builder.latitude(parser.getDoubleValue());
-                                break;
-                            case "longitude":
-                                builder.longitude(parser.getDoubleValue());
-                                break;
-                            default:
-                                skipObjectOrArray();
-                                break;
-                        }
-                    });
+                    if (readLatitude || readLongitude) {
+                        readPosition(aBuilder);
+                    } else {
+                        skipObjectOrArray();
+                    }
+                    break;
+                default:
+                    skipObjectOrArray();
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Reads projected coordinates of a geo position object.
+     *
+     * @param aBuilder A builder to accumulate coordinates.
+     * @throws IOException if a problem with IO occurred.
+     */
+    private void readPosition(final City.Builder aBuilder)
+            throws IOException {
+        walkObject(() -> {
+            String geoFieldName = parser.getCurrentName();
+            switch (geoFieldName) {
+                case "latitude":
+                    if (readLatitude) {
+                        aBuilder.latitude(parser.getDoubleValue());
+                    }
+                    break;
+                case "longitude":
+                    if (readLongitude) {
+                        aBuilder.longitude(parser.getDoubleValue());
+                    }
                     break;
                 default:
                     skipObjectOrArray();
                     break;
             }
         });
-        return Optional.of(builder.toCity());
     }
 
     /**
@@ -179,7 +330,9 @@ public final class JsonCitiesFeed implements CitiesFeed {
 
     /**
      * Creates {@code JsonCitiesFeed} instance and advances {@code aStream} to
-     * first start object token.
+     * first start object token. Utf-8 and ascii streams are parsed as bytes,
+     * without decoding to chars in advance. Other charsets are decoded by
+     * {@code InputStreamReader}.
      *
      * @param aStream A stream to be used as a source of Json tokens.
      * @param aCharset A charset of Json.
@@ -192,8 +345,34 @@ public final class JsonCitiesFeed implements CitiesFeed {
     public static JsonCitiesFeed create(
             final InputStream aStream, final Charset aCharset)
             throws IOException, BadCitiesJsonException {
-        Reader reader = new InputStreamReader(aStream, aCharset);
-        return create(reader);
+        return create(aStream, aCharset, Projection.ALL);
+    }
+
+    /**
+     * Creates {@code JsonCitiesFeed} instance of projected fields and
+     * advances {@code aStream} to first start object token.
+     *
+     * @param aStream A stream to be used as a source of Json tokens.
+     * @param aCharset A charset of Json.
+     * @param aProjection Projected fields of cities.
+     * @return {@code JsonCitiesFeed} instance initialized with an advanced
+     * stream.
+     * @throws IOException if a problem with IO occurs.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     * @see #create(InputStream, Charset)
+     */
+    public static JsonCitiesFeed create(final InputStream aStream,
+            final Charset aCharset, final Projection aProjection)
+            throws IOException, BadCitiesJsonException {
+        if (StandardCharsets.UTF_8.equals(aCharset)
+                || StandardCharsets.US_ASCII.equals(aCharset)) {
+            return create(JSON_FACTORY.createParser(aStream), 0,
+                    aProjection);
+        } else {
+            Reader reader = new InputStreamReader(aStream, aCharset);
+            return create(JSON_FACTORY.createParser(reader), 0, aProjection);
+        }
     }
 
     /**
@@ -209,13 +388,95 @@ public final class JsonCitiesFeed implements CitiesFeed {
      */
     public static JsonCitiesFeed create(final Reader aReader)
             throws IOException, BadCitiesJsonException {
-        JsonFactory jsonFactory = new JsonFactory();
-        JsonParser parser = jsonFactory.createParser(aReader);
-        JsonToken start = parser.nextToken();
+        return create(JSON_FACTORY.createParser(aReader), 0, Projection.ALL);
+    }
+
+    /**
+     * Creates {@code JsonCitiesFeed} instance over a tail of utf-8 cities
+     * array. The tail should start right after the array start or after a
+     * complete city object, so it is a comma separated list of the remaining
+     * objects, followed by the array end. It is parsed as the array by
+     * prepending an array start in place of the separating comma.
+     *
+     * @param aStream A stream with the tail of a Json body.
+     * @param aOffset Offset of the tail in the whole Json body.
+     * @return {@code JsonCitiesFeed} instance, reporting offsets in the
+     * whole Json body.
+     * @throws IOException if a problem with IO occurs.
+     * @throws BadCitiesJsonException if the tail starts with something
+     * other than a city or the array end.
+     */
+    public static JsonCitiesFeed resume(final InputStream aStream,
+            final long aOffset) throws IOException, BadCitiesJsonException {
+        return resume(aStream, aOffset, Projection.ALL);
+    }
+
+    /**
+     * Creates {@code JsonCitiesFeed} instance of projected fields over a
+     * tail of utf-8 cities array.
+     *
+     * @param aStream A stream with the tail of a Json body.
+     * @param aOffset Offset of the tail in the whole Json body.
+     * @param aProjection Projected fields of cities.
+     * @return {@code JsonCitiesFeed} instance, reporting offsets in the
+     * whole Json body.
+     * @throws IOException if a problem with IO occurs.
+     * @throws BadCitiesJsonException if the tail starts with something
+     * other than a city or the array end.
+     * @see #resume(InputStream, long)
+     */
+    public static JsonCitiesFeed resume(final InputStream aStream,
+            final long aOffset, final Projection aProjection)
+            throws IOException, BadCitiesJsonException {
+        PushbackInputStream in = new PushbackInputStream(aStream);
+        long skipped = 0;
+        int read = in.read();
+        while (read == ' ' || read == '\t' || read == '\r' || read == '\n') {
+            skipped++;
+            read = in.read();
+        }
+        if (read == ',') {
+            skipped++;
+        } else if (read != -1) {
+            in.unread(read);
+        }
+        // The prepended array start takes place of the skipped bytes.
+        return create(JSON_FACTORY.createParser(new SequenceInputStream(
+                new ByteArrayInputStream(ARRAY_START), in)),
+                aOffset + skipped - ARRAY_START.length, aProjection);
+    }
+
+    /**
+     * Creates {@code JsonCitiesFeed} instance and advances {@code aParser} to
+     * first start object token.
+     *
+     * @param aParser A parser to be used as a source of Json tokens.
+     * @param aBase Offset of the parser input start in the whole Json body.
+     * @param aProjection Projected fields of cities.
+     * @return {@code JsonCitiesFeed} instance initialized with an advanced
+     * parser.
+     * @throws IOException if a problem with IO occurs.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    private static JsonCitiesFeed create(final JsonParser aParser,
+            final long aBase, final Projection aProjection)
+            throws IOException, BadCitiesJsonException {
+        JsonToken start = aParser.nextToken();
         if (start == JsonToken.START_ARRAY) {
-            return new JsonCitiesFeed(parser);
+            return new JsonCitiesFeed(aParser, aBase, aProjection);
         } else {
             throw new BadCitiesJsonException(ARRAY_EXPECTED_MSG);
         }
     }
+
+    /**
+     * Json parsers factory. It is thread safe and it is shared to reuse its
+     * symbol tables and buffers recycling.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    /**
+     * Array start, prepended to a resumed tail of cities array.
+     */
+    private static final byte[] ARRAY_START = {'['};
 }
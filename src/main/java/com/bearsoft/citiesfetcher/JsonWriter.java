@@ -0,0 +1,111 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming Json writer. It writes cities as an utf-8 Json array of objects
+ * in the form of the suggest endpoint: {@code _id}, {@code name},
+ * {@code type} and {@code geo_position} with {@code latitude} and
+ * {@code longitude}. A null type is omitted. The array is closed by
+ * {@code close()}, so an empty result is still a valid array.
+ *
+ * @author mg
+ * @see JsonCitiesFeed
+ */
+public final class JsonWriter implements CitiesSink {
+
+    /**
+     * Underlying generator.
+     */
+    private final JsonGenerator json;
+
+    /**
+     * Constructs a writer and starts the array.
+     *
+     * @param aOut A stream to write the array to.
+     * @throws IOException if the stream throws it.
+     */
+    public JsonWriter(final OutputStream aOut) throws IOException {
+        json = JSON_FACTORY.createGenerator(aOut, JsonEncoding.UTF8);
+        json.writeStartArray();
+    }
+
+    /**
+     * Writes a {@code City} instance as a Json object.
+     *
+     * @param aCity instance to be written.
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void write(final City aCity) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField(ID, aCity.getId());
+        json.writeStringField(NAME, aCity.getName());
+        if (aCity.getType() != null) {
+            json.writeStringField(TYPE, aCity.getType());
+        }
+        json.writeObjectFieldStart(GEO_POSITION);
+        json.writeNumberField(LATITUDE, aCity.getLatitude());
+        json.writeNumberField(LONGITUDE, aCity.getlongitude());
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    /**
+     * Writes buffered objects to the underlying stream and flushes it.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void flush() throws IOException {
+        json.flush();
+    }
+
+    /**
+     * Ends the array and closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            json.writeEndArray();
+        } finally {
+            json.close();
+        }
+    }
+
+    /**
+     * Factory of Json generators.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    /**
+     * Id field name.
+     */
+    private static final String ID = "_id";
+    /**
+     * Name field name.
+     */
+    private static final String NAME = "name";
+    /**
+     * Type field name.
+     */
+    private static final String TYPE = "type";
+    /**
+     * Geo position field name.
+     */
+    private static final String GEO_POSITION = "geo_position";
+    /**
+     * Latitude field name.
+     */
+    private static final String LATITUDE = "latitude";
+    /**
+     * Longitude field name.
+     */
+    private static final String LONGITUDE = "longitude";
+}
@@ -0,0 +1,342 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.CityTable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Feed of cities from a binary columnar file, written by
+ * {@code BinaryWriter}. The file is memory mapped and values are read from
+ * the mapping in place, without copying columns to heap. Strings are
+ * decoded once per distinct value, when they are needed for the first
+ * time. Besides pulling, rows can be read at random by index. The mapping
+ * is released, when the feed becomes unreachable. A single mapping limits
+ * files to 2 GB. Dictionaries and codes are validated, when the file is
+ * opened, so a corrupt file is rejected with {@code IOException} rather
+ * than failing later reads.
+ *
+ * @author mg
+ * @see BinaryWriter
+ */
+public final class MappedCitiesFeed implements CitiesFeed {
+
+    /**
+     * Mapped file content.
+     */
+    private final ByteBuffer data;
+    /**
+     * Number of rows.
+     */
+    private final int rows;
+    /**
+     * Offset of ids column.
+     */
+    private final int idsOffset;
+    /**
+     * Offset of latitudes column.
+     */
+    private final int latitudesOffset;
+    /**
+     * Offset of longitudes column.
+     */
+    private final int longitudesOffset;
+    /**
+     * Offset of name codes column.
+     */
+    private final int nameCodesOffset;
+    /**
+     * Offset of type codes column.
+     */
+    private final int typeCodesOffset;
+    /**
+     * Offset of names dictionary.
+     */
+    private final int namesOffset;
+    /**
+     * Offset of types dictionary.
+     */
+    private final int typesOffset;
+    /**
+     * Decoded names by codes.
+     */
+    private final String[] names;
+    /**
+     * Decoded types by codes.
+     */
+    private final String[] types;
+    /**
+     * Index of the next row to be pulled.
+     */
+    private int next;
+
+    /**
+     * Constructs a feed over mapped data.
+     *
+     * @param aData File content.
+     * @throws IOException if the content is not a binary cities file.
+     */
+    private MappedCitiesFeed(final ByteBuffer aData) throws IOException {
+        data = aData.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.capacity() < BinaryWriter.HEADER_SIZE
+                || data.getInt(0) != BinaryWriter.MAGIC) {
+            throw new IOException(NOT_BINARY_MSG);
+        }
+        if (data.getInt(Integer.BYTES) != BinaryWriter.VERSION) {
+            throw new IOException(String.format(UNSUPPORTED_VERSION_MSG,
+                    data.getInt(Integer.BYTES)));
+        }
+        rows = data.getInt(2 * Integer.BYTES);
+        if (rows < 0 || rows > data.capacity() / ROW_SIZE) {
+            throw new IOException(NOT_BINARY_MSG);
+        }
+        int namesCount = data.getInt(3 * Integer.BYTES);
+        int typesCount = data.getInt(4 * Integer.BYTES);
+        idsOffset = BinaryWriter.HEADER_SIZE;
+        latitudesOffset = idsOffset + rows * Long.BYTES;
+        longitudesOffset = latitudesOffset + rows * Double.BYTES;
+        nameCodesOffset = longitudesOffset + rows * Double.BYTES;
+        typeCodesOffset = nameCodesOffset + rows * Integer.BYTES;
+        namesOffset = typeCodesOffset + rows * Integer.BYTES;
+        typesOffset = dictionaryEnd(namesOffset, namesCount);
+        if (dictionaryEnd(typesOffset, typesCount) != data.capacity()) {
+            throw new IOException(NOT_BINARY_MSG);
+        }
+        checkCodes(nameCodesOffset, namesCount);
+        checkCodes(typeCodesOffset, typesCount);
+        names = new String[namesCount];
+        types = new String[typesCount];
+    }
+
+    /**
+     * Maps a file and creates a feed over it.
+     *
+     * @param aFile A file, written by {@code BinaryWriter}.
+     * @return The feed, positioned at the first row.
+     * @throws IOException if the file can't be mapped or if it is not a
+     * binary cities file.
+     */
+    public static MappedCitiesFeed open(final File aFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(aFile.toPath(),
+                StandardOpenOption.READ)) {
+            return new MappedCitiesFeed(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Calculates end of a dictionary and checks, that offsets of its
+     * strings start from zero and don't decrease.
+     *
+     * @param aOffset Offset of the dictionary.
+     * @param aCount Number of strings in the dictionary.
+     * @return Offset of the first byte after the dictionary.
+     * @throws IOException if the dictionary is out of the file or its
+     * offsets are malformed.
+     */
+    private int dictionaryEnd(final int aOffset, final int aCount)
+            throws IOException {
+        long bytesOffset = aOffset + (aCount + 1L) * Integer.BYTES;
+        if (aCount < 0 || bytesOffset > data.capacity()
+                || data.getInt(aOffset) != 0) {
+            throw new IOException(NOT_BINARY_MSG);
+        }
+        int previous = 0;
+        for (int i = 1; i <= aCount; i++) {
+            int offset = data.getInt(aOffset + i * Integer.BYTES);
+            if (offset < previous) {
+                throw new IOException(NOT_BINARY_MSG);
+            }
+            previous = offset;
+        }
+        long end = bytesOffset + previous;
+        if (end > data.capacity()) {
+            throw new IOException(NOT_BINARY_MSG);
+        }
+        return (int) end;
+    }
+
+    /**
+     * Checks, that codes of a column refer to strings of a dictionary or
+     * are {@code CityTable.NULL_CODE}.
+     *
+     * @param aOffset Offset of the codes column.
+     * @param aCount Number of strings in the dictionary.
+     * @throws IOException if a code is out of the dictionary.
+     */
+    private void checkCodes(final int aOffset, final int aCount)
+            throws IOException {
+        for (int row = 0; row < rows; row++) {
+            int code = data.getInt(aOffset + row * Integer.BYTES);
+            if (code < CityTable.NULL_CODE || code >= aCount) {
+                throw new IOException(String.format(BAD_CODE_MSG, code,
+                        row));
+            }
+        }
+    }
+
+    /**
+     * Reads a string from a dictionary.
+     *
+     * @param aOffset Offset of the dictionary.
+     * @param aCount Number of strings in the dictionary.
+     * @param aCode Code of the string.
+     * @return The string.
+     */
+    private String readString(final int aOffset, final int aCount,
+            final int aCode) {
+        int start = data.getInt(aOffset + aCode * Integer.BYTES);
+        int end = data.getInt(aOffset + (aCode + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer string = data.duplicate();
+        string.position(aOffset + (aCount + 1) * Integer.BYTES + start);
+        string.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Number of rows in the file.
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Checks, that a row index is inside the file.
+     *
+     * @param aRow Index of a row.
+     * @throws IndexOutOfBoundsException if the row is out of the file.
+     */
+    private void checkRow(final int aRow) {
+        if (aRow < 0 || aRow >= rows) {
+            throw new IndexOutOfBoundsException(String.format(
+                    ROW_OUT_OF_BOUNDS_MSG, aRow, rows));
+        }
+    }
+
+    /**
+     * Id getter.
+     *
+     * @param aRow Index of a row.
+     * @return Id of the row.
+     */
+    public long getId(final int aRow) {
+        checkRow(aRow);
+        return data.getLong(idsOffset + aRow * Long.BYTES);
+    }
+
+    /**
+     * Latitude getter.
+     *
+     * @param aRow Index of a row.
+     * @return Latitude of the row.
+     */
+    public double getLatitude(final int aRow) {
+        checkRow(aRow);
+        return data.getDouble(latitudesOffset + aRow * Double.BYTES);
+    }
+
+    /**
+     * Longitude getter.
+     *
+     * @param aRow Index of a row.
+     * @return Longitude of the row.
+     */
+    public double getLongitude(final int aRow) {
+        checkRow(aRow);
+        return data.getDouble(longitudesOffset + aRow * Double.BYTES);
+    }
+
+    /**
+     * Name getter.
+     *
+     * @param aRow Index of a row.
+     * @return Name of the row or null.
+     */
+    public String getName(final int aRow) {
+        checkRow(aRow);
+        int code = data.getInt(nameCodesOffset + aRow * Integer.BYTES);
+        if (code < 0) {
+            return null;
+        }
+        if (names[code] == null) {
+            names[code] = readString(namesOffset, names.length, code);
+        }
+        return names[code];
+    }
+
+    /**
+     * Type getter.
+     *
+     * @param aRow Index of a row.
+     * @return Type of the row or null.
+     */
+    public String getType(final int aRow) {
+        checkRow(aRow);
+        int code = data.getInt(typeCodesOffset + aRow * Integer.BYTES);
+        if (code < 0) {
+            return null;
+        }
+        if (types[code] == null) {
+            types[code] = readString(typesOffset, types.length, code);
+        }
+        return types[code];
+    }
+
+    /**
+     * Materializes a row.
+     *
+     * @param aRow Index of a row.
+     * @return {@code City} instance with values of the row.
+     */
+    public City get(final int aRow) {
+        return new City(getId(aRow), getName(aRow), getType(aRow),
+                getLatitude(aRow), getLongitude(aRow));
+    }
+
+    /**
+     * Pulls the next row of the file.
+     *
+     * @return {@code City} instance with values of the next row or empty
+     * value if the file is over.
+     */
+    @Override
+    public Optional<City> pull() {
+        return next < rows ? Optional.of(get(next++)) : Optional.empty();
+    }
+
+    /**
+     * Size of a row in columns in bytes.
+     */
+    private static final int ROW_SIZE = Long.BYTES + 2 * Double.BYTES
+            + 2 * Integer.BYTES;
+    /**
+     * Message about a file of unknown format.
+     */
+    private static final String NOT_BINARY_MSG
+            = "Not a binary cities file or the file is truncated";
+    /**
+     * Message about a code out of its dictionary.
+     */
+    private static final String BAD_CODE_MSG
+            = "Code %d of row %d is out of its dictionary";
+    /**
+     * Message about unsupported version of the format.
+     */
+    private static final String UNSUPPORTED_VERSION_MSG
+            = "Unsupported version %d of binary cities file";
+    /**
+     * Message about row index out of the file.
+     */
+    private static final String ROW_OUT_OF_BOUNDS_MSG
+            = "Row %d is out of file with %d rows";
+}
@@ -0,0 +1,561 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.http.LimitingTransport;
+import com.bearsoft.citiesfetcher.http.RetryingTransport;
+import com.bearsoft.citiesfetcher.http.Timing;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of fetches. It accumulates time of every stage of fetching, bytes
+ * in and out and number of cities over all fetches of an
+ * {@code Application}. Stage times don't overlap: download time is time of
+ * reading from network, decode time is time of content decoding without
+ * download, parse time is time of Json parsing without decoding and download,
+ * encode time is time of CSV encoding without writing. Metrics are thread
+ * safe.
+ *
+ * @author mg
+ */
+public final class Metrics {
+
+    /**
+     * Number of fetches.
+     */
+    private final LongAdder fetches = new LongAdder();
+    /**
+     * Time of host name resolution in nanos.
+     */
+    private final LongAdder dnsNanos = new LongAdder();
+    /**
+     * Time of connect in nanos.
+     */
+    private final LongAdder connectNanos = new LongAdder();
+    /**
+     * Time to first byte in nanos.
+     */
+    private final LongAdder firstByteNanos = new LongAdder();
+    /**
+     * Time of body download in nanos.
+     */
+    private final LongAdder downloadNanos = new LongAdder();
+    /**
+     * Time of content decoding in nanos.
+     */
+    private final LongAdder decodeNanos = new LongAdder();
+    /**
+     * Time of Json parsing in nanos.
+     */
+    private final LongAdder parseNanos = new LongAdder();
+    /**
+     * Time of CSV encoding in nanos.
+     */
+    private final LongAdder encodeNanos = new LongAdder();
+    /**
+     * Time of writing and flushing in nanos.
+     */
+    private final LongAdder writeNanos = new LongAdder();
+    /**
+     * Total time of fetches in nanos.
+     */
+    private final LongAdder fetchNanos = new LongAdder();
+    /**
+     * Number of body bytes received from network.
+     */
+    private final LongAdder bytesIn = new LongAdder();
+    /**
+     * Number of body bytes after content decoding.
+     */
+    private final LongAdder decodedBytes = new LongAdder();
+    /**
+     * Number of CSV bytes written.
+     */
+    private final LongAdder bytesOut = new LongAdder();
+    /**
+     * Number of cities fetched.
+     */
+    private final LongAdder cities = new LongAdder();
+    /**
+     * Number of duplicate cities dropped.
+     */
+    private final LongAdder duplicates = new LongAdder();
+    /**
+     * Number of cities, added since the previous delta export.
+     */
+    private final LongAdder added = new LongAdder();
+    /**
+     * Number of cities, changed since the previous delta export.
+     */
+    private final LongAdder changed = new LongAdder();
+    /**
+     * Number of cities, removed since the previous delta export.
+     */
+    private final LongAdder removed = new LongAdder();
+    /**
+     * Transport, retries and hedges are counted by, or null.
+     */
+    private volatile RetryingTransport retrying;
+    /**
+     * Transport, the concurrency limit and queueing time are taken from, or
+     * null.
+     */
+    private volatile LimitingTransport limiting;
+    /**
+     * Coalescing of fetches, originated and coalesced fetches are counted
+     * by, or null.
+     */
+    private volatile SingleFlight flights;
+
+    /**
+     * Records timing of a http exchange up to the first byte.
+     *
+     * @param aTiming Timing of the exchange.
+     */
+    void addExchange(final Timing aTiming) {
+        dnsNanos.add(aTiming.getDnsNanos());
+        connectNanos.add(aTiming.getConnectNanos());
+        firstByteNanos.add(aTiming.getFirstByteNanos());
+    }
+
+    /**
+     * Records body download.
+     *
+     * @param aBytes Number of bytes received.
+     * @param aNanos Time of download in nanos.
+     */
+    void addDownload(final long aBytes, final long aNanos) {
+        bytesIn.add(aBytes);
+        downloadNanos.add(aNanos);
+    }
+
+    /**
+     * Records content decoding.
+     *
+     * @param aBytes Number of decoded bytes.
+     * @param aNanos Time of decoding in nanos.
+     */
+    void addDecode(final long aBytes, final long aNanos) {
+        decodedBytes.add(aBytes);
+        decodeNanos.add(aNanos);
+    }
+
+    /**
+     * Records Json parsing.
+     *
+     * @param aCities Number of parsed cities.
+     * @param aNanos Time of parsing in nanos.
+     */
+    void addParse(final long aCities, final long aNanos) {
+        cities.add(aCities);
+        parseNanos.add(aNanos);
+    }
+
+    /**
+     * Records duplicate cities, dropped while parsing.
+     *
+     * @param aDuplicates Number of dropped cities.
+     */
+    void addDuplicates(final long aDuplicates) {
+        duplicates.add(aDuplicates);
+    }
+
+    /**
+     * Records changes, written by a delta export.
+     *
+     * @param aAdded Number of added cities.
+     * @param aChanged Number of changed cities.
+     * @param aRemoved Number of removed cities.
+     */
+    void addDelta(final long aAdded, final long aChanged,
+            final long aRemoved) {
+        added.add(aAdded);
+        changed.add(aChanged);
+        removed.add(aRemoved);
+    }
+
+    /**
+     * Sets a transport, retries and hedges are counted by.
+     *
+     * @param aRetrying Retrying transport of fetches.
+     */
+    void track(final RetryingTransport aRetrying) {
+        retrying = aRetrying;
+    }
+
+    /**
+     * Sets a transport, the concurrency limit and queueing time are taken
+     * from.
+     *
+     * @param aLimiting Limiting transport of fetches.
+     */
+    void track(final LimitingTransport aLimiting) {
+        limiting = aLimiting;
+    }
+
+    /**
+     * Sets coalescing of fetches, originated and coalesced fetches are
+     * counted by.
+     *
+     * @param aFlights Coalescing of fetches.
+     */
+    void track(final SingleFlight aFlights) {
+        flights = aFlights;
+    }
+
+    /**
+     * Records CSV encoding.
+     *
+     * @param aNanos Time of encoding in nanos.
+     */
+    void addEncode(final long aNanos) {
+        encodeNanos.add(aNanos);
+    }
+
+    /**
+     * Records writing of CSV.
+     *
+     * @param aBytes Number of bytes written.
+     * @param aNanos Time of writing and flushing in nanos.
+     */
+    void addWrite(final long aBytes, final long aNanos) {
+        bytesOut.add(aBytes);
+        writeNanos.add(aNanos);
+    }
+
+    /**
+     * Records a complete fetch.
+     *
+     * @param aNanos Total time of the fetch in nanos.
+     */
+    void addFetch(final long aNanos) {
+        fetches.increment();
+        fetchNanos.add(aNanos);
+    }
+
+    /**
+     * Fetches getter.
+     *
+     * @return Number of fetches.
+     */
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    /**
+     * Name resolution time getter.
+     *
+     * @return Time of host name resolution in nanos.
+     */
+    public long getDnsNanos() {
+        return dnsNanos.sum();
+    }
+
+    /**
+     * Connect time getter.
+     *
+     * @return Time of connect, including TLS handshake, in nanos.
+     */
+    public long getConnectNanos() {
+        return connectNanos.sum();
+    }
+
+    /**
+     * Time to first byte getter.
+     *
+     * @return Time from start of request writing to receipt of status line
+     * in nanos.
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos.sum();
+    }
+
+    /**
+     * Download time getter.
+     *
+     * @return Time of body download in nanos.
+     */
+    public long getDownloadNanos() {
+        return downloadNanos.sum();
+    }
+
+    /**
+     * Decode time getter.
+     *
+     * @return Time of content decoding in nanos.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    /**
+     * Parse time getter.
+     *
+     * @return Time of Json parsing in nanos.
+     */
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    /**
+     * Encode time getter.
+     *
+     * @return Time of CSV encoding in nanos.
+     */
+    public long getEncodeNanos() {
+        return encodeNanos.sum();
+    }
+
+    /**
+     * Write time getter.
+     *
+     * @return Time of writing and flushing in nanos.
+     */
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    /**
+     * Fetch time getter.
+     *
+     * @return Total time of fetches in nanos.
+     */
+    public long getFetchNanos() {
+        return fetchNanos.sum();
+    }
+
+    /**
+     * Received bytes getter.
+     *
+     * @return Number of body bytes received from network.
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Decoded bytes getter.
+     *
+     * @return Number of body bytes after content decoding.
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.sum();
+    }
+
+    /**
+     * Written bytes getter.
+     *
+     * @return Number of CSV bytes written.
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Cities getter.
+     *
+     * @return Number of cities fetched.
+     */
+    public long getCities() {
+        return cities.sum();
+    }
+
+    /**
+     * Duplicates getter.
+     *
+     * @return Number of duplicate cities dropped.
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Added getter.
+     *
+     * @return Number of cities, added since the previous delta export.
+     */
+    public long getAdded() {
+        return added.sum();
+    }
+
+    /**
+     * Changed getter.
+     *
+     * @return Number of cities, changed since the previous delta export.
+     */
+    public long getChanged() {
+        return changed.sum();
+    }
+
+    /**
+     * Removed getter.
+     *
+     * @return Number of cities, removed since the previous delta export.
+     */
+    public long getRemoved() {
+        return removed.sum();
+    }
+
+    /**
+     * Retries getter.
+     *
+     * @return Number of repeated requests.
+     */
+    public long getRetries() {
+        RetryingTransport tracked = retrying;
+        return tracked != null ? tracked.getRetries() : 0;
+    }
+
+    /**
+     * Hedges getter.
+     *
+     * @return Number of duplicate requests, sent by hedging.
+     */
+    public long getHedges() {
+        RetryingTransport tracked = retrying;
+        return tracked != null ? tracked.getHedges() : 0;
+    }
+
+    /**
+     * Concurrency limit getter.
+     *
+     * @return Current limit of concurrent requests or 0 if it is not
+     * limited.
+     */
+    public int getConcurrencyLimit() {
+        LimitingTransport tracked = limiting;
+        return tracked != null ? tracked.getLimit() : 0;
+    }
+
+    /**
+     * Queue time getter.
+     *
+     * @return Time, requests waited for the concurrency limit and the rate
+     * limit, in nanos.
+     */
+    public long getQueueNanos() {
+        LimitingTransport tracked = limiting;
+        return tracked != null ? tracked.getQueueNanos() : 0;
+    }
+
+    /**
+     * Originated getter.
+     *
+     * @return Number of fetches, that requested their sources, while
+     * fetches are coalesced, or 0 if they are not.
+     */
+    public long getOriginated() {
+        SingleFlight tracked = flights;
+        return tracked != null ? tracked.getOriginated() : 0;
+    }
+
+    /**
+     * Coalesced getter.
+     *
+     * @return Number of fetches, served by concurrent fetches of the same
+     * sources.
+     */
+    public long getCoalesced() {
+        SingleFlight tracked = flights;
+        return tracked != null ? tracked.getCoalesced() : 0;
+    }
+
+    /**
+     * Throughput getter.
+     *
+     * @return Cities fetched per second of fetching time.
+     */
+    public double getCitiesPerSecond() {
+        long nanos = getFetchNanos();
+        return nanos > 0 ? getCities() * NANOS_PER_SECOND / nanos : 0;
+    }
+
+    /**
+     * Writes metrics as a Json object.
+     *
+     * @param aJson A generator to write with.
+     * @throws IOException if the generator throws it.
+     */
+    private void write(final JsonGenerator aJson) throws IOException {
+        aJson.writeStartObject();
+        aJson.writeNumberField("fetches", getFetches());
+        aJson.writeNumberField("cities", getCities());
+        aJson.writeNumberField("duplicates", getDuplicates());
+        aJson.writeNumberField("added", getAdded());
+        aJson.writeNumberField("changed", getChanged());
+        aJson.writeNumberField("removed", getRemoved());
+        aJson.writeNumberField("retries", getRetries());
+        aJson.writeNumberField("hedges", getHedges());
+        aJson.writeNumberField("concurrencyLimit", getConcurrencyLimit());
+        aJson.writeNumberField("originated", getOriginated());
+        aJson.writeNumberField("coalesced", getCoalesced());
+        aJson.writeNumberField("citiesPerSecond", getCitiesPerSecond());
+        aJson.writeNumberField("bytesIn", getBytesIn());
+        aJson.writeNumberField("decodedBytes", getDecodedBytes());
+        aJson.writeNumberField("bytesOut", getBytesOut());
+        aJson.writeNumberField("queueNanos", getQueueNanos());
+        aJson.writeNumberField("dnsNanos", getDnsNanos());
+        aJson.writeNumberField("connectNanos", getConnectNanos());
+        aJson.writeNumberField("firstByteNanos", getFirstByteNanos());
+        aJson.writeNumberField("downloadNanos", getDownloadNanos());
+        aJson.writeNumberField("decodeNanos", getDecodeNanos());
+        aJson.writeNumberField("parseNanos", getParseNanos());
+        aJson.writeNumberField("encodeNanos", getEncodeNanos());
+        aJson.writeNumberField("writeNanos", getWriteNanos());
+        aJson.writeNumberField("fetchNanos", getFetchNanos());
+        aJson.writeEndObject();
+    }
+
+    /**
+     * Formats metrics as a single line Json object.
+     *
+     * @return Json summary line.
+     */
+    public String toJson() {
+        try {
+            StringWriter line = new StringWriter();
+            try (JsonGenerator json = JSON_FACTORY.createGenerator(line)) {
+                write(json);
+            }
+            return line.toString();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes metrics to a Json file.
+     *
+     * @param aFile A file to be written.
+     * @throws IOException if the file can't be written.
+     */
+    public void writeJson(final File aFile) throws IOException {
+        try (OutputStream out = Files.newOutputStream(aFile.toPath());
+                JsonGenerator json = JSON_FACTORY.createGenerator(out,
+                        JsonEncoding.UTF8)) {
+            json.useDefaultPrettyPrinter();
+            write(json);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * Factory of Json generators.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    /**
+     * Nanos in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+}
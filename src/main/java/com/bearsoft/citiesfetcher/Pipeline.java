@@ -0,0 +1,239 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pipelined mode of the fetcher. The calling thread pulls cities from a feed
+ * and hands them over in batches through a bounded queue to a writer thread,
+ * that encodes and writes them to a sink. So network stalls and disk flushes
+ * overlap. The writer consumes batches in order they are pulled, so output
+ * order is the same as in sequential mode.
+ *
+ * @author mg
+ */
+public final class Pipeline {
+
+    /**
+     * Number of cities in a batch.
+     */
+    private final int batchSize;
+    /**
+     * Maximum number of batches, waiting for the writer.
+     */
+    private final int queueDepth;
+    /**
+     * Time of pulling cities by the last run in nanos.
+     */
+    private long pullNanos;
+    /**
+     * Time of writing cities by the last run in nanos.
+     */
+    private long writeNanos;
+
+    /**
+     * Pipeline constructor.
+     *
+     * @param aBatchSize Number of cities in a batch.
+     * @param aQueueDepth Maximum number of batches, waiting for the writer.
+     */
+    public Pipeline(final int aBatchSize, final int aQueueDepth) {
+        batchSize = aBatchSize;
+        queueDepth = aQueueDepth;
+    }
+
+    /**
+     * Pull time getter.
+     *
+     * @return Time of pulling cities from the feed by the last run in nanos.
+     */
+    public long getPullNanos() {
+        return pullNanos;
+    }
+
+    /**
+     * Write time getter.
+     *
+     * @return Time of writing cities, including flushing, by the last run in
+     * nanos.
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Pulls all cities from a feed and writes them with a writer on another
+     * thread. Cities, pulled before a feed failure, are written before the
+     * failure is thrown. The writer is flushed, but not closed.
+     *
+     * @param aFeed A feed to pull cities from.
+     * @param aSink A sink of cities. It is used only by the writer thread
+     * while this method runs.
+     * @return Number of cities pulled.
+     * @throws IOException if the feed or the writer throws it.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public int run(final CitiesFeed aFeed, final CitiesSink aSink)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        BlockingQueue<List<City>> queue = new ArrayBlockingQueue<>(queueDepth);
+        Writer writer = new Writer(queue, aSink);
+        Thread thread = new Thread(writer, WRITER_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+        int pulled = 0;
+        pullNanos = 0;
+        List<City> batch = new ArrayList<>(batchSize);
+        try {
+            long started = System.nanoTime();
+            Optional<City> city = aFeed.pull();
+            pullNanos += System.nanoTime() - started;
+            while (city.isPresent() && writer.failure == null) {
+                batch.add(city.get());
+                pulled++;
+                if (batch.size() == batchSize) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+                started = System.nanoTime();
+                city = aFeed.pull();
+                pullNanos += System.nanoTime() - started;
+            }
+        } catch (InterruptedException ex) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } finally {
+            finish(queue, batch, thread);
+            writeNanos = writer.nanos;
+        }
+        writer.rethrow();
+        return pulled;
+    }
+
+    /**
+     * Sends the last incomplete batch and end of batches to the writer and
+     * waits for it to complete.
+     *
+     * @param aQueue Queue of batches.
+     * @param aBatch The last batch, possibly empty.
+     * @param aThread Writer thread.
+     * @throws InterruptedIOException if the calling thread is interrupted.
+     */
+    private static void finish(final BlockingQueue<List<City>> aQueue,
+            final List<City> aBatch, final Thread aThread)
+            throws InterruptedIOException {
+        try {
+            if (!aBatch.isEmpty()) {
+                aQueue.put(aBatch);
+            }
+            aQueue.put(END);
+            aThread.join();
+        } catch (InterruptedException ex) {
+            aThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Writer stage. It writes batches until the end marker. After a failure
+     * it keeps draining the queue, so that the puller is never blocked.
+     */
+    private static final class Writer implements Runnable {
+
+        /**
+         * Queue of batches.
+         */
+        private final BlockingQueue<List<City>> queue;
+        /**
+         * Sink of cities.
+         */
+        private final CitiesSink sink;
+        /**
+         * Failure of the writer.
+         */
+        private volatile Throwable failure;
+        /**
+         * Time of writing in nanos.
+         */
+        private long nanos;
+
+        /**
+         * Writer constructor.
+         *
+         * @param aQueue Queue of batches.
+         * @param aSink Sink of cities.
+         */
+        Writer(final BlockingQueue<List<City>> aQueue,
+                final CitiesSink aSink) {
+            queue = aQueue;
+            sink = aSink;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<City> batch = queue.take();
+                while (batch != END) {
+                    if (failure == null) {
+                        long started = System.nanoTime();
+                        try {
+                            for (City city : batch) {
+                                sink.write(city);
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            failure = ex;
+                        }
+                        nanos += System.nanoTime() - started;
+                    }
+                    batch = queue.take();
+                }
+                if (failure == null) {
+                    long started = System.nanoTime();
+                    sink.flush();
+                    nanos += System.nanoTime() - started;
+                }
+            } catch (IOException | RuntimeException ex) {
+                failure = ex;
+            } catch (InterruptedException ex) {
+                failure = new InterruptedIOException(ex.getMessage());
+            }
+        }
+
+        /**
+         * Rethrows failure of the writer, if any.
+         *
+         * @throws IOException if the writer failed with it.
+         */
+        void rethrow() throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+        }
+    }
+
+    /**
+     * End of batches marker.
+     */
+    private static final List<City> END = Collections.emptyList();
+    /**
+     * Name of writer threads.
+     */
+    private static final String WRITER_THREAD_NAME = "cities-writer";
+}
@@ -0,0 +1,419 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Http server, exposing an {@code Application} as a local service. It
+ * serves {@code /cities?q=CITY_NAME&format=csv|json} with cities, fetched
+ * from the endpoint, and {@code /metrics} with metrics of the application as
+ * Json. A single application serves all requests, so connection pool,
+ * cache and limits of its transport stay warm between requests. Cities are
+ * streamed to a client while they are parsed. The status line is sent with
+ * the first bytes of the body, so a failure of the endpoint before it is
+ * answered with 502 status, while a failure after it drops the connection
+ * and the client sees an incomplete body.
+ *
+ * @author mg
+ */
+public final class Server implements Closeable {
+
+    /**
+     * Application, cities are fetched with.
+     */
+    private final Application application;
+    /**
+     * Underlying http server.
+     */
+    private final HttpServer server;
+    /**
+     * Threads of the server.
+     */
+    private final ExecutorService threads;
+    /**
+     * Latch, released when the server is closed.
+     */
+    private final CountDownLatch closed = new CountDownLatch(1);
+    /**
+     * Number of served cities requests.
+     */
+    private final LongAdder requests = new LongAdder();
+    /**
+     * Number of cities requests, failed by the endpoint.
+     */
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Starts a server.
+     *
+     * @param aApplication Application to fetch cities with.
+     * @param aAddress Address to listen on. Port 0 selects a free port.
+     * @param aThreads Number of concurrently served requests.
+     * @throws IOException if the address can't be bound.
+     */
+    public Server(final Application aApplication,
+            final InetSocketAddress aAddress, final int aThreads)
+            throws IOException {
+        application = aApplication;
+        server = HttpServer.create(aAddress, 0);
+        threads = Executors.newFixedThreadPool(aThreads, aTask -> {
+            Thread thread = new Thread(aTask, SERVER_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(threads);
+        server.createContext(CITIES_PATH, this::cities);
+        server.createContext(METRICS_PATH, this::metrics);
+        server.start();
+    }
+
+    /**
+     * Address getter.
+     *
+     * @return Address, the server listens on.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Requests getter.
+     *
+     * @return Number of served cities requests.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Failures getter.
+     *
+     * @return Number of cities requests, failed by the endpoint.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Waits until the server is closed.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void await() throws InterruptedException {
+        closed.await();
+    }
+
+    /**
+     * Serves a cities request.
+     *
+     * @param aExchange The exchange of the request.
+     * @throws IOException if the response can't be written or the fetch
+     * failed after the response is started.
+     */
+    private void cities(final HttpExchange aExchange) throws IOException {
+        requests.increment();
+        Map<String, String> parameters;
+        try {
+            parameters = parameters(aExchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException ex) {
+            respond(aExchange, BAD_REQUEST, String.format(BAD_QUERY_MSG,
+                    ex.getMessage()));
+            return;
+        }
+        String query = parameters.getOrDefault(QUERY, "");
+        String format = parameters.getOrDefault(FORMAT, CSV);
+        if (!GET.equals(aExchange.getRequestMethod())) {
+            respond(aExchange, METHOD_NOT_ALLOWED, GET_EXPECTED_MSG);
+        } else if (query.isEmpty()) {
+            respond(aExchange, BAD_REQUEST, QUERY_EXPECTED_MSG);
+        } else if (!CSV.equals(format) && !JSON.equals(format)) {
+            respond(aExchange, BAD_REQUEST,
+                    String.format(UNKNOWN_FORMAT_MSG, format));
+        } else {
+            URL source = application.getSettings().citySource(query);
+            Reply reply = new Reply(aExchange, JSON.equals(format)
+                    ? JSON_CONTENT_TYPE : CSV_CONTENT_TYPE);
+            CitiesSink sink = JSON.equals(format) ? new JsonWriter(reply)
+                    : new CsvWriter(reply);
+            try {
+                application.fetch(source, sink);
+            } catch (IOException | PartialCityJsonException
+                    | BadCitiesJsonException ex) {
+                failures.increment();
+                Logger.getLogger(Server.class.getName()).log(Level.WARNING,
+                        String.format(FETCH_FAILED_MSG, query,
+                                ex.getMessage()));
+                if (reply.isCommitted()) {
+                    // Leaves the body incomplete, so the connection is
+                    // dropped.
+                    throw new IOException(ex);
+                }
+                respond(aExchange, BAD_GATEWAY, String.valueOf(
+                        ex.getMessage()));
+                return;
+            }
+            sink.close();
+            aExchange.close();
+        }
+    }
+
+    /**
+     * Serves a metrics request.
+     *
+     * @param aExchange The exchange of the request.
+     * @throws IOException if the response can't be written.
+     */
+    private void metrics(final HttpExchange aExchange) throws IOException {
+        byte[] body = application.getMetrics().toJson()
+                .getBytes(StandardCharsets.UTF_8);
+        aExchange.getResponseHeaders().set(CONTENT_TYPE, JSON_CONTENT_TYPE);
+        aExchange.sendResponseHeaders(OK, body.length);
+        try (OutputStream out = aExchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Responds with a status and a plain text message.
+     *
+     * @param aExchange The exchange to respond to.
+     * @param aStatus Status code.
+     * @param aMessage Text of the body.
+     * @throws IOException if the response can't be written.
+     */
+    private static void respond(final HttpExchange aExchange,
+            final int aStatus, final String aMessage) throws IOException {
+        byte[] body = aMessage.getBytes(StandardCharsets.UTF_8);
+        aExchange.getResponseHeaders().set(CONTENT_TYPE, TEXT_CONTENT_TYPE);
+        aExchange.sendResponseHeaders(aStatus, body.length);
+        try (OutputStream out = aExchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Decodes parameters of a query string. The first value of a repeated
+     * parameter wins.
+     *
+     * @param aRawQuery Raw query string or null.
+     * @return Decoded parameters by names.
+     * @throws UnsupportedEncodingException if utf-8 is not supported.
+     * @throws IllegalArgumentException if the query string has a malformed
+     * escape, e.g. "%zz".
+     */
+    private static Map<String, String> parameters(final String aRawQuery)
+            throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (aRawQuery != null) {
+            for (String pair : aRawQuery.split("&")) {
+                int eqAt = pair.indexOf('=');
+                String name = eqAt >= 0 ? pair.substring(0, eqAt) : pair;
+                String value = eqAt >= 0 ? pair.substring(eqAt + 1) : "";
+                parameters.putIfAbsent(URLDecoder.decode(name, UTF_8),
+                        URLDecoder.decode(value, UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Stops the server and its threads. Requests in progress are
+     * interrupted.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        threads.shutdownNow();
+        closed.countDown();
+    }
+
+    /**
+     * Body of a successful response. The status line and headers are sent
+     * with the first written bytes, so the status can be chosen until then.
+     * The body is sent with chunked transfer encoding.
+     */
+    private static final class Reply extends OutputStream {
+
+        /**
+         * The exchange of the response.
+         */
+        private final HttpExchange exchange;
+        /**
+         * Content type of the body.
+         */
+        private final String contentType;
+        /**
+         * Body stream of the exchange or null until the response is
+         * committed.
+         */
+        private OutputStream body;
+
+        /**
+         * Reply constructor.
+         *
+         * @param aExchange The exchange of the response.
+         * @param aContentType Content type of the body.
+         */
+        Reply(final HttpExchange aExchange, final String aContentType) {
+            exchange = aExchange;
+            contentType = aContentType;
+        }
+
+        /**
+         * Committed getter.
+         *
+         * @return True if the status line is sent.
+         */
+        boolean isCommitted() {
+            return body != null;
+        }
+
+        /**
+         * Sends the status line and headers if they are not sent yet.
+         *
+         * @return Body stream of the exchange.
+         * @throws IOException if the exchange throws it.
+         */
+        private OutputStream commit() throws IOException {
+            if (body == null) {
+                exchange.getResponseHeaders().set(CONTENT_TYPE, contentType);
+                exchange.sendResponseHeaders(OK, 0);
+                body = exchange.getResponseBody();
+            }
+            return body;
+        }
+
+        @Override
+        public void write(final int aByte) throws IOException {
+            commit().write(aByte);
+        }
+
+        @Override
+        public void write(final byte[] aBuffer, final int aOffset,
+                final int aLength) throws IOException {
+            commit().write(aBuffer, aOffset, aLength);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            commit().flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            commit().close();
+        }
+    }
+
+    /**
+     * Path of cities requests.
+     */
+    public static final String CITIES_PATH = "/cities";
+    /**
+     * Path of metrics requests.
+     */
+    public static final String METRICS_PATH = "/metrics";
+    /**
+     * City name parameter.
+     */
+    private static final String QUERY = "q";
+    /**
+     * Output format parameter.
+     */
+    private static final String FORMAT = "format";
+    /**
+     * CSV output format name.
+     */
+    private static final String CSV = "csv";
+    /**
+     * Json output format name.
+     */
+    private static final String JSON = "json";
+    /**
+     * 'GET' method name.
+     */
+    private static final String GET = "GET";
+    /**
+     * Utf-8 charset name.
+     */
+    private static final String UTF_8 = "UTF-8";
+    /**
+     * 'Content-Type' header name.
+     */
+    private static final String CONTENT_TYPE = "Content-Type";
+    /**
+     * Content type of CSV responses.
+     */
+    private static final String CSV_CONTENT_TYPE = "text/csv;charset=UTF-8";
+    /**
+     * Content type of Json responses.
+     */
+    private static final String JSON_CONTENT_TYPE
+            = "application/json;charset=UTF-8";
+    /**
+     * Content type of error messages.
+     */
+    private static final String TEXT_CONTENT_TYPE
+            = "text/plain;charset=UTF-8";
+    /**
+     * Http ok status code.
+     */
+    private static final int OK = 200;
+    /**
+     * Http bad request status code.
+     */
+    private static final int BAD_REQUEST = 400;
+    /**
+     * Http method not allowed status code.
+     */
+    private static final int METHOD_NOT_ALLOWED = 405;
+    /**
+     * Http bad gateway status code.
+     */
+    private static final int BAD_GATEWAY = 502;
+    /**
+     * Name of server threads.
+     */
+    private static final String SERVER_THREAD_NAME = "cities-server";
+    /**
+     * Message about a request without a city name.
+     */
+    private static final String QUERY_EXPECTED_MSG
+            = "Parameter 'q' with a city name is expected";
+    /**
+     * Message about a request with an unknown format.
+     */
+    private static final String UNKNOWN_FORMAT_MSG
+            = "Unknown format: %s. csv or json is expected";
+    /**
+     * Message about a malformed query string.
+     */
+    private static final String BAD_QUERY_MSG = "Malformed query: %s";
+    /**
+     * Message about a request with a method other than 'GET'.
+     */
+    private static final String GET_EXPECTED_MSG = "Only GET is supported";
+    /**
+     * Message about a failed fetch.
+     */
+    private static final String FETCH_FAILED_MSG
+            = "Fetch of '%s' failed: %s";
+}
@@ -1,20 +1,43 @@
 package com.bearsoft.citiesfetcher;
 
+import com.bearsoft.citiesfetcher.feed.LongHashSet;
+import com.bearsoft.citiesfetcher.model.Projection;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * Settings container. It is parsed from string array, e.g. from command line
- * arguments.
+ * arguments. Arguments starting with "--" are treated as options in
+ * "--name=value" form and others are treated as positional arguments.
  *
  * @author mg
  */
 public class Settings {
 
+    /**
+     * Output formats.
+     */
+    public enum Format {
+        /**
+         * CSV lines, written by {@code CsvWriter}.
+         */
+        CSV,
+        /**
+         * Binary columnar file, written by {@code BinaryWriter}.
+         */
+        BINARY
+    }
+
     /**
      * GoEuro JSON API endpoint.
      */
@@ -25,10 +48,162 @@ public class Settings {
      * Cities source url.
      */
     private final URL citiesSource;
+    /**
+     * Destination path as it is passed.
+     */
+    private final String destinationPath;
     /**
      * Destination file.
      */
-    private final File destination;
+    private File destination;
+    /**
+     * Endpoint template, cities source urls are built with.
+     */
+    private String endpointTemplate = ENDPOINT_TEMPLATE;
+    /**
+     * File with city names to be fetched in batch mode.
+     */
+    private File queries;
+    /**
+     * Number of concurrent fetches in batch mode.
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+    /**
+     * Connect timeout in millis.
+     */
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    /**
+     * Read timeout in millis.
+     */
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    /**
+     * Maximum number of connections per host.
+     */
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    /**
+     * Maximum idle time of a keep-alive connection in millis.
+     */
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    /**
+     * Directory of on-disk response cache.
+     */
+    private File cache;
+    /**
+     * Time in millis, a cached response is served without revalidation.
+     */
+    private int cacheTtl = DEFAULT_CACHE_TTL;
+    /**
+     * Maximum size of the cache in megabytes.
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    /**
+     * Flag of pipelined mode.
+     */
+    private boolean pipelined;
+    /**
+     * Number of cities in a batch in pipelined mode.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    /**
+     * Maximum number of batches, waiting for the writer in pipelined mode.
+     */
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+    /**
+     * Flag of metrics reporting.
+     */
+    private boolean stats;
+    /**
+     * File, metrics are written to.
+     */
+    private File statsFile;
+    /**
+     * Output format.
+     */
+    private Format format = Format.CSV;
+    /**
+     * Size of the output buffer in kilobytes.
+     */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    /**
+     * Durability policy of the destination file.
+     */
+    private SyncPolicy syncPolicy = SyncPolicy.NONE;
+    /**
+     * Flag of deduplication of cities by id across queries.
+     */
+    private boolean dedup;
+    /**
+     * Expected number of distinct ids while deduplication.
+     */
+    private int expectedIds = DEFAULT_EXPECTED_IDS;
+    /**
+     * Flag of resumable fetching.
+     */
+    private boolean resume;
+    /**
+     * Number of reconnections after a broken response body.
+     */
+    private int resumeAttempts = DEFAULT_RESUME_ATTEMPTS;
+    /**
+     * Maximum number of attempts of a request.
+     */
+    private int attempts = DEFAULT_ATTEMPTS;
+    /**
+     * Base backoff delay between attempts in millis.
+     */
+    private int backoff = DEFAULT_BACKOFF;
+    /**
+     * Flag of hedging of slow requests.
+     */
+    private boolean hedge;
+    /**
+     * Flag of adaptive limiting of concurrent requests.
+     */
+    private boolean adaptive;
+    /**
+     * Maximum adaptive limit of concurrent requests.
+     */
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+    /**
+     * Maximum number of requests per second or 0 if not limited.
+     */
+    private int rps;
+    /**
+     * Flag of server mode.
+     */
+    private boolean serve;
+    /**
+     * Local port of the server.
+     */
+    private int port = DEFAULT_PORT;
+    /**
+     * Flag of autocomplete index of fetched cities.
+     */
+    private boolean autocomplete;
+    /**
+     * Maximum number of cities in the autocomplete index.
+     */
+    private int indexCapacity = DEFAULT_INDEX_CAPACITY;
+    /**
+     * Flag of coalescing of concurrent fetches of the same source.
+     */
+    private boolean coalesce;
+    /**
+     * Flag of delta export against the previous export.
+     */
+    private boolean delta;
+    /**
+     * Number of output shards or 0 if output is not sharded.
+     */
+    private int shards;
+    /**
+     * Routing of cities to output shards.
+     */
+    private ShardedSink.Routing shardBy = ShardedSink.Routing.ID;
+    /**
+     * Projected fields of cities.
+     */
+    private Projection projection = Projection.ALL;
 
     /**
      * Constructor of settings. protected because it is intended for creation by
@@ -42,13 +217,19 @@ public class Settings {
     protected Settings(final URL aCitySource, final String aDestinationPath) {
         super();
         citiesSource = aCitySource;
-        destination = new File(fileName(aDestinationPath));
+        destinationPath = aDestinationPath;
+        if (STDOUT.equals(aDestinationPath)) {
+            destination = null;
+        } else {
+            destination = new File(fileName(aDestinationPath,
+                    CSV_FILE_NAME_END));
+        }
     }
 
     /**
      * City source getter.
      *
-     * @return City source URL.
+     * @return City source URL or null in batch mode.
      * @see URL
      */
     public final URL getCitySource() {
@@ -58,7 +239,8 @@ public class Settings {
     /**
      * Destination file getter.
      *
-     * @return A {@code File} of the output file.
+     * @return A {@code File} of the output file or null if CSV is written to
+     * standard output.
      * @see File
      */
     public final File getDestination() {
@@ -66,27 +248,708 @@ public class Settings {
     }
 
     /**
-     * Eliminates bad symbols from a name to make a valid filename.
+     * Standard output destination getter.
+     *
+     * @return True if "-" is passed in place of a file name and CSV is
+     * written to standard output.
+     */
+    public final boolean isStdout() {
+        return destination == null;
+    }
+
+    /**
+     * Queries file getter. Presence of queries file means batch mode.
+     *
+     * @return A {@code File} with city names, one per line.
+     */
+    public final Optional<File> getQueries() {
+        return Optional.ofNullable(queries);
+    }
+
+    /**
+     * Concurrency level getter.
+     *
+     * @return Number of concurrent fetches in batch mode.
+     */
+    public final int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Connect timeout getter.
+     *
+     * @return Connect timeout in millis.
+     */
+    public final int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Read timeout getter.
+     *
+     * @return Read timeout in millis.
+     */
+    public final int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Maximum connections getter.
+     *
+     * @return Maximum number of connections per host.
+     */
+    public final int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Idle timeout getter.
+     *
+     * @return Maximum idle time of a keep-alive connection in millis.
+     */
+    public final int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Cache directory getter. Absence of cache directory means, that
+     * responses are not cached.
+     *
+     * @return A directory of on-disk response cache.
+     */
+    public final Optional<File> getCache() {
+        return Optional.ofNullable(cache);
+    }
+
+    /**
+     * Cache time to live getter.
+     *
+     * @return Time in millis, a cached response is served without
+     * revalidation.
+     */
+    public final int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Cache size getter.
+     *
+     * @return Maximum size of the cache in bytes.
+     */
+    public final long getCacheSize() {
+        return cacheSize * MEGABYTE;
+    }
+
+    /**
+     * Pipelined mode getter.
+     *
+     * @return True if parsing and writing run on separate threads.
+     */
+    public final boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Batch size getter.
+     *
+     * @return Number of cities in a batch in pipelined mode.
+     */
+    public final int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Queue depth getter.
+     *
+     * @return Maximum number of batches, waiting for the writer in
+     * pipelined mode.
+     */
+    public final int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Metrics reporting getter.
+     *
+     * @return True if metrics of fetches should be reported.
+     */
+    public final boolean isStats() {
+        return stats;
+    }
+
+    /**
+     * Metrics file getter. If metrics are reported without a file, they are
+     * printed as a Json line.
+     *
+     * @return A file, metrics are written to.
+     */
+    public final Optional<File> getStatsFile() {
+        return Optional.ofNullable(statsFile);
+    }
+
+    /**
+     * Output format getter.
+     *
+     * @return Format, fetched cities are written in.
+     */
+    public final Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Output buffer size getter.
+     *
+     * @return Size of the direct buffer of the destination file in bytes.
+     */
+    public final int getBufferSize() {
+        return bufferSize * KILOBYTE;
+    }
+
+    /**
+     * Durability policy getter.
+     *
+     * @return Policy of forcing the destination file to disk.
+     */
+    public final SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Deduplication getter.
+     *
+     * @return True if cities with ids, already fetched, should be dropped.
+     */
+    public final boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * Expected ids getter.
+     *
+     * @return Expected number of distinct ids. The set of ids is sized for
+     * it in advance.
+     */
+    public final int getExpectedIds() {
+        return expectedIds;
+    }
+
+    /**
+     * Resume getter.
+     *
+     * @return True if a broken fetch should be resumed from the last complete
+     * city instead of starting over.
+     */
+    public final boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Resume attempts getter.
+     *
+     * @return Maximum number of reconnections after a broken response body
+     * within a single fetch.
+     */
+    public final int getResumeAttempts() {
+        return resumeAttempts;
+    }
+
+    /**
+     * Attempts getter.
+     *
+     * @return Maximum number of attempts of a request on server errors and
+     * connection errors.
+     */
+    public final int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Backoff getter.
+     *
+     * @return Base backoff delay between attempts in millis.
+     */
+    public final int getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * Hedge getter.
+     *
+     * @return True if a duplicate request should be sent, when a request is
+     * slower than 95 percentile of observed requests.
+     */
+    public final boolean isHedge() {
+        return hedge;
+    }
+
+    /**
+     * Adaptive getter.
+     *
+     * @return True if concurrent requests should be limited adaptively by
+     * observed latency and errors.
+     */
+    public final boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Maximum limit getter.
+     *
+     * @return Maximum adaptive limit of concurrent requests.
+     */
+    public final int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Rps getter.
+     *
+     * @return Maximum number of requests per second or 0 if the rate is not
+     * limited.
+     */
+    public final int getRps() {
+        return rps;
+    }
+
+    /**
+     * Serve getter.
+     *
+     * @return True if the application should serve cities requests as a
+     * local http service.
+     */
+    public final boolean isServe() {
+        return serve;
+    }
+
+    /**
+     * Port getter.
+     *
+     * @return Local port of the server.
+     */
+    public final int getPort() {
+        return port;
+    }
+
+    /**
+     * Autocomplete getter.
+     *
+     * @return True if fetched cities should be kept in an autocomplete
+     * index.
+     */
+    public final boolean isAutocomplete() {
+        return autocomplete;
+    }
+
+    /**
+     * Index capacity getter.
+     *
+     * @return Maximum number of cities in the autocomplete index.
+     */
+    public final int getIndexCapacity() {
+        return indexCapacity;
+    }
+
+    /**
+     * Coalesce getter.
+     *
+     * @return True if concurrent fetches of the same source should share a
+     * single request.
+     */
+    public final boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /**
+     * Delta getter.
+     *
+     * @return True if only changes against the previous export should be
+     * written to the destination.
+     */
+    public final boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Shards getter.
+     *
+     * @return Number of output files, cities are split across, or 0 if
+     * cities are written to a single destination.
+     */
+    public final int getShards() {
+        return shards;
+    }
+
+    /**
+     * Shard by getter.
+     *
+     * @return Routing of cities to output shards.
+     */
+    public final ShardedSink.Routing getShardBy() {
+        return shardBy;
+    }
+
+    /**
+     * Projection getter.
+     *
+     * @return Projected fields of cities. {@code Projection.ALL} by default.
+     */
+    public final Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Builds cities source url for a city name, using endpoint template of
+     * these settings.
+     *
+     * @param aCityName A city name template to narrow the search.
+     * @return Cities source {@code URL}.
+     * @throws UnsupportedEncodingException if code will use unsupported
+     * encoding while {@code URLEncoder.encode}
+     */
+    public final URL citySource(final String aCityName)
+            throws UnsupportedEncodingException {
+        return citySource(endpointTemplate, aCityName);
+    }
+
+    /**
+     * Builds cities source url for a city name.
+     *
+     * @param aTemplate An endpoint template with a city name placeholder.
+     * @param aCityName A city name template to narrow the search.
+     * @return Cities source {@code URL}.
+     * @throws UnsupportedEncodingException if code will use unsupported
+     * encoding while {@code URLEncoder.encode}
+     */
+    private static URL citySource(final String aTemplate,
+            final String aCityName) throws UnsupportedEncodingException {
+        try {
+            return new URL(String.format(aTemplate,
+                    URLEncoder.encode(aCityName,
+                            StandardCharsets.UTF_8.name())
+                    .replace("+", "%20")));
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Eliminates bad symbols from a name to make a valid filename. A name,
+     * ending with an end of another output format, gets its end replaced,
+     * e.g. x.csv becomes x.bin.
      *
      * @param aName A name to be transformed.
+     * @param aEnd File name end, the name gets if it doesn't end with it.
      * @return Transformed name that can be used as a file name.
      */
-    private static String fileName(final String aName) {
+    private static String fileName(final String aName, final String aEnd) {
         String name = aName.replaceAll(
                 "[\\s\\^#%&{}<>\\*\\? $!'\":@+`|=]", "_");
         name = name.replace('\\', '/').replace('/', File.separatorChar);
 
-        if (name.toLowerCase().endsWith(CSV_FILE_NAME_END)) {
+        String lowerName = name.toLowerCase();
+        if (lowerName.endsWith(aEnd)) {
             return name;
+        } else if (lowerName.endsWith(CSV_FILE_NAME_END)
+                || lowerName.endsWith(BINARY_FILE_NAME_END)) {
+            return name.substring(0, name.lastIndexOf('.')) + aEnd;
         } else {
-            return name + CSV_FILE_NAME_END;
+            return name + aEnd;
         }
     }
 
+    /**
+     * File name, standing for standard output.
+     */
+    private static final String STDOUT = "-";
     /**
      * CSV file name end (.csv).
      */
     private static final String CSV_FILE_NAME_END = ".csv";
+    /**
+     * Binary file name end (.bin).
+     */
+    private static final String BINARY_FILE_NAME_END = ".bin";
+
+    /**
+     * Applies an option to these settings.
+     *
+     * @param aName A name of the option without "--" prefix.
+     * @param aValue A value of the option.
+     * @throws BadArgumentsException if the option is unknown or its value is
+     * malformed.
+     */
+    private void apply(final String aName, final String aValue)
+            throws BadArgumentsException {
+        switch (aName) {
+            case ENDPOINT_OPTION:
+                endpointTemplate = aValue;
+                break;
+            case QUERIES_OPTION:
+                queries = new File(aValue);
+                break;
+            case CONCURRENCY_OPTION:
+                concurrency = positive(aName, aValue);
+                break;
+            case CONNECT_TIMEOUT_OPTION:
+                connectTimeout = positive(aName, aValue);
+                break;
+            case READ_TIMEOUT_OPTION:
+                readTimeout = positive(aName, aValue);
+                break;
+            case MAX_CONNECTIONS_OPTION:
+                maxConnections = positive(aName, aValue);
+                break;
+            case IDLE_TIMEOUT_OPTION:
+                idleTimeout = positive(aName, aValue);
+                break;
+            case CACHE_OPTION:
+                cache = new File(aValue);
+                break;
+            case CACHE_TTL_OPTION:
+                cacheTtl = positive(aName, aValue);
+                break;
+            case CACHE_SIZE_OPTION:
+                cacheSize = positive(aName, aValue);
+                break;
+            case PIPELINE_OPTION:
+                pipelined = true;
+                break;
+            case BATCH_SIZE_OPTION:
+                batchSize = positive(aName, aValue);
+                break;
+            case QUEUE_DEPTH_OPTION:
+                queueDepth = positive(aName, aValue);
+                break;
+            case STATS_OPTION:
+                stats = true;
+                if (!aValue.isEmpty()) {
+                    statsFile = new File(aValue);
+                }
+                break;
+            case FORMAT_OPTION:
+                format = format(aValue);
+                if (destination != null) {
+                    destination = new File(fileName(destinationPath,
+                            format == Format.BINARY ? BINARY_FILE_NAME_END
+                                    : CSV_FILE_NAME_END));
+                }
+                break;
+            case BUFFER_SIZE_OPTION:
+                bufferSize = positive(aName, aValue);
+                if (bufferSize > MAX_BUFFER_SIZE) {
+                    throw new BadArgumentsException(String.format(
+                            TOO_LARGE_MSG, aName, MAX_BUFFER_SIZE));
+                }
+                break;
+            case FSYNC_OPTION:
+                syncPolicy = syncPolicy(aName, aValue);
+                break;
+            case DEDUP_OPTION:
+                dedup = true;
+                if (!aValue.isEmpty()) {
+                    expectedIds = positive(aName, aValue);
+                    if (expectedIds > LongHashSet.MAX_EXPECTED_SIZE) {
+                        throw new BadArgumentsException(String.format(
+                                TOO_LARGE_MSG, aName,
+                                LongHashSet.MAX_EXPECTED_SIZE));
+                    }
+                }
+                break;
+            case ATTEMPTS_OPTION:
+                attempts = positive(aName, aValue);
+                break;
+            case BACKOFF_OPTION:
+                backoff = positive(aName, aValue);
+                break;
+            case HEDGE_OPTION:
+                hedge = true;
+                break;
+            case ADAPTIVE_OPTION:
+                adaptive = true;
+                if (!aValue.isEmpty()) {
+                    maxLimit = positive(aName, aValue);
+                }
+                break;
+            case RPS_OPTION:
+                rps = positive(aName, aValue);
+                break;
+            case AUTOCOMPLETE_OPTION:
+                autocomplete = true;
+                if (!aValue.isEmpty()) {
+                    indexCapacity = positive(aName, aValue);
+                }
+                break;
+            case COALESCE_OPTION:
+                coalesce = true;
+                break;
+            case DELTA_OPTION:
+                delta = true;
+                break;
+            case SHARDS_OPTION:
+                shards = positive(aName, aValue);
+                break;
+            case SHARD_BY_OPTION:
+                shardBy = shardBy(aValue);
+                break;
+            case FIELDS_OPTION:
+                projection = projection(aValue);
+                break;
+            case SERVE_OPTION:
+                serve = true;
+                if (!aValue.isEmpty()) {
+                    port = positive(aName, aValue);
+                }
+                break;
+            case RESUME_OPTION:
+                resume = true;
+                if (!aValue.isEmpty()) {
+                    resumeAttempts = positive(aName, aValue);
+                }
+                break;
+            default:
+                throw new BadArgumentsException(
+                        String.format(UNKNOWN_OPTION_MSG, aName));
+        }
+    }
+
+    /**
+     * Parses a positive integer value of an option.
+     *
+     * @param aName A name of the option.
+     * @param aValue A value to be parsed.
+     * @return Parsed value.
+     * @throws BadArgumentsException if the value is not a positive integer.
+     */
+    private static int positive(final String aName, final String aValue)
+            throws BadArgumentsException {
+        try {
+            int value = Integer.parseInt(aValue);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ex) {
+            // Falls through to the exception below.
+        }
+        throw new BadArgumentsException(
+                String.format(POSITIVE_EXPECTED_MSG, aName));
+    }
+
+    /**
+     * Parses durability policy option value.
+     *
+     * @param aName Name of the option.
+     * @param aValue Value of the option: "none", "end" or a number of
+     * megabytes between forcing.
+     * @return Parsed policy.
+     * @throws BadArgumentsException if the value is neither a known policy,
+     * nor a positive number.
+     */
+    private static SyncPolicy syncPolicy(final String aName,
+            final String aValue) throws BadArgumentsException {
+        switch (aValue) {
+            case "none":
+                return SyncPolicy.NONE;
+            case "end":
+                return SyncPolicy.END;
+            default:
+                return SyncPolicy.every(positive(aName, aValue) * MEGABYTE);
+        }
+    }
+
+    /**
+     * Parses output format option value.
+     *
+     * @param aValue Value of the option.
+     * @return Parsed format.
+     * @throws BadArgumentsException if the format is unknown.
+     */
+    private static Format format(final String aValue)
+            throws BadArgumentsException {
+        switch (aValue) {
+            case "csv":
+                return Format.CSV;
+            case "binary":
+                return Format.BINARY;
+            default:
+                throw new BadArgumentsException(String.format(
+                        UNKNOWN_FORMAT_MSG, aValue));
+        }
+    }
+
+    /**
+     * Parses routing option value.
+     *
+     * @param aValue Value of the option: "id" or "round-robin".
+     * @return Parsed routing.
+     * @throws BadArgumentsException if the value is not a known routing.
+     */
+    private static ShardedSink.Routing shardBy(final String aValue)
+            throws BadArgumentsException {
+        switch (aValue) {
+            case "id":
+                return ShardedSink.Routing.ID;
+            case "round-robin":
+                return ShardedSink.Routing.ROUND_ROBIN;
+            default:
+                throw new BadArgumentsException(String.format(
+                        UNKNOWN_ROUTING_MSG, aValue));
+        }
+    }
+
+    /**
+     * Parses fields option value.
+     *
+     * @param aValue Value of the option: comma separated field names, e.g.
+     * "id,name".
+     * @return Parsed projection.
+     * @throws BadArgumentsException if a field is unknown or no fields are
+     * listed.
+     */
+    private static Projection projection(final String aValue)
+            throws BadArgumentsException {
+        EnumSet<Projection.Field> fields = EnumSet.noneOf(
+                Projection.Field.class);
+        for (String name : aValue.split(",")) {
+            try {
+                fields.add(Projection.Field.of(name.trim()));
+            } catch (IllegalArgumentException ex) {
+                throw new BadArgumentsException(String.format(
+                        UNKNOWN_FIELD_MSG, name));
+            }
+        }
+        return new Projection(fields);
+    }
+
+    /**
+     * Splits {@code args} array into options and positional arguments.
+     *
+     * @param args String arguments array to be split.
+     * @param aPositional A list to be filled with positional arguments.
+     * @return Options map, from option name to its value.
+     * @throws BadArgumentsException if an option has no name.
+     */
+    private static Map<String, String> options(final String[] args,
+            final List<String> aPositional) throws BadArgumentsException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith(OPTION_PREFIX)) {
+                String option = arg.substring(OPTION_PREFIX.length());
+                int eqAt = option.indexOf('=');
+                if (eqAt == 0 || option.isEmpty()) {
+                    throw new BadArgumentsException(
+                            String.format(UNKNOWN_OPTION_MSG, arg));
+                } else if (eqAt > 0) {
+                    options.put(option.substring(0, eqAt),
+                            option.substring(eqAt + 1));
+                } else {
+                    options.put(option, "");
+                }
+            } else {
+                aPositional.add(arg);
+            }
+        }
+        return options;
+    }
 
     /**
      * Parses {@code args} array and instantiates {@code Settings} initialized
@@ -101,27 +964,81 @@ public class Settings {
      */
     public static Settings parse(final String... args)
             throws BadArgumentsException, UnsupportedEncodingException {
-        try {
-            if (args.length > 0) {
-                URL url = new URL(String.format(ENDPOINT_TEMPLATE,
-                        URLEncoder.encode(args[0],
-                                StandardCharsets.UTF_8.name())
-                        .replace("+", "%20")));
-                switch (args.length) {
-                    case ONLY_CITY_ARGS_LENGTH:
-                        return new Settings(url, args[0]);
-                    case WITH_FILE_ARGS_LENGTH:
-                        return new Settings(url, args[1]);
-                    default:
-                        throw new BadArgumentsException(
-                                ARGUMENTS_EXPECTED_MSG);
-                }
-            } else {
-                throw new BadArgumentsException(ARGUMENTS_EXPECTED_MSG);
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = options(args, positional);
+        Settings settings;
+        if (options.containsKey(SERVE_OPTION)) {
+            if (!positional.isEmpty() || options.containsKey(QUERIES_OPTION)
+                    || options.containsKey(DEDUP_OPTION)) {
+                throw new BadArgumentsException(SERVE_MSG);
             }
-        } catch (MalformedURLException ex) {
-            throw new IllegalStateException(ex);
+            settings = new Settings(null, STDOUT);
+        } else if (options.containsKey(QUERIES_OPTION)) {
+            switch (positional.size()) {
+                case 0:
+                    settings = new Settings(null,
+                            options.get(QUERIES_OPTION));
+                    break;
+                case 1:
+                    settings = new Settings(null, positional.get(0));
+                    break;
+                default:
+                    throw new BadArgumentsException(
+                            BATCH_ARGUMENTS_EXPECTED_MSG);
+            }
+        } else if (!positional.isEmpty()) {
+            URL url = citySource(options.getOrDefault(ENDPOINT_OPTION,
+                    ENDPOINT_TEMPLATE), positional.get(0));
+            switch (positional.size()) {
+                case ONLY_CITY_ARGS_LENGTH:
+                    settings = new Settings(url, positional.get(0));
+                    break;
+                case WITH_FILE_ARGS_LENGTH:
+                    settings = new Settings(url, positional.get(1));
+                    break;
+                default:
+                    throw new BadArgumentsException(
+                            ARGUMENTS_EXPECTED_MSG);
+            }
+        } else {
+            throw new BadArgumentsException(ARGUMENTS_EXPECTED_MSG);
+        }
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            settings.apply(option.getKey(), option.getValue());
+        }
+        if (settings.getQueries().isPresent()
+                && settings.getFormat() == Format.BINARY) {
+            throw new BadArgumentsException(BINARY_BATCH_MSG);
+        }
+        if (settings.isResume() && (settings.isStdout()
+                || settings.getQueries().isPresent()
+                || settings.getFormat() != Format.CSV
+                || settings.isPipelined() || settings.isDedup())) {
+            throw new BadArgumentsException(RESUME_MSG);
         }
+        if (settings.isDelta() && (settings.isStdout()
+                || settings.getQueries().isPresent()
+                || settings.getFormat() != Format.CSV
+                || settings.isResume())) {
+            throw new BadArgumentsException(DELTA_MSG);
+        }
+        if (settings.getShards() > 0 && (settings.isStdout()
+                || settings.getQueries().isPresent()
+                || settings.isResume() || settings.isDelta())) {
+            throw new BadArgumentsException(SHARDS_MSG);
+        }
+        Projection projection = settings.getProjection();
+        if (!projection.isAll() && (settings.getFormat() != Format.CSV
+                || settings.isResume() || settings.isDelta()
+                || settings.isServe()
+                || (settings.isDedup() || settings.getShards() > 0
+                && settings.getShardBy() == ShardedSink.Routing.ID)
+                && !projection.contains(Projection.Field.ID)
+                || settings.isAutocomplete()
+                && !projection.contains(Projection.Field.NAME))) {
+            throw new BadArgumentsException(FIELDS_MSG);
+        }
+        return settings;
     }
     /**
      * Message displayed if no arguments paased or too much arguments passed.
@@ -129,6 +1046,81 @@ public class Settings {
     private static final String ARGUMENTS_EXPECTED_MSG = ""
             + "One argument \"CITY_NAME\" or two arguments \"CITY_NAME\" "
             + "file-name.csv are expected.";
+    /**
+     * Message displayed if too much arguments passed in batch mode.
+     */
+    private static final String BATCH_ARGUMENTS_EXPECTED_MSG = ""
+            + "Only optional file-name.csv argument is expected along with "
+            + "--" + Settings.QUERIES_OPTION + " option.";
+    /**
+     * Message displayed if an unknown option passed.
+     */
+    private static final String UNKNOWN_OPTION_MSG = "Unknown option: %s";
+    /**
+     * Message displayed if an unknown output format passed.
+     */
+    private static final String UNKNOWN_FORMAT_MSG = "Unknown format: %s";
+    /**
+     * Message displayed if binary format is requested in batch mode.
+     */
+    private static final String BINARY_BATCH_MSG
+            = "Binary format is not supported in batch mode";
+    /**
+     * Message displayed if resumable fetching is combined with unsupported
+     * options.
+     */
+    private static final String RESUME_MSG = "Option --"
+            + Settings.RESUME_OPTION + " needs a CSV destination file and "
+            + "can't be combined with --queries, --pipeline or --dedup";
+    /**
+     * Message displayed if delta export is combined with unsupported
+     * options.
+     */
+    private static final String DELTA_MSG = "Option --"
+            + Settings.DELTA_OPTION + " needs a CSV destination file and "
+            + "can't be combined with --queries or --resume";
+    /**
+     * Message displayed if sharded output is combined with unsupported
+     * options.
+     */
+    private static final String SHARDS_MSG = "Option --"
+            + Settings.SHARDS_OPTION + " needs a destination file and "
+            + "can't be combined with --queries, --resume or --delta";
+    /**
+     * Message displayed if an unknown routing passed.
+     */
+    private static final String UNKNOWN_ROUTING_MSG
+            = "Unknown routing: %s";
+    /**
+     * Message displayed if an unknown field passed.
+     */
+    private static final String UNKNOWN_FIELD_MSG = "Unknown field: %s";
+    /**
+     * Message displayed if a projection is combined with unsupported options
+     * or misses fields, needed by other options.
+     */
+    private static final String FIELDS_MSG = "Option --"
+            + Settings.FIELDS_OPTION + " needs CSV format, can't be combined "
+            + "with --resume, --delta or --serve, needs id field along with "
+            + "--dedup or --shards, routed by ids, and name field along "
+            + "with --autocomplete";
+    /**
+     * Message displayed if server mode is combined with arguments or
+     * unsupported options.
+     */
+    private static final String SERVE_MSG = "Option --"
+            + Settings.SERVE_OPTION + " expects no arguments and can't be "
+            + "combined with --queries or --dedup";
+    /**
+     * Message displayed if an option expects a positive integer.
+     */
+    private static final String POSITIVE_EXPECTED_MSG
+            = "Option %s expects a positive integer value.";
+    /**
+     * Message displayed if an option value is too large.
+     */
+    private static final String TOO_LARGE_MSG
+            = "Option %s expects a value up to %d.";
     /**
      * Arguments length expected if only city argument present.
      */
@@ -137,4 +1129,213 @@ public class Settings {
      * Arguments length expected if file-name option is used.
      */
     private static final int WITH_FILE_ARGS_LENGTH = 2;
+    /**
+     * Prefix of options in arguments array.
+     */
+    private static final String OPTION_PREFIX = "--";
+    /**
+     * Endpoint template option name.
+     */
+    private static final String ENDPOINT_OPTION = "endpoint";
+    /**
+     * Queries file option name.
+     */
+    private static final String QUERIES_OPTION = "queries";
+    /**
+     * Concurrency level option name.
+     */
+    private static final String CONCURRENCY_OPTION = "concurrency";
+    /**
+     * Connect timeout option name.
+     */
+    private static final String CONNECT_TIMEOUT_OPTION = "connect-timeout";
+    /**
+     * Read timeout option name.
+     */
+    private static final String READ_TIMEOUT_OPTION = "read-timeout";
+    /**
+     * Maximum connections per host option name.
+     */
+    private static final String MAX_CONNECTIONS_OPTION = "max-connections";
+    /**
+     * Idle timeout option name.
+     */
+    private static final String IDLE_TIMEOUT_OPTION = "idle-timeout";
+    /**
+     * Cache directory option name.
+     */
+    private static final String CACHE_OPTION = "cache";
+    /**
+     * Cache time to live option name.
+     */
+    private static final String CACHE_TTL_OPTION = "cache-ttl";
+    /**
+     * Cache size option name.
+     */
+    private static final String CACHE_SIZE_OPTION = "cache-size";
+    /**
+     * Pipelined mode option name.
+     */
+    private static final String PIPELINE_OPTION = "pipeline";
+    /**
+     * Batch size option name.
+     */
+    private static final String BATCH_SIZE_OPTION = "batch-size";
+    /**
+     * Queue depth option name.
+     */
+    private static final String QUEUE_DEPTH_OPTION = "queue-depth";
+    /**
+     * Metrics reporting option name.
+     */
+    private static final String STATS_OPTION = "stats";
+    /**
+     * Output format option name.
+     */
+    private static final String FORMAT_OPTION = "format";
+    /**
+     * Output buffer size option name.
+     */
+    private static final String BUFFER_SIZE_OPTION = "buffer-size";
+    /**
+     * Durability policy option name.
+     */
+    private static final String FSYNC_OPTION = "fsync";
+    /**
+     * Deduplication option name.
+     */
+    private static final String DEDUP_OPTION = "dedup";
+    /**
+     * Maximum attempts option name.
+     */
+    private static final String ATTEMPTS_OPTION = "attempts";
+    /**
+     * Backoff delay option name.
+     */
+    private static final String BACKOFF_OPTION = "backoff";
+    /**
+     * Hedging option name.
+     */
+    private static final String HEDGE_OPTION = "hedge";
+    /**
+     * Adaptive concurrency limit option name.
+     */
+    private static final String ADAPTIVE_OPTION = "adaptive";
+    /**
+     * Requests per second limit option name.
+     */
+    private static final String RPS_OPTION = "rps";
+    /**
+     * Server mode option name.
+     */
+    private static final String SERVE_OPTION = "serve";
+    /**
+     * Autocomplete index option name.
+     */
+    private static final String AUTOCOMPLETE_OPTION = "autocomplete";
+    /**
+     * Coalescing option name.
+     */
+    private static final String COALESCE_OPTION = "coalesce";
+    /**
+     * Delta export option name.
+     */
+    private static final String DELTA_OPTION = "delta";
+    /**
+     * Output shards option name.
+     */
+    private static final String SHARDS_OPTION = "shards";
+    /**
+     * Routing of output shards option name.
+     */
+    private static final String SHARD_BY_OPTION = "shard-by";
+    /**
+     * Projected fields option name.
+     */
+    private static final String FIELDS_OPTION = "fields";
+    /**
+     * Resumable fetching option name.
+     */
+    private static final String RESUME_OPTION = "resume";
+    /**
+     * Default number of concurrent fetches in batch mode.
+     */
+    private static final int DEFAULT_CONCURRENCY = 4;
+    /**
+     * Default connect timeout in millis.
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /**
+     * Default read timeout in millis.
+     */
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    /**
+     * Default maximum number of connections per host.
+     */
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    /**
+     * Default maximum idle time of a keep-alive connection in millis.
+     */
+    private static final int DEFAULT_IDLE_TIMEOUT = 30000;
+    /**
+     * Default time in millis, a cached response is served without
+     * revalidation.
+     */
+    private static final int DEFAULT_CACHE_TTL = 3600000;
+    /**
+     * Default maximum size of the cache in megabytes.
+     */
+    private static final int DEFAULT_CACHE_SIZE = 64;
+    /**
+     * Default number of cities in a batch in pipelined mode.
+     */
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    /**
+     * Default maximum number of batches, waiting for the writer.
+     */
+    private static final int DEFAULT_QUEUE_DEPTH = 16;
+    /**
+     * Default expected number of distinct ids while deduplication.
+     */
+    private static final int DEFAULT_EXPECTED_IDS = 65536;
+    /**
+     * Default maximum number of attempts of a request.
+     */
+    private static final int DEFAULT_ATTEMPTS = 3;
+    /**
+     * Default base backoff delay between attempts in millis.
+     */
+    private static final int DEFAULT_BACKOFF = 100;
+    /**
+     * Default maximum adaptive limit of concurrent requests.
+     */
+    private static final int DEFAULT_MAX_LIMIT = 64;
+    /**
+     * Default local port of the server.
+     */
+    private static final int DEFAULT_PORT = 8080;
+    /**
+     * Default maximum number of cities in the autocomplete index.
+     */
+    private static final int DEFAULT_INDEX_CAPACITY = 100000;
+    /**
+     * Default number of reconnections after a broken response body.
+     */
+    private static final int DEFAULT_RESUME_ATTEMPTS = 3;
+    /**
+     * Default size of the output buffer in kilobytes.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    /**
+     * Maximum size of the output buffer in kilobytes.
+     */
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * Bytes in a kilobyte.
+     */
+    private static final int KILOBYTE = 1024;
+    /**
+     * Bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024 * 1024;
 }
@@ -0,0 +1,395 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sink, splitting cities across several shard sinks. Every shard has its
+ * own writer thread, fed with batches of cities through a bounded queue, so
+ * encoding and writing of shards run in parallel, while the calling thread
+ * only routes cities. Cities are routed by a hash of their ids, so a city
+ * always lands in the same shard, or round-robin, so shards are even. Order
+ * of cities within a shard is the order they are written.
+ *
+ * @author mg
+ */
+public final class ShardedSink implements CitiesSink {
+
+    /**
+     * Routing of cities to shards.
+     */
+    public enum Routing {
+        /**
+         * By a hash of ids.
+         */
+        ID,
+        /**
+         * In turn.
+         */
+        ROUND_ROBIN
+    }
+
+    /**
+     * Writer of a shard. It writes batches until the end marker and flushes
+     * the sink on flush markers. After a failure it keeps draining the
+     * queue, so that the router is never blocked.
+     */
+    private static final class Shard implements Runnable {
+
+        /**
+         * Queue of batches.
+         */
+        private final BlockingQueue<List<City>> queue;
+        /**
+         * Sink of the shard.
+         */
+        private final CitiesSink sink;
+        /**
+         * Permits, released by completed flushes.
+         */
+        private final Semaphore flushed = new Semaphore(0);
+        /**
+         * Batch being filled by the router.
+         */
+        private List<City> batch;
+        /**
+         * Number of cities, routed to the shard.
+         */
+        private long rows;
+        /**
+         * Failure of the writer.
+         */
+        private volatile Throwable failure;
+
+        /**
+         * Shard constructor.
+         *
+         * @param aSink Sink of the shard.
+         * @param aQueueDepth Maximum number of batches, waiting for the
+         * writer.
+         */
+        Shard(final CitiesSink aSink, final int aQueueDepth) {
+            queue = new ArrayBlockingQueue<>(aQueueDepth);
+            sink = aSink;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<City> taken = queue.take();
+                while (taken != END) {
+                    if (failure == null) {
+                        try {
+                            if (taken == FLUSH) {
+                                sink.flush();
+                            } else {
+                                for (City city : taken) {
+                                    sink.write(city);
+                                }
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            failure = ex;
+                        }
+                    }
+                    if (taken == FLUSH) {
+                        flushed.release();
+                    }
+                    taken = queue.take();
+                }
+            } catch (InterruptedException ex) {
+                failure = new InterruptedIOException(ex.getMessage());
+                flushed.release();
+            }
+        }
+
+        /**
+         * Rethrows failure of the writer, if any.
+         *
+         * @throws IOException if the writer failed with it.
+         */
+        void rethrow() throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+        }
+    }
+
+    /**
+     * Shards of cities.
+     */
+    private final List<Shard> shards = new ArrayList<>();
+    /**
+     * Writer threads of shards.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+    /**
+     * Routing of cities.
+     */
+    private final Routing routing;
+    /**
+     * Number of cities in a batch.
+     */
+    private final int batchSize;
+    /**
+     * Number of written cities.
+     */
+    private long written;
+    /**
+     * Flag of a closed sink.
+     */
+    private boolean closed;
+
+    /**
+     * Constructs a sink and starts writer threads of its shards.
+     *
+     * @param aSinks Sinks of shards. Each of them is used only by its writer
+     * thread until the sink is closed.
+     * @param aRouting Routing of cities to shards.
+     * @param aBatchSize Number of cities in a batch.
+     * @param aQueueDepth Maximum number of batches, waiting for a writer.
+     */
+    public ShardedSink(final List<? extends CitiesSink> aSinks,
+            final Routing aRouting, final int aBatchSize,
+            final int aQueueDepth) {
+        if (aSinks.isEmpty()) {
+            throw new IllegalArgumentException(NO_SHARDS_MSG);
+        }
+        routing = aRouting;
+        batchSize = aBatchSize;
+        for (CitiesSink sink : aSinks) {
+            Shard shard = new Shard(sink, aQueueDepth);
+            shard.batch = new ArrayList<>(batchSize);
+            Thread thread = new Thread(shard, String.format(
+                    WRITER_THREAD_NAME, shards.size()));
+            thread.setDaemon(true);
+            thread.start();
+            shards.add(shard);
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * Routes a city to a shard. It is written by the writer of the shard,
+     * when a batch of the shard is full or when the sink is flushed.
+     *
+     * @param aCity instance to be written.
+     * @throws IOException if a writer failed or the calling thread is
+     * interrupted.
+     */
+    @Override
+    public void write(final City aCity) throws IOException {
+        Shard shard = shards.get(routing == Routing.ID
+                ? shardOf(aCity.getId(), shards.size())
+                : (int) (written % shards.size()));
+        written++;
+        shard.rows++;
+        shard.batch.add(aCity);
+        if (shard.batch.size() == batchSize) {
+            shard.rethrow();
+            put(shard, shard.batch);
+            shard.batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Computes a shard of a city by its id.
+     *
+     * @param aId Id of the city.
+     * @param aShards Number of shards.
+     * @return Index of the shard.
+     */
+    static int shardOf(final long aId, final int aShards) {
+        return Math.floorMod(Long.hashCode(aId * MIX), aShards);
+    }
+
+    /**
+     * Hands a batch or a marker over to the writer of a shard.
+     *
+     * @param aShard The shard.
+     * @param aBatch A batch or a marker.
+     * @throws InterruptedIOException if the calling thread is interrupted.
+     */
+    private static void put(final Shard aShard, final List<City> aBatch)
+            throws InterruptedIOException {
+        try {
+            aShard.queue.put(aBatch);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Hands incomplete batches over to writers and waits until every shard
+     * is written and flushed.
+     *
+     * @throws IOException if a writer failed or the calling thread is
+     * interrupted.
+     */
+    @Override
+    public void flush() throws IOException {
+        for (Shard shard : shards) {
+            if (!shard.batch.isEmpty()) {
+                put(shard, shard.batch);
+                shard.batch = new ArrayList<>(batchSize);
+            }
+            put(shard, FLUSH);
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.flushed.acquire();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+        for (Shard shard : shards) {
+            shard.rethrow();
+        }
+    }
+
+    /**
+     * Writes the rest of cities, stops writer threads and closes sinks of
+     * shards.
+     *
+     * @throws IOException if a writer or a sink failed or the calling thread
+     * is interrupted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        try {
+            flush();
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            try {
+                put(shards.get(i), END);
+                threads.get(i).join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                threads.get(i).interrupt();
+            } catch (IOException ex) {
+                threads.get(i).interrupt();
+            }
+            try {
+                shards.get(i).sink.close();
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Shards getter.
+     *
+     * @return Number of shards.
+     */
+    public int getShards() {
+        return shards.size();
+    }
+
+    /**
+     * Rows getter.
+     *
+     * @param aShard Index of a shard.
+     * @return Number of cities, routed to the shard.
+     */
+    public long getRows(final int aShard) {
+        return shards.get(aShard).rows;
+    }
+
+    /**
+     * Writes a manifest of shards. Every line of the manifest is a CSV line
+     * with a name of a shard file and the number of cities in it.
+     *
+     * @param aManifest A file to be written.
+     * @param aFiles Files of shards in order of shards.
+     * @throws IOException if the file can't be written.
+     */
+    public void writeManifest(final File aManifest, final List<File> aFiles)
+            throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        for (int i = 0; i < shards.size(); i++) {
+            manifest.append(aFiles.get(i).getName()).append(',')
+                    .append(getRows(i)).append('\r').append('\n');
+        }
+        Files.write(aManifest.toPath(), manifest.toString()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Computes a shard file of a destination. Index of the shard is inserted
+     * before the extension of the destination, e.g. cities.2.csv.
+     *
+     * @param aDestination A destination file.
+     * @param aShard Index of the shard.
+     * @return A file next to the destination.
+     */
+    public static File shard(final File aDestination, final int aShard) {
+        String name = aDestination.getName();
+        int dot = name.lastIndexOf('.');
+        String shardName = dot > 0 ? name.substring(0, dot) + '.' + aShard
+                + name.substring(dot) : name + '.' + aShard;
+        return new File(aDestination.getAbsoluteFile().getParentFile(),
+                shardName);
+    }
+
+    /**
+     * Computes a manifest file of a destination.
+     *
+     * @param aDestination A destination file.
+     * @return A file next to the destination.
+     */
+    public static File manifest(final File aDestination) {
+        return new File(aDestination.getPath() + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Suffix of manifest files.
+     */
+    public static final String MANIFEST_SUFFIX = ".manifest";
+    /**
+     * End of batches marker.
+     */
+    private static final List<City> END = Collections.emptyList();
+    /**
+     * Flush marker. It is a distinct empty list.
+     */
+    private static final List<City> FLUSH = new ArrayList<>(0);
+    /**
+     * Multiplier, spreading sequential ids over shards. It is the 64 bit
+     * golden ratio.
+     */
+    private static final long MIX = 0x9e3779b97f4a7c15L;
+    /**
+     * Name format of writer threads.
+     */
+    private static final String WRITER_THREAD_NAME = "cities-shard-%d";
+    /**
+     * Message about a sink without shards.
+     */
+    private static final String NO_SHARDS_MSG = "At least one shard expected";
+}
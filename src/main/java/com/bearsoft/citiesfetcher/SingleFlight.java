@@ -0,0 +1,182 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.model.CityTable;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalescing of concurrent fetches of the same source. The first caller of a
+ * source originates a flight: it loads the source, while callers, arriving
+ * before the flight lands, wait for it and get the same parsed cities, or the
+ * same failure. A landed flight is forgotten, so a later caller originates a
+ * new one. Sources are keyed by normalized url, so urls, differing only in
+ * case of scheme and host, in an explicit default port or in a fragment,
+ * share flights.
+ *
+ * @author mg
+ */
+public final class SingleFlight {
+
+    /**
+     * Load of a source.
+     */
+    @FunctionalInterface
+    public interface Load {
+
+        /**
+         * Fetches and parses cities of a source.
+         *
+         * @return Table of fetched cities.
+         * @throws IOException if some problem occurs while IO.
+         * @throws PartialCityJsonException If some part of mandatory data is
+         * absent.
+         * @throws BadCitiesJsonException if some bad structure discovered
+         * while parsing process.
+         */
+        CityTable load() throws IOException, PartialCityJsonException,
+                BadCitiesJsonException;
+    }
+
+    /**
+     * Flights in progress by keys of their sources.
+     */
+    private final ConcurrentMap<String, CompletableFuture<CityTable>> flights
+            = new ConcurrentHashMap<>();
+    /**
+     * Number of loads, performed by callers.
+     */
+    private final LongAdder originated = new LongAdder();
+    /**
+     * Number of callers, served by flights of other callers.
+     */
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Loads a source or joins a flight of the source in progress. The
+     * returned table is shared between callers, so it should not be
+     * modified.
+     *
+     * @param aSource Cities source url.
+     * @param aLoad A load of the source, used if there is no flight of the
+     * source in progress.
+     * @return Table of fetched cities.
+     * @throws IOException if the load failed with it or if the caller is
+     * interrupted while waiting.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    public CityTable run(final URL aSource, final Load aLoad)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        String key = key(aSource);
+        CompletableFuture<CityTable> flight = new CompletableFuture<>();
+        CompletableFuture<CityTable> inFlight = flights.putIfAbsent(key,
+                flight);
+        if (inFlight == null) {
+            originated.increment();
+            try {
+                CityTable table = aLoad.load();
+                flight.complete(table);
+                return table;
+            } catch (IOException | PartialCityJsonException
+                    | BadCitiesJsonException | RuntimeException | Error ex) {
+                flight.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                flights.remove(key, flight);
+            }
+        } else {
+            coalesced.increment();
+            return join(inFlight);
+        }
+    }
+
+    /**
+     * Waits for a flight of another caller.
+     *
+     * @param aFlight The flight.
+     * @return Table of fetched cities.
+     * @throws IOException if the flight failed with it or if the caller is
+     * interrupted.
+     * @throws PartialCityJsonException if the flight failed with it.
+     * @throws BadCitiesJsonException if the flight failed with it.
+     */
+    private static CityTable join(final CompletableFuture<CityTable> aFlight)
+            throws IOException, PartialCityJsonException,
+            BadCitiesJsonException {
+        try {
+            return aFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof PartialCityJsonException) {
+                throw (PartialCityJsonException) cause;
+            } else if (cause instanceof BadCitiesJsonException) {
+                throw (BadCitiesJsonException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Normalizes an url to a key of flights. Scheme and host are lower
+     * cased, default port and fragment are dropped and an empty path
+     * becomes "/".
+     *
+     * @param aSource Cities source url.
+     * @return Normalized url.
+     */
+    static String key(final URL aSource) {
+        StringBuilder key = new StringBuilder()
+                .append(aSource.getProtocol().toLowerCase(Locale.ROOT))
+                .append("://")
+                .append(aSource.getHost().toLowerCase(Locale.ROOT));
+        if (aSource.getPort() != -1
+                && aSource.getPort() != aSource.getDefaultPort()) {
+            key.append(':').append(aSource.getPort());
+        }
+        key.append(aSource.getPath().isEmpty() ? "/" : aSource.getPath());
+        if (aSource.getQuery() != null) {
+            key.append('?').append(aSource.getQuery());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Originated getter.
+     *
+     * @return Number of loads, performed by callers.
+     */
+    public long getOriginated() {
+        return originated.sum();
+    }
+
+    /**
+     * Coalesced getter.
+     *
+     * @return Number of callers, served by flights of other callers.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
@@ -0,0 +1,90 @@
+package com.bearsoft.citiesfetcher;
+
+/**
+ * Durability policy of written files. Data may be left to the operating
+ * system to be written to disk at its own pace, may be forced to disk once
+ * when a file is closed, or may be forced every time a number of bytes is
+ * written and when the file is closed.
+ *
+ * @author mg
+ */
+public final class SyncPolicy {
+
+    /**
+     * Flag of forcing data to disk when a file is closed.
+     */
+    private final boolean atEnd;
+    /**
+     * Number of bytes, data is forced to disk after. Zero means no periodic
+     * forcing.
+     */
+    private final long interval;
+
+    /**
+     * Hidden constructor.
+     *
+     * @param aAtEnd Flag of forcing data to disk when a file is closed.
+     * @param aInterval Number of bytes, data is forced to disk after.
+     */
+    private SyncPolicy(final boolean aAtEnd, final long aInterval) {
+        atEnd = aAtEnd;
+        interval = aInterval;
+    }
+
+    /**
+     * Creates a policy of forcing data to disk every {@code aBytes} bytes
+     * and when a file is closed.
+     *
+     * @param aBytes Number of bytes between forcing.
+     * @return The policy.
+     */
+    public static SyncPolicy every(final long aBytes) {
+        if (aBytes <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    POSITIVE_INTERVAL_MSG, aBytes));
+        }
+        return new SyncPolicy(true, aBytes);
+    }
+
+    /**
+     * At end getter.
+     *
+     * @return True if data is forced to disk when a file is closed.
+     */
+    public boolean isAtEnd() {
+        return atEnd;
+    }
+
+    /**
+     * Interval getter.
+     *
+     * @return Number of bytes, data is forced to disk after, or zero if
+     * data is not forced periodically.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        if (interval > 0) {
+            return "every " + interval + " bytes";
+        } else {
+            return atEnd ? "end" : "none";
+        }
+    }
+
+    /**
+     * Policy of leaving data to the operating system.
+     */
+    public static final SyncPolicy NONE = new SyncPolicy(false, 0);
+    /**
+     * Policy of forcing data to disk when a file is closed.
+     */
+    public static final SyncPolicy END = new SyncPolicy(true, 0);
+    /**
+     * Message about non positive interval.
+     */
+    private static final String POSITIVE_INTERVAL_MSG
+            = "Positive interval expected, but %d passed";
+}
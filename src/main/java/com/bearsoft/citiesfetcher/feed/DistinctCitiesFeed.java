@@ -0,0 +1,93 @@
+package com.bearsoft.citiesfetcher.feed;
+
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Feed of cities with distinct ids. It pulls cities from another feed and
+ * drops ones, whose ids are already seen. Seen ids are kept in a
+ * {@code LongHashSet}, that may be shared by several feeds to drop
+ * duplicates across queries. Access to a shared set is synchronized on the
+ * set itself.
+ *
+ * @author mg
+ */
+public final class DistinctCitiesFeed implements CitiesFeed {
+
+    /**
+     * Feed, cities are pulled from.
+     */
+    private final CitiesFeed feed;
+    /**
+     * Ids of cities, already seen.
+     */
+    private final LongHashSet ids;
+    /**
+     * Number of cities dropped by this feed.
+     */
+    private long dropped;
+
+    /**
+     * Constructs a feed with its own set of ids.
+     *
+     * @param aFeed A feed to pull cities from.
+     */
+    public DistinctCitiesFeed(final CitiesFeed aFeed) {
+        this(aFeed, new LongHashSet());
+    }
+
+    /**
+     * Constructs a feed with a shared set of ids.
+     *
+     * @param aFeed A feed to pull cities from.
+     * @param aIds Ids of cities, already seen. Ids of pulled cities are added
+     * to it.
+     */
+    public DistinctCitiesFeed(final CitiesFeed aFeed, final LongHashSet aIds) {
+        feed = aFeed;
+        ids = aIds;
+    }
+
+    /**
+     * Pulls the next city with an id, not seen before.
+     *
+     * @return {@code City} instance pulled from source or empty value if the
+     * source is over.
+     * @throws IOException if the source throws it.
+     * @throws PartialCityJsonException if the source throws it.
+     * @throws BadCitiesJsonException if the source throws it.
+     */
+    @Override
+    public Optional<City> pull() throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        Optional<City> city = feed.pull();
+        while (city.isPresent() && !firstSeen(city.get().getId())) {
+            dropped++;
+            city = feed.pull();
+        }
+        return city;
+    }
+
+    /**
+     * Records an id as seen.
+     *
+     * @param aId An id of a city.
+     * @return True if the id is seen for the first time.
+     */
+    private boolean firstSeen(final long aId) {
+        synchronized (ids) {
+            return ids.add(aId);
+        }
+    }
+
+    /**
+     * Dropped cities getter.
+     *
+     * @return Number of duplicate cities dropped by this feed so far.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
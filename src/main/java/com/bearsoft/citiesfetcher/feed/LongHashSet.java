@@ -0,0 +1,216 @@
+package com.bearsoft.citiesfetcher.feed;
+
+/**
+ * Set of primitive {@code long} values with open addressing and linear
+ * probing. Values are kept in a single {@code long[]} table without boxing,
+ * so the set takes 8 bytes per slot and nothing per value. The table
+ * capacity is a power of two, it is kept at most 3/4 full and it doubles
+ * when the limit is reached. A set, sized for the expected number of values
+ * in advance, never grows and takes from 10.7 to 21.3 bytes per value. The
+ * set is not thread safe.
+ *
+ * @author mg
+ */
+public final class LongHashSet {
+
+    /**
+     * Table of values. Empty slots hold {@code EMPTY}.
+     */
+    private long[] table;
+    /**
+     * Mask of slot indices.
+     */
+    private int mask;
+    /**
+     * Number of values, the table may hold before growth.
+     */
+    private int threshold;
+    /**
+     * Number of values in the table, {@code EMPTY} value excluded.
+     */
+    private int size;
+    /**
+     * Flag of {@code EMPTY} value presence. It can't be held by the table.
+     */
+    private boolean hasEmpty;
+
+    /**
+     * Constructs a set with default capacity.
+     */
+    public LongHashSet() {
+        this(DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Constructs a set, sized to hold an expected number of values without
+     * growth.
+     *
+     * @param aExpectedSize Expected number of values.
+     */
+    public LongHashSet(final int aExpectedSize) {
+        long slots = Math.max((long) Math.ceil(aExpectedSize / LOAD_FACTOR),
+                MIN_CAPACITY);
+        if (slots > MAX_CAPACITY) {
+            throw new IllegalArgumentException(String.format(
+                    TOO_MANY_VALUES_MSG, aExpectedSize));
+        }
+        allocate(Long.highestOneBit(slots - 1) << 1);
+    }
+
+    /**
+     * Allocates an empty table.
+     *
+     * @param aCapacity Number of slots. It should be a power of two.
+     */
+    private void allocate(final long aCapacity) {
+        table = new long[(int) aCapacity];
+        mask = table.length - 1;
+        threshold = (int) (table.length * LOAD_FACTOR);
+    }
+
+    /**
+     * Mixes bits of a value to spread sequential ids over the table. It is
+     * the finalizer of MurmurHash3.
+     *
+     * @param aValue A value to be mixed.
+     * @return Mixed bits of the value.
+     */
+    private static long mix(final long aValue) {
+        long h = aValue;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX1;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX2;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param aValue A value to be added.
+     * @return True if the value was absent and is added and false if it is
+     * already in the set.
+     */
+    public boolean add(final long aValue) {
+        if (aValue == EMPTY) {
+            boolean added = !hasEmpty;
+            hasEmpty = true;
+            return added;
+        }
+        int slot = (int) mix(aValue) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == aValue) {
+                return false;
+            }
+            slot = slot + 1 & mask;
+        }
+        table[slot] = aValue;
+        if (++size > threshold) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Checks presence of a value.
+     *
+     * @param aValue A value to be checked.
+     * @return True if the value is in the set.
+     */
+    public boolean contains(final long aValue) {
+        if (aValue == EMPTY) {
+            return hasEmpty;
+        }
+        int slot = (int) mix(aValue) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == aValue) {
+                return true;
+            }
+            slot = slot + 1 & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Doubles the table and reinserts all values.
+     */
+    private void grow() {
+        if (table.length >= MAX_CAPACITY) {
+            throw new IllegalStateException(String.format(
+                    TOO_MANY_VALUES_MSG, size));
+        }
+        long[] old = table;
+        allocate((long) old.length << 1);
+        for (long value : old) {
+            if (value != EMPTY) {
+                int slot = (int) mix(value) & mask;
+                while (table[slot] != EMPTY) {
+                    slot = slot + 1 & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Number of values in the set.
+     */
+    public int size() {
+        return hasEmpty ? size + 1 : size;
+    }
+
+    /**
+     * Capacity getter.
+     *
+     * @return Number of slots in the table. The set takes 8 bytes per slot.
+     */
+    public int capacity() {
+        return table.length;
+    }
+
+    /**
+     * Marker of empty slots.
+     */
+    private static final long EMPTY = 0L;
+    /**
+     * Maximum share of occupied slots.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+    /**
+     * Minimum number of slots.
+     */
+    private static final long MIN_CAPACITY = 16;
+    /**
+     * Maximum number of slots. It is the greatest power of two array length.
+     */
+    private static final long MAX_CAPACITY = 1 << 30;
+    /**
+     * Maximum expected number of values, a set can be sized for.
+     */
+    public static final int MAX_EXPECTED_SIZE
+            = (int) (MAX_CAPACITY * LOAD_FACTOR);
+    /**
+     * Default expected number of values.
+     */
+    private static final int DEFAULT_EXPECTED_SIZE = 1024;
+    /**
+     * Shift of MurmurHash3 finalizer.
+     */
+    private static final int MIX_SHIFT = 33;
+    /**
+     * First multiplier of MurmurHash3 finalizer.
+     */
+    private static final long MIX1 = 0xff51afd7ed558ccdL;
+    /**
+     * Second multiplier of MurmurHash3 finalizer.
+     */
+    private static final long MIX2 = 0xc4ceb9fe1a85ec53L;
+    /**
+     * Message about too many values for a single table.
+     */
+    private static final String TOO_MANY_VALUES_MSG
+            = "%d values don't fit into a single table";
+}
@@ -0,0 +1,497 @@
+package com.bearsoft.citiesfetcher.geo;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Immutable in-memory spatial index of cities. Cities are placed on the unit
+ * sphere as 3D vectors and organized into a balanced k-d tree, laid out
+ * implicitly in arrays: the median of a range is its root and the halves
+ * are its subtrees. Straight line distance between unit vectors grows
+ * monotonically with great circle distance, so the tree answers
+ * nearest-neighbour and radius queries without special handling of poles
+ * and of the antimeridian. Queries are thread safe.
+ *
+ * @author mg
+ */
+public final class KdTree {
+
+    /**
+     * Bounded max heap of nearest cities found so far.
+     */
+    private static final class Nearest {
+
+        /**
+         * Indices of cities in the tree.
+         */
+        private final int[] indices;
+        /**
+         * Squared chord distances to the cities.
+         */
+        private final double[] distances;
+        /**
+         * Number of cities in the heap.
+         */
+        private int size;
+
+        /**
+         * Constructs an empty heap.
+         *
+         * @param aCapacity Maximum number of cities.
+         */
+        Nearest(final int aCapacity) {
+            indices = new int[aCapacity];
+            distances = new double[aCapacity];
+        }
+
+        /**
+         * Bound getter.
+         *
+         * @return Squared chord distance, a city should be closer than to
+         * get into the heap.
+         */
+        double bound() {
+            return size < indices.length ? Double.POSITIVE_INFINITY
+                    : distances[0];
+        }
+
+        /**
+         * Offers a city to the heap. The farthest city is replaced if the
+         * heap is full.
+         *
+         * @param aIndex Index of a city in the tree.
+         * @param aDistance Squared chord distance to the city.
+         */
+        void offer(final int aIndex, final double aDistance) {
+            int at;
+            if (size < indices.length) {
+                at = size++;
+                while (at > 0 && distances[(at - 1) / 2] < aDistance) {
+                    int parent = (at - 1) / 2;
+                    indices[at] = indices[parent];
+                    distances[at] = distances[parent];
+                    at = parent;
+                }
+            } else {
+                at = 0;
+                int child = 1;
+                while (child < size) {
+                    if (child + 1 < size
+                            && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= aDistance) {
+                        break;
+                    }
+                    indices[at] = indices[child];
+                    distances[at] = distances[child];
+                    at = child;
+                    child = 2 * at + 1;
+                }
+            }
+            indices[at] = aIndex;
+            distances[at] = aDistance;
+        }
+    }
+
+    /**
+     * Growable list of cities, found within a radius.
+     */
+    private static final class Found {
+
+        /**
+         * Indices of cities in the tree.
+         */
+        private int[] indices = new int[INITIAL_CAPACITY];
+        /**
+         * Squared chord distances to the cities.
+         */
+        private double[] distances = new double[INITIAL_CAPACITY];
+        /**
+         * Number of found cities.
+         */
+        private int size;
+
+        /**
+         * Adds a city.
+         *
+         * @param aIndex Index of a city in the tree.
+         * @param aDistance Squared chord distance to the city.
+         */
+        void add(final int aIndex, final double aDistance) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            indices[size] = aIndex;
+            distances[size++] = aDistance;
+        }
+
+        /**
+         * Initial capacity of the list.
+         */
+        private static final int INITIAL_CAPACITY = 16;
+    }
+
+    /**
+     * Cities in tree order.
+     */
+    private final City[] cities;
+    /**
+     * Coordinates of cities as unit vectors in tree order, three per city.
+     */
+    private final double[] points;
+
+    /**
+     * Builds a tree of cities.
+     *
+     * @param aCities Cities to be indexed.
+     */
+    public KdTree(final Collection<City> aCities) {
+        cities = aCities.toArray(new City[aCities.size()]);
+        points = new double[cities.length * DIMENSIONS];
+        for (int i = 0; i < cities.length; i++) {
+            toPoint(cities[i].getLatitude(), cities[i].getlongitude(),
+                    points, i * DIMENSIONS);
+        }
+        build(0, cities.length, 0);
+    }
+
+    /**
+     * Builds a tree of all cities of a feed.
+     *
+     * @param aFeed A feed to pull cities from.
+     * @return The tree of pulled cities.
+     * @throws IOException if the feed throws it.
+     * @throws PartialCityJsonException if the feed throws it.
+     * @throws BadCitiesJsonException if the feed throws it.
+     */
+    public static KdTree build(final CitiesFeed aFeed) throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        List<City> cities = new ArrayList<>();
+        Optional<City> city = aFeed.pull();
+        while (city.isPresent()) {
+            cities.add(city.get());
+            city = aFeed.pull();
+        }
+        return new KdTree(cities);
+    }
+
+    /**
+     * Converts geographic coordinates to a unit vector.
+     *
+     * @param aLatitude Latitude in degrees.
+     * @param aLongitude Longitude in degrees.
+     * @param aPoints An array to put the vector to.
+     * @param aOffset Offset of the vector in the array.
+     */
+    private static void toPoint(final double aLatitude,
+            final double aLongitude, final double[] aPoints,
+            final int aOffset) {
+        double latitude = Math.toRadians(aLatitude);
+        double longitude = Math.toRadians(aLongitude);
+        double cosLatitude = Math.cos(latitude);
+        aPoints[aOffset] = cosLatitude * Math.cos(longitude);
+        aPoints[aOffset + 1] = cosLatitude * Math.sin(longitude);
+        aPoints[aOffset + 2] = Math.sin(latitude);
+    }
+
+    /**
+     * Arranges a range of cities into a subtree. The median by the axis of
+     * the depth is placed at the middle of the range, cities with lesser
+     * coordinates by the axis are placed before it and others after it.
+     *
+     * @param aFrom Start of the range, inclusive.
+     * @param aTo End of the range, exclusive.
+     * @param aDepth Depth of the subtree root.
+     */
+    private void build(final int aFrom, final int aTo, final int aDepth) {
+        if (aTo - aFrom > 1) {
+            int middle = (aFrom + aTo) >>> 1;
+            select(aFrom, aTo - 1, middle, aDepth % DIMENSIONS);
+            build(aFrom, middle, aDepth + 1);
+            build(middle + 1, aTo, aDepth + 1);
+        }
+    }
+
+    /**
+     * Places the k-th smallest city by an axis at its position with
+     * quickselect.
+     *
+     * @param aLeft Start of the range, inclusive.
+     * @param aRight End of the range, inclusive.
+     * @param aK Position of the city to be selected.
+     * @param aAxis Axis to compare cities by.
+     */
+    private void select(final int aLeft, final int aRight, final int aK,
+            final int aAxis) {
+        int left = aLeft;
+        int right = aRight;
+        while (left < right) {
+            double pivot = points[((left + right) >>> 1) * DIMENSIONS
+                    + aAxis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (points[i * DIMENSIONS + aAxis] < pivot) {
+                    i++;
+                }
+                while (points[j * DIMENSIONS + aAxis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (aK <= j) {
+                right = j;
+            } else if (aK >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Swaps two cities.
+     *
+     * @param aFirst Index of the first city.
+     * @param aSecond Index of the second city.
+     */
+    private void swap(final int aFirst, final int aSecond) {
+        City city = cities[aFirst];
+        cities[aFirst] = cities[aSecond];
+        cities[aSecond] = city;
+        for (int axis = 0; axis < DIMENSIONS; axis++) {
+            double value = points[aFirst * DIMENSIONS + axis];
+            points[aFirst * DIMENSIONS + axis]
+                    = points[aSecond * DIMENSIONS + axis];
+            points[aSecond * DIMENSIONS + axis] = value;
+        }
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Number of cities in the tree.
+     */
+    public int size() {
+        return cities.length;
+    }
+
+    /**
+     * Finds cities, nearest to a point.
+     *
+     * @param aLatitude Latitude of the point in degrees.
+     * @param aLongitude Longitude of the point in degrees.
+     * @param aCount Maximum number of cities to be found.
+     * @return Up to {@code aCount} nearest cities, ordered by distance.
+     */
+    public List<City> nearest(final double aLatitude,
+            final double aLongitude, final int aCount) {
+        if (aCount <= 0 || cities.length == 0) {
+            return new ArrayList<>();
+        }
+        double[] target = new double[DIMENSIONS];
+        toPoint(aLatitude, aLongitude, target, 0);
+        Nearest nearest = new Nearest(Math.min(aCount, cities.length));
+        nearest(0, cities.length, 0, target, nearest);
+        return sorted(nearest.indices, nearest.distances, nearest.size);
+    }
+
+    /**
+     * Visits a subtree while searching for nearest cities. The near half of
+     * the subtree is visited first and the far half is visited only if the
+     * splitting plane is closer than the farthest city found so far.
+     *
+     * @param aFrom Start of the subtree range, inclusive.
+     * @param aTo End of the subtree range, exclusive.
+     * @param aDepth Depth of the subtree root.
+     * @param aTarget The point as a unit vector.
+     * @param aNearest Nearest cities found so far.
+     */
+    private void nearest(final int aFrom, final int aTo, final int aDepth,
+            final double[] aTarget, final Nearest aNearest) {
+        if (aFrom < aTo) {
+            int middle = (aFrom + aTo) >>> 1;
+            double distance = distance(middle, aTarget);
+            if (distance < aNearest.bound()) {
+                aNearest.offer(middle, distance);
+            }
+            int axis = aDepth % DIMENSIONS;
+            double delta = aTarget[axis] - points[middle * DIMENSIONS + axis];
+            if (delta < 0) {
+                nearest(aFrom, middle, aDepth + 1, aTarget, aNearest);
+                if (delta * delta < aNearest.bound()) {
+                    nearest(middle + 1, aTo, aDepth + 1, aTarget, aNearest);
+                }
+            } else {
+                nearest(middle + 1, aTo, aDepth + 1, aTarget, aNearest);
+                if (delta * delta < aNearest.bound()) {
+                    nearest(aFrom, middle, aDepth + 1, aTarget, aNearest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds cities within a radius around a point.
+     *
+     * @param aLatitude Latitude of the point in degrees.
+     * @param aLongitude Longitude of the point in degrees.
+     * @param aRadius Great circle radius in kilometres.
+     * @return Cities within the radius, ordered by distance.
+     */
+    public List<City> within(final double aLatitude, final double aLongitude,
+            final double aRadius) {
+        double[] target = new double[DIMENSIONS];
+        toPoint(aLatitude, aLongitude, target, 0);
+        double angle = Math.min(Math.max(aRadius, 0) / EARTH_RADIUS,
+                Math.PI);
+        double chord = 2 * Math.sin(angle / 2);
+        // Rounding slack, so cities exactly at the radius are not lost.
+        double bound = chord * chord * (1 + EPSILON);
+        Found found = new Found();
+        within(0, cities.length, 0, target, bound, found);
+        return sorted(found.indices, found.distances, found.size);
+    }
+
+    /**
+     * Visits a subtree while searching for cities within a radius. A half of
+     * the subtree is visited only if the splitting plane is within the
+     * radius or the point is in the half.
+     *
+     * @param aFrom Start of the subtree range, inclusive.
+     * @param aTo End of the subtree range, exclusive.
+     * @param aDepth Depth of the subtree root.
+     * @param aTarget The point as a unit vector.
+     * @param aBound Squared chord distance of the radius.
+     * @param aFound Cities found so far.
+     */
+    private void within(final int aFrom, final int aTo, final int aDepth,
+            final double[] aTarget, final double aBound, final Found aFound) {
+        if (aFrom < aTo) {
+            int middle = (aFrom + aTo) >>> 1;
+            double distance = distance(middle, aTarget);
+            if (distance <= aBound) {
+                aFound.add(middle, distance);
+            }
+            int axis = aDepth % DIMENSIONS;
+            double delta = aTarget[axis] - points[middle * DIMENSIONS + axis];
+            if (delta < 0 || delta * delta <= aBound) {
+                within(aFrom, middle, aDepth + 1, aTarget, aBound, aFound);
+            }
+            if (delta >= 0 || delta * delta <= aBound) {
+                within(middle + 1, aTo, aDepth + 1, aTarget, aBound, aFound);
+            }
+        }
+    }
+
+    /**
+     * Calculates squared chord distance between a city and a point.
+     *
+     * @param aIndex Index of the city in the tree.
+     * @param aTarget The point as a unit vector.
+     * @return Squared straight line distance between unit vectors.
+     */
+    private double distance(final int aIndex, final double[] aTarget) {
+        int offset = aIndex * DIMENSIONS;
+        double dx = points[offset] - aTarget[0];
+        double dy = points[offset + 1] - aTarget[1];
+        double dz = points[offset + 2] - aTarget[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Orders found cities by distance.
+     *
+     * @param aIndices Indices of found cities in the tree.
+     * @param aDistances Distances to found cities.
+     * @param aSize Number of found cities.
+     * @return Found cities, ordered by distance.
+     */
+    private List<City> sorted(final int[] aIndices, final double[] aDistances,
+            final int aSize) {
+        long[] order = new long[aSize];
+        for (int i = 0; i < aSize; i++) {
+            // Non negative doubles are ordered as their bits, so the high
+            // bits of distances order positions in the low bits.
+            order[i] = Double.doubleToRawLongBits(aDistances[i])
+                    & DISTANCE_MASK | i;
+        }
+        Arrays.sort(order);
+        // Distances, that differ only in the dropped low bits, may be out of
+        // order yet, but only next to each other, so insertion sort by exact
+        // distances is linear here.
+        for (int i = 1; i < aSize; i++) {
+            long item = order[i];
+            double distance = aDistances[(int) (item & INDEX_MASK)];
+            int j = i - 1;
+            while (j >= 0 && aDistances[(int) (order[j] & INDEX_MASK)]
+                    > distance) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = item;
+        }
+        List<City> found = new ArrayList<>(aSize);
+        for (long item : order) {
+            found.add(cities[aIndices[(int) (item & INDEX_MASK)]]);
+        }
+        return found;
+    }
+
+    /**
+     * Calculates great circle distance between two points with haversine
+     * formula.
+     *
+     * @param aLatitude1 Latitude of the first point in degrees.
+     * @param aLongitude1 Longitude of the first point in degrees.
+     * @param aLatitude2 Latitude of the second point in degrees.
+     * @param aLongitude2 Longitude of the second point in degrees.
+     * @return Distance in kilometres.
+     */
+    public static double distance(final double aLatitude1,
+            final double aLongitude1, final double aLatitude2,
+            final double aLongitude2) {
+        double latitude1 = Math.toRadians(aLatitude1);
+        double latitude2 = Math.toRadians(aLatitude2);
+        double sinLatitude = Math.sin((latitude2 - latitude1) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(
+                aLongitude2 - aLongitude1) / 2);
+        double h = sinLatitude * sinLatitude + Math.cos(latitude1)
+                * Math.cos(latitude2) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Number of coordinates of a unit vector.
+     */
+    private static final int DIMENSIONS = 3;
+    /**
+     * Mean radius of the Earth in kilometres.
+     */
+    public static final double EARTH_RADIUS = 6371.0088;
+    /**
+     * Relative slack of radius bounds.
+     */
+    private static final double EPSILON = 1e-9;
+    /**
+     * Mask of distance bits in sort keys. Position bits replace low bits of
+     * distance mantissas.
+     */
+    private static final long DISTANCE_MASK = 0xFFFFFFFF80000000L;
+    /**
+     * Mask of position bits in sort keys.
+     */
+    private static final long INDEX_MASK = 0x7FFFFFFFL;
+}
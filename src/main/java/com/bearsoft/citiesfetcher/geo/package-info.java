@@ -0,0 +1,4 @@
+/**
+ * This package consists spatial index of fetched cities.
+ */
+package com.bearsoft.citiesfetcher.geo;
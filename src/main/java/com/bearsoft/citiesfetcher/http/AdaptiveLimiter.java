@@ -0,0 +1,141 @@
+package com.bearsoft.citiesfetcher.http;
+
+/**
+ * Adaptive limit of concurrent requests with additive increase and
+ * multiplicative decrease. A request, that failed, was rejected by a server
+ * as overloaded or took more than twice the minimum recently observed time,
+ * is a drop and it decreases the limit by 10 percent. Other requests increase
+ * the limit by one, while at least half of the limit is in use. The minimum
+ * time is taken over the last two windows of samples, so it follows slow
+ * changes of the network. The limiter is thread safe.
+ *
+ * @author mg
+ */
+public final class AdaptiveLimiter {
+
+    /**
+     * Maximum limit.
+     */
+    private final int maxLimit;
+    /**
+     * Current limit. It is fractional to allow smooth decrease.
+     */
+    private double limit;
+    /**
+     * Number of requests in flight.
+     */
+    private int inFlight;
+    /**
+     * Minimum time of the previous window in nanos.
+     */
+    private long previousMin = Long.MAX_VALUE;
+    /**
+     * Minimum time of the current window in nanos.
+     */
+    private long windowMin = Long.MAX_VALUE;
+    /**
+     * Number of samples in the current window.
+     */
+    private int windowSamples;
+
+    /**
+     * Limiter constructor.
+     *
+     * @param aInitialLimit Initial limit.
+     * @param aMaxLimit Maximum limit.
+     */
+    public AdaptiveLimiter(final int aInitialLimit, final int aMaxLimit) {
+        maxLimit = Math.max(aMaxLimit, MIN_LIMIT);
+        limit = Math.max(Math.min(aInitialLimit, maxLimit), MIN_LIMIT);
+    }
+
+    /**
+     * Waits until a request fits into the limit and takes it into account.
+     *
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Completes a request and adjusts the limit by its outcome.
+     *
+     * @param aNanos Time of the request up to the first byte in nanos or 0
+     * if the request was not sent.
+     * @param aDropped True if the request failed or was rejected by an
+     * overloaded server.
+     */
+    public synchronized void release(final long aNanos,
+            final boolean aDropped) {
+        boolean utilized = inFlight * 2 >= limit;
+        inFlight--;
+        boolean drop = aDropped;
+        if (!drop && aNanos > 0) {
+            long baseline = Math.min(previousMin, windowMin);
+            drop = baseline != Long.MAX_VALUE
+                    && aNanos > baseline * TOLERANCE;
+            sample(aNanos);
+        }
+        if (drop) {
+            limit = Math.max(limit * BACKOFF_RATIO, MIN_LIMIT);
+        } else if (utilized && aNanos > 0) {
+            limit = Math.min(limit + 1, maxLimit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Records time of a successful request.
+     *
+     * @param aNanos Time of the request in nanos.
+     */
+    private void sample(final long aNanos) {
+        windowMin = Math.min(windowMin, aNanos);
+        if (++windowSamples == WINDOW) {
+            previousMin = windowMin;
+            windowMin = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    /**
+     * Limit getter.
+     *
+     * @return Current number of requests, allowed to be in flight.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * In flight getter.
+     *
+     * @return Number of requests in flight.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Minimum limit.
+     */
+    private static final int MIN_LIMIT = 1;
+    /**
+     * Share of the limit, left after a drop.
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+    /**
+     * Ratio of a request time to the minimum time, the request is a drop
+     * after.
+     */
+    private static final long TOLERANCE = 2;
+    /**
+     * Number of samples in a window of the minimum time.
+     */
+    private static final int WINDOW = 100;
+}
@@ -0,0 +1,822 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport decorator, caching successful responses on disk. Entries are
+ * keyed by request url and hold raw response body, still content encoded,
+ * along with response headers. Fresh entries are served without network
+ * access. Stale entries are revalidated with 'If-None-Match' and
+ * 'If-Modified-Since' headers and 304 response is treated as a hit. Total
+ * size of entries is bounded and least recently used entries are evicted
+ * first.
+ *
+ * @author mg
+ */
+public final class CachingTransport implements Transport {
+
+    /**
+     * Transport, network requests are performed with.
+     */
+    private final Transport transport;
+    /**
+     * Directory of cache files.
+     */
+    private final Path directory;
+    /**
+     * Time in millis, an entry is served without revalidation.
+     */
+    private final long ttl;
+    /**
+     * Maximum total size of entries in bytes.
+     */
+    private final long maxSize;
+    /**
+     * Entries by keys in access order. Guards itself and {@code size}.
+     */
+    private final Map<String, Entry> entries
+            = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    /**
+     * Total size of entries in bytes.
+     */
+    private long size;
+    /**
+     * Number of responses served from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * Number of responses fetched from network.
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * Number of conditional requests sent.
+     */
+    private final LongAdder revalidations = new LongAdder();
+
+    /**
+     * Caching transport constructor. It loads entries, left in the directory
+     * by previous runs.
+     *
+     * @param aTransport Transport for network requests.
+     * @param aDirectory Directory of cache files. It is created if absent.
+     * @param aTtl Time in millis, an entry is served without revalidation.
+     * @param aMaxSize Maximum total size of entries in bytes.
+     * @throws IOException if the directory can't be created or read.
+     */
+    public CachingTransport(final Transport aTransport, final File aDirectory,
+            final long aTtl, final long aMaxSize) throws IOException {
+        transport = aTransport;
+        directory = Files.createDirectories(aDirectory.toPath());
+        ttl = aTtl;
+        maxSize = aMaxSize;
+        load();
+    }
+
+    /**
+     * Transport getter.
+     *
+     * @return Transport for network requests.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Hits getter.
+     *
+     * @return Number of responses served from the cache, including
+     * revalidated ones.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Misses getter.
+     *
+     * @return Number of responses fetched from network.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Revalidations getter.
+     *
+     * @return Number of conditional requests sent.
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Total size of cache entries in bytes.
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    @Override
+    public Response get(final URL aUrl, final Map<String, String> aHeaders)
+            throws IOException {
+        String url = aUrl.toExternalForm();
+        String key = key(url);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.url.equals(url)) {
+            if (System.currentTimeMillis() - entry.stored < ttl) {
+                Response cached = open(entry);
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+            } else if (entry.isValidatable()) {
+                Map<String, String> conditional = new LinkedHashMap<>(aHeaders);
+                if (entry.headers.containsKey(ETAG)) {
+                    conditional.put(IF_NONE_MATCH, entry.headers.get(ETAG));
+                }
+                if (entry.headers.containsKey(LAST_MODIFIED)) {
+                    conditional.put(IF_MODIFIED_SINCE,
+                            entry.headers.get(LAST_MODIFIED));
+                }
+                revalidations.increment();
+                Response response = transport.get(aUrl, conditional);
+                if (response.getStatus() == Http.NOT_MODIFIED) {
+                    response.close();
+                    Response cached = open(refresh(entry, response));
+                    if (cached != null) {
+                        hits.increment();
+                        return cached;
+                    }
+                } else {
+                    misses.increment();
+                    return store(key, url, response);
+                }
+            }
+        }
+        misses.increment();
+        return store(key, url, transport.get(aUrl, aHeaders));
+    }
+
+    /**
+     * Opens a response, served from an entry.
+     *
+     * @param aEntry An entry to be served.
+     * @return Cached response or null if the entry has been evicted.
+     */
+    private Response open(final Entry aEntry) {
+        Path body = directory.resolve(aEntry.key + BODY_SUFFIX);
+        try {
+            InputStream in = new FileInputStream(body.toFile());
+            touch(body);
+            return new Response(Http.OK, OK_MSG, aEntry.headers, in);
+        } catch (FileNotFoundException ex) {
+            synchronized (entries) {
+                if (entries.get(aEntry.key) == aEntry) {
+                    entries.remove(aEntry.key);
+                    size -= aEntry.size;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Refreshes an entry after successful revalidation. Validators, sent
+     * with 304 response, replace stored ones.
+     *
+     * @param aEntry An entry to be refreshed.
+     * @param aResponse 304 response.
+     * @return Refreshed entry.
+     * @throws IOException if entry metadata can't be written.
+     */
+    private Entry refresh(final Entry aEntry, final Response aResponse)
+            throws IOException {
+        Map<String, String> headers = new TreeMap<>(
+                String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(aEntry.headers);
+        for (String validator : Arrays.asList(ETAG, LAST_MODIFIED)) {
+            aResponse.getHeader(validator).ifPresent((String aValue)
+                    -> headers.put(validator, aValue));
+        }
+        long metaSize = writeMeta(aEntry.key, aEntry.url,
+                System.currentTimeMillis(), headers);
+        Entry refreshed = new Entry(aEntry.key, aEntry.url,
+                System.currentTimeMillis(), headers, aEntry.bodySize,
+                metaSize);
+        put(refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Wraps a network response, so that its body is stored while it is read.
+     * Only successful responses, allowed to be stored, are cached.
+     *
+     * @param aKey Key of the entry.
+     * @param aUrl Requested url.
+     * @param aResponse Network response.
+     * @return A response with body copied to the cache.
+     * @throws IOException if a temporary file can't be created.
+     */
+    private Response store(final String aKey, final String aUrl,
+            final Response aResponse) throws IOException {
+        if (aResponse.getStatus() == Http.OK && !aResponse
+                .getHeader(CACHE_CONTROL).orElse("").toLowerCase(Locale.ROOT)
+                .contains(NO_STORE)) {
+            Map<String, String> headers = new TreeMap<>(
+                    String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(aResponse.getHeaders());
+            headers.keySet().removeAll(HOP_HEADERS);
+            Path temp = Files.createTempFile(directory, aKey, TEMP_SUFFIX);
+            return new Response(aResponse.getStatus(), aResponse.getMessage(),
+                    aResponse.getHeaders(), new CachingBody(
+                            aResponse.getBody(), aKey, aUrl, headers, temp),
+                    aResponse.getTiming(), aResponse::abort);
+        } else {
+            return aResponse;
+        }
+    }
+
+    /**
+     * Commits a completely read body as an entry.
+     *
+     * @param aKey Key of the entry.
+     * @param aUrl Requested url.
+     * @param aHeaders Headers to be stored.
+     * @param aTemp Temporary file with the body.
+     * @throws IOException if the entry can't be written.
+     */
+    private void commit(final String aKey, final String aUrl,
+            final Map<String, String> aHeaders, final Path aTemp)
+            throws IOException {
+        long stored = System.currentTimeMillis();
+        long bodySize = Files.size(aTemp);
+        Files.move(aTemp, directory.resolve(aKey + BODY_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        long metaSize = writeMeta(aKey, aUrl, stored, aHeaders);
+        put(new Entry(aKey, aUrl, stored, aHeaders, bodySize, metaSize));
+    }
+
+    /**
+     * Puts an entry into the index and evicts least recently used entries if
+     * the cache is too large.
+     *
+     * @param aEntry An entry to be put.
+     */
+    private void put(final Entry aEntry) {
+        synchronized (entries) {
+            Entry replaced = entries.put(aEntry.key, aEntry);
+            if (replaced != null) {
+                size -= replaced.size;
+            }
+            size += aEntry.size;
+            evict();
+        }
+    }
+
+    /**
+     * Evicts least recently used entries while the cache is too large. It
+     * should be called while holding {@code entries} lock.
+     */
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            size -= entry.size;
+            delete(directory.resolve(entry.key + BODY_SUFFIX));
+            delete(directory.resolve(entry.key + META_SUFFIX));
+        }
+    }
+
+    /**
+     * Writes entry metadata atomically.
+     *
+     * @param aKey Key of the entry.
+     * @param aUrl Requested url.
+     * @param aStored Time of storing or last revalidation in millis.
+     * @param aHeaders Headers to be stored.
+     * @return Size of metadata file in bytes.
+     * @throws IOException if metadata can't be written.
+     */
+    private long writeMeta(final String aKey, final String aUrl,
+            final long aStored, final Map<String, String> aHeaders)
+            throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty(URL_PROPERTY, aUrl);
+        meta.setProperty(STORED_PROPERTY, String.valueOf(aStored));
+        for (Map.Entry<String, String> header : aHeaders.entrySet()) {
+            meta.setProperty(HEADER_PREFIX + header.getKey(),
+                    header.getValue());
+        }
+        Path temp = Files.createTempFile(directory, aKey, TEMP_SUFFIX);
+        try {
+            try (Writer out = Files.newBufferedWriter(temp,
+                    StandardCharsets.UTF_8)) {
+                meta.store(out, null);
+            }
+            long metaSize = Files.size(temp);
+            Files.move(temp, directory.resolve(aKey + META_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return metaSize;
+        } finally {
+            delete(temp);
+        }
+    }
+
+    /**
+     * Loads entries, left by previous runs. Recency of entries is restored
+     * from modification time of their bodies. Incomplete entries and
+     * temporary files are removed.
+     *
+     * @throws IOException if the directory can't be read.
+     */
+    private void load() throws IOException {
+        List<Entry> loaded = new ArrayList<>();
+        Map<Entry, FileTime> used = new HashMap<>();
+        try (DirectoryStream<Path> files
+                = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    delete(file);
+                } else if (name.endsWith(META_SUFFIX)) {
+                    String key = name.substring(0,
+                            name.length() - META_SUFFIX.length());
+                    Path body = directory.resolve(key + BODY_SUFFIX);
+                    try {
+                        Entry entry = readEntry(key, file, body);
+                        used.put(entry, Files.getLastModifiedTime(body));
+                        loaded.add(entry);
+                    } catch (IOException | RuntimeException ex) {
+                        Logger.getLogger(CachingTransport.class.getName())
+                                .log(Level.WARNING, String.format(
+                                        BAD_ENTRY_MSG, key, ex.getMessage()));
+                        delete(file);
+                        delete(body);
+                    }
+                }
+            }
+        }
+        loaded.sort(Comparator.comparing(used::get));
+        synchronized (entries) {
+            for (Entry entry : loaded) {
+                entries.put(entry.key, entry);
+                size += entry.size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Reads an entry from its files.
+     *
+     * @param aKey Key of the entry.
+     * @param aMeta Metadata file.
+     * @param aBody Body file.
+     * @return Read entry.
+     * @throws IOException if files can't be read or metadata is malformed.
+     */
+    private static Entry readEntry(final String aKey, final Path aMeta,
+            final Path aBody) throws IOException {
+        Properties meta = new Properties();
+        try (Reader in = Files.newBufferedReader(aMeta,
+                StandardCharsets.UTF_8)) {
+            meta.load(in);
+        }
+        String url = meta.getProperty(URL_PROPERTY);
+        String stored = meta.getProperty(STORED_PROPERTY);
+        if (url == null || stored == null || !aKey.equals(key(url))) {
+            throw new IOException(MALFORMED_META_MSG);
+        }
+        Map<String, String> headers = new TreeMap<>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (String name : meta.stringPropertyNames()) {
+            if (name.startsWith(HEADER_PREFIX)) {
+                headers.put(name.substring(HEADER_PREFIX.length()),
+                        meta.getProperty(name));
+            }
+        }
+        return new Entry(aKey, url, Long.parseLong(stored), headers,
+                Files.size(aBody), Files.size(aMeta));
+    }
+
+    /**
+     * Computes a key of an entry as hex of url SHA-256 digest.
+     *
+     * @param aUrl Requested url.
+     * @return Key, safe to be used as a file name.
+     */
+    private static String key(final String aUrl) {
+        try {
+            byte[] digest = MessageDigest.getInstance(DIGEST_ALGORITHM)
+                    .digest(aUrl.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(HEX_DIGITS.charAt((b >> HALF_BYTE) & HALF_BYTE_MASK))
+                        .append(HEX_DIGITS.charAt(b & HALF_BYTE_MASK));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Updates modification time of an entry body, so that recency of the
+     * entry survives restarts.
+     *
+     * @param aBody Body file.
+     */
+    private static void touch(final Path aBody) {
+        try {
+            Files.setLastModifiedTime(aBody,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            // Recency is a hint only.
+        }
+    }
+
+    /**
+     * Deletes a file if it exists, ignoring failures.
+     *
+     * @param aFile A file to be deleted.
+     */
+    private static void delete(final Path aFile) {
+        try {
+            Files.deleteIfExists(aFile);
+        } catch (IOException ex) {
+            Logger.getLogger(CachingTransport.class.getName())
+                    .log(Level.WARNING, ex.getMessage());
+        }
+    }
+
+    /**
+     * Closes underlying transport.
+     *
+     * @throws IOException if underlying transport throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    /**
+     * Immutable cache entry.
+     */
+    private static final class Entry {
+
+        /**
+         * Key of the entry.
+         */
+        private final String key;
+        /**
+         * Requested url.
+         */
+        private final String url;
+        /**
+         * Time of storing or last revalidation in millis.
+         */
+        private final long stored;
+        /**
+         * Stored response headers with case insensitive names.
+         */
+        private final Map<String, String> headers;
+        /**
+         * Size of body file in bytes.
+         */
+        private final long bodySize;
+        /**
+         * Total size of entry files in bytes.
+         */
+        private final long size;
+
+        /**
+         * Entry constructor.
+         *
+         * @param aKey Key of the entry.
+         * @param aUrl Requested url.
+         * @param aStored Time of storing or last revalidation in millis.
+         * @param aHeaders Stored response headers.
+         * @param aBodySize Size of body file in bytes.
+         * @param aMetaSize Size of metadata file in bytes.
+         */
+        Entry(final String aKey, final String aUrl, final long aStored,
+                final Map<String, String> aHeaders, final long aBodySize,
+                final long aMetaSize) {
+            key = aKey;
+            url = aUrl;
+            stored = aStored;
+            headers = Collections.unmodifiableMap(aHeaders);
+            bodySize = aBodySize;
+            size = aBodySize + aMetaSize;
+        }
+
+        /**
+         * Checks if the entry can be revalidated.
+         *
+         * @return True if the entry has 'ETag' or 'Last-Modified' validator.
+         */
+        boolean isValidatable() {
+            return headers.containsKey(ETAG)
+                    || headers.containsKey(LAST_MODIFIED);
+        }
+    }
+
+    /**
+     * Body stream, copying read bytes to a temporary file. The copy is
+     * committed as a cache entry when the body is read to the end, and
+     * discarded otherwise.
+     */
+    private final class CachingBody extends FilterInputStream {
+
+        /**
+         * Key of the entry.
+         */
+        private final String key;
+        /**
+         * Requested url.
+         */
+        private final String url;
+        /**
+         * Headers to be stored.
+         */
+        private final Map<String, String> headers;
+        /**
+         * Temporary file with the copy.
+         */
+        private final Path temp;
+        /**
+         * Stream of the copy.
+         */
+        private final OutputStream copy;
+        /**
+         * Flag, indicating that the copy is committed or discarded.
+         */
+        private boolean done;
+
+        /**
+         * Body constructor.
+         *
+         * @param aIn Network body stream.
+         * @param aKey Key of the entry.
+         * @param aUrl Requested url.
+         * @param aHeaders Headers to be stored.
+         * @param aTemp Temporary file for the copy.
+         * @throws IOException if the temporary file can't be opened.
+         */
+        CachingBody(final InputStream aIn, final String aKey,
+                final String aUrl, final Map<String, String> aHeaders,
+                final Path aTemp) throws IOException {
+            super(aIn);
+            key = aKey;
+            url = aUrl;
+            headers = aHeaders;
+            temp = aTemp;
+            copy = Files.newOutputStream(aTemp);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read == -1 ? -1 : one[0] & BYTE_MASK;
+        }
+
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset,
+                final int aLength) throws IOException {
+            int read;
+            try {
+                read = super.read(aBuffer, aOffset, aLength);
+            } catch (IOException | RuntimeException ex) {
+                discard();
+                throw ex;
+            }
+            if (!done) {
+                if (read == -1) {
+                    finish();
+                } else {
+                    try {
+                        copy.write(aBuffer, aOffset, read);
+                    } catch (IOException ex) {
+                        Logger.getLogger(CachingTransport.class.getName())
+                                .log(Level.WARNING, ex.getMessage());
+                        discard();
+                    }
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long aLength) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(aLength, DRAIN_CHUNK)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Commits the copy. Cache failures are logged and don't affect the
+         * caller.
+         */
+        private void finish() {
+            done = true;
+            try {
+                copy.close();
+                commit(key, url, headers, temp);
+            } catch (IOException ex) {
+                Logger.getLogger(CachingTransport.class.getName())
+                        .log(Level.WARNING, ex.getMessage());
+                delete(temp);
+            }
+        }
+
+        /**
+         * Discards the copy.
+         */
+        private void discard() {
+            if (!done) {
+                done = true;
+                try {
+                    copy.close();
+                } catch (IOException ex) {
+                    // The copy is deleted anyway.
+                }
+                delete(temp);
+            }
+        }
+
+        /**
+         * Closes the body. Parsers often stop before the end of a body, so a
+         * short remainder is read to commit the copy.
+         *
+         * @throws IOException if network body throws it while closing.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!done) {
+                    byte[] remainder = new byte[DRAIN_CHUNK];
+                    int drained = 0;
+                    int read = 0;
+                    while (!done && read != -1 && drained <= DRAIN_CHUNK) {
+                        read = read(remainder, 0, remainder.length);
+                        drained += read;
+                    }
+                    discard();
+                }
+            } catch (IOException ex) {
+                discard();
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Initial capacity of entries map.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * Load factor of entries map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * Reason phrase of cached responses.
+     */
+    private static final String OK_MSG = "OK";
+    /**
+     * 'ETag' header name.
+     */
+    public static final String ETAG = "ETag";
+    /**
+     * 'Last-Modified' header name.
+     */
+    public static final String LAST_MODIFIED = "Last-Modified";
+    /**
+     * 'If-None-Match' header name.
+     */
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    /**
+     * 'If-Modified-Since' header name.
+     */
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    /**
+     * 'Cache-Control' header name.
+     */
+    private static final String CACHE_CONTROL = "Cache-Control";
+    /**
+     * Cache control directive, forbidding storing of a response.
+     */
+    private static final String NO_STORE = "no-store";
+    /**
+     * Headers, not stored with entries, because they describe the transfer
+     * rather than the body.
+     */
+    private static final List<String> HOP_HEADERS = Arrays.asList(
+            Http.CONNECTION, Http.TRANSFER_ENCODING, Http.CONTENT_LENGTH,
+            "Keep-Alive");
+    /**
+     * Suffix of body files.
+     */
+    private static final String BODY_SUFFIX = ".body";
+    /**
+     * Suffix of metadata files.
+     */
+    private static final String META_SUFFIX = ".meta";
+    /**
+     * Suffix of temporary files.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Url property of metadata.
+     */
+    private static final String URL_PROPERTY = "url";
+    /**
+     * Storing time property of metadata.
+     */
+    private static final String STORED_PROPERTY = "stored";
+    /**
+     * Prefix of header properties of metadata.
+     */
+    private static final String HEADER_PREFIX = "header.";
+    /**
+     * Digest algorithm of keys.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    /**
+     * Hex digits of keys.
+     */
+    private static final String HEX_DIGITS = "0123456789abcdef";
+    /**
+     * Bits in a half of byte.
+     */
+    private static final int HALF_BYTE = 4;
+    /**
+     * Mask of a half of byte.
+     */
+    private static final int HALF_BYTE_MASK = 0x0F;
+    /**
+     * Mask of a byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * Maximum remainder of a body, read while closing.
+     */
+    private static final int DRAIN_CHUNK = 8 * 1024;
+    /**
+     * Message about malformed metadata.
+     */
+    private static final String MALFORMED_META_MSG = "Malformed metadata";
+    /**
+     * Message about cache entry, that can't be loaded.
+     */
+    private static final String BAD_ENTRY_MSG
+            = "Cache entry %s is dropped: %s";
+}
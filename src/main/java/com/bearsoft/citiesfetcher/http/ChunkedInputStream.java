@@ -0,0 +1,130 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Body stream of a response with 'Transfer-Encoding: chunked' header. It
+ * decodes chunks and skips trailers after the last chunk.
+ *
+ * @author mg
+ */
+final class ChunkedInputStream extends InputStream {
+
+    /**
+     * Connection input.
+     */
+    private final InputStream in;
+    /**
+     * Number of bytes remaining in the current chunk.
+     */
+    private long remaining;
+    /**
+     * Flag, indicating that the last chunk has been read.
+     */
+    private boolean finished;
+    /**
+     * Flag, indicating that the next chunk is not the first one and its size
+     * line is preceded by CRLF.
+     */
+    private boolean started;
+
+    /**
+     * Constructor of chunked body stream.
+     *
+     * @param aIn Connection input.
+     */
+    ChunkedInputStream(final InputStream aIn) {
+        in = aIn;
+    }
+
+    /**
+     * Advances to the next chunk if the current one is exhausted.
+     *
+     * @return True if some data is available.
+     * @throws IOException if a problem with IO occurs or if chunks are
+     * malformed.
+     */
+    private boolean nextChunk() throws IOException {
+        if (!finished && remaining == 0) {
+            if (started) {
+                Http.readLine(in);
+            }
+            started = true;
+            String sizeLine = Http.readLine(in);
+            int extensionAt = sizeLine.indexOf(';');
+            if (extensionAt > -1) {
+                sizeLine = sizeLine.substring(0, extensionAt);
+            }
+            String size = sizeLine.trim();
+            try {
+                // Signs are accepted by parseLong(), but not by the grammar
+                // of chunk sizes.
+                if (size.isEmpty() || Character.digit(size.charAt(0),
+                        HEX_RADIX) < 0) {
+                    throw new NumberFormatException(size);
+                }
+                remaining = Long.parseLong(size, HEX_RADIX);
+            } catch (NumberFormatException ex) {
+                throw new IOException(String.format(BAD_CHUNK_MSG, sizeLine));
+            }
+            if (remaining == 0) {
+                String trailer = Http.readLine(in);
+                while (!trailer.isEmpty()) {
+                    trailer = Http.readLine(in);
+                }
+                finished = true;
+            }
+        }
+        return !finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (nextChunk()) {
+            int read = in.read();
+            if (read == -1) {
+                throw new EOFException(
+                        FixedLengthInputStream.PREMATURE_END_MSG);
+            }
+            remaining--;
+            return read;
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public int read(final byte[] aBuffer, final int aOffset,
+            final int aLength) throws IOException {
+        if (aLength == 0) {
+            return 0;
+        } else if (nextChunk()) {
+            int read = in.read(aBuffer, aOffset,
+                    (int) Math.min(aLength, remaining));
+            if (read == -1) {
+                throw new EOFException(
+                        FixedLengthInputStream.PREMATURE_END_MSG);
+            }
+            remaining -= read;
+            return read;
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    /**
+     * Radix of chunk sizes.
+     */
+    private static final int HEX_RADIX = 16;
+    /**
+     * Message about malformed chunk size line.
+     */
+    private static final String BAD_CHUNK_MSG = "Bad chunk size: %s";
+}
@@ -0,0 +1,158 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * A connection to a http server. It wraps a socket with buffered streams and
+ * tracks its idle time while it is parked in a {@code ConnectionPool}.
+ *
+ * @author mg
+ */
+final class Connection implements Closeable {
+
+    /**
+     * Underlying socket.
+     */
+    private final Socket socket;
+    /**
+     * Route key of the connection, e.g. "http://host:80".
+     */
+    private final String route;
+    /**
+     * Buffered input of the socket.
+     */
+    private final InputStream in;
+    /**
+     * Buffered output of the socket.
+     */
+    private final OutputStream out;
+    /**
+     * Time in millis, since the connection is idle.
+     */
+    private long idleSince;
+    /**
+     * Flag, indicating that the connection has served a request already.
+     */
+    private boolean reused;
+    /**
+     * Time of host name resolution in nanos.
+     */
+    private final long dnsNanos;
+    /**
+     * Time of connect, including TLS handshake, in nanos.
+     */
+    private final long connectNanos;
+
+    /**
+     * Connection constructor.
+     *
+     * @param aSocket A connected socket.
+     * @param aRoute Route key of the connection.
+     * @param aDnsNanos Time of host name resolution in nanos.
+     * @param aConnectNanos Time of connect in nanos.
+     * @throws IOException if socket streams can't be obtained.
+     */
+    Connection(final Socket aSocket, final String aRoute,
+            final long aDnsNanos, final long aConnectNanos)
+            throws IOException {
+        socket = aSocket;
+        route = aRoute;
+        dnsNanos = aDnsNanos;
+        connectNanos = aConnectNanos;
+        in = new BufferedInputStream(aSocket.getInputStream(), BUFFER_SIZE);
+        out = new BufferedOutputStream(aSocket.getOutputStream(),
+                BUFFER_SIZE);
+    }
+
+    /**
+     * Route getter.
+     *
+     * @return Route key of the connection.
+     */
+    String getRoute() {
+        return route;
+    }
+
+    /**
+     * Name resolution time getter.
+     *
+     * @return Time of host name resolution in nanos.
+     */
+    long getDnsNanos() {
+        return dnsNanos;
+    }
+
+    /**
+     * Connect time getter.
+     *
+     * @return Time of connect, including TLS handshake, in nanos.
+     */
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Input getter.
+     *
+     * @return Buffered input of the socket.
+     */
+    InputStream getInput() {
+        return in;
+    }
+
+    /**
+     * Output getter.
+     *
+     * @return Buffered output of the socket.
+     */
+    OutputStream getOutput() {
+        return out;
+    }
+
+    /**
+     * Checks if the connection has served a request already.
+     *
+     * @return True if the connection has been taken from a pool.
+     */
+    boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * Marks the connection as idle since a moment.
+     *
+     * @param aMillis Time in millis the connection is idle since.
+     */
+    void idle(final long aMillis) {
+        idleSince = aMillis;
+        reused = true;
+    }
+
+    /**
+     * Checks if the connection is idle too long or closed.
+     *
+     * @param aNow Current time in millis.
+     * @param aIdleTimeout Maximum idle time in millis.
+     * @return True if the connection should not be used anymore.
+     */
+    boolean isExpired(final long aNow, final long aIdleTimeout) {
+        return aNow - idleSince >= aIdleTimeout || socket.isClosed()
+                || socket.isInputShutdown();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Size of socket streams buffers.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+}
@@ -0,0 +1,213 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of keep-alive connections. It limits number of connections per route
+ * (scheme, host and port) and evicts connections, been idle too long.
+ *
+ * @author mg
+ */
+public final class ConnectionPool implements Closeable {
+
+    /**
+     * A {@code Supplier} like interface with exceptions, creating new
+     * connections.
+     */
+    @FunctionalInterface
+    interface Connector {
+
+        /**
+         * Creates new connection.
+         *
+         * @return Connected {@code Connection}.
+         * @throws IOException if connection can't be established.
+         */
+        Connection connect() throws IOException;
+    }
+
+    /**
+     * Maximum number of connections per route.
+     */
+    private final int maxPerRoute;
+    /**
+     * Maximum idle time of a connection in millis.
+     */
+    private final long idleTimeout;
+    /**
+     * Permits of routes. Every permit is a connection, leased or idle.
+     */
+    private final Map<String, Semaphore> permits = new HashMap<>();
+    /**
+     * Idle connections of routes, most recently used first.
+     */
+    private final Map<String, Deque<Connection>> idle = new HashMap<>();
+    /**
+     * Flag, indicating that the pool is closed and doesn't accept idle
+     * connections anymore.
+     */
+    private boolean closed;
+
+    /**
+     * Pool constructor.
+     *
+     * @param aMaxPerRoute Maximum number of connections per route.
+     * @param aIdleTimeout Maximum idle time of a connection in millis.
+     */
+    public ConnectionPool(final int aMaxPerRoute, final long aIdleTimeout) {
+        maxPerRoute = aMaxPerRoute;
+        idleTimeout = aIdleTimeout;
+    }
+
+    /**
+     * Leases a connection for a route. It reuses an idle connection if any,
+     * or creates new one. Blocks while all connections of the route are
+     * leased.
+     *
+     * @param aRoute Route key.
+     * @param aConnector Connection factory for new connections.
+     * @return Leased connection.
+     * @throws IOException if new connection can't be established or if the
+     * calling thread is interrupted.
+     */
+    Connection lease(final String aRoute, final Connector aConnector)
+            throws IOException {
+        Semaphore routePermits;
+        synchronized (this) {
+            routePermits = permits.computeIfAbsent(aRoute,
+                    (String aKey) -> new Semaphore(maxPerRoute));
+        }
+        try {
+            routePermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+        Connection reusable = pollIdle(aRoute);
+        if (reusable != null) {
+            return reusable;
+        }
+        try {
+            return aConnector.connect();
+        } catch (IOException | RuntimeException ex) {
+            routePermits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes most recently used alive connection of a route and evicts
+     * expired connections of all routes.
+     *
+     * @param aRoute Route key.
+     * @return Idle connection or null if there is no one.
+     */
+    private Connection pollIdle(final String aRoute) {
+        evictExpired();
+        synchronized (this) {
+            Deque<Connection> routeIdle = idle.get(aRoute);
+            if (routeIdle != null) {
+                return routeIdle.pollFirst();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns a leased connection to the pool.
+     *
+     * @param aConnection A connection been leased earlier.
+     * @param aReusable True if the connection can serve next requests.
+     */
+    void release(final Connection aConnection, final boolean aReusable) {
+        boolean parked = false;
+        if (aReusable) {
+            aConnection.idle(System.currentTimeMillis());
+            synchronized (this) {
+                if (!closed) {
+                    idle.computeIfAbsent(aConnection.getRoute(),
+                            (String aKey) -> new ArrayDeque<>())
+                            .addFirst(aConnection);
+                    parked = true;
+                }
+            }
+        }
+        if (!parked) {
+            closeQuietly(aConnection);
+        }
+        Semaphore routePermits;
+        synchronized (this) {
+            routePermits = permits.get(aConnection.getRoute());
+        }
+        routePermits.release();
+    }
+
+    /**
+     * Closes and removes connections, been idle too long.
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Deque<Connection> routeIdle : idle.values()) {
+                Iterator<Connection> connections = routeIdle.iterator();
+                while (connections.hasNext()) {
+                    Connection connection = connections.next();
+                    if (connection.isExpired(now, idleTimeout)) {
+                        connections.remove();
+                        closeQuietly(connection);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Idle connections count getter.
+     *
+     * @return Number of idle connections of all routes.
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Deque<Connection> routeIdle : idle.values()) {
+            count += routeIdle.size();
+        }
+        return count;
+    }
+
+    /**
+     * Closes a connection, ignoring IO problems.
+     *
+     * @param aConnection A connection to be closed.
+     */
+    private static void closeQuietly(final Connection aConnection) {
+        try {
+            aConnection.close();
+        } catch (IOException ex) {
+            // Nothing to do with a connection, been thrown away.
+        }
+    }
+
+    /**
+     * Closes all idle connections. Leased connections are closed when they
+     * are released.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Deque<Connection> routeIdle : idle.values()) {
+            for (Connection connection : routeIdle) {
+                closeQuietly(connection);
+            }
+            routeIdle.clear();
+        }
+    }
+}
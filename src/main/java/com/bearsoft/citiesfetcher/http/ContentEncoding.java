@@ -0,0 +1,137 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoder of 'Content-Encoding' of http bodies. It supports gzip and deflate
+ * encodings. Deflate is accepted both zlib wrapped, as http specification
+ * requires, and raw, as some servers send it.
+ *
+ * @author mg
+ */
+public final class ContentEncoding {
+
+    /**
+     * Hidden constructor.
+     */
+    private ContentEncoding() {
+    }
+
+    /**
+     * Wraps a body with a decoding stream according to its content encoding.
+     *
+     * @param aBody A body stream as it is received.
+     * @param aEncoding Value of 'Content-Encoding' header if any.
+     * @return Decoded body stream.
+     * @throws IOException if the encoding is not supported or if encoded
+     * data is malformed.
+     */
+    public static InputStream decode(final InputStream aBody,
+            final Optional<String> aEncoding) throws IOException {
+        String encoding = aEncoding.orElse(IDENTITY).trim()
+                .toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case IDENTITY:
+            case "":
+                return aBody;
+            case GZIP:
+            case X_GZIP:
+                return new GZIPInputStream(aBody, BUFFER_SIZE);
+            case DEFLATE:
+                return inflate(aBody);
+            default:
+                throw new IOException(String.format(UNSUPPORTED_MSG,
+                        encoding));
+        }
+    }
+
+    /**
+     * Wraps a deflate encoded body with inflating stream. It looks at zlib
+     * header to decide, whether the body is zlib wrapped or raw.
+     *
+     * @param aBody Deflate encoded body.
+     * @return Inflated body stream.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static InputStream inflate(final InputStream aBody)
+            throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(aBody,
+                BUFFER_SIZE);
+        buffered.mark(2);
+        int method = buffered.read();
+        int flags = buffered.read();
+        buffered.reset();
+        boolean zlib = flags != -1 && (method & ZLIB_METHOD_MASK)
+                == ZLIB_DEFLATE_METHOD
+                && (method << Byte.SIZE | flags) % ZLIB_CHECK_DIVISOR == 0;
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(buffered, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Value of 'Accept-Encoding' request header, advertising supported
+     * encodings.
+     */
+    public static final String ACCEPTED = "gzip, deflate";
+    /**
+     * 'Accept-Encoding' header name.
+     */
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    /**
+     * 'Content-Encoding' header name.
+     */
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    /**
+     * Identity encoding name.
+     */
+    private static final String IDENTITY = "identity";
+    /**
+     * Gzip encoding name.
+     */
+    private static final String GZIP = "gzip";
+    /**
+     * Legacy gzip encoding name.
+     */
+    private static final String X_GZIP = "x-gzip";
+    /**
+     * Deflate encoding name.
+     */
+    private static final String DEFLATE = "deflate";
+    /**
+     * Size of decoding buffers.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /**
+     * Mask of compression method bits of zlib header.
+     */
+    private static final int ZLIB_METHOD_MASK = 0x0F;
+    /**
+     * Deflate compression method of zlib header.
+     */
+    private static final int ZLIB_DEFLATE_METHOD = 8;
+    /**
+     * Divisor of zlib header check bits.
+     */
+    private static final int ZLIB_CHECK_DIVISOR = 31;
+    /**
+     * Message about unsupported encoding.
+     */
+    private static final String UNSUPPORTED_MSG
+            = "Unsupported content encoding: %s";
+}
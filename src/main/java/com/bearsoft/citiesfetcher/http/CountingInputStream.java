@@ -0,0 +1,96 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream, counting bytes read through it and time spent in reading.
+ *
+ * @author mg
+ */
+public final class CountingInputStream extends FilterInputStream {
+
+    /**
+     * Number of bytes read.
+     */
+    private long count;
+    /**
+     * Time spent in reading in nanos.
+     */
+    private long nanos;
+
+    /**
+     * Constructs counting stream.
+     *
+     * @param aIn A stream to count bytes of.
+     */
+    public CountingInputStream(final InputStream aIn) {
+        super(aIn);
+    }
+
+    /**
+     * Count getter.
+     *
+     * @return Number of bytes read so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Reading time getter.
+     *
+     * @return Time spent in reading so far in nanos, including time of
+     * underlying streams.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long started = System.nanoTime();
+        try {
+            int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public int read(final byte[] aBuffer, final int aOffset,
+            final int aLength) throws IOException {
+        long started = System.nanoTime();
+        try {
+            int read = super.read(aBuffer, aOffset, aLength);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public long skip(final long aLength) throws IOException {
+        long started = System.nanoTime();
+        try {
+            long skipped = super.skip(aLength);
+            count += skipped;
+            return skipped;
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
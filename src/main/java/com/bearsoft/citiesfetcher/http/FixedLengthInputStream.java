@@ -0,0 +1,87 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Body stream of a response with 'Content-Length' header. It reads exactly
+ * declared number of bytes from a connection and reports premature end of
+ * the connection as an error.
+ *
+ * @author mg
+ */
+final class FixedLengthInputStream extends InputStream {
+
+    /**
+     * Connection input.
+     */
+    private final InputStream in;
+    /**
+     * Number of bytes remaining in the body.
+     */
+    private long remaining;
+
+    /**
+     * Constructor of fixed length body stream.
+     *
+     * @param aIn Connection input.
+     * @param aLength Length of the body.
+     */
+    FixedLengthInputStream(final InputStream aIn, final long aLength) {
+        in = aIn;
+        remaining = aLength;
+    }
+
+    /**
+     * Remaining bytes getter.
+     *
+     * @return Number of bytes remaining in the body.
+     */
+    long getRemaining() {
+        return remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining > 0) {
+            int read = in.read();
+            if (read == -1) {
+                throw new EOFException(PREMATURE_END_MSG);
+            }
+            remaining--;
+            return read;
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public int read(final byte[] aBuffer, final int aOffset,
+            final int aLength) throws IOException {
+        if (aLength == 0) {
+            return 0;
+        } else if (remaining > 0) {
+            int read = in.read(aBuffer, aOffset,
+                    (int) Math.min(aLength, remaining));
+            if (read == -1) {
+                throw new EOFException(PREMATURE_END_MSG);
+            }
+            remaining -= read;
+            return read;
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    /**
+     * Message about connection, closed before whole body is read.
+     */
+    static final String PREMATURE_END_MSG
+            = "Connection closed before end of response body";
+}
@@ -0,0 +1,116 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Http protocol constants and helpers, shared by transport classes.
+ *
+ * @author mg
+ */
+public final class Http {
+
+    /**
+     * Hidden constructor.
+     */
+    private Http() {
+    }
+
+    /**
+     * Reads a CRLF or LF terminated line of http head.
+     *
+     * @param aIn A stream to read from.
+     * @return A line without terminator.
+     * @throws IOException if a problem with IO occurs, if the stream ends
+     * before line terminator or if the line is too long.
+     */
+    static String readLine(final InputStream aIn) throws IOException {
+        byte[] line = new byte[LINE_CHUNK];
+        int length = 0;
+        int read = aIn.read();
+        while (read != '\n') {
+            if (read == -1) {
+                throw new EOFException(UNEXPECTED_END_MSG);
+            }
+            if (length == line.length) {
+                if (length >= MAX_LINE_LENGTH) {
+                    throw new IOException(LINE_TOO_LONG_MSG);
+                }
+                byte[] grown = new byte[length * 2];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = (byte) read;
+            read = aIn.read();
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Http OK status code.
+     */
+    public static final int OK = 200;
+    /**
+     * Http no content status code.
+     */
+    public static final int NO_CONTENT = 204;
+    /**
+     * Http partial content status code.
+     */
+    public static final int PARTIAL_CONTENT = 206;
+    /**
+     * Http not modified status code.
+     */
+    public static final int NOT_MODIFIED = 304;
+    /**
+     * Lower bound of informational status codes.
+     */
+    static final int CONTINUE = 100;
+    /**
+     * Lower bound of successful status codes.
+     */
+    static final int SUCCESSFUL = 200;
+    /**
+     * 'Content-Length' header name.
+     */
+    public static final String CONTENT_LENGTH = "Content-Length";
+    /**
+     * 'Content-Type' header name.
+     */
+    public static final String CONTENT_TYPE = "Content-Type";
+    /**
+     * 'Transfer-Encoding' header name.
+     */
+    static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    /**
+     * 'Connection' header name.
+     */
+    static final String CONNECTION = "Connection";
+    /**
+     * 'Host' header name.
+     */
+    static final String HOST = "Host";
+    /**
+     * Initial size of line buffer.
+     */
+    private static final int LINE_CHUNK = 128;
+    /**
+     * Maximum length of a line in http head.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    /**
+     * Message about stream, ended in the middle of a line.
+     */
+    private static final String UNEXPECTED_END_MSG
+            = "Connection closed while reading http head";
+    /**
+     * Message about too long line in http head.
+     */
+    private static final String LINE_TOO_LONG_MSG
+            = "Http head line is too long";
+}
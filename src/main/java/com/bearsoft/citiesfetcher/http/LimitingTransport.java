@@ -0,0 +1,207 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport decorator, limiting requests to a server. A request waits until
+ * it fits into the limit of an {@code AdaptiveLimiter} and into a fixed rate
+ * of requests per second, if they are set. A request is in flight until its
+ * response is closed or aborted, while the limit is adjusted by time to the
+ * first byte, error statuses and failures of requests.
+ *
+ * @author mg
+ */
+public final class LimitingTransport implements Transport {
+
+    /**
+     * Transport, requests are performed with.
+     */
+    private final Transport transport;
+    /**
+     * Limiter of concurrent requests or null.
+     */
+    private final AdaptiveLimiter limiter;
+    /**
+     * Interval between requests in nanos or 0 if the rate is not limited.
+     */
+    private final long interval;
+    /**
+     * Time of the next allowed request in nanos. Guarded by {@code this}.
+     */
+    private long next;
+    /**
+     * Time, requests waited for the limits, in nanos.
+     */
+    private final LongAdder queueNanos = new LongAdder();
+    /**
+     * Number of requests, counted as drops.
+     */
+    private final LongAdder drops = new LongAdder();
+
+    /**
+     * Limiting transport constructor.
+     *
+     * @param aTransport Transport to perform requests with.
+     * @param aLimiter Limiter of concurrent requests or null if concurrency
+     * is not limited.
+     * @param aRps Maximum number of requests per second or 0 if the rate is
+     * not limited.
+     */
+    public LimitingTransport(final Transport aTransport,
+            final AdaptiveLimiter aLimiter, final int aRps) {
+        transport = aTransport;
+        limiter = aLimiter;
+        interval = aRps > 0 ? TimeUnit.SECONDS.toNanos(1) / aRps : 0;
+        next = System.nanoTime();
+    }
+
+    /**
+     * Transport getter.
+     *
+     * @return Transport, requests are performed with.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Limit getter.
+     *
+     * @return Current limit of concurrent requests or 0 if concurrency is
+     * not limited.
+     */
+    public int getLimit() {
+        return limiter != null ? limiter.getLimit() : 0;
+    }
+
+    /**
+     * Queue time getter.
+     *
+     * @return Time, requests waited for the limits, in nanos.
+     */
+    public long getQueueNanos() {
+        return queueNanos.sum();
+    }
+
+    /**
+     * Drops getter.
+     *
+     * @return Number of requests, failed or rejected by the server as
+     * overloaded.
+     */
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    @Override
+    public Response get(final URL aUrl, final Map<String, String> aHeaders)
+            throws IOException {
+        long queued = System.nanoTime();
+        try {
+            if (limiter != null) {
+                limiter.acquire();
+            }
+            try {
+                pace();
+            } catch (InterruptedException ex) {
+                release(0, false);
+                throw ex;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+        long started = System.nanoTime();
+        queueNanos.add(started - queued);
+        Response response;
+        try {
+            response = transport.get(aUrl, aHeaders);
+        } catch (IOException ex) {
+            release(0, !(ex instanceof InterruptedIOException));
+            throw ex;
+        }
+        long nanos = System.nanoTime() - started;
+        boolean dropped = response.getStatus() == TOO_MANY_REQUESTS
+                || response.getStatus() >= SERVER_ERROR;
+        AtomicBoolean released = new AtomicBoolean();
+        Closeable done = () -> {
+            if (released.compareAndSet(false, true)) {
+                release(nanos, dropped);
+            }
+        };
+        return new Response(response.getStatus(), response.getMessage(),
+                response.getHeaders(), new FilterInputStream(
+                        response.getBody()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    done.close();
+                }
+            }
+        }, response.getTiming(), () -> {
+            try {
+                response.abort();
+            } finally {
+                done.close();
+            }
+        });
+    }
+
+    /**
+     * Waits for the time of the next request, if the rate is limited.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private void pace() throws InterruptedException {
+        if (interval > 0) {
+            long delay;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long at = Math.max(now, next);
+                next = at + interval;
+                delay = at - now;
+            }
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * Completes a request in the limiter.
+     *
+     * @param aNanos Time of the request up to the first byte in nanos or 0
+     * if the request was not sent.
+     * @param aDropped Flag of a failed or rejected request.
+     */
+    private void release(final long aNanos, final boolean aDropped) {
+        if (aDropped) {
+            drops.increment();
+        }
+        if (limiter != null) {
+            limiter.release(aNanos, aDropped);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    /**
+     * Http too many requests status code.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+    /**
+     * Lower bound of server error status codes.
+     */
+    private static final int SERVER_ERROR = 500;
+}
@@ -0,0 +1,519 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Http/1.1 transport with keep-alive connections, taken from a
+ * {@code ConnectionPool}. A connection returns to the pool when body of a
+ * response is read to the end. If a response is closed before end of its
+ * body, the connection is closed.
+ *
+ * @author mg
+ */
+public final class PooledTransport implements Transport {
+
+    /**
+     * Pool of connections.
+     */
+    private final ConnectionPool pool;
+    /**
+     * Connect timeout in millis.
+     */
+    private final int connectTimeout;
+    /**
+     * Read timeout in millis.
+     */
+    private final int readTimeout;
+
+    /**
+     * Transport constructor.
+     *
+     * @param aPool Pool of connections.
+     * @param aConnectTimeout Connect timeout in millis.
+     * @param aReadTimeout Read timeout in millis.
+     */
+    public PooledTransport(final ConnectionPool aPool,
+            final int aConnectTimeout, final int aReadTimeout) {
+        pool = aPool;
+        connectTimeout = aConnectTimeout;
+        readTimeout = aReadTimeout;
+    }
+
+    /**
+     * Pool getter.
+     *
+     * @return Pool of connections of this transport.
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public Response get(final URL aUrl, final Map<String, String> aHeaders)
+            throws IOException {
+        String route = route(aUrl);
+        while (true) {
+            Connection connection = pool.lease(route, () -> connect(aUrl,
+                    route));
+            try {
+                long started = System.nanoTime();
+                writeRequest(connection.getOutput(), aUrl, aHeaders);
+                return readResponse(connection, started);
+            } catch (IOException | RuntimeException ex) {
+                pool.release(connection, false);
+                // A server may close an idle keep-alive connection silently.
+                // Such connection fails before response head is read and
+                // the request is repeated on another connection.
+                if (!connection.isReused()
+                        || ex instanceof SocketTimeoutException
+                        || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds route key of an url.
+     *
+     * @param aUrl An url to build route key of.
+     * @return Route key.
+     */
+    private static String route(final URL aUrl) {
+        return aUrl.getProtocol().toLowerCase(Locale.ROOT) + "://"
+                + aUrl.getHost().toLowerCase(Locale.ROOT) + ":" + port(aUrl);
+    }
+
+    /**
+     * Resolves port of an url.
+     *
+     * @param aUrl An url to resolve port of.
+     * @return Explicit or default port of the url.
+     */
+    private static int port(final URL aUrl) {
+        if (aUrl.getPort() != -1) {
+            return aUrl.getPort();
+        } else {
+            return aUrl.getDefaultPort();
+        }
+    }
+
+    /**
+     * Establishes new connection to a host of an url. The socket is backed
+     * by a channel, so interruption of a thread, blocked in connect or in
+     * read, closes the socket and the thread gets out with an exception.
+     *
+     * @param aUrl An url to connect to.
+     * @param aRoute Route key of the url.
+     * @return New connection.
+     * @throws IOException if the connection can't be established.
+     */
+    private Connection connect(final URL aUrl, final String aRoute)
+            throws IOException {
+        long started = System.nanoTime();
+        InetAddress address = InetAddress.getByName(aUrl.getHost());
+        long resolved = System.nanoTime();
+        Socket socket = SocketChannel.open().socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address, port(aUrl)),
+                    connectTimeout);
+            socket.setSoTimeout(readTimeout);
+            if (HTTPS.equalsIgnoreCase(aUrl.getProtocol())) {
+                SSLSocket secured = (SSLSocket) ((SSLSocketFactory)
+                        SSLSocketFactory.getDefault()).createSocket(socket,
+                                aUrl.getHost(), port(aUrl), true);
+                SSLParameters parameters = secured.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm(HTTPS);
+                secured.setSSLParameters(parameters);
+                secured.startHandshake();
+                return new Connection(secured, aRoute, resolved - started,
+                        System.nanoTime() - resolved);
+            } else {
+                return new Connection(socket, aRoute, resolved - started,
+                        System.nanoTime() - resolved);
+            }
+        } catch (IOException | RuntimeException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes GET request head to a connection.
+     *
+     * @param aOut Connection output.
+     * @param aUrl Url to be requested.
+     * @param aHeaders Additional request headers.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static void writeRequest(final OutputStream aOut, final URL aUrl,
+            final Map<String, String> aHeaders) throws IOException {
+        StringBuilder head = new StringBuilder("GET ");
+        if (aUrl.getPath().isEmpty()) {
+            head.append('/');
+        } else {
+            head.append(aUrl.getPath());
+        }
+        if (aUrl.getQuery() != null) {
+            head.append('?').append(aUrl.getQuery());
+        }
+        head.append(" HTTP/1.1\r\n");
+        Map<String, String> headers
+                = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (aUrl.getPort() == -1) {
+            headers.put(Http.HOST, aUrl.getHost());
+        } else {
+            headers.put(Http.HOST, aUrl.getHost() + ":" + aUrl.getPort());
+        }
+        headers.put(USER_AGENT, USER_AGENT_VALUE);
+        headers.putAll(aHeaders);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ")
+                    .append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        aOut.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        aOut.flush();
+    }
+
+    /**
+     * Reads response head from a connection and wraps connection input with
+     * body stream, according to response framing headers.
+     *
+     * @param aConnection A connection to read from.
+     * @param aStarted Time in nanos, the request writing started at.
+     * @return {@code Response} instance.
+     * @throws IOException if a problem with IO occurs or if status line is
+     * malformed.
+     */
+    private Response readResponse(final Connection aConnection,
+            final long aStarted) throws IOException {
+        InputStream in = aConnection.getInput();
+        String statusLine = Http.readLine(in);
+        long firstByteNanos = System.nanoTime() - aStarted;
+        Timing timing;
+        if (aConnection.isReused()) {
+            timing = new Timing(0, 0, firstByteNanos);
+        } else {
+            timing = new Timing(aConnection.getDnsNanos(),
+                    aConnection.getConnectNanos(), firstByteNanos);
+        }
+        int status = status(statusLine);
+        Map<String, String> headers = readHeaders(in);
+        while (status >= Http.CONTINUE && status < Http.SUCCESSFUL) {
+            statusLine = Http.readLine(in);
+            status = status(statusLine);
+            headers = readHeaders(in);
+        }
+        String message = message(statusLine);
+        Map<String, String> caseless
+                = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseless.putAll(headers);
+        boolean keepAlive = keepAlive(statusLine, caseless);
+        InputStream framed;
+        if (status == Http.NO_CONTENT || status == Http.NOT_MODIFIED) {
+            framed = new FixedLengthInputStream(in, 0);
+        } else if (caseless.getOrDefault(Http.TRANSFER_ENCODING, "")
+                .toLowerCase(Locale.ROOT).contains(CHUNKED)) {
+            framed = new ChunkedInputStream(in);
+        } else if (caseless.containsKey(Http.CONTENT_LENGTH)) {
+            try {
+                framed = new FixedLengthInputStream(in, Long.parseLong(
+                        caseless.get(Http.CONTENT_LENGTH).trim()));
+            } catch (NumberFormatException ex) {
+                throw new IOException(String.format(BAD_HEAD_MSG,
+                        caseless.get(Http.CONTENT_LENGTH)));
+            }
+        } else {
+            framed = in;
+            keepAlive = false;
+        }
+        PooledBody body = new PooledBody(framed, aConnection, keepAlive);
+        return new Response(status, message, headers, body, timing,
+                body::abort);
+    }
+
+    /**
+     * Reads headers of a http head.
+     *
+     * @param aIn A stream to read from.
+     * @return Headers map. Values of repeated headers are joined with comma.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static Map<String, String> readHeaders(final InputStream aIn)
+            throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line = Http.readLine(aIn);
+        while (!line.isEmpty()) {
+            int colonAt = line.indexOf(':');
+            if (colonAt > 0) {
+                headers.merge(line.substring(0, colonAt).trim(),
+                        line.substring(colonAt + 1).trim(),
+                        (String aFirst, String aNext) -> aFirst + ", "
+                        + aNext);
+            }
+            line = Http.readLine(aIn);
+        }
+        return headers;
+    }
+
+    /**
+     * Extracts status code from status line.
+     *
+     * @param aStatusLine Status line of a response.
+     * @return Status code.
+     * @throws IOException if status line is malformed.
+     */
+    private static int status(final String aStatusLine) throws IOException {
+        String[] parts = aStatusLine.split(" ", STATUS_LINE_PARTS);
+        if (parts.length >= 2 && parts[0].startsWith(HTTP_VERSION_PREFIX)) {
+            try {
+                return Integer.parseInt(parts[1]);
+            } catch (NumberFormatException ex) {
+                throw new IOException(String.format(BAD_HEAD_MSG,
+                        aStatusLine));
+            }
+        } else {
+            throw new IOException(String.format(BAD_HEAD_MSG, aStatusLine));
+        }
+    }
+
+    /**
+     * Extracts reason phrase from status line.
+     *
+     * @param aStatusLine Status line of a response.
+     * @return Reason phrase or empty string if it is absent.
+     */
+    private static String message(final String aStatusLine) {
+        String[] parts = aStatusLine.split(" ", STATUS_LINE_PARTS);
+        if (parts.length == STATUS_LINE_PARTS) {
+            return parts[2];
+        } else {
+            return "";
+        }
+    }
+
+    /**
+     * Decides if a connection can be reused after a response.
+     *
+     * @param aStatusLine Status line of the response.
+     * @param aHeaders Response headers with case insensitive names.
+     * @return True if the connection can be reused.
+     */
+    private static boolean keepAlive(final String aStatusLine,
+            final Map<String, String> aHeaders) {
+        String connection = aHeaders.getOrDefault(Http.CONNECTION, "")
+                .toLowerCase(Locale.ROOT);
+        if (aStatusLine.startsWith(HTTP_1_0)) {
+            return connection.contains(KEEP_ALIVE);
+        } else {
+            return !connection.contains(CLOSE);
+        }
+    }
+
+    /**
+     * Closes the pool of this transport.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Body stream, releasing its connection to the pool when the body is
+     * read to the end or closed.
+     */
+    private final class PooledBody extends FilterInputStream {
+
+        /**
+         * Connection of the body.
+         */
+        private final Connection connection;
+        /**
+         * Flag, indicating that the connection may be reused.
+         */
+        private final boolean keepAlive;
+        /**
+         * Flag, indicating that the connection is released already. It is
+         * set by a reading thread or by an aborting one.
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Body constructor.
+         *
+         * @param aIn Framed body stream.
+         * @param aConnection Connection of the body.
+         * @param aKeepAlive True if the connection may be reused.
+         */
+        PooledBody(final InputStream aIn, final Connection aConnection,
+                final boolean aKeepAlive) {
+            super(aIn);
+            connection = aConnection;
+            keepAlive = aKeepAlive;
+        }
+
+        /**
+         * Releases the connection of this body once.
+         *
+         * @param aReusable True if the connection can serve next requests.
+         */
+        private void release(final boolean aReusable) {
+            if (released.compareAndSet(false, true)) {
+                pool.release(connection, aReusable);
+            }
+        }
+
+        /**
+         * Closes the connection of this body without reading the rest of
+         * the body. It may be called by any thread.
+         */
+        void abort() {
+            release(false);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int read = super.read();
+                if (read == -1) {
+                    release(keepAlive);
+                }
+                return read;
+            } catch (IOException | RuntimeException ex) {
+                release(false);
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset,
+                final int aLength) throws IOException {
+            try {
+                int read = super.read(aBuffer, aOffset, aLength);
+                if (read == -1) {
+                    release(keepAlive);
+                }
+                return read;
+            } catch (IOException | RuntimeException ex) {
+                release(false);
+                throw ex;
+            }
+        }
+
+        @Override
+        public long skip(final long aLength) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(aLength, SKIP_CHUNK)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Releases the connection. The connection is reused only if the body
+         * is read to the end. Short remainder of a body is drained to keep
+         * the connection alive.
+         */
+        @Override
+        public void close() {
+            if (!released.get()) {
+                boolean drained = false;
+                if (keepAlive && (!(in instanceof FixedLengthInputStream)
+                        || ((FixedLengthInputStream) in).getRemaining()
+                        <= SKIP_CHUNK)) {
+                    drained = drain();
+                }
+                release(drained);
+            }
+        }
+
+        /**
+         * Reads a remainder of the body if it is not longer than
+         * {@code SKIP_CHUNK}.
+         *
+         * @return True if the body has been read to the end.
+         */
+        private boolean drain() {
+            try {
+                byte[] remainder = new byte[SKIP_CHUNK];
+                int drained = 0;
+                int read = in.read(remainder);
+                while (read != -1 && drained <= SKIP_CHUNK) {
+                    drained += read;
+                    read = in.read(remainder);
+                }
+                return read == -1;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Https protocol name.
+     */
+    private static final String HTTPS = "https";
+    /**
+     * Chunked transfer encoding name.
+     */
+    private static final String CHUNKED = "chunked";
+    /**
+     * Keep-alive connection token.
+     */
+    private static final String KEEP_ALIVE = "keep-alive";
+    /**
+     * Close connection token.
+     */
+    private static final String CLOSE = "close";
+    /**
+     * Http version prefix of status line.
+     */
+    private static final String HTTP_VERSION_PREFIX = "HTTP/";
+    /**
+     * Http/1.0 version of status line.
+     */
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    /**
+     * 'User-Agent' header name.
+     */
+    private static final String USER_AGENT = "User-Agent";
+    /**
+     * 'User-Agent' header value.
+     */
+    private static final String USER_AGENT_VALUE = "cities-fetcher";
+    /**
+     * Number of parts of status line: version, code and reason phrase.
+     */
+    private static final int STATUS_LINE_PARTS = 3;
+    /**
+     * Maximum number of bytes, skipped at once.
+     */
+    private static final int SKIP_CHUNK = 8 * 1024;
+    /**
+     * Message about malformed http head.
+     */
+    private static final String BAD_HEAD_MSG = "Malformed http head: %s";
+}
@@ -0,0 +1,168 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Http response container. It holds status line, headers and body stream of
+ * a response. Headers names are case insensitive. Closing of a response
+ * closes its body and releases underlying connection.
+ *
+ * @author mg
+ */
+public final class Response implements Closeable {
+
+    /**
+     * Status code of the response.
+     */
+    private final int status;
+    /**
+     * Reason phrase of the response.
+     */
+    private final String message;
+    /**
+     * Response headers with case insensitive names.
+     */
+    private final Map<String, String> headers;
+    /**
+     * Body of the response.
+     */
+    private final InputStream body;
+    /**
+     * Timing of the exchange up to the first byte.
+     */
+    private final Timing timing;
+    /**
+     * Action, aborting the exchange.
+     */
+    private final Closeable abort;
+
+    /**
+     * Response constructor for responses, not involving network.
+     *
+     * @param aStatus Status code.
+     * @param aMessage Reason phrase.
+     * @param aHeaders Response headers.
+     * @param aBody Body stream.
+     */
+    public Response(final int aStatus, final String aMessage,
+            final Map<String, String> aHeaders, final InputStream aBody) {
+        this(aStatus, aMessage, aHeaders, aBody, Timing.NONE);
+    }
+
+    /**
+     * Response constructor.
+     *
+     * @param aStatus Status code.
+     * @param aMessage Reason phrase.
+     * @param aHeaders Response headers.
+     * @param aBody Body stream.
+     * @param aTiming Timing of the exchange up to the first byte.
+     */
+    public Response(final int aStatus, final String aMessage,
+            final Map<String, String> aHeaders, final InputStream aBody,
+            final Timing aTiming) {
+        this(aStatus, aMessage, aHeaders, aBody, aTiming, aBody);
+    }
+
+    /**
+     * Response constructor with an abort action.
+     *
+     * @param aStatus Status code.
+     * @param aMessage Reason phrase.
+     * @param aHeaders Response headers.
+     * @param aBody Body stream.
+     * @param aTiming Timing of the exchange up to the first byte.
+     * @param aAbort Action, aborting the exchange. It may be called from any
+     * thread, while the body is read by another one.
+     */
+    public Response(final int aStatus, final String aMessage,
+            final Map<String, String> aHeaders, final InputStream aBody,
+            final Timing aTiming, final Closeable aAbort) {
+        status = aStatus;
+        message = aMessage;
+        Map<String, String> caseless
+                = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseless.putAll(aHeaders);
+        headers = Collections.unmodifiableMap(caseless);
+        body = aBody;
+        timing = aTiming;
+        abort = aAbort;
+    }
+
+    /**
+     * Status code getter.
+     *
+     * @return Status code of the response.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Reason phrase getter.
+     *
+     * @return Reason phrase of the response.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Header getter.
+     *
+     * @param aName A name of the header, case insensitive.
+     * @return Header value if it is present in the response.
+     */
+    public Optional<String> getHeader(final String aName) {
+        return Optional.ofNullable(headers.get(aName));
+    }
+
+    /**
+     * Headers getter.
+     *
+     * @return Unmodifiable map of headers with case insensitive names.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Body getter.
+     *
+     * @return Body stream of the response.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Timing getter.
+     *
+     * @return Timing of the exchange up to the first byte.
+     */
+    public Timing getTiming() {
+        return timing;
+    }
+
+    /**
+     * Aborts the exchange from any thread. A network connection is closed
+     * without reading the rest of the body, so a thread, blocked while
+     * reading the body, gets an {@code IOException}.
+     *
+     * @throws IOException if the abort action throws it.
+     */
+    public void abort() throws IOException {
+        abort.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
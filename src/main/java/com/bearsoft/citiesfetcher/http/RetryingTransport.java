@@ -0,0 +1,370 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport decorator, retrying failed requests and hedging slow ones. A
+ * request is repeated after a server error response or an
+ * {@code IOException} before the response head, including connect and read
+ * timeouts, up to a maximum number of attempts. Interruption of the calling
+ * thread is not retried. Only 'GET' requests are sent by transports, so all
+ * of them are idempotent. Attempts are separated by exponential backoff with
+ * full jitter. If hedging is enabled, a duplicate request is sent when a
+ * request takes longer than 95 percentile of observed time to the first
+ * byte, and the first response wins, while the other one is closed. A
+ * server error response wins only if no other response arrives.
+ *
+ * @author mg
+ */
+public final class RetryingTransport implements Transport {
+
+    /**
+     * Transport, requests are performed with.
+     */
+    private final Transport transport;
+    /**
+     * Maximum number of attempts of a request.
+     */
+    private final int attempts;
+    /**
+     * Base backoff delay in millis.
+     */
+    private final long backoff;
+    /**
+     * Threads of hedged requests or null if hedging is disabled.
+     */
+    private final ExecutorService hedging;
+    /**
+     * Ring of observed times to the first byte in nanos. Guards itself and
+     * {@code observed}.
+     */
+    private final long[] samples = new long[SAMPLES];
+    /**
+     * Total number of observed times to the first byte.
+     */
+    private long observed;
+    /**
+     * Number of repeated requests.
+     */
+    private final LongAdder retries = new LongAdder();
+    /**
+     * Number of duplicate requests, sent by hedging.
+     */
+    private final LongAdder hedges = new LongAdder();
+
+    /**
+     * Retrying transport constructor.
+     *
+     * @param aTransport Transport to perform requests with.
+     * @param aAttempts Maximum number of attempts of a request. 1 disables
+     * retries.
+     * @param aBackoff Base backoff delay in millis. The delay before attempt
+     * N is random up to {@code aBackoff * 2^(N - 2)}.
+     * @param aHedge Flag of hedging of slow requests.
+     */
+    public RetryingTransport(final Transport aTransport, final int aAttempts,
+            final long aBackoff, final boolean aHedge) {
+        transport = aTransport;
+        attempts = aAttempts;
+        backoff = aBackoff;
+        hedging = aHedge ? Executors.newCachedThreadPool(aTask -> {
+            Thread thread = new Thread(aTask, HEDGE_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Transport getter.
+     *
+     * @return Transport, requests are performed with.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Retries getter.
+     *
+     * @return Number of repeated requests.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Hedges getter.
+     *
+     * @return Number of duplicate requests, sent by hedging.
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    @Override
+    public Response get(final URL aUrl, final Map<String, String> aHeaders)
+            throws IOException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                Response response = hedging != null ? hedged(aUrl, aHeaders)
+                        : timed(aUrl, aHeaders);
+                if (attempt < attempts && isServerError(response)) {
+                    response.close();
+                } else {
+                    return response;
+                }
+            } catch (IOException ex) {
+                if (attempt >= attempts || isInterruption(ex)) {
+                    throw ex;
+                }
+            }
+            retries.increment();
+            pause(attempt);
+        }
+    }
+
+    /**
+     * Checks if a failure is caused by interruption of the calling thread,
+     * rather than by a timeout.
+     *
+     * @param aFailure A failure of a request.
+     * @return True if the failure should not be retried.
+     */
+    private static boolean isInterruption(final IOException aFailure) {
+        return Thread.currentThread().isInterrupted()
+                || aFailure instanceof InterruptedIOException
+                && !(aFailure instanceof SocketTimeoutException);
+    }
+
+    /**
+     * Checks a response for a server error status.
+     *
+     * @param aResponse A response to be checked.
+     * @return True if the status is 5xx.
+     */
+    private static boolean isServerError(final Response aResponse) {
+        return aResponse.getStatus() >= SERVER_ERROR
+                && aResponse.getStatus() < SERVER_ERROR + STATUS_CLASS;
+    }
+
+    /**
+     * Sleeps for a random backoff delay after a failed attempt.
+     *
+     * @param aAttempt Number of the failed attempt, starting from 1.
+     * @throws InterruptedIOException if the thread is interrupted.
+     */
+    private void pause(final int aAttempt) throws InterruptedIOException {
+        long limit = Math.min(backoff << Math.min(aAttempt - 1, MAX_SHIFT),
+                MAX_BACKOFF);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Performs a request and observes its time to the first byte. Responses
+     * without network timing, e.g. served from a cache, are not observed.
+     *
+     * @param aUrl Requested url.
+     * @param aHeaders Request headers.
+     * @return The response.
+     * @throws IOException if the transport throws it.
+     */
+    private Response timed(final URL aUrl, final Map<String, String> aHeaders)
+            throws IOException {
+        long started = System.nanoTime();
+        Response response = transport.get(aUrl, aHeaders);
+        if (response.getTiming().getFirstByteNanos() > 0) {
+            synchronized (samples) {
+                samples[(int) (observed++ % SAMPLES)]
+                        = System.nanoTime() - started;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Computes the delay of a duplicate request.
+     *
+     * @return 95 percentile of observed times to the first byte in nanos or
+     * -1 if too few times are observed.
+     */
+    private long hedgeDelay() {
+        long[] sorted;
+        synchronized (samples) {
+            if (observed < MIN_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, (int) Math.min(observed,
+                    SAMPLES));
+        }
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * PERCENTILE) - 1];
+    }
+
+    /**
+     * Performs a request and a duplicate of it, if the first one is slow.
+     * The first response wins and the other one is closed when it arrives.
+     * A server error response is held, while another request is pending,
+     * and wins only if the other request fails or responds with an error as
+     * well.
+     *
+     * @param aUrl Requested url.
+     * @param aHeaders Request headers.
+     * @return The first response.
+     * @throws IOException if all requests failed.
+     */
+    private Response hedged(final URL aUrl, final Map<String, String> aHeaders)
+            throws IOException {
+        CompletionService<Response> requests
+                = new ExecutorCompletionService<>(hedging);
+        List<Future<Response>> pending = new ArrayList<>();
+        Response fallback = null;
+        try {
+            pending.add(requests.submit(() -> timed(aUrl, aHeaders)));
+            long delay = hedgeDelay();
+            Future<Response> done = null;
+            if (delay >= 0) {
+                done = requests.poll(delay, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    hedges.increment();
+                    pending.add(requests.submit(() -> timed(aUrl,
+                            aHeaders)));
+                }
+            }
+            IOException failure = null;
+            while (!pending.isEmpty()) {
+                if (done == null) {
+                    done = requests.take();
+                }
+                pending.remove(done);
+                try {
+                    Response response = done.get();
+                    if (isServerError(response) && !pending.isEmpty()) {
+                        close(fallback);
+                        fallback = response;
+                    } else {
+                        discard(pending);
+                        close(fallback);
+                        return response;
+                    }
+                } catch (ExecutionException ex) {
+                    failure = ex.getCause() instanceof IOException
+                            ? (IOException) ex.getCause()
+                            : new IOException(ex.getCause());
+                }
+                done = null;
+            }
+            if (fallback != null) {
+                return fallback;
+            }
+            throw failure;
+        } catch (InterruptedException ex) {
+            discard(pending);
+            close(fallback);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Closes a response of a losing request.
+     *
+     * @param aLoser A response to be closed or null.
+     */
+    private static void close(final Response aLoser) {
+        if (aLoser != null) {
+            try {
+                aLoser.close();
+            } catch (IOException ex) {
+                // The connection of the loser is already broken.
+            }
+        }
+    }
+
+    /**
+     * Closes responses of losing requests, when they arrive.
+     *
+     * @param aLosers Pending requests.
+     */
+    private void discard(final List<Future<Response>> aLosers) {
+        for (Future<Response> loser : aLosers) {
+            hedging.execute(() -> {
+                try {
+                    loser.get().close();
+                } catch (IOException | ExecutionException ex) {
+                    // The loser failed or its connection is already broken.
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the underlying transport and stops hedging threads.
+     *
+     * @throws IOException if the underlying transport throws it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (hedging != null) {
+            hedging.shutdown();
+        }
+        transport.close();
+    }
+
+    /**
+     * Lower bound of server error status codes.
+     */
+    private static final int SERVER_ERROR = 500;
+    /**
+     * Number of status codes in a class.
+     */
+    private static final int STATUS_CLASS = 100;
+    /**
+     * Maximum backoff delay in millis.
+     */
+    private static final long MAX_BACKOFF = 30000;
+    /**
+     * Maximum number of backoff doublings.
+     */
+    private static final int MAX_SHIFT = 30;
+    /**
+     * Number of recent times to the first byte, hedging delay is computed
+     * from.
+     */
+    private static final int SAMPLES = 256;
+    /**
+     * Number of observed times to the first byte, needed for hedging.
+     */
+    private static final int MIN_SAMPLES = 20;
+    /**
+     * Percentile of times to the first byte, a duplicate request is sent
+     * after.
+     */
+    private static final double PERCENTILE = 0.95;
+    /**
+     * Name of hedging threads.
+     */
+    private static final String HEDGE_THREAD_NAME = "cities-hedge";
+}
@@ -0,0 +1,71 @@
+package com.bearsoft.citiesfetcher.http;
+
+/**
+ * Timing of a http exchange up to the first byte of a response. Responses
+ * served over reused connections or from a cache have zero name resolution
+ * and connect times.
+ *
+ * @author mg
+ */
+public final class Timing {
+
+    /**
+     * Timing of responses, not involving network.
+     */
+    public static final Timing NONE = new Timing(0, 0, 0);
+
+    /**
+     * Time of host name resolution in nanos.
+     */
+    private final long dnsNanos;
+    /**
+     * Time of connect, including TLS handshake, in nanos.
+     */
+    private final long connectNanos;
+    /**
+     * Time from start of request writing to receipt of status line in nanos.
+     */
+    private final long firstByteNanos;
+
+    /**
+     * Timing constructor.
+     *
+     * @param aDnsNanos Time of host name resolution in nanos.
+     * @param aConnectNanos Time of connect in nanos.
+     * @param aFirstByteNanos Time to first byte in nanos.
+     */
+    public Timing(final long aDnsNanos, final long aConnectNanos,
+            final long aFirstByteNanos) {
+        dnsNanos = aDnsNanos;
+        connectNanos = aConnectNanos;
+        firstByteNanos = aFirstByteNanos;
+    }
+
+    /**
+     * Name resolution time getter.
+     *
+     * @return Time of host name resolution in nanos.
+     */
+    public long getDnsNanos() {
+        return dnsNanos;
+    }
+
+    /**
+     * Connect time getter.
+     *
+     * @return Time of connect, including TLS handshake, in nanos.
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Time to first byte getter.
+     *
+     * @return Time from start of request writing to receipt of status line
+     * in nanos.
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+}
@@ -0,0 +1,27 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Interface of http transports. A transport performs GET requests and
+ * returns responses with streamed bodies. Implementations are expected to be
+ * thread safe.
+ *
+ * @author mg
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Performs GET request. The caller is responsible for closing of the
+     * returned {@code Response}.
+     *
+     * @param aUrl Url to be requested.
+     * @param aHeaders Additional request headers.
+     * @return {@code Response} with status line, headers and body.
+     * @throws IOException if a problem with IO occurs.
+     */
+    Response get(URL aUrl, Map<String, String> aHeaders) throws IOException;
+}
@@ -0,0 +1,5 @@
+/**
+ * Http transport of the fetcher. It consists of transport interface, pooled
+ * keep-alive implementation and http response container.
+ */
+package com.bearsoft.citiesfetcher.http;
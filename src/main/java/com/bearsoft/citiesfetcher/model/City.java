@@ -98,12 +98,18 @@ public final class City {
     /**
      * This builder class is intended to build {@code City} instances and check
      * theirs integrity. If it discovers, that some of mandatory fields are
-     * missing, exception will be thrown.
+     * missing, exception will be thrown. Only fields of the builder's
+     * projection are mandatory, others are left with default values.
      *
      * @author mg
      */
     public static final class Builder {
 
+        /**
+         * Projected fields.
+         */
+        private final Projection projection;
+
         /**
          * City's id attribute.
          */
@@ -125,6 +131,22 @@ public final class City {
          */
         private Double longitude;
 
+        /**
+         * Constructs a builder of cities with all fields.
+         */
+        public Builder() {
+            this(Projection.ALL);
+        }
+
+        /**
+         * Constructs a builder of cities with projected fields.
+         *
+         * @param aProjection Projected fields.
+         */
+        public Builder(final Projection aProjection) {
+            projection = aProjection;
+        }
+
         /**
          * Adds id attribute to the builder.
          *
@@ -188,19 +210,51 @@ public final class City {
          * absent.
          */
         public City toCity() throws PartialCityJsonException {
-            if (id == null) {
+            check();
+            return new City(id != null ? id : 0, name, type,
+                    latitude != null ? latitude : 0,
+                    longitude != null ? longitude : 0);
+        }
+
+        /**
+         * Appends accumulated data to a {@code CityTable} as a new row
+         * without {@code City} instance creation.
+         *
+         * @param aTable A table to append a row to.
+         * @return Index of the appended row.
+         * @throws PartialCityJsonException If some part of mandatory data is
+         * absent.
+         */
+        public int addTo(final CityTable aTable)
+                throws PartialCityJsonException {
+            check();
+            return aTable.add(id != null ? id : 0, name, type,
+                    latitude != null ? latitude : 0,
+                    longitude != null ? longitude : 0);
+        }
+
+        /**
+         * Checks, that all mandatory data of projected fields is
+         * accumulated. Type is optional.
+         *
+         * @throws PartialCityJsonException If some part of mandatory data is
+         * absent.
+         */
+        private void check() throws PartialCityJsonException {
+            if (id == null && projection.contains(Projection.Field.ID)) {
                 throw new PartialCityJsonException("id");
             }
-            if (name == null) {
+            if (name == null && projection.contains(Projection.Field.NAME)) {
                 throw new PartialCityJsonException("name");
             }
-            if (latitude == null) {
+            if (latitude == null
+                    && projection.contains(Projection.Field.LATITUDE)) {
                 throw new PartialCityJsonException("latitude");
             }
-            if (longitude == null) {
+            if (longitude == null
+                    && projection.contains(Projection.Field.LONGITUDE)) {
                 throw new PartialCityJsonException("longitude");
             }
-            return new City(id, name, type, latitude, longitude);
         }
     }
 
@@ -0,0 +1,459 @@
+package com.bearsoft.citiesfetcher.model;
+
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Columnar table of cities. Ids are kept in {@code long[]}, coordinates in
+ * {@code double[]} and names and types are dictionary encoded in
+ * {@code int[]} columns, so a row costs about 32 bytes of heap instead of a
+ * {@code City} object with its strings. Rows are read with a flyweight
+ * {@code Row} cursor or materialized as {@code City} instances on demand. The
+ * table is not thread safe.
+ *
+ * @author mg
+ */
+public final class CityTable {
+
+    /**
+     * Dictionary of strings. Codes are assigned in order of first appearance.
+     */
+    private static final class Dictionary {
+
+        /**
+         * Codes by strings.
+         */
+        private final Map<String, Integer> codes = new HashMap<>();
+        /**
+         * Strings by codes.
+         */
+        private final List<String> values = new ArrayList<>();
+
+        /**
+         * Encodes a string, adding it to the dictionary if needed.
+         *
+         * @param aValue A string to encode or null.
+         * @return Code of the string or {@code NULL_CODE} for null.
+         */
+        int encode(final String aValue) {
+            if (aValue == null) {
+                return NULL_CODE;
+            }
+            Integer code = codes.get(aValue);
+            if (code == null) {
+                code = values.size();
+                codes.put(aValue, code);
+                values.add(aValue);
+            }
+            return code;
+        }
+
+        /**
+         * Decodes a string.
+         *
+         * @param aCode Code of the string.
+         * @return The string or null for {@code NULL_CODE}.
+         */
+        String decode(final int aCode) {
+            return aCode == NULL_CODE ? null : values.get(aCode);
+        }
+
+        /**
+         * Size getter.
+         *
+         * @return Number of distinct strings.
+         */
+        int size() {
+            return values.size();
+        }
+    }
+
+    /**
+     * Flyweight view of a table row. It exposes the same getters as
+     * {@code City} and can be moved over rows without allocations.
+     */
+    public final class Row {
+
+        /**
+         * Index of the current row.
+         */
+        private int row;
+
+        /**
+         * Hidden constructor.
+         */
+        private Row() {
+        }
+
+        /**
+         * Moves the view to a row.
+         *
+         * @param aRow Index of the row.
+         * @return This view.
+         * @throws IndexOutOfBoundsException if the row is out of the table.
+         */
+        public Row moveTo(final int aRow) {
+            checkRow(aRow);
+            row = aRow;
+            return this;
+        }
+
+        /**
+         * Row index getter.
+         *
+         * @return Index of the current row.
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * Id getter.
+         *
+         * @return Id of the current row.
+         */
+        public long getId() {
+            return ids[row];
+        }
+
+        /**
+         * Name getter.
+         *
+         * @return Name of the current row.
+         */
+        public String getName() {
+            return names.decode(nameCodes[row]);
+        }
+
+        /**
+         * Type getter.
+         *
+         * @return Type of the current row or null.
+         */
+        public String getType() {
+            return types.decode(typeCodes[row]);
+        }
+
+        /**
+         * Latitude getter.
+         *
+         * @return Latitude of the current row.
+         */
+        public double getLatitude() {
+            return latitudes[row];
+        }
+
+        /**
+         * Longitude getter.
+         *
+         * @return Longitude of the current row.
+         */
+        public double getlongitude() {
+            return longitudes[row];
+        }
+
+        /**
+         * Materializes the current row.
+         *
+         * @return {@code City} instance with values of the current row.
+         */
+        public City toCity() {
+            return get(row);
+        }
+    }
+
+    /**
+     * Ids column.
+     */
+    private long[] ids;
+    /**
+     * Name codes column.
+     */
+    private int[] nameCodes;
+    /**
+     * Type codes column.
+     */
+    private int[] typeCodes;
+    /**
+     * Latitudes column.
+     */
+    private double[] latitudes;
+    /**
+     * Longitudes column.
+     */
+    private double[] longitudes;
+    /**
+     * Dictionary of names.
+     */
+    private final Dictionary names = new Dictionary();
+    /**
+     * Dictionary of types.
+     */
+    private final Dictionary types = new Dictionary();
+    /**
+     * Number of rows.
+     */
+    private int size;
+
+    /**
+     * Constructs an empty table with default capacity.
+     */
+    public CityTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty table.
+     *
+     * @param aCapacity Initial number of rows, the table can hold without
+     * growing.
+     */
+    public CityTable(final int aCapacity) {
+        int capacity = Math.max(aCapacity, 1);
+        ids = new long[capacity];
+        nameCodes = new int[capacity];
+        typeCodes = new int[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param aId Id of a city.
+     * @param aName Name of a city.
+     * @param aType Type of a city or null.
+     * @param aLatitude Latitude of a city.
+     * @param aLongitude Longitude of a city.
+     * @return Index of the appended row.
+     */
+    public int add(final long aId, final String aName, final String aType,
+            final double aLatitude, final double aLongitude) {
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = aId;
+        nameCodes[size] = names.encode(aName);
+        typeCodes[size] = types.encode(aType);
+        latitudes[size] = aLatitude;
+        longitudes[size] = aLongitude;
+        return size++;
+    }
+
+    /**
+     * Appends a row with values of a city.
+     *
+     * @param aCity A city to append.
+     * @return Index of the appended row.
+     */
+    public int add(final City aCity) {
+        return add(aCity.getId(), aCity.getName(), aCity.getType(),
+                aCity.getLatitude(), aCity.getlongitude());
+    }
+
+    /**
+     * Grows columns twice.
+     */
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        nameCodes = Arrays.copyOf(nameCodes, capacity);
+        typeCodes = Arrays.copyOf(typeCodes, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+    }
+
+    /**
+     * Checks, that a row index is inside the table.
+     *
+     * @param aRow Index of a row.
+     * @throws IndexOutOfBoundsException if the row is out of the table.
+     */
+    private void checkRow(final int aRow) {
+        if (aRow < 0 || aRow >= size) {
+            throw new IndexOutOfBoundsException(String.format(
+                    ROW_OUT_OF_BOUNDS_MSG, aRow, size));
+        }
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Distinct names getter.
+     *
+     * @return Number of distinct names in the table.
+     */
+    public int getDistinctNames() {
+        return names.size();
+    }
+
+    /**
+     * Distinct types getter.
+     *
+     * @return Number of distinct types in the table.
+     */
+    public int getDistinctTypes() {
+        return types.size();
+    }
+
+    /**
+     * Name code getter.
+     *
+     * @param aRow Index of a row.
+     * @return Dictionary code of the row name.
+     */
+    public int getNameCode(final int aRow) {
+        checkRow(aRow);
+        return nameCodes[aRow];
+    }
+
+    /**
+     * Type code getter.
+     *
+     * @param aRow Index of a row.
+     * @return Dictionary code of the row type or {@code NULL_CODE} if the
+     * type is null.
+     */
+    public int getTypeCode(final int aRow) {
+        checkRow(aRow);
+        return typeCodes[aRow];
+    }
+
+    /**
+     * Decodes a name.
+     *
+     * @param aCode Dictionary code of a name, from zero to
+     * {@code getDistinctNames()} exclusive.
+     * @return The name.
+     */
+    public String decodeName(final int aCode) {
+        return names.decode(aCode);
+    }
+
+    /**
+     * Decodes a type.
+     *
+     * @param aCode Dictionary code of a type, from zero to
+     * {@code getDistinctTypes()} exclusive, or {@code NULL_CODE}.
+     * @return The type or null.
+     */
+    public String decodeType(final int aCode) {
+        return types.decode(aCode);
+    }
+
+    /**
+     * Id getter.
+     *
+     * @param aRow Index of a row.
+     * @return Id of the row.
+     */
+    public long getId(final int aRow) {
+        checkRow(aRow);
+        return ids[aRow];
+    }
+
+    /**
+     * Name getter.
+     *
+     * @param aRow Index of a row.
+     * @return Name of the row.
+     */
+    public String getName(final int aRow) {
+        checkRow(aRow);
+        return names.decode(nameCodes[aRow]);
+    }
+
+    /**
+     * Type getter.
+     *
+     * @param aRow Index of a row.
+     * @return Type of the row or null.
+     */
+    public String getType(final int aRow) {
+        checkRow(aRow);
+        return types.decode(typeCodes[aRow]);
+    }
+
+    /**
+     * Latitude getter.
+     *
+     * @param aRow Index of a row.
+     * @return Latitude of the row.
+     */
+    public double getLatitude(final int aRow) {
+        checkRow(aRow);
+        return latitudes[aRow];
+    }
+
+    /**
+     * Longitude getter.
+     *
+     * @param aRow Index of a row.
+     * @return Longitude of the row.
+     */
+    public double getLongitude(final int aRow) {
+        checkRow(aRow);
+        return longitudes[aRow];
+    }
+
+    /**
+     * Materializes a row.
+     *
+     * @param aRow Index of a row.
+     * @return {@code City} instance with values of the row.
+     */
+    public City get(final int aRow) {
+        checkRow(aRow);
+        return new City(ids[aRow], names.decode(nameCodes[aRow]),
+                types.decode(typeCodes[aRow]), latitudes[aRow],
+                longitudes[aRow]);
+    }
+
+    /**
+     * Creates a flyweight view of rows.
+     *
+     * @return A new view, positioned at the first row.
+     */
+    public Row row() {
+        return new Row();
+    }
+
+    /**
+     * Creates a feed of the table rows, materialized as {@code City}
+     * instances, for callers, expecting a {@code CitiesFeed}. Rows, added
+     * while the feed is pulled, are pulled too.
+     *
+     * @return A feed of the table rows in order of addition.
+     */
+    public CitiesFeed feed() {
+        int[] next = {0};
+        return () -> next[0] < size ? Optional.of(get(next[0]++))
+                : Optional.empty();
+    }
+
+    /**
+     * Code of null strings.
+     */
+    public static final int NULL_CODE = -1;
+    /**
+     * Default initial number of rows.
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+    /**
+     * Message about row index out of the table.
+     */
+    private static final String ROW_OUT_OF_BOUNDS_MSG
+            = "Row %d is out of table with %d rows";
+}
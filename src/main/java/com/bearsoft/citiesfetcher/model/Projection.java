@@ -0,0 +1,116 @@
+package com.bearsoft.citiesfetcher.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Projection of city fields. Only projected fields are read from Json and
+ * written to CSV, so narrow extracts skip parsing and encoding of the rest.
+ * Fields are always written in the order of {@code Field} constants. Fields
+ * out of a projection are left with default values: zero id and
+ * coordinates and null strings.
+ *
+ * @author mg
+ */
+public final class Projection {
+
+    /**
+     * Fields of a city.
+     */
+    public enum Field {
+        /**
+         * Id of a city.
+         */
+        ID,
+        /**
+         * Name of a city.
+         */
+        NAME,
+        /**
+         * Type of a city.
+         */
+        TYPE,
+        /**
+         * Latitude of a city.
+         */
+        LATITUDE,
+        /**
+         * Longitude of a city.
+         */
+        LONGITUDE;
+
+        /**
+         * Looks up a field by its name.
+         *
+         * @param aName A name of a field in any case, e.g. "id".
+         * @return The field.
+         * @throws IllegalArgumentException if there is no such field.
+         */
+        public static Field of(final String aName) {
+            return valueOf(aName.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Projected fields.
+     */
+    private final Set<Field> fields;
+
+    /**
+     * Projection constructor.
+     *
+     * @param aFields Projected fields. At least one field is expected.
+     * @throws IllegalArgumentException if no fields are projected.
+     */
+    public Projection(final Set<Field> aFields) {
+        if (aFields.isEmpty()) {
+            throw new IllegalArgumentException(NO_FIELDS_MSG);
+        }
+        fields = Collections.unmodifiableSet(EnumSet.copyOf(aFields));
+    }
+
+    /**
+     * Checks if a field is projected.
+     *
+     * @param aField A field to check.
+     * @return True if the field is projected.
+     */
+    public boolean contains(final Field aField) {
+        return fields.contains(aField);
+    }
+
+    /**
+     * Fields getter.
+     *
+     * @return Unmodifiable set of projected fields.
+     */
+    public Set<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Checks if every field is projected.
+     *
+     * @return True if the projection is {@code ALL}.
+     */
+    public boolean isAll() {
+        return fields.size() == Field.values().length;
+    }
+
+    @Override
+    public String toString() {
+        return fields.toString();
+    }
+
+    /**
+     * Projection of every field.
+     */
+    public static final Projection ALL = new Projection(
+            EnumSet.allOf(Field.class));
+    /**
+     * Message about a projection without fields.
+     */
+    private static final String NO_FIELDS_MSG = "At least one field expected";
+}
@@ -0,0 +1,660 @@
+package com.bearsoft.citiesfetcher.suggest;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory autocomplete index of city names. Names are lower cased and
+ * kept in a compressed trie, where every edge holds a string and nodes with
+ * a single child and without cities are merged. Every node keeps the best
+ * ranked cities of its subtree, so a lookup of a few suggestions costs a
+ * walk along the prefix. A city is ranked by the number of times it was
+ * added, i.e. by the number of fetched results it appeared in, then shorter
+ * names go first.
+ * <p>
+ * Prefixes, the endpoint was asked for, are marked as covered. The endpoint
+ * suggests every city, which name starts with a query, so a lookup of a
+ * covered prefix or of a longer one is complete and needs no network
+ * request. The number of cities is bounded: the least recently added city
+ * is evicted and prefixes of its name lose their coverage. A prefix is not
+ * covered, if a city with the prefix was evicted while it was fetched. The
+ * number of covered prefixes is bounded by the same number. The index is
+ * thread safe.
+ *
+ * @author mg
+ */
+public final class PrefixIndex {
+
+    /**
+     * Indexed city.
+     */
+    private static final class Entry {
+
+        /**
+         * The city.
+         */
+        private City city;
+        /**
+         * Lower cased name of the city.
+         */
+        private final String key;
+        /**
+         * Number of times the city was added.
+         */
+        private int score;
+        /**
+         * Node of the name.
+         */
+        private Node node;
+
+        /**
+         * Entry constructor.
+         *
+         * @param aCity The city.
+         * @param aKey Lower cased name of the city.
+         */
+        Entry(final City aCity, final String aKey) {
+            city = aCity;
+            key = aKey;
+        }
+    }
+
+    /**
+     * Node of the compressed trie.
+     */
+    private static final class Node {
+
+        /**
+         * Label of the edge from the parent.
+         */
+        private String label;
+        /**
+         * Parent node or null for the root.
+         */
+        private Node parent;
+        /**
+         * Children, sorted by the first chars of their labels.
+         */
+        private Node[] children = NO_CHILDREN;
+        /**
+         * Cities with the name of this node.
+         */
+        private final List<Entry> entries = new ArrayList<>(1);
+        /**
+         * Best ranked cities of the subtree in rank order.
+         */
+        private Entry[] top = NO_ENTRIES;
+        /**
+         * Flag of a covered prefix.
+         */
+        private boolean covered;
+
+        /**
+         * Node constructor.
+         *
+         * @param aLabel Label of the edge from the parent.
+         * @param aParent Parent node.
+         */
+        Node(final String aLabel, final Node aParent) {
+            label = aLabel;
+            parent = aParent;
+        }
+
+        /**
+         * Finds a child by the first char of its label.
+         *
+         * @param aFirst The first char.
+         * @return Index of the child or {@code -(insertion point) - 1}.
+         */
+        int find(final char aFirst) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char first = children[middle].label.charAt(0);
+                if (first < aFirst) {
+                    low = middle + 1;
+                } else if (first > aFirst) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * Child getter.
+         *
+         * @param aFirst The first char of the child label.
+         * @return The child or null.
+         */
+        Node child(final char aFirst) {
+            int at = find(aFirst);
+            return at >= 0 ? children[at] : null;
+        }
+
+        /**
+         * Puts a child in place of a child with the same first char or
+         * inserts it.
+         *
+         * @param aChild The child.
+         */
+        void put(final Node aChild) {
+            int at = find(aChild.label.charAt(0));
+            if (at >= 0) {
+                children[at] = aChild;
+            } else {
+                int insertion = -at - 1;
+                Node[] grown = new Node[children.length + 1];
+                System.arraycopy(children, 0, grown, 0, insertion);
+                grown[insertion] = aChild;
+                System.arraycopy(children, insertion, grown, insertion + 1,
+                        children.length - insertion);
+                children = grown;
+            }
+            aChild.parent = this;
+        }
+
+        /**
+         * Removes a child.
+         *
+         * @param aChild The child.
+         */
+        void remove(final Node aChild) {
+            int at = find(aChild.label.charAt(0));
+            Node[] shrunk = new Node[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, at);
+            System.arraycopy(children, at + 1, shrunk, at,
+                    children.length - at - 1);
+            children = shrunk;
+        }
+
+        /**
+         * Builds the full name of this node.
+         *
+         * @return Labels from the root to this node.
+         */
+        String key() {
+            StringBuilder key = new StringBuilder();
+            for (Node node = this; node != null; node = node.parent) {
+                key.insert(0, node.label);
+            }
+            return key.toString();
+        }
+    }
+
+    /**
+     * Root of the trie with an empty label.
+     */
+    private final Node root = new Node("", null);
+    /**
+     * Maximum number of cities and of covered prefixes.
+     */
+    private final int capacity;
+    /**
+     * Number of best ranked cities, kept by every node.
+     */
+    private final int topSize;
+    /**
+     * Entries by city ids in order of addition.
+     */
+    private final Map<Long, Entry> entries
+            = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    /**
+     * Covered nodes in order of coverage.
+     */
+    private final Map<Node, Boolean> coverage = new LinkedHashMap<>();
+    /**
+     * Number of removed cities since creation of the index.
+     */
+    private long removals;
+    /**
+     * Names of the latest removed cities, the latest last.
+     */
+    private final Deque<String> removed = new ArrayDeque<>();
+    /**
+     * Guard of the trie, entries, coverage and removals.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Number of lookups.
+     */
+    private final LongAdder lookups = new LongAdder();
+    /**
+     * Number of complete lookups.
+     */
+    private final LongAdder completeLookups = new LongAdder();
+
+    /**
+     * Index constructor.
+     *
+     * @param aCapacity Maximum number of cities and of covered prefixes.
+     * @param aTopSize Number of suggestions, served without traversal of
+     * subtrees.
+     */
+    public PrefixIndex(final int aCapacity, final int aTopSize) {
+        capacity = aCapacity;
+        topSize = aTopSize;
+    }
+
+    /**
+     * Adds a city or raises rank of an already added one. A city with a
+     * null name is ignored.
+     *
+     * @param aCity The city.
+     */
+    public void add(final City aCity) {
+        if (aCity.getName() == null) {
+            return;
+        }
+        String key = normalize(aCity.getName());
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.get(aCity.getId());
+            if (entry != null && !entry.key.equals(key)) {
+                remove(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(aCity, key);
+                entry.node = insert(key);
+                entry.node.entries.add(entry);
+                entries.put(aCity.getId(), entry);
+            } else {
+                entry.city = aCity;
+            }
+            entry.score++;
+            promote(entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > capacity) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                detach(evicted);
+                eldest = entries.values().iterator();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Epoch getter. An epoch is taken before a prefix is fetched and is
+     * passed to {@link #cover(String, long)} afterwards.
+     *
+     * @return Number of removed cities since creation of the index.
+     */
+    public long epoch() {
+        lock.readLock().lock();
+        try {
+            return removals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Marks a prefix as covered, i.e. all cities with the prefix are added.
+     * The prefix is not covered, if a city with the prefix was removed
+     * since the epoch, e.g. when the fetched cities didn't fit in the index
+     * or were evicted by concurrent additions.
+     *
+     * @param aPrefix A prefix, the endpoint was asked for.
+     * @param aEpoch An epoch, taken before the prefix was fetched.
+     * @return True if the prefix is covered.
+     */
+    public boolean cover(final String aPrefix, final long aEpoch) {
+        String key = normalize(aPrefix);
+        lock.writeLock().lock();
+        try {
+            long since = removals - aEpoch;
+            if (since > removed.size()) {
+                // Names of some removed cities are forgotten already.
+                return false;
+            }
+            Iterator<String> latest = removed.descendingIterator();
+            for (long i = 0; i < since; i++) {
+                if (latest.next().startsWith(key)) {
+                    return false;
+                }
+            }
+            Node node = insert(key);
+            node.covered = true;
+            coverage.remove(node);
+            coverage.put(node, Boolean.TRUE);
+            if (coverage.size() > capacity) {
+                Iterator<Node> eldest = coverage.keySet().iterator();
+                Node uncovered = eldest.next();
+                eldest.remove();
+                uncovered.covered = false;
+                prune(uncovered);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up cities by a prefix of their names, case insensitive.
+     *
+     * @param aPrefix The prefix.
+     * @param aLimit Maximum number of cities.
+     * @return Best ranked cities with the prefix and a flag of a complete
+     * answer.
+     */
+    public Suggestions lookup(final String aPrefix, final int aLimit) {
+        String key = normalize(aPrefix);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            boolean complete = root.covered;
+            int at = 0;
+            while (node != null && at < key.length()) {
+                Node child = node.child(key.charAt(at));
+                int matched = child != null
+                        ? common(child.label, key, at) : 0;
+                if (child == null || matched < child.label.length()
+                        && at + matched < key.length()) {
+                    node = null;
+                } else {
+                    node = child;
+                    at += matched;
+                    complete |= matched == child.label.length()
+                            && child.covered;
+                }
+            }
+            List<City> cities = new ArrayList<>();
+            if (node != null) {
+                if (aLimit <= node.top.length || node.top.length < topSize) {
+                    for (int i = 0; i < Math.min(aLimit, node.top.length);
+                            i++) {
+                        cities.add(node.top[i].city);
+                    }
+                } else {
+                    List<Entry> all = new ArrayList<>();
+                    collect(node, all);
+                    all.sort(RANK);
+                    for (int i = 0; i < Math.min(aLimit, all.size()); i++) {
+                        cities.add(all.get(i).city);
+                    }
+                }
+            }
+            lookups.increment();
+            if (complete) {
+                completeLookups.increment();
+            }
+            return new Suggestions(cities, complete);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return Number of indexed cities.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lookups getter.
+     *
+     * @return Number of lookups.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * Complete lookups getter.
+     *
+     * @return Number of lookups with complete answers.
+     */
+    public long getCompleteLookups() {
+        return completeLookups.sum();
+    }
+
+    /**
+     * Finds or creates a node of a name, splitting an edge if needed.
+     *
+     * @param aKey Lower cased name.
+     * @return The node.
+     */
+    private Node insert(final String aKey) {
+        Node node = root;
+        int at = 0;
+        while (at < aKey.length()) {
+            Node child = node.child(aKey.charAt(at));
+            if (child == null) {
+                child = new Node(aKey.substring(at), node);
+                node.put(child);
+                return child;
+            }
+            int matched = common(child.label, aKey, at);
+            if (matched < child.label.length()) {
+                Node middle = new Node(child.label.substring(0, matched),
+                        node);
+                middle.top = child.top.clone();
+                node.put(middle);
+                child.label = child.label.substring(matched);
+                middle.put(child);
+                child = middle;
+            }
+            node = child;
+            at += matched;
+        }
+        return node;
+    }
+
+    /**
+     * Offers a city with a raised rank to top lists of its node and of its
+     * ancestors.
+     *
+     * @param aEntry The city.
+     */
+    private void promote(final Entry aEntry) {
+        for (Node node = aEntry.node; node != null; node = node.parent) {
+            Entry[] top = node.top;
+            int at = indexOf(top, aEntry);
+            if (at < 0) {
+                if (top.length < topSize) {
+                    top = Arrays.copyOf(top, top.length + 1);
+                } else if (RANK.compare(aEntry, top[top.length - 1]) >= 0) {
+                    // An ancestor's top is not worse, so the city can't
+                    // get into it too.
+                    return;
+                }
+                at = top.length - 1;
+                top[at] = aEntry;
+            }
+            while (at > 0 && RANK.compare(top[at], top[at - 1]) < 0) {
+                Entry swapped = top[at - 1];
+                top[at - 1] = top[at];
+                top[at] = swapped;
+                at--;
+            }
+            node.top = top;
+        }
+    }
+
+    /**
+     * Removes a city from the index.
+     *
+     * @param aEntry The city.
+     */
+    private void remove(final Entry aEntry) {
+        entries.remove(aEntry.city.getId());
+        detach(aEntry);
+    }
+
+    /**
+     * Removes a city from the trie. Prefixes of its name lose coverage,
+     * because they are not complete any more. The name is remembered for
+     * prefixes, being fetched.
+     *
+     * @param aEntry The city.
+     */
+    private void detach(final Entry aEntry) {
+        Node node = aEntry.node;
+        node.entries.remove(aEntry);
+        removals++;
+        removed.addLast(aEntry.key);
+        if (removed.size() > capacity) {
+            removed.removeFirst();
+        }
+        for (Node covered = node; covered != null;
+                covered = covered.parent) {
+            if (covered.covered) {
+                covered.covered = false;
+                coverage.remove(covered);
+            }
+        }
+        for (Node ancestor = node; ancestor != null;
+                ancestor = ancestor.parent) {
+            rebuild(ancestor);
+        }
+        prune(node);
+    }
+
+    /**
+     * Rebuilds the top list of a node from its cities and top lists of its
+     * children.
+     *
+     * @param aNode The node.
+     */
+    private void rebuild(final Node aNode) {
+        List<Entry> candidates = new ArrayList<>(aNode.entries);
+        for (Node child : aNode.children) {
+            candidates.addAll(Arrays.asList(child.top));
+        }
+        candidates.sort(RANK);
+        aNode.top = candidates.subList(0, Math.min(topSize,
+                candidates.size())).toArray(NO_ENTRIES);
+    }
+
+    /**
+     * Removes a node if it is empty and merges it into its only child if it
+     * is a pass through node. Emptied ancestors are removed too.
+     *
+     * @param aNode The node.
+     */
+    private void prune(final Node aNode) {
+        Node node = aNode;
+        while (node != root && node.entries.isEmpty() && !node.covered
+                && node.children.length == 0) {
+            Node parent = node.parent;
+            parent.remove(node);
+            node = parent;
+        }
+        if (node != root && node.entries.isEmpty() && !node.covered
+                && node.children.length == 1) {
+            Node child = node.children[0];
+            child.label = node.label + child.label;
+            node.parent.put(child);
+        }
+    }
+
+    /**
+     * Collects all cities of a subtree.
+     *
+     * @param aNode The root of the subtree.
+     * @param aEntries A list to add cities to.
+     */
+    private static void collect(final Node aNode, final List<Entry> aEntries) {
+        aEntries.addAll(aNode.entries);
+        for (Node child : aNode.children) {
+            collect(child, aEntries);
+        }
+    }
+
+    /**
+     * Finds a city in a top list.
+     *
+     * @param aTop The top list.
+     * @param aEntry The city.
+     * @return Index of the city or -1.
+     */
+    private static int indexOf(final Entry[] aTop, final Entry aEntry) {
+        for (int i = 0; i < aTop.length; i++) {
+            if (aTop[i] == aEntry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes length of the common prefix of a label and a part of a key.
+     *
+     * @param aLabel The label.
+     * @param aKey The key.
+     * @param aFrom Start of the part of the key.
+     * @return Number of equal leading chars.
+     */
+    private static int common(final String aLabel, final String aKey,
+            final int aFrom) {
+        int length = Math.min(aLabel.length(), aKey.length() - aFrom);
+        int matched = 0;
+        while (matched < length
+                && aLabel.charAt(matched) == aKey.charAt(aFrom + matched)) {
+            matched++;
+        }
+        return matched;
+    }
+
+    /**
+     * Normalizes a name or a prefix for case insensitive matching.
+     *
+     * @param aName The name.
+     * @return Lower cased name.
+     */
+    private static String normalize(final String aName) {
+        return aName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Rank order of cities: more often added first, then shorter names,
+     * then names in alphabetical order, then lower ids.
+     */
+    private static final Comparator<Entry> RANK = Comparator
+            .comparingInt((Entry aEntry) -> -aEntry.score)
+            .thenComparingInt(aEntry -> aEntry.key.length())
+            .thenComparing(aEntry -> aEntry.key)
+            .thenComparingLong(aEntry -> aEntry.city.getId());
+    /**
+     * Shared empty children array.
+     */
+    private static final Node[] NO_CHILDREN = new Node[0];
+    /**
+     * Shared empty top list.
+     */
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+    /**
+     * Initial capacity of the entries map.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Load factor of the entries map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+}
@@ -0,0 +1,54 @@
+package com.bearsoft.citiesfetcher.suggest;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a prefix lookup. It holds ranked cities and a flag of a complete
+ * answer. A complete answer contains every known city with the prefix, so a
+ * network request for the prefix would not add more cities.
+ *
+ * @author mg
+ * @see PrefixIndex
+ */
+public final class Suggestions {
+
+    /**
+     * Ranked cities.
+     */
+    private final List<City> cities;
+    /**
+     * Flag of a complete answer.
+     */
+    private final boolean complete;
+
+    /**
+     * Suggestions constructor.
+     *
+     * @param aCities Ranked cities.
+     * @param aComplete Flag of a complete answer.
+     */
+    public Suggestions(final List<City> aCities, final boolean aComplete) {
+        cities = Collections.unmodifiableList(aCities);
+        complete = aComplete;
+    }
+
+    /**
+     * Cities getter.
+     *
+     * @return Unmodifiable list of cities, the best ranked first.
+     */
+    public List<City> getCities() {
+        return cities;
+    }
+
+    /**
+     * Complete getter.
+     *
+     * @return True if the index knows every city with the prefix.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * This package consists prefix index of fetched city names.
+ */
+package com.bearsoft.citiesfetcher.suggest;
@@ -0,0 +1,201 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test suite for asynchronous fetches of {@code Application}.
+ *
+ * @author mg
+ */
+public final class AsyncFetchTest {
+
+    /**
+     * Creates an application for an endpoint.
+     *
+     * @param aEndpoint The endpoint.
+     * @return New application.
+     * @throws Exception if settings are rejected.
+     */
+    private static Application application(final StubEndpoint aEndpoint)
+            throws Exception {
+        return new Application(Settings.parse(
+                aEndpoint.getEndpointOption(), "--attempts=1", "Berlin", "-"));
+    }
+
+    /**
+     * Tests, that many fetches complete on a small executor with feeds of
+     * their cities.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenManyFetches() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint)) {
+            List<CompletableFuture<CitiesFeed>> futures = new ArrayList<>();
+            for (int i = 0; i < FETCHES; i++) {
+                endpoint.serve("q" + i, StubEndpoint.cities(i * 10,
+                        "Berlin", "Bern"));
+                futures.add(application.fetchAsync(new URL(String.format(
+                        endpoint.getTemplate(), "q" + i)), executor));
+            }
+            CompletableFuture.allOf(futures.toArray(
+                    new CompletableFuture<?>[futures.size()]))
+                    .get(TIMEOUT, TimeUnit.SECONDS);
+            for (int i = 0; i < FETCHES; i++) {
+                CitiesFeed feed = futures.get(i).get();
+                assertEquals(i * 10, feed.pull().get().getId());
+                assertEquals("Bern", feed.pull().get().getName());
+                assertFalse(feed.pull().isPresent());
+            }
+            assertEquals(FETCHES * 2, application.getMetrics().getCities());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that a fetch to a stream completes with the number of cities
+     * and a failed fetch completes exceptionally.
+     *
+     * @throws Exception if a fetch fails unexpectedly.
+     */
+    @Test
+    public void whenFetchToStream() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint)) {
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(1, (int) application.fetchAsync(new URL(
+                    String.format(endpoint.getTemplate(), "Berlin")), out,
+                    executor).get(TIMEOUT, TimeUnit.SECONDS));
+            assertTrue(out.size() > 0);
+            try {
+                application.fetchAsync(new URL(String.format(
+                        endpoint.getTemplate(), "Absent")), executor)
+                        .get(TIMEOUT, TimeUnit.SECONDS);
+                fail("Fetch of an absent query should fail");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that cancellation closes the connection of a stalled fetch and
+     * releases the executor thread.
+     *
+     * @throws Exception if a fetch fails unexpectedly.
+     */
+    @Test
+    public void whenCancelled() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        byte[] body = StubEndpoint.cities(1, "Berlin", "Bern")
+                .getBytes(StandardCharsets.UTF_8);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint)) {
+            endpoint.serve("Stalled", (HttpExchange aExchange) -> {
+                aExchange.getResponseHeaders().set("Content-Type",
+                        StubEndpoint.JSON_UTF_8);
+                aExchange.sendResponseHeaders(StubEndpoint.OK, body.length);
+                OutputStream stalled = aExchange.getResponseBody();
+                stalled.write(body, 0, body.length / 2);
+                stalled.flush();
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<CitiesFeed> stalled = application.fetchAsync(
+                    new URL(String.format(endpoint.getTemplate(),
+                            "Stalled")), executor);
+            assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+            assertTrue(stalled.cancel(true));
+
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin"));
+            CitiesFeed next = application.fetchAsync(new URL(String.format(
+                    endpoint.getTemplate(), "Berlin")), executor)
+                    .get(TIMEOUT / 2, TimeUnit.SECONDS);
+            assertEquals("Berlin", next.pull().get().getName());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that cancellation while the endpoint delays response headers
+     * interrupts the request and releases the executor thread.
+     *
+     * @throws Exception if a fetch fails unexpectedly.
+     */
+    @Test
+    public void whenCancelledBeforeHeaders() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint)) {
+            endpoint.serve("Delayed", (HttpExchange aExchange) -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                StubEndpoint.json(StubEndpoint.cities(1, "Berlin")
+                        .getBytes(StandardCharsets.UTF_8)).handle(aExchange);
+            });
+            CompletableFuture<CitiesFeed> delayed = application.fetchAsync(
+                    new URL(String.format(endpoint.getTemplate(),
+                            "Delayed")), executor);
+            assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+            assertTrue(delayed.cancel(true));
+
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin"));
+            CitiesFeed next = application.fetchAsync(new URL(String.format(
+                    endpoint.getTemplate(), "Berlin")), executor)
+                    .get(TIMEOUT / 2, TimeUnit.SECONDS);
+            assertEquals("Berlin", next.pull().get().getName());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Number of executor threads.
+     */
+    private static final int THREADS = 4;
+    /**
+     * Number of concurrent fetches.
+     */
+    private static final int FETCHES = 100;
+    /**
+     * Test timeout in seconds.
+     */
+    private static final long TIMEOUT = 10;
+}
@@ -0,0 +1,204 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for batch mode.
+ *
+ * @author mg
+ */
+public final class BatchTest {
+
+    /**
+     * Tests, that failed query doesn't stop the whole batch.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     */
+    @Test
+    public void whenSomeQueriesFail() throws IOException,
+            BadArgumentsException {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin",
+                    "Berlin Mitte"));
+            endpoint.serve("Munich", StubEndpoint.cities(10, "Munich"));
+            Settings settings = Settings.parse("--queries=queries.txt",
+                    "--concurrency=2", endpoint.getEndpointOption());
+            Batch batch = new Batch(new Application(settings),
+                    settings.getConcurrency());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int fetched = batch.run(new BufferedReader(new StringReader(
+                    "Berlin\n\nUnknown\nMunich\n")), out);
+            assertEquals(EXPECTED_CITIES, fetched);
+            assertEquals(EXPECTED_QUERIES, batch.getProcessed());
+            assertEquals(1, batch.getFailures().size());
+            assertEquals("Unknown", batch.getFailures().get(0).getKey());
+            String csv = new String(out.toByteArray(),
+                    StandardCharsets.UTF_8);
+            assertEquals(EXPECTED_CITIES, csv.split("\r\n").length);
+            assertTrue(csv.contains("1,Berlin,location,52.5,13.4\r\n"
+                    + "2,Berlin Mitte,location,52.5,13.4\r\n"));
+        }
+    }
+
+    /**
+     * Tests, that every failure of a repeated query is recorded.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     */
+    @Test
+    public void whenRepeatedQueryFails() throws IOException,
+            BadArgumentsException {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Munich", StubEndpoint.cities(10, "Munich"));
+            Settings settings = Settings.parse("--queries=queries.txt",
+                    "--concurrency=2", endpoint.getEndpointOption());
+            Batch batch = new Batch(new Application(settings),
+                    settings.getConcurrency());
+            int fetched = batch.run(new BufferedReader(new StringReader(
+                    "Unknown\nMunich\nUnknown\n")),
+                    new ByteArrayOutputStream());
+            assertEquals(1, fetched);
+            assertEquals(EXPECTED_QUERIES, batch.getProcessed());
+            assertEquals(2, batch.getFailures().size());
+            for (Map.Entry<String, Exception> failure
+                    : batch.getFailures()) {
+                assertEquals("Unknown", failure.getKey());
+            }
+        }
+    }
+
+    /**
+     * Tests batch mode through the command line.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     * @throws FileAlreadyExistsException if file we have to write to already
+     * exists.
+     */
+    @Test
+    public void whenQueriesFile() throws IOException,
+            BadArgumentsException,
+            PartialCityJsonException,
+            BadCitiesJsonException,
+            FileAlreadyExistsException {
+        File queries = File.createTempFile("queries", ".txt");
+        File expectedToBeWritten = new File("batch-out.csv");
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin"));
+            endpoint.serve("Frankfurt am Main",
+                    StubEndpoint.cities(2, "Frankfurt am Main"));
+            Files.write(queries.toPath(), Arrays.asList(
+                    "Berlin", "Frankfurt am Main"), StandardCharsets.UTF_8);
+            int fetched = Application.run(new String[]{
+                "--queries=" + queries.getPath(), "batch-out",
+                endpoint.getEndpointOption()
+            });
+            assertEquals(2, fetched);
+            List<String> lines = Files.readAllLines(
+                    expectedToBeWritten.toPath(), StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+        } finally {
+            queries.delete();
+            expectedToBeWritten.delete();
+        }
+    }
+
+    /**
+     * Tests, that overlapping queries don't write the same city twice with
+     * {@code --dedup} option.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     */
+    @Test
+    public void whenDedup() throws IOException, BadArgumentsException {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin",
+                    "Berlin Mitte"));
+            endpoint.serve("Berl", StubEndpoint.cities(1, "Berlin",
+                    "Berlin Mitte", "Berlingen"));
+            endpoint.serve("Berlin Mitte", StubEndpoint.cities(2,
+                    "Berlin Mitte"));
+            Settings settings = Settings.parse("--queries=queries.txt",
+                    "--dedup", endpoint.getEndpointOption());
+            Application application = new Application(settings);
+            Batch batch = new Batch(application, settings.getConcurrency());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int fetched = batch.run(new BufferedReader(new StringReader(
+                    "Berlin\nBerl\nBerlin Mitte\n")), out);
+            assertEquals(EXPECTED_CITIES, fetched);
+            assertEquals(EXPECTED_DUPLICATES,
+                    application.getMetrics().getDuplicates());
+            String csv = new String(out.toByteArray(),
+                    StandardCharsets.UTF_8);
+            assertEquals(EXPECTED_CITIES, csv.split("\r\n").length);
+        }
+    }
+
+    /**
+     * Tests, that cities of a query, failed midway, are not dropped as
+     * duplicates from an overlapping query with {@code --dedup} option.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     */
+    @Test
+    public void whenDedupQueryFails() throws IOException,
+            BadArgumentsException {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Ber", "[{\"_id\": 1, \"name\": \"Berlin\","
+                    + " \"geo_position\": {\"latitude\": 52.5,"
+                    + " \"longitude\": 13.4}}, {\"_id\": 2}]");
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin",
+                    "Berlin Mitte"));
+            Settings settings = Settings.parse("--queries=queries.txt",
+                    "--dedup", "--concurrency=1",
+                    endpoint.getEndpointOption());
+            Application application = new Application(settings);
+            Batch batch = new Batch(application, settings.getConcurrency());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int fetched = batch.run(new BufferedReader(new StringReader(
+                    "Ber\nBerlin\n")), out);
+            assertTrue(batch.getFailures().get(0).getValue()
+                    instanceof PartialCityJsonException);
+            assertEquals(2, fetched);
+            assertEquals(0, application.getMetrics().getDuplicates());
+            assertEquals("1,Berlin,location,52.5,13.4\r\n"
+                    + "2,Berlin Mitte,location,52.5,13.4\r\n",
+                    new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Number of duplicate cities, expected to be dropped.
+     */
+    private static final int EXPECTED_DUPLICATES = 3;
+    /**
+     * Number of cities, expected to be fetched.
+     */
+    private static final int EXPECTED_CITIES = 3;
+    /**
+     * Number of queries, expected to be processed.
+     */
+    private static final int EXPECTED_QUERIES = 3;
+}
@@ -0,0 +1,228 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test suite for binary columnar format. It checks round trips through
+ * {@code BinaryWriter} and {@code MappedCitiesFeed} against the CSV path.
+ *
+ * @author mg
+ */
+public final class BinaryFormatTest {
+
+    /**
+     * Temporary folder for binary files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Encodes all cities of a feed as CSV.
+     *
+     * @param aFeed A feed to be drained.
+     * @return Utf-8 bytes of CSV lines.
+     * @throws Exception if the feed throws it.
+     */
+    private static byte[] csv(final CitiesFeed aFeed) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            for (Optional<City> city = aFeed.pull(); city.isPresent();
+                    city = aFeed.pull()) {
+                csv.write(city.get());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a feed of cities.
+     *
+     * @param aCities Cities of the feed.
+     * @return The feed.
+     */
+    private static CitiesFeed feed(final City... aCities) {
+        int[] next = {0};
+        return () -> next[0] < aCities.length
+                ? Optional.of(aCities[next[0]++]) : Optional.empty();
+    }
+
+    /**
+     * Tests a round trip of special values.
+     *
+     * @throws Exception if writing or reading fails.
+     */
+    @Test
+    public void whenSpecialValues() throws Exception {
+        City[] cities = {
+            new City(Long.MIN_VALUE, "Düsseldorf", "Москва", -0.0d,
+            Double.MIN_VALUE),
+            new City(Long.MAX_VALUE, "Wonderful, \"city\"", null,
+            Double.MAX_VALUE, -1e-300),
+            new City(0, "Düsseldorf", "location", 52.520008, 13.404954),
+            new City(1, "", "", 1, 2)
+        };
+        File file = folder.newFile();
+        try (BinaryWriter binary = new BinaryWriter(
+                new FileOutputStream(file))) {
+            for (City city : cities) {
+                binary.write(city);
+            }
+        }
+        MappedCitiesFeed mapped = MappedCitiesFeed.open(file);
+        assertEquals(cities.length, mapped.size());
+        assertNull(mapped.getType(1));
+        assertEquals(Long.MAX_VALUE, mapped.getId(1));
+        assertEquals(Double.MIN_VALUE, mapped.getLongitude(0), 0);
+        assertArrayEquals(csv(feed(cities)), csv(mapped));
+        assertFalse(mapped.pull().isPresent());
+    }
+
+    /**
+     * Tests an empty file.
+     *
+     * @throws Exception if writing or reading fails.
+     */
+    @Test
+    public void whenEmpty() throws Exception {
+        File file = folder.newFile();
+        new BinaryWriter(new FileOutputStream(file)).close();
+        MappedCitiesFeed mapped = MappedCitiesFeed.open(file);
+        assertEquals(0, mapped.size());
+        assertFalse(mapped.pull().isPresent());
+    }
+
+    /**
+     * Tests, that truncated and foreign files are rejected.
+     *
+     * @throws Exception if writing fails.
+     */
+    @Test
+    public void whenBadFile() throws Exception {
+        File file = folder.newFile();
+        try (BinaryWriter binary = new BinaryWriter(
+                new FileOutputStream(file))) {
+            binary.write(new City(1, "Berlin", null, 1, 2));
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(content,
+                content.length - 1));
+        assertRejected(file);
+        Files.write(file.toPath(), "1,Berlin,,1.0,2.0\r\n".getBytes("utf-8"));
+        assertRejected(file);
+        assertRejected(corrupt(file, content, NAMES_COUNT_AT, -1));
+        assertRejected(corrupt(file, content, NAMES_COUNT_AT,
+                Integer.MAX_VALUE));
+        assertRejected(corrupt(file, content, TYPES_COUNT_AT,
+                Integer.MIN_VALUE));
+        assertRejected(corrupt(file, content, NAME_CODE_AT, 1));
+        assertRejected(corrupt(file, content, NAME_CODE_AT, -2));
+    }
+
+    /**
+     * Writes a file content with an int replaced.
+     *
+     * @param aFile A file to be written.
+     * @param aContent Original content of the file.
+     * @param aAt Offset of the int.
+     * @param aValue A value of the int.
+     * @return The file.
+     * @throws IOException if writing fails.
+     */
+    private static File corrupt(final File aFile, final byte[] aContent,
+            final int aAt, final int aValue) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(aContent.clone())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        content.putInt(aAt, aValue);
+        Files.write(aFile.toPath(), content.array());
+        return aFile;
+    }
+
+    /**
+     * Checks, that a file is rejected by {@code MappedCitiesFeed}.
+     *
+     * @param aFile A file to be checked.
+     */
+    private static void assertRejected(final File aFile) {
+        try {
+            MappedCitiesFeed.open(aFile);
+            throw new AssertionError("IOException expected");
+        } catch (IOException ex) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Tests fetching in binary format against fetching in CSV.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenFetched() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            File file = new File(folder.getRoot(), "Berlin");
+            Settings settings = Settings.parse("Berlin", file.getPath(),
+                    "--format=binary", endpoint.getEndpointOption());
+            assertEquals(new File(file.getPath() + ".bin"),
+                    settings.getDestination());
+            assertEquals(new File(file.getPath() + ".bin"), Settings.parse(
+                    "Berlin", file.getPath() + ".csv", "--format=binary")
+                    .getDestination());
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (Application application = new Application(settings)) {
+                assertEquals(2, application.fetch());
+                new Application(Settings.parse("Berlin",
+                        endpoint.getEndpointOption()),
+                        application.getTransport()).fetch(expected);
+            }
+            assertArrayEquals(expected.toByteArray(), csv(
+                    MappedCitiesFeed.open(settings.getDestination())));
+        }
+    }
+
+    /**
+     * Tests, that binary format is rejected in batch mode.
+     *
+     * @throws Exception if settings are parsed.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenBatch() throws Exception {
+        Settings.parse("--queries=queries.txt", "--format=binary");
+    }
+
+    /**
+     * Test Json.
+     */
+    private static final String JSON = StubEndpoint.cities(1, "Berlin",
+            "Berlin, Mitte");
+    /**
+     * Offset of number of distinct names in the header.
+     */
+    private static final int NAMES_COUNT_AT = 3 * Integer.BYTES;
+    /**
+     * Offset of number of distinct types in the header.
+     */
+    private static final int TYPES_COUNT_AT = 4 * Integer.BYTES;
+    /**
+     * Offset of the name code of a single row file.
+     */
+    private static final int NAME_CODE_AT = BinaryWriter.HEADER_SIZE
+            + Long.BYTES + 2 * Double.BYTES;
+}
@@ -0,0 +1,122 @@
+package com.bearsoft.citiesfetcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test suite for {@code ChannelOutputStream} and its sync policies.
+ *
+ * @author mg
+ */
+public final class ChannelOutputStreamTest {
+
+    /**
+     * Temporary folder for written files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes random bytes with chunks, larger and smaller than the buffer,
+     * and with single bytes.
+     *
+     * @param aPolicy Sync policy of the stream.
+     * @return Number of times data was forced to disk.
+     * @throws IOException if writing fails.
+     */
+    private int written(final SyncPolicy aPolicy) throws IOException {
+        File file = folder.newFile();
+        byte[] content = new byte[CONTENT_SIZE];
+        new Random(SEED).nextBytes(content);
+        ChannelOutputStream out = new ChannelOutputStream(FileChannel.open(
+                file.toPath(), StandardOpenOption.WRITE), BUFFER_SIZE,
+                aPolicy);
+        try {
+            int offset = 0;
+            int chunk = 1;
+            while (offset < content.length) {
+                int length = Math.min(chunk, content.length - offset);
+                if (length == 1) {
+                    out.write(content[offset]);
+                } else {
+                    out.write(content, offset, length);
+                }
+                offset += length;
+                chunk = chunk * 3 % (BUFFER_SIZE * 4) + 1;
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+        out.close();
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        return out.getSyncs();
+    }
+
+    /**
+     * Tests every sync policy.
+     *
+     * @throws IOException if writing fails.
+     */
+    @Test
+    public void whenPolicies() throws IOException {
+        assertEquals(0, written(SyncPolicy.NONE));
+        assertEquals(1, written(SyncPolicy.END));
+        assertEquals(CONTENT_SIZE / SYNC_INTERVAL + 1, written(
+                SyncPolicy.every(SYNC_INTERVAL)));
+    }
+
+    /**
+     * Tests options of output buffer and sync policy.
+     *
+     * @throws Exception if settings are bad.
+     */
+    @Test
+    public void whenOptions() throws Exception {
+        Settings settings = Settings.parse("Berlin", "--buffer-size=64",
+                "--fsync=2");
+        assertEquals(BUFFER_SIZE, settings.getBufferSize());
+        assertEquals(2 * 1024 * 1024, settings.getSyncPolicy().getInterval());
+        assertEquals(SyncPolicy.END, Settings.parse("Berlin", "--fsync=end")
+                .getSyncPolicy());
+        assertEquals(SyncPolicy.NONE, Settings.parse("Berlin")
+                .getSyncPolicy());
+    }
+
+    /**
+     * Tests, that bad sync policy is rejected.
+     *
+     * @throws Exception if settings are bad.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenBadPolicy() throws Exception {
+        Settings.parse("Berlin", "--fsync=always");
+    }
+
+    /**
+     * Size of the stream buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Number of bytes between forcing.
+     */
+    private static final int SYNC_INTERVAL = 256 * 1024;
+    /**
+     * Size of written content. Its tail after the last interval is forced
+     * at the end.
+     */
+    private static final int CONTENT_SIZE = 4 * SYNC_INTERVAL - 100;
+    /**
+     * Random seed.
+     */
+    private static final long SEED = 42;
+}
@@ -0,0 +1,173 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for fetching of gzip and deflate encoded responses.
+ *
+ * @author mg
+ */
+public final class CompressedFetchTest {
+
+    /**
+     * A {@code Function} like interface with exceptions, wrapping a stream
+     * with a compressing one.
+     */
+    @FunctionalInterface
+    private interface Compressor {
+
+        /**
+         * Wraps a stream with a compressing one.
+         *
+         * @param aOut A stream to write compressed data to.
+         * @return Compressing stream.
+         * @throws IOException if a problem with IO occurs.
+         */
+        OutputStream wrap(OutputStream aOut) throws IOException;
+    }
+
+    /**
+     * Creates a handler, serving compressed Json body, if the client accepts
+     * the encoding.
+     *
+     * @param aJson Json to be served.
+     * @param aEncoding Content encoding name.
+     * @param aCompressor Compressor of the body.
+     * @return A handler serving compressed Json body.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static HttpHandler compressed(final String aJson,
+            final String aEncoding, final Compressor aCompressor)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (OutputStream out = aCompressor.wrap(body)) {
+            out.write(aJson.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] bytes = body.toByteArray();
+        return (HttpExchange aExchange) -> {
+            String accepted = aExchange.getRequestHeaders()
+                    .getFirst("Accept-Encoding");
+            if (accepted != null && accepted.contains(aEncoding)) {
+                aExchange.getResponseHeaders().set("Content-Encoding",
+                        aEncoding);
+                StubEndpoint.json(bytes).handle(aExchange);
+            } else {
+                aExchange.sendResponseHeaders(NOT_ACCEPTABLE, -1);
+            }
+        };
+    }
+
+    /**
+     * Fetches a city name from the stand-in and checks CSV and traffic
+     * counters.
+     *
+     * @param aHandler A handler to serve the city name with.
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    private static void fetch(final HttpHandler aHandler) throws IOException,
+            BadArgumentsException, PartialCityJsonException,
+            BadCitiesJsonException {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", aHandler);
+            Settings settings = Settings.parse("Berlin",
+                    endpoint.getEndpointOption());
+            try (Application application = new Application(settings)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int fetched = application.fetch(settings.getCitySource(),
+                        out);
+                assertEquals(CITIES.length, fetched);
+                String csv = new String(out.toByteArray(),
+                        StandardCharsets.UTF_8);
+                assertTrue(csv.startsWith("1,Berlin,location,52.5,13.4\r\n"));
+                assertEquals(JSON.getBytes(StandardCharsets.UTF_8).length,
+                        application.getDecodedBytes());
+                assertTrue(application.getWireBytes()
+                        < application.getDecodedBytes());
+            }
+        }
+    }
+
+    /**
+     * Tests gzip encoded response.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test
+    public void whenGzip() throws IOException, BadArgumentsException,
+            PartialCityJsonException, BadCitiesJsonException {
+        fetch(compressed(JSON, "gzip", GZIPOutputStream::new));
+    }
+
+    /**
+     * Tests zlib wrapped deflate encoded response.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test
+    public void whenDeflate() throws IOException, BadArgumentsException,
+            PartialCityJsonException, BadCitiesJsonException {
+        fetch(compressed(JSON, "deflate", DeflaterOutputStream::new));
+    }
+
+    /**
+     * Tests raw deflate encoded response.
+     *
+     * @throws IOException if it is thrown while fetching.
+     * @throws BadArgumentsException if settings are bad.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test
+    public void whenRawDeflate() throws IOException, BadArgumentsException,
+            PartialCityJsonException, BadCitiesJsonException {
+        fetch(compressed(JSON, "deflate", (OutputStream aOut)
+                -> new DeflaterOutputStream(aOut,
+                        new Deflater(Deflater.DEFAULT_COMPRESSION, true))));
+    }
+
+    /**
+     * Names of test cities.
+     */
+    private static final String[] CITIES = {
+        "Berlin", "Berlin Mitte", "Berlin Tegel", "Berlin Schoenefeld",
+        "Berlingen", "Berlinchen"
+    };
+    /**
+     * Test Json.
+     */
+    private static final String JSON = StubEndpoint.cities(1, CITIES);
+    /**
+     * Http not acceptable status.
+     */
+    private static final int NOT_ACCEPTABLE = 406;
+}
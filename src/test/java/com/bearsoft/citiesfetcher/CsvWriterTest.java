@@ -0,0 +1,176 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test suite for {@code CsvWriter}. It checks, that the writer produces the
+ * same bytes as {@code Csv}.
+ *
+ * @author mg
+ */
+public final class CsvWriterTest {
+
+    /**
+     * Encodes cities with {@code Csv} as reference.
+     *
+     * @param aCities Cities to be encoded.
+     * @return Utf-8 bytes of CSV lines.
+     */
+    private static byte[] expected(final City... aCities) {
+        StringBuilder lines = new StringBuilder();
+        for (City city : aCities) {
+            lines.append(Csv.to(city));
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes cities with {@code CsvWriter}.
+     *
+     * @param aBufferSize Initial size of the writer buffer.
+     * @param aCities Cities to be encoded.
+     * @return Utf-8 bytes of CSV lines.
+     * @throws IOException if the writer throws it.
+     */
+    private static byte[] written(final int aBufferSize,
+            final City... aCities) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvWriter csv = new CsvWriter(out, aBufferSize);
+        for (City city : aCities) {
+            csv.write(city);
+        }
+        csv.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests the same cases as {@code CityToCsvTest} does.
+     *
+     * @throws IOException if the writer throws it.
+     */
+    @Test
+    public void whenCityToCsvCases() throws IOException {
+        City[] cities = {
+            new City(1, " Wonderful city", "location", TEST_LATITUDE,
+            TEST_LONGITUDE),
+            new City(1, "Wonderful, \"city\"", "loc\r\nation",
+            TEST_LATITUDE, TEST_LONGITUDE),
+            new City(1, " Wonderful city", null, TEST_LATITUDE,
+            TEST_LONGITUDE)
+        };
+        assertArrayEquals(expected(cities), written(BUFFER_SIZE, cities));
+    }
+
+    /**
+     * Tests non ascii names, surrogate pairs, unpaired surrogates and
+     * extreme numbers.
+     *
+     * @throws IOException if the writer throws it.
+     */
+    @Test
+    public void whenSpecialValues() throws IOException {
+        City[] cities = {
+            new City(Long.MIN_VALUE, "Düsseldorf", "Москва",
+            -0d, Double.NaN),
+            new City(Long.MAX_VALUE, "東京 😀", "\uD83D",
+            Double.MIN_VALUE, Double.MAX_VALUE),
+            new City(-1, "\"", "", 1e-3, 1e7),
+            new City(0, "a\rb", ",", 0.001234, -9999999.99999999)
+        };
+        assertArrayEquals(expected(cities), written(BUFFER_SIZE, cities));
+    }
+
+    /**
+     * Tests random cities with a tiny buffer, forcing the buffer to grow and
+     * to flush lines in the middle of the writing.
+     *
+     * @throws IOException if the writer throws it.
+     */
+    @Test
+    public void whenRandomCities() throws IOException {
+        Random random = new Random(SEED);
+        City[] cities = new City[CITIES_COUNT];
+        String alphabet = "abc, \"\r\nßж字😀";
+        for (int i = 0; i < cities.length; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int c = random.nextInt(NAME_LENGTH); c > 0; c--) {
+                name.append(alphabet.charAt(
+                        random.nextInt(alphabet.length())));
+            }
+            int digits = random.nextInt(MAX_DIGITS);
+            double scale = Math.pow(DECIMAL_BASE, digits);
+            cities[i] = new City(random.nextLong(), name.toString(),
+                    "location",
+                    Math.round((random.nextDouble() * MAX_LATITUDE * 2
+                            - MAX_LATITUDE) * scale) / scale,
+                    random.nextDouble() * MAX_LONGITUDE * 2 - MAX_LONGITUDE);
+        }
+        assertArrayEquals(expected(cities), written(1, cities));
+    }
+
+    /**
+     * Tests, that only complete lines reach the underlying stream.
+     *
+     * @throws IOException if the writer throws it.
+     */
+    @Test
+    public void whenBufferOverflows() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvWriter csv = new CsvWriter(out, BUFFER_SIZE);
+        City city = new City(1, "Berlin", "location", TEST_LATITUDE,
+                TEST_LONGITUDE);
+        for (int i = 0; i < CITIES_COUNT; i++) {
+            csv.write(city);
+            assertEquals(0, out.size() % expected(city).length);
+        }
+        assertEquals(CITIES_COUNT, csv.getLines());
+    }
+
+    /**
+     * Test latitude value.
+     */
+    private static final double TEST_LATITUDE = -20.2d;
+    /**
+     * Test longitude.
+     */
+    private static final double TEST_LONGITUDE = 54d;
+    /**
+     * Small buffer size to force flushes.
+     */
+    private static final int BUFFER_SIZE = 64;
+    /**
+     * Random seed.
+     */
+    private static final long SEED = 42;
+    /**
+     * Number of random cities.
+     */
+    private static final int CITIES_COUNT = 10000;
+    /**
+     * Maximum length of random names.
+     */
+    private static final int NAME_LENGTH = 20;
+    /**
+     * Maximum number of fraction digits of random latitudes.
+     */
+    private static final int MAX_DIGITS = 10;
+    /**
+     * Base of decimal digits.
+     */
+    private static final double DECIMAL_BASE = 10;
+    /**
+     * Maximum latitude.
+     */
+    private static final double MAX_LATITUDE = 90;
+    /**
+     * Maximum longitude.
+     */
+    private static final double MAX_LONGITUDE = 180;
+}
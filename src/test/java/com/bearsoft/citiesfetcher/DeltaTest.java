@@ -0,0 +1,142 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for delta export against the previous export.
+ *
+ * @author mg
+ */
+public final class DeltaTest {
+
+    /**
+     * Temporary folder for destination files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reads a destination file.
+     *
+     * @param aFile The file.
+     * @return Content of the file.
+     * @throws Exception if the file can't be read.
+     */
+    private static String read(final File aFile) throws Exception {
+        return new String(Files.readAllBytes(aFile.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tests, that the first export writes every city as added and later
+     * exports write only changes.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenExported() throws Exception {
+        File destination = new File(folder.getRoot(), "cities.csv");
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            String[] args = {endpoint.getEndpointOption(), "--delta",
+                "Berlin", destination.getPath()};
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin", "Bern",
+                    "Bonn"));
+            assertEquals(3, Application.run(args));
+            assertEquals("added,1,Berlin,location,52.5,13.4\r\n"
+                    + "added,2,Bern,location,52.5,13.4\r\n"
+                    + "added,3,Bonn,location,52.5,13.4\r\n", read(destination));
+            assertTrue(DeltaIndex.of(destination).exists());
+
+            endpoint.serve("Berlin", StubEndpoint.cities(2, "Bern-Mitte",
+                    "Bonn", "Bochum"));
+            assertEquals(3, Application.run(args));
+            assertEquals("changed,2,Bern-Mitte,location,52.5,13.4\r\n"
+                    + "added,4,Bochum,location,52.5,13.4\r\n"
+                    + "removed,1,,,,\r\n", read(destination));
+
+            assertEquals(3, Application.run(args));
+            assertEquals("", read(destination));
+        }
+    }
+
+    /**
+     * Tests, that an index finds cities, added out of order, and survives a
+     * store and a load.
+     *
+     * @throws Exception if the index can't be stored.
+     */
+    @Test
+    public void whenIndexStored() throws Exception {
+        Random random = new Random(SEED);
+        DeltaIndex index = new DeltaIndex();
+        long[] ids = random.longs(CITIES).distinct().toArray();
+        for (long id : ids) {
+            index.add(id, id * 2);
+        }
+        File file = folder.newFile("cities.csv.index");
+        index.store(file);
+        assertEquals(16L * ids.length + 8, file.length());
+        DeltaIndex loaded = DeltaIndex.load(file).get();
+        assertEquals(ids.length, loaded.size());
+        for (int i = 1; i < loaded.size(); i++) {
+            assertTrue(loaded.getId(i - 1) < loaded.getId(i));
+        }
+        for (long id : ids) {
+            int found = loaded.find(id);
+            assertEquals(id, loaded.getId(found));
+            assertEquals(id * 2, loaded.getHash(found));
+        }
+        assertEquals(-1, loaded.find(random.nextLong()));
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        assertFalse(DeltaIndex.load(file).isPresent());
+        assertFalse(DeltaIndex.load(new File(folder.getRoot(), "absent"))
+                .isPresent());
+    }
+
+    /**
+     * Tests, that hashes depend on every field.
+     */
+    @Test
+    public void whenHashed() {
+        City city = new City(1, "Bern", "location", 46.9, 7.4);
+        long hash = DeltaIndex.hash(city);
+        assertEquals(hash, DeltaIndex.hash(new City(2, "Bern", "location",
+                46.9, 7.4)));
+        assertNotEquals(hash, DeltaIndex.hash(new City(1, "Bern", null,
+                46.9, 7.4)));
+        assertNotEquals(hash, DeltaIndex.hash(new City(1, "Bernl",
+                "ocation", 46.9, 7.4)));
+        assertNotEquals(hash, DeltaIndex.hash(new City(1, "Bern",
+                "location", 46.9, 7.5)));
+    }
+
+    /**
+     * Tests, that delta export needs a destination file.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenDeltaToStdout() throws Exception {
+        Settings.parse("--delta", "Berlin", "-");
+    }
+
+    /**
+     * Number of random cities.
+     */
+    private static final int CITIES = 5000;
+    /**
+     * Seed of random ids.
+     */
+    private static final long SEED = 20161017L;
+}
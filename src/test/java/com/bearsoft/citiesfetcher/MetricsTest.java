@@ -0,0 +1,131 @@
+package com.bearsoft.citiesfetcher;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for {@code Metrics} of fetches.
+ *
+ * @author mg
+ */
+public final class MetricsTest {
+
+    /**
+     * Temporary folder for metrics files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Parses flat Json object with numeric values.
+     *
+     * @param aParser A parser of the object.
+     * @return Values by names.
+     * @throws IOException if the parser throws it.
+     */
+    private static Map<String, Double> values(final JsonParser aParser)
+            throws IOException {
+        Map<String, Double> values = new HashMap<>();
+        assertEquals(JsonToken.START_OBJECT, aParser.nextToken());
+        while (aParser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = aParser.getCurrentName();
+            aParser.nextToken();
+            values.put(name, aParser.getDoubleValue());
+        }
+        return values;
+    }
+
+    /**
+     * Tests metrics of fetches with a new and a reused connection.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenFetched() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            Settings settings = Settings.parse("Berlin",
+                    endpoint.getEndpointOption());
+            try (Application application = new Application(settings)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                application.fetch(out);
+                Metrics metrics = application.getMetrics();
+                long connectNanos = metrics.getConnectNanos();
+                assertTrue(connectNanos > 0);
+                application.fetch(out);
+                assertEquals(connectNanos, metrics.getConnectNanos());
+                assertEquals(2, metrics.getFetches());
+                assertEquals(2 * 2, metrics.getCities());
+                assertEquals(2 * JSON.getBytes(StandardCharsets.UTF_8).length,
+                        metrics.getBytesIn());
+                assertEquals(out.size(), metrics.getBytesOut());
+                assertTrue(metrics.getFirstByteNanos() > 0);
+                assertTrue(metrics.getParseNanos() > 0);
+                assertTrue(metrics.getEncodeNanos() > 0);
+                assertTrue(metrics.getFetchNanos()
+                        >= metrics.getDownloadNanos()
+                        + metrics.getParseNanos() + metrics.getEncodeNanos()
+                        + metrics.getWriteNanos());
+                assertTrue(metrics.getCitiesPerSecond() > 0);
+
+                File file = folder.newFile();
+                metrics.writeJson(file);
+                try (JsonParser parser = new JsonFactory()
+                        .createParser(file)) {
+                    Map<String, Double> values = values(parser);
+                    assertEquals(2 * 2, values.get("cities"), 0);
+                    assertEquals(metrics.getBytesOut(),
+                            values.get("bytesOut"), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests, that {@code --stats} option prints metrics as a Json line.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenStatsOption() throws Exception {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            System.setErr(new PrintStream(err, true, "utf-8"));
+            Application.run(new String[]{"Berlin", "-", "--stats",
+                endpoint.getEndpointOption()});
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        String[] lines = err.toString("utf-8").split("\n");
+        try (JsonParser parser = new JsonFactory()
+                .createParser(lines[lines.length - 1])) {
+            Map<String, Double> values = values(parser);
+            assertEquals(1, values.get("fetches"), 0);
+            assertEquals(2, values.get("cities"), 0);
+        }
+    }
+
+    /**
+     * Test Json.
+     */
+    private static final String JSON = StubEndpoint.cities(1, "Berlin",
+            "Berlin Mitte");
+}
@@ -0,0 +1,159 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Test suite for {@code Pipeline}.
+ *
+ * @author mg
+ */
+public final class PipelineTest {
+
+    /**
+     * Creates a feed of test cities, failing after the last one.
+     *
+     * @param aCount Number of cities.
+     * @param aFailure Failure to be thrown after the last city or null.
+     * @return A feed of test cities.
+     */
+    private static CitiesFeed feed(final int aCount,
+            final BadCitiesJsonException aFailure) {
+        int[] pulled = {0};
+        return () -> {
+            if (pulled[0] < aCount) {
+                pulled[0]++;
+                return Optional.of(new City(pulled[0], "City " + pulled[0],
+                        "location", TEST_LATITUDE, TEST_LONGITUDE));
+            } else if (aFailure != null) {
+                throw aFailure;
+            } else {
+                return Optional.empty();
+            }
+        };
+    }
+
+    /**
+     * Writes cities sequentially, as reference.
+     *
+     * @param aCount Number of cities.
+     * @return CSV bytes.
+     * @throws Exception if the feed or the writer throws it.
+     */
+    private static byte[] sequential(final int aCount) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvWriter csv = new CsvWriter(out);
+        CitiesFeed feed = feed(aCount, null);
+        Optional<City> city = feed.pull();
+        while (city.isPresent()) {
+            csv.write(city.get());
+            city = feed.pull();
+        }
+        csv.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests, that pipelined output is the same as sequential one.
+     *
+     * @throws Exception if the feed or the writer throws it.
+     */
+    @Test
+    public void whenManyBatches() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pulled = new Pipeline(BATCH_SIZE, 2).run(feed(CITIES_COUNT, null),
+                new CsvWriter(out, 1));
+        assertEquals(CITIES_COUNT, pulled);
+        assertArrayEquals(sequential(CITIES_COUNT), out.toByteArray());
+    }
+
+    /**
+     * Tests, that cities pulled before a feed failure are written.
+     *
+     * @throws Exception if the writer throws it.
+     */
+    @Test
+    public void whenFeedFails() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new Pipeline(BATCH_SIZE, 2).run(feed(CITIES_COUNT,
+                    new BadCitiesJsonException("broken")), new CsvWriter(out));
+            fail("BadCitiesJsonException expected");
+        } catch (BadCitiesJsonException ex) {
+            assertArrayEquals(sequential(CITIES_COUNT), out.toByteArray());
+        }
+    }
+
+    /**
+     * Tests, that a writer failure is thrown to the caller.
+     *
+     * @throws IOException if the writer throws it.
+     * @throws PartialCityJsonException if the feed throws it.
+     * @throws BadCitiesJsonException if the feed throws it.
+     */
+    @Test(expected = IOException.class)
+    public void whenWriterFails() throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(final int aByte) throws IOException {
+                throw new IOException("Disk is full");
+            }
+        };
+        new Pipeline(1, 1).run(feed(CITIES_COUNT, null),
+                new CsvWriter(broken, 1));
+    }
+
+    /**
+     * Tests pipelined fetching from the stand-in endpoint.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenFetched() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin",
+                    "Berlin Mitte", "Berlin Tegel"));
+            Settings settings = Settings.parse("Berlin",
+                    endpoint.getEndpointOption(), "--pipeline",
+                    "--batch-size=2", "--queue-depth=1");
+            try (Application application = new Application(settings)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(2 + 1, application.fetch(
+                        settings.getCitySource(), out));
+                assertEquals(""
+                        + "1,Berlin,location,52.5,13.4\r\n"
+                        + "2,Berlin Mitte,location,52.5,13.4\r\n"
+                        + "3,Berlin Tegel,location,52.5,13.4\r\n",
+                        out.toString("utf-8"));
+            }
+        }
+    }
+
+    /**
+     * Test latitude value.
+     */
+    private static final double TEST_LATITUDE = 52.52;
+    /**
+     * Test longitude.
+     */
+    private static final double TEST_LONGITUDE = 13.405;
+    /**
+     * Number of test cities.
+     */
+    private static final int CITIES_COUNT = 10007;
+    /**
+     * Batch size, not dividing number of test cities.
+     */
+    private static final int BATCH_SIZE = 10;
+}
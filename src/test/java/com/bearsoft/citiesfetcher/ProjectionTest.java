@@ -0,0 +1,174 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
+import com.bearsoft.citiesfetcher.model.Projection;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test suite for projection of city fields.
+ *
+ * @author mg
+ */
+public final class ProjectionTest {
+
+    /**
+     * Temporary folder for destination files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Creates a feed of projected fields over a Json body.
+     *
+     * @param aJson The Json body.
+     * @param aProjection Projected fields.
+     * @return The feed.
+     * @throws Exception if the body is not a cities array.
+     */
+    private static JsonCitiesFeed feed(final String aJson,
+            final Projection aProjection) throws Exception {
+        return JsonCitiesFeed.create(new ByteArrayInputStream(
+                aJson.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, aProjection);
+    }
+
+    /**
+     * Tests, that fields out of a projection are left with default values
+     * and may be absent at all.
+     *
+     * @throws Exception if parsing fails.
+     */
+    @Test
+    public void whenParsedNarrow() throws Exception {
+        JsonCitiesFeed feed = feed("[{\"_id\": 7, \"name\": \"Berlin\","
+                + " \"type\": \"location\", \"geo_position\":"
+                + " {\"latitude\": 52.5, \"longitude\": 13.4}},"
+                + " {\"name\": \"Bern\", \"geo_position\": [1, {}]}]",
+                NAME_ONLY);
+        City berlin = feed.pull().get();
+        assertEquals(0, berlin.getId());
+        assertEquals("Berlin", berlin.getName());
+        assertNull(berlin.getType());
+        assertEquals(0, berlin.getLatitude(), Double.MIN_VALUE);
+        assertEquals(0, berlin.getlongitude(), Double.MIN_VALUE);
+        assertEquals("Bern", feed.pull().get().getName());
+        assertFalse(feed.pull().isPresent());
+    }
+
+    /**
+     * Tests, that an absent projected field is still reported.
+     *
+     * @throws Exception if parsing fails unexpectedly.
+     */
+    @Test(expected = PartialCityJsonException.class)
+    public void whenProjectedFieldAbsent() throws Exception {
+        feed("[{\"_id\": 7, \"geo_position\": {\"latitude\": 52.5}}]",
+                new Projection(EnumSet.of(Projection.Field.ID,
+                        Projection.Field.LONGITUDE))).pull();
+    }
+
+    /**
+     * Tests, that {@code CsvWriter} writes the same projected columns as
+     * {@code Csv.to}, in order of fields.
+     *
+     * @throws Exception if writing fails.
+     */
+    @Test
+    public void whenWrittenNarrow() throws Exception {
+        Projection projection = new Projection(EnumSet.of(
+                Projection.Field.LONGITUDE, Projection.Field.NAME));
+        City city = new City(1, "Frankfurt, am Main", null, 50.1, 8.7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvWriter writer = new CsvWriter(out, projection)) {
+            writer.write(city);
+        }
+        String line = Csv.to(city, projection).toString();
+        assertEquals("\"Frankfurt, am Main\",8.7\r\n", line);
+        assertEquals(line, new String(out.toByteArray(),
+                StandardCharsets.UTF_8));
+        assertEquals(",50.1\r\n", Csv.to(city, new Projection(EnumSet.of(
+                Projection.Field.TYPE, Projection.Field.LATITUDE)))
+                .toString());
+    }
+
+    /**
+     * Tests, that the application writes only requested columns.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenFetchedNarrow() throws Exception {
+        File destination = new File(folder.getRoot(), "cities.csv");
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("B", StubEndpoint.cities(1, "Berlin", "Bonn"));
+            assertEquals(2, Application.run(new String[]{
+                endpoint.getEndpointOption(), "--fields=name,id", "B",
+                destination.getPath()}));
+        }
+        assertEquals("1,Berlin\r\n2,Bonn\r\n", new String(Files.readAllBytes(
+                destination.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests, that an unknown field is rejected.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenUnknownField() throws Exception {
+        Settings.parse("--fields=id,population", "Berlin");
+    }
+
+    /**
+     * Tests, that a projection is rejected along with binary format.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenBinaryNarrow() throws Exception {
+        Settings.parse("--fields=id", "--format=binary", "Berlin");
+    }
+
+    /**
+     * Tests, that a projection without ids is rejected along with shards,
+     * routed by ids.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenShardedWithoutIds() throws Exception {
+        Settings.parse("--fields=name", "--shards=2", "Berlin",
+                "cities.csv");
+    }
+
+    /**
+     * Tests, that a projection without ids is accepted along with shards,
+     * routed in turn.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test
+    public void whenRoundRobinWithoutIds() throws Exception {
+        assertFalse(Settings.parse("--fields=name", "--shards=2",
+                "--shard-by=round-robin", "Berlin", "cities.csv")
+                .getProjection().contains(Projection.Field.ID));
+    }
+
+    /**
+     * Projection of names.
+     */
+    private static final Projection NAME_ONLY = new Projection(
+            EnumSet.of(Projection.Field.NAME));
+}
@@ -0,0 +1,228 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test suite for resumable fetching. A local endpoint cuts connections in the
+ * middle of response bodies and serves the rest of bodies by ranges.
+ *
+ * @author mg
+ */
+public final class ResumeTest {
+
+    /**
+     * Temporary folder for destination files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Headers of range requests, received by the endpoint.
+     */
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a handler, serving a body and cutting connections.
+     *
+     * @param aBody A body to serve.
+     * @param aCuts Number of responses to be cut in the middle.
+     * @param aRanges Flag of range requests support.
+     * @return The handler.
+     */
+    private HttpHandler cutting(final byte[] aBody, final int aCuts,
+            final boolean aRanges) {
+        AtomicInteger served = new AtomicInteger();
+        return (HttpExchange aExchange) -> {
+            String range = aExchange.getRequestHeaders().getFirst("Range");
+            int from = 0;
+            aExchange.getResponseHeaders().set("Content-Type",
+                    StubEndpoint.JSON_UTF_8);
+            aExchange.getResponseHeaders().set("ETag", ETAG);
+            if (range != null) {
+                ranges.add(range);
+                if (aRanges && ETAG.equals(aExchange.getRequestHeaders()
+                        .getFirst("If-Range"))) {
+                    from = Integer.parseInt(range.substring(
+                            "bytes=".length(), range.length() - 1));
+                    aExchange.getResponseHeaders().set("Content-Range",
+                            String.format("bytes %d-%d/%d", from,
+                                    aBody.length - 1, aBody.length));
+                }
+            }
+            aExchange.sendResponseHeaders(from > 0 ? PARTIAL_CONTENT
+                    : StubEndpoint.OK, aBody.length - from);
+            OutputStream out = aExchange.getResponseBody();
+            if (served.getAndIncrement() < aCuts) {
+                out.write(aBody, from, (aBody.length - from) / 2);
+                out.flush();
+                // Leaves the body incomplete, so the connection is dropped.
+                throw new IOException("Cut");
+            } else {
+                out.write(aBody, from, aBody.length - from);
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Encodes cities of a Json body as CSV, like a complete fetch does.
+     *
+     * @param aJson Json body.
+     * @return Utf-8 bytes of CSV lines.
+     * @throws Exception if parsing fails.
+     */
+    private static byte[] csv(final String aJson) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            CitiesFeed feed = JsonCitiesFeed.create(new StringReader(aJson));
+            for (Optional<City> city = feed.pull(); city.isPresent();
+                    city = feed.pull()) {
+                csv.write(city.get());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests, that a body, cut in the middle, is resumed by a range request
+     * and the destination gets every city once.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenBodyIsCut() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", cutting(JSON.getBytes(
+                    StandardCharsets.UTF_8), 2, true));
+            File destination = new File(folder.getRoot(), "berlin.csv");
+            assertEquals(CITIES, Application.run(new String[]{
+                endpoint.getEndpointOption(), "--resume", "Berlin",
+                destination.getPath()}));
+            assertEquals(3, endpoint.getRequests());
+            assertEquals(2, ranges.size());
+            assertArrayEquals(csv(JSON), Files.readAllBytes(
+                    destination.toPath()));
+            assertFalse(Checkpoint.of(destination).exists());
+        }
+    }
+
+    /**
+     * Tests, that a body is requested again from the start and the
+     * destination is rewritten if the server ignores ranges.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenRangesAreNotSupported() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", cutting(JSON.getBytes(
+                    StandardCharsets.UTF_8), 1, false));
+            File destination = new File(folder.getRoot(), "berlin.csv");
+            assertEquals(CITIES, Application.run(new String[]{
+                endpoint.getEndpointOption(), "--resume", "Berlin",
+                destination.getPath()}));
+            assertEquals(1, ranges.size());
+            assertArrayEquals(csv(JSON), Files.readAllBytes(
+                    destination.toPath()));
+        }
+    }
+
+    /**
+     * Tests, that a fetch, failed after all attempts, leaves a checkpoint
+     * and a later run truncates the destination to the last complete row
+     * and resumes the body.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenResumedByLaterRun() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            byte[] body = JSON.getBytes(StandardCharsets.UTF_8);
+            endpoint.serve("Berlin", cutting(body, 2, true));
+            File destination = new File(folder.getRoot(), "berlin.csv");
+            String[] args = {endpoint.getEndpointOption(), "--resume=1",
+                "Berlin", destination.getPath()};
+            try {
+                Application.run(args);
+                fail("Fetch should fail after all attempts");
+            } catch (IOException ex) {
+                // Both attempts are cut.
+            }
+            Checkpoint checkpoint = Checkpoint.load(Checkpoint.of(
+                    destination), Settings.parse(args).getCitySource()).get();
+            assertTrue(checkpoint.getCities() > 0);
+            assertEquals(checkpoint.getWritten(), destination.length());
+            byte[] written = Files.readAllBytes(destination.toPath());
+            assertArrayEquals(Arrays.copyOf(csv(JSON), written.length),
+                    written);
+            // A half written row, the next run should drop.
+            Files.write(destination.toPath(), "99,Hal".getBytes(
+                    StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            assertEquals(CITIES, Application.run(args));
+            assertEquals(2, ranges.size());
+            assertArrayEquals(csv(JSON), Files.readAllBytes(
+                    destination.toPath()));
+            assertFalse(Checkpoint.of(destination).exists());
+        }
+    }
+
+    /**
+     * Tests, that resumable fetching needs a CSV destination file.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenResumeToStdout() throws Exception {
+        Settings.parse("--resume", "Berlin", "-");
+    }
+
+    /**
+     * Http partial content status code.
+     */
+    private static final int PARTIAL_CONTENT = 206;
+    /**
+     * Entity tag of the served body.
+     */
+    private static final String ETAG = "\"v1\"";
+    /**
+     * Number of served cities.
+     */
+    private static final int CITIES = 200;
+    /**
+     * Served Json body.
+     */
+    private static final String JSON;
+
+    static {
+        String[] names = new String[CITIES];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Берлин " + i;
+        }
+        JSON = StubEndpoint.cities(1, names);
+    }
+}
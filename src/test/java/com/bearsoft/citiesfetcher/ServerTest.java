@@ -0,0 +1,254 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for server mode.
+ *
+ * @author mg
+ */
+public final class ServerTest {
+
+    /**
+     * Creates an application for an endpoint in server mode.
+     *
+     * @param aEndpoint The endpoint.
+     * @return New application.
+     * @throws Exception if settings are rejected.
+     */
+    private static Application application(final StubEndpoint aEndpoint)
+            throws Exception {
+        return new Application(Settings.parse(
+                aEndpoint.getEndpointOption(), "--attempts=1", "--serve"));
+    }
+
+    /**
+     * Starts a server on a free loopback port.
+     *
+     * @param aApplication Application to fetch cities with.
+     * @return Started server.
+     * @throws IOException if the server can't be started.
+     */
+    private static Server server(final Application aApplication)
+            throws IOException {
+        return new Server(aApplication, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), THREADS);
+    }
+
+    /**
+     * Builds an url of a server.
+     *
+     * @param aServer The server.
+     * @param aPathAndQuery Path and query of the url.
+     * @return The url.
+     * @throws IOException if the url is malformed.
+     */
+    private static URL url(final Server aServer, final String aPathAndQuery)
+            throws IOException {
+        return new URL("http", aServer.getAddress().getHostString(),
+                aServer.getAddress().getPort(), aPathAndQuery);
+    }
+
+    /**
+     * Sends a request and reads its body.
+     *
+     * @param aUrl Requested url.
+     * @param aContentType An array to put content type of the response to.
+     * @return Status code and utf-8 body, separated by a space.
+     * @throws IOException if the request fails.
+     */
+    private static String get(final URL aUrl, final String[] aContentType)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+                aUrl.openConnection();
+        int status = connection.getResponseCode();
+        aContentType[0] = connection.getContentType();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = status < BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read = in.read(buffer); read != -1;
+                    read = in.read(buffer)) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return status + " " + new String(body.toByteArray(),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tests, that cities are served as CSV lines by default.
+     *
+     * @throws Exception if serving fails.
+     */
+    @Test
+    public void whenCsv() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint);
+                Server server = server(application)) {
+            endpoint.serve("Frankfurt", StubEndpoint.cities(1,
+                    "Frankfurt am Main", "Frankfurt (Oder), Brandenburg"));
+            String[] contentType = new String[1];
+            assertEquals("200 " + Csv.to(new City(1, "Frankfurt am Main",
+                    "location", LATITUDE, LONGITUDE)) + Csv.to(new City(2,
+                    "Frankfurt (Oder), Brandenburg", "location", LATITUDE,
+                    LONGITUDE)), get(url(server, "/cities?q=Frank%66urt"),
+                            contentType));
+            assertTrue(contentType[0].startsWith("text/csv"));
+            assertEquals(1, server.getRequests());
+        }
+    }
+
+    /**
+     * Tests, that cities are served as a Json array, the application can
+     * read back.
+     *
+     * @throws Exception if serving fails.
+     */
+    @Test
+    public void whenJson() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint);
+                Server server = server(application)) {
+            endpoint.serve("Berlin", StubEndpoint.cities(7, "Berlin",
+                    "Berlin, Mitte"));
+            endpoint.serve("Empty", "[]");
+            String[] contentType = new String[1];
+            String reply = get(url(server, "/cities?q=Berlin&format=json"),
+                    contentType);
+            assertTrue(reply.startsWith("200 "));
+            assertTrue(contentType[0].startsWith("application/json"));
+            CitiesFeed feed = JsonCitiesFeed.create(new StringReader(
+                    reply.substring("200 ".length())));
+            Optional<City> city = feed.pull();
+            assertEquals(7, city.get().getId());
+            assertEquals("Berlin", city.get().getName());
+            assertEquals("Berlin, Mitte", feed.pull().get().getName());
+            assertFalse(feed.pull().isPresent());
+            assertEquals("200 []", get(url(server,
+                    "/cities?q=Empty&format=json"), contentType));
+        }
+    }
+
+    /**
+     * Tests, that bad requests are rejected and endpoint errors are
+     * answered with bad gateway status.
+     *
+     * @throws Exception if serving fails.
+     */
+    @Test
+    public void whenBadRequests() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint);
+                Server server = server(application)) {
+            String[] contentType = new String[1];
+            assertTrue(get(url(server, "/cities"), contentType)
+                    .startsWith(BAD_REQUEST + " "));
+            assertTrue(get(url(server, "/cities?q=Berlin&format=xml"),
+                    contentType).startsWith(BAD_REQUEST + " "));
+            assertTrue(get(url(server, "/cities?q=%zz"), contentType)
+                    .startsWith(BAD_REQUEST + " "));
+            assertTrue(get(url(server, "/cities?q=Absent"), contentType)
+                    .startsWith(BAD_GATEWAY + " "));
+            assertEquals(1, server.getFailures());
+            assertTrue(get(url(server, "/metrics"), contentType)
+                    .startsWith("200 {"));
+        }
+    }
+
+    /**
+     * Tests, that a warm server serves concurrent requests.
+     *
+     * @throws Exception if serving fails.
+     */
+    @Test
+    public void whenConcurrent() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint);
+                Server server = server(application)) {
+            endpoint.serve("Berlin", StubEndpoint.cities(1, "Berlin"));
+            endpoint.serve("Bern", StubEndpoint.cities(2, "Bern"));
+            List<URL> targets = Arrays.asList(
+                    url(server, "/cities?q=Berlin"),
+                    url(server, "/cities?q=Bern&format=json"));
+            ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Future<String>> replies = new ArrayList<>();
+                for (int i = 0; i < REQUESTS; i++) {
+                    URL target = targets.get(i % targets.size());
+                    replies.add(clients.submit(() -> get(target,
+                            new String[1])));
+                }
+                for (Future<String> reply : replies) {
+                    assertTrue(reply.get().startsWith("200 "));
+                }
+            } finally {
+                clients.shutdownNow();
+            }
+            assertEquals(REQUESTS, server.getRequests());
+            assertEquals(REQUESTS, application.getMetrics().getFetches());
+            // Connections to the endpoint are kept alive between requests.
+            assertTrue(endpoint.getConnections() < REQUESTS);
+        }
+    }
+
+    /**
+     * Tests, that server mode doesn't expect positional arguments.
+     *
+     * @throws Exception if arguments are rejected.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public void whenServeWithArguments() throws Exception {
+        Settings.parse("--serve=8081", "Berlin");
+    }
+
+    /**
+     * Number of server and client threads.
+     */
+    private static final int THREADS = 4;
+    /**
+     * Number of requests of the load test.
+     */
+    private static final int REQUESTS = 200;
+    /**
+     * Size of the body buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Http bad request status code.
+     */
+    private static final int BAD_REQUEST = 400;
+    /**
+     * Http bad gateway status code.
+     */
+    private static final int BAD_GATEWAY = 502;
+    /**
+     * Latitude of stub cities.
+     */
+    private static final double LATITUDE = 52.5;
+    /**
+     * Longitude of stub cities.
+     */
+    private static final double LONGITUDE = 13.4;
+}
@@ -3,6 +3,7 @@ package com.bearsoft.citiesfetcher;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -59,4 +60,98 @@ public class SettingsTest {
             UnsupportedEncodingException {
         Settings.parse("Frankfurt", "am", "Main");
     }
+
+    /**
+     * Tests a case when queries file option is specified.
+     *
+     * @throws BadArgumentsException if the exception is thrown in
+     * {@code Settings.parse()}.
+     * @throws UnsupportedEncodingException if unsupported encoding used
+     * somewhere in code.
+     */
+    @Test
+    public final void whenQueries() throws BadArgumentsException,
+            UnsupportedEncodingException {
+        Settings settings = Settings.parse("--queries=cities.txt",
+                "--concurrency=8");
+        assertEquals(new File("cities.txt"), settings.getQueries().get());
+        assertEquals(new File("cities.txt.csv"), settings.getDestination());
+        assertEquals(CONCURRENCY, settings.getConcurrency());
+        assertTrue(settings.citySource("Frankfurt am Main").getPath()
+                .endsWith("Frankfurt%20am%20Main"));
+    }
+    /**
+     * Concurrency level used in test.
+     */
+    private static final int CONCURRENCY = 8;
+
+    /**
+     * Tests a case when an unknown option is specified.
+     *
+     * @throws BadArgumentsException if the exception is thrown in
+     * {@code Settings.parse()}.
+     * @throws UnsupportedEncodingException if unsupported encoding used
+     * somewhere in code.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public final void whenUnknownOption() throws BadArgumentsException,
+            UnsupportedEncodingException {
+        Settings.parse("Berlin", "--colour=red");
+    }
+
+    /**
+     * Tests a case when concurrency level is not a positive number.
+     *
+     * @throws BadArgumentsException if the exception is thrown in
+     * {@code Settings.parse()}.
+     * @throws UnsupportedEncodingException if unsupported encoding used
+     * somewhere in code.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public final void whenBadConcurrency() throws BadArgumentsException,
+            UnsupportedEncodingException {
+        Settings.parse("--queries=cities.txt", "--concurrency=0");
+    }
+
+    /**
+     * Tests a case when expected number of distinct ids doesn't fit into a
+     * single table.
+     *
+     * @throws BadArgumentsException if the exception is thrown in
+     * {@code Settings.parse()}.
+     * @throws UnsupportedEncodingException if unsupported encoding used
+     * somewhere in code.
+     */
+    @Test(expected = BadArgumentsException.class)
+    public final void whenTooManyIds() throws BadArgumentsException,
+            UnsupportedEncodingException {
+        Settings.parse("--dedup=2000000000", "Berlin");
+    }
+
+    /**
+     * Tests cache options.
+     *
+     * @throws BadArgumentsException if the exception is thrown in
+     * {@code Settings.parse()}.
+     * @throws UnsupportedEncodingException if unsupported encoding used
+     * somewhere in code.
+     */
+    @Test
+    public final void whenCache() throws BadArgumentsException,
+            UnsupportedEncodingException {
+        assertFalse(Settings.parse("Berlin").getCache().isPresent());
+        Settings settings = Settings.parse("Berlin", "--cache=cache",
+                "--cache-ttl=1000", "--cache-size=2");
+        assertEquals(new File("cache"), settings.getCache().get());
+        assertEquals(CACHE_TTL, settings.getCacheTtl());
+        assertEquals(CACHE_SIZE, settings.getCacheSize());
+    }
+    /**
+     * Cache time to live used in test.
+     */
+    private static final int CACHE_TTL = 1000;
+    /**
+     * Cache size in bytes used in test.
+     */
+    private static final long CACHE_SIZE = 2 * 1024 * 1024;
 }
@@ -0,0 +1,206 @@
+package com.bearsoft.citiesfetcher;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test suite for sharded output.
+ *
+ * @author mg
+ */
+public final class ShardedSinkTest {
+
+    /**
+     * Temporary folder for destination files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Creates a city with a name.
+     *
+     * @param aId Id of the city.
+     * @return The city.
+     */
+    private static City city(final long aId) {
+        return new City(aId, "City " + aId, "location", LATITUDE, LONGITUDE);
+    }
+
+    /**
+     * Reads a file.
+     *
+     * @param aFile The file.
+     * @return Content of the file.
+     * @throws IOException if the file can't be read.
+     */
+    private static String read(final File aFile) throws IOException {
+        return new String(Files.readAllBytes(aFile.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tests, that round-robin shards are even and keep order of cities.
+     *
+     * @throws Exception if writing fails.
+     */
+    @Test
+    public void whenRoundRobin() throws Exception {
+        List<ByteArrayOutputStream> outs = new ArrayList<>();
+        List<CitiesSink> sinks = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            outs.add(new ByteArrayOutputStream());
+            sinks.add(new CsvWriter(outs.get(i)));
+        }
+        ShardedSink sharded = new ShardedSink(sinks,
+                ShardedSink.Routing.ROUND_ROBIN, 2, 1);
+        for (int id = 0; id < CITIES; id++) {
+            sharded.write(city(id));
+        }
+        sharded.close();
+        for (int i = 0; i < SHARDS; i++) {
+            StringBuilder expected = new StringBuilder();
+            for (int id = i; id < CITIES; id += SHARDS) {
+                expected.append(Csv.to(city(id)));
+            }
+            assertEquals(expected.toString(), new String(
+                    outs.get(i).toByteArray(), StandardCharsets.UTF_8));
+            assertEquals((CITIES - i + SHARDS - 1) / SHARDS,
+                    sharded.getRows(i));
+        }
+    }
+
+    /**
+     * Tests, that a failure of a shard writer is thrown to the caller
+     * without blocking.
+     *
+     * @throws Exception if writing fails unexpectedly.
+     */
+    @Test
+    public void whenWriterFails() throws Exception {
+        CitiesSink failing = new CitiesSink() {
+            @Override
+            public void write(final City aCity) throws IOException {
+                throw new IOException("Disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ShardedSink sharded = new ShardedSink(Arrays.asList(failing,
+                new CsvWriter(new ByteArrayOutputStream())),
+                ShardedSink.Routing.ROUND_ROBIN, 1, 1);
+        try {
+            for (int id = 0; id < CITIES; id++) {
+                sharded.write(city(id));
+            }
+            sharded.flush();
+            fail("Failure of a shard should be thrown");
+        } catch (IOException ex) {
+            assertEquals("Disk full", ex.getMessage());
+        }
+        try {
+            sharded.close();
+            fail("Failure of a shard should be thrown by close");
+        } catch (IOException ex) {
+            assertEquals("Disk full", ex.getMessage());
+        }
+    }
+
+    /**
+     * Tests, that the application splits cities across shard files by ids
+     * and lists them in the manifest.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenFetchedToShards() throws Exception {
+        File destination = new File(folder.getRoot(), "cities.csv");
+        String[] names = new String[CITIES];
+        for (int i = 0; i < CITIES; i++) {
+            names[i] = "City " + (i + 1);
+        }
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("City", StubEndpoint.cities(1, names));
+            assertEquals(CITIES, Application.run(new String[]{
+                endpoint.getEndpointOption(), "--shards=" + SHARDS,
+                "--batch-size=4", "City", destination.getPath()}));
+        }
+        assertFalse(destination.exists());
+        StringBuilder manifest = new StringBuilder();
+        for (int i = 0; i < SHARDS; i++) {
+            StringBuilder expected = new StringBuilder();
+            int rows = 0;
+            for (int id = 1; id <= CITIES; id++) {
+                if (ShardedSink.shardOf(id, SHARDS) == i) {
+                    expected.append(Csv.to(city(id)));
+                    rows++;
+                }
+            }
+            assertTrue(rows > 0);
+            File shard = new File(folder.getRoot(), "cities." + i + ".csv");
+            assertEquals(expected.toString(), read(shard));
+            manifest.append(shard.getName()).append(',').append(rows)
+                    .append("\r\n");
+        }
+        assertEquals(manifest.toString(), read(ShardedSink.manifest(
+                destination)));
+    }
+
+    /**
+     * Tests, that existing shard files are not overwritten.
+     *
+     * @throws Exception if a fetch fails unexpectedly.
+     */
+    @Test
+    public void whenShardExists() throws Exception {
+        File destination = new File(folder.getRoot(), "cities.csv");
+        File shard = ShardedSink.shard(destination, 1);
+        Files.write(shard.toPath(), "1,Berlin\r\n".getBytes(
+                StandardCharsets.UTF_8));
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("City", StubEndpoint.cities(1, "Berlin"));
+            Application.run(new String[]{endpoint.getEndpointOption(),
+                "--shards=" + SHARDS, "City", destination.getPath()});
+            fail("Existing shard should not be overwritten");
+        } catch (FileAlreadyExistsException ex) {
+            assertEquals("1,Berlin\r\n", read(shard));
+            assertFalse(ShardedSink.shard(destination, 0).exists());
+        }
+    }
+
+    /**
+     * Number of shards.
+     */
+    private static final int SHARDS = 3;
+    /**
+     * Number of cities.
+     */
+    private static final int CITIES = 50;
+    /**
+     * Latitude of stub cities.
+     */
+    private static final double LATITUDE = 52.5;
+    /**
+     * Longitude of stub cities.
+     */
+    private static final double LONGITUDE = 13.4;
+}
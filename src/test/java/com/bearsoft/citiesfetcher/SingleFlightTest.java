@@ -0,0 +1,209 @@
+package com.bearsoft.citiesfetcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test suite for coalescing of concurrent fetches.
+ *
+ * @author mg
+ */
+public final class SingleFlightTest {
+
+    /**
+     * Creates an application with coalesced fetches for an endpoint.
+     *
+     * @param aEndpoint The endpoint.
+     * @return New application.
+     * @throws Exception if settings are rejected.
+     */
+    private static Application application(final StubEndpoint aEndpoint)
+            throws Exception {
+        return new Application(Settings.parse(aEndpoint.getEndpointOption(),
+                "--attempts=1", "--coalesce", "Berlin", "-"));
+    }
+
+    /**
+     * Waits in a handler of the endpoint, until other fetches join the
+     * flight of the first one.
+     *
+     * @param aApplication Application, fetches are coalesced by.
+     * @param aJoined Expected number of coalesced fetches.
+     * @throws IOException if the wait is interrupted or too long.
+     */
+    private static void awaitJoined(final Application aApplication,
+            final int aJoined) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (aApplication.getMetrics().getCoalesced() < aJoined) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("Fetches didn't join the flight");
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Tests, that concurrent fetches of the same city share a single request
+     * and get the same cities.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenConcurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(FETCHES);
+        byte[] body = StubEndpoint.cities(1, "Berlin", "Bern")
+                .getBytes(StandardCharsets.UTF_8);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint)) {
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                awaitJoined(application, FETCHES - 1);
+                StubEndpoint.json(body).handle(aExchange);
+            });
+            URL source = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            List<Future<String>> fetches = new ArrayList<>();
+            for (int i = 0; i < FETCHES; i++) {
+                fetches.add(executor.submit(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    assertEquals(2, application.fetch(source, out));
+                    return new String(out.toByteArray(),
+                            StandardCharsets.UTF_8);
+                }));
+            }
+            String expected = fetches.get(0).get(TIMEOUT, TimeUnit.SECONDS);
+            assertTrue(expected.contains("Bern"));
+            for (Future<String> fetch : fetches) {
+                assertEquals(expected, fetch.get(TIMEOUT, TimeUnit.SECONDS));
+            }
+            assertEquals(1, endpoint.getRequests());
+            assertEquals(1, application.getMetrics().getOriginated());
+            assertEquals(FETCHES - 1, application.getMetrics()
+                    .getCoalesced());
+            assertEquals(2, application.getMetrics().getCities());
+            // The flight has landed, so the next fetch requests again.
+            application.fetch(source, new ByteArrayOutputStream());
+            assertEquals(2, endpoint.getRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that cities of a flight are written once, when concurrent
+     * fetches are coalesced and deduplicated.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenDedup() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(FETCHES);
+        byte[] body = StubEndpoint.cities(1, "Berlin", "Bern")
+                .getBytes(StandardCharsets.UTF_8);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = new Application(Settings.parse(
+                        endpoint.getEndpointOption(), "--attempts=1",
+                        "--coalesce", "--dedup", "Berlin", "-"))) {
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                awaitJoined(application, FETCHES - 1);
+                StubEndpoint.json(body).handle(aExchange);
+            });
+            URL source = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            List<Future<String>> fetches = new ArrayList<>();
+            for (int i = 0; i < FETCHES; i++) {
+                fetches.add(executor.submit(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    application.fetch(source, out);
+                    return new String(out.toByteArray(),
+                            StandardCharsets.UTF_8);
+                }));
+            }
+            StringBuilder written = new StringBuilder();
+            for (Future<String> fetch : fetches) {
+                written.append(fetch.get(TIMEOUT, TimeUnit.SECONDS));
+            }
+            assertEquals(2, written.toString().split("\r\n").length);
+            assertEquals(1, endpoint.getRequests());
+            assertEquals(2 * (FETCHES - 1), application.getMetrics()
+                    .getDuplicates());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that a failure of a flight is delivered to every joined fetch.
+     *
+     * @throws Exception if a fetch fails unexpectedly.
+     */
+    @Test
+    public void whenFailed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(FETCHES);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = application(endpoint)) {
+            endpoint.serve("Absent", (HttpExchange aExchange) -> {
+                awaitJoined(application, FETCHES - 1);
+                aExchange.sendResponseHeaders(StubEndpoint.NOT_FOUND, -1);
+            });
+            URL source = new URL(String.format(endpoint.getTemplate(),
+                    "Absent"));
+            List<Future<Integer>> fetches = new ArrayList<>();
+            for (int i = 0; i < FETCHES; i++) {
+                fetches.add(executor.submit(() -> application.fetch(source,
+                        new ByteArrayOutputStream())));
+            }
+            for (Future<Integer> fetch : fetches) {
+                try {
+                    fetch.get(TIMEOUT, TimeUnit.SECONDS);
+                    fail("Fetch of an absent query should fail");
+                } catch (ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof IOException);
+                }
+            }
+            assertEquals(1, endpoint.getRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that urls, differing only in insignificant parts, share
+     * flights.
+     *
+     * @throws Exception if an url is malformed.
+     */
+    @Test
+    public void whenNormalized() throws Exception {
+        assertEquals("http://example.com/suggest/Berlin?a=1",
+                SingleFlight.key(new URL(
+                        "HTTP://Example.COM:80/suggest/Berlin?a=1#top")));
+        assertEquals("https://example.com/", SingleFlight.key(new URL(
+                "https://example.com")));
+        assertEquals("http://example.com:8080/suggest/berlin",
+                SingleFlight.key(new URL(
+                        "http://example.com:8080/suggest/berlin")));
+    }
+
+    /**
+     * Number of concurrent fetches.
+     */
+    private static final int FETCHES = 4;
+    /**
+     * Timeout of a fetch in seconds.
+     */
+    private static final long TIMEOUT = 10;
+}
@@ -0,0 +1,101 @@
+package com.bearsoft.citiesfetcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for CSV sinks other than a new file.
+ *
+ * @author mg
+ */
+public final class SinkTest {
+
+    /**
+     * Tests fetching to standard output. Reports should go to standard
+     * error.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenStdout() throws Exception {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            System.setOut(new PrintStream(out, true, "utf-8"));
+            System.setErr(new PrintStream(err, true, "utf-8"));
+            assertEquals(2, Application.run(new String[]{"Berlin", "-",
+                endpoint.getEndpointOption()}));
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        assertEquals(CSV, out.toString("utf-8"));
+        assertTrue(err.toString("utf-8").contains("2 cities fetched."));
+    }
+
+    /**
+     * Tests, that failed standard output, e.g. a closed pipe, fails the
+     * fetch.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test(expected = IOException.class)
+    public void whenStdoutFails() throws Exception {
+        PrintStream stdout = System.out;
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(final int aByte) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            }));
+            Application.run(new String[]{"Berlin", "-",
+                endpoint.getEndpointOption()});
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Tests fetching to a caller supplied channel.
+     *
+     * @throws Exception if fetching fails.
+     */
+    @Test
+    public void whenChannel() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            Settings settings = Settings.parse("Berlin", "-",
+                    endpoint.getEndpointOption());
+            assertTrue(settings.isStdout());
+            try (Application application = new Application(settings)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(2, application.fetch(settings.getCitySource(),
+                        Channels.newChannel(out)));
+                assertEquals(CSV, out.toString("utf-8"));
+            }
+        }
+    }
+
+    /**
+     * Test Json.
+     */
+    private static final String JSON = StubEndpoint.cities(1, "Berlin",
+            "Berlin Mitte");
+    /**
+     * Expected CSV.
+     */
+    private static final String CSV = ""
+            + "1,Berlin,location,52.5,13.4\r\n"
+            + "2,Berlin Mitte,location,52.5,13.4\r\n";
+}
@@ -0,0 +1,192 @@
+package com.bearsoft.citiesfetcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the suggest endpoint. It serves registered responses
+ * for city names and answers with 404 for unknown ones.
+ *
+ * @author mg
+ */
+public final class StubEndpoint implements AutoCloseable {
+
+    /**
+     * Path prefix of the endpoint.
+     */
+    private static final String PATH = "/suggest/";
+    /**
+     * Json content type with charset.
+     */
+    public static final String JSON_UTF_8
+            = "application/json;charset=UTF-8";
+
+    /**
+     * Underlying http server.
+     */
+    private final HttpServer server;
+    /**
+     * Threads of the server.
+     */
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    /**
+     * Handlers by city names.
+     */
+    private final Map<String, HttpHandler> handlers = new ConcurrentHashMap<>();
+    /**
+     * Number of requests served.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+    /**
+     * Distinct client addresses seen, i.e. distinct connections.
+     */
+    private final Set<InetSocketAddress> clients
+            = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts the stand-in on a free loopback port.
+     *
+     * @throws IOException if the server can't be started.
+     */
+    public StubEndpoint() throws IOException {
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(threads);
+        server.createContext(PATH, (HttpExchange aExchange) -> {
+            requests.incrementAndGet();
+            clients.add(aExchange.getRemoteAddress());
+            String query = aExchange.getRequestURI().getPath()
+                    .substring(PATH.length());
+            HttpHandler handler = handlers.get(query);
+            if (handler != null) {
+                handler.handle(aExchange);
+            } else {
+                aExchange.sendResponseHeaders(NOT_FOUND, -1);
+            }
+            aExchange.close();
+        });
+        server.start();
+    }
+
+    /**
+     * Registers a handler for a city name.
+     *
+     * @param aQuery A city name.
+     * @param aHandler A handler to serve the city name with.
+     */
+    public void serve(final String aQuery, final HttpHandler aHandler) {
+        handlers.put(aQuery, aHandler);
+    }
+
+    /**
+     * Registers utf-8 Json response for a city name.
+     *
+     * @param aQuery A city name.
+     * @param aJson Json to be served.
+     */
+    public void serve(final String aQuery, final String aJson) {
+        serve(aQuery, json(aJson.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Creates a handler, serving Json body.
+     *
+     * @param aBody Json body bytes.
+     * @return A handler serving Json body.
+     */
+    public static HttpHandler json(final byte[] aBody) {
+        return (HttpExchange aExchange) -> {
+            aExchange.getResponseHeaders().set("Content-Type", JSON_UTF_8);
+            aExchange.sendResponseHeaders(OK, aBody.length);
+            try (OutputStream out = aExchange.getResponseBody()) {
+                out.write(aBody);
+            }
+        };
+    }
+
+    /**
+     * Endpoint template getter.
+     *
+     * @return Endpoint template for {@code --endpoint} option.
+     */
+    public String getTemplate() {
+        return String.format("http://%s:%d%s%%s",
+                server.getAddress().getAddress().getHostAddress(),
+                server.getAddress().getPort(), PATH);
+    }
+
+    /**
+     * Endpoint option getter.
+     *
+     * @return {@code --endpoint} option, pointing to this stand-in.
+     */
+    public String getEndpointOption() {
+        return "--endpoint=" + getTemplate();
+    }
+
+    /**
+     * Number of served requests getter.
+     *
+     * @return Number of served requests.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Number of distinct connections getter.
+     *
+     * @return Number of distinct client connections seen.
+     */
+    public int getConnections() {
+        return clients.size();
+    }
+
+    /**
+     * Builds Json array with test cities.
+     *
+     * @param aFirstId Id of the first city.
+     * @param aNames Names of cities.
+     * @return Json array as a string.
+     */
+    public static String cities(final long aFirstId, final String... aNames) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < aNames.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format("{\"_id\": %d, \"name\": \"%s\","
+                    + " \"type\": \"location\", \"geo_position\":"
+                    + " {\"latitude\": 52.5, \"longitude\": 13.4}}",
+                    aFirstId + i, aNames[i]));
+        }
+        return json.append(']').toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    /**
+     * Http OK status.
+     */
+    public static final int OK = 200;
+    /**
+     * Http not found status.
+     */
+    public static final int NOT_FOUND = 404;
+}
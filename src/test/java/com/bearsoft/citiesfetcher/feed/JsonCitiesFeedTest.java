@@ -4,8 +4,10 @@ import com.bearsoft.citiesfetcher.model.PartialCityJsonException;
 import com.bearsoft.citiesfetcher.JsonCitiesFeed;
 import com.bearsoft.citiesfetcher.model.City;
 import com.fasterxml.jackson.core.io.JsonEOFException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
@@ -181,4 +183,57 @@ public final class JsonCitiesFeedTest {
         CitiesFeed feed = JsonCitiesFeed.create(new StringReader("["));
         feed.pull();
     }
+
+    /**
+     * This is test for {@code JsonCitiesFeed} with utf-8 bytes, parsed
+     * without a reader.
+     *
+     * @throws IOException if Json parser throws it.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test
+    public void whenUtf8Bytes() throws IOException,
+            PartialCityJsonException,
+            BadCitiesJsonException {
+        CitiesFeed feed = JsonCitiesFeed.create(new ByteArrayInputStream(
+                NON_ASCII_CITY.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8);
+        Optional<City> read = feed.pull();
+        assertEquals("Düsseldorf Köln", read.get().getName());
+        assertEquals("Ort", read.get().getType());
+        assertFalse(feed.pull().isPresent());
+    }
+
+    /**
+     * This is test for {@code JsonCitiesFeed} with non utf charset, decoded
+     * by a reader.
+     *
+     * @throws IOException if Json parser throws it.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test
+    public void whenLatin1Bytes() throws IOException,
+            PartialCityJsonException,
+            BadCitiesJsonException {
+        CitiesFeed feed = JsonCitiesFeed.create(new ByteArrayInputStream(
+                NON_ASCII_CITY.getBytes(StandardCharsets.ISO_8859_1)),
+                StandardCharsets.ISO_8859_1);
+        Optional<City> read = feed.pull();
+        assertEquals("Düsseldorf Köln", read.get().getName());
+        assertFalse(feed.pull().isPresent());
+    }
+
+    /**
+     * Json of a city with non ascii name.
+     */
+    private static final String NON_ASCII_CITY = ""
+            + "[{\"_id\": 45, \"name\": \"Düsseldorf Köln\","
+            + " \"type\": \"Ort\", \"geo_position\":"
+            + " {\"latitude\": 80.5, \"longitude\": 120.8}}]";
 }
@@ -0,0 +1,120 @@
+package com.bearsoft.citiesfetcher.feed;
+
+import com.bearsoft.citiesfetcher.model.City;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for {@code LongHashSet} and {@code DistinctCitiesFeed}.
+ *
+ * @author mg
+ */
+public final class LongHashSetTest {
+
+    /**
+     * Tests the set against {@code HashSet} with random, sequential and
+     * extreme values, forcing the table to grow.
+     */
+    @Test
+    public void whenManyValues() {
+        LongHashSet set = new LongHashSet(1);
+        Set<Long> reference = new HashSet<>();
+        Random random = new Random(SEED);
+        for (int i = 0; i < VALUES; i++) {
+            long value = i % 2 == 0 ? random.nextInt(VALUES) : i;
+            assertEquals(reference.add(value), set.add(value));
+        }
+        for (long value : new long[]{0, Long.MIN_VALUE, Long.MAX_VALUE, -1}) {
+            assertEquals(reference.contains(value), set.contains(value));
+            assertEquals(reference.add(value), set.add(value));
+            assertFalse(set.add(value));
+        }
+        assertEquals(reference.size(), set.size());
+        for (long value : reference) {
+            assertTrue(set.contains(value));
+        }
+        assertFalse(set.contains(VALUES * 2));
+        assertEquals(0, set.capacity() & set.capacity() - 1);
+    }
+
+    /**
+     * Tests, that a set, sized in advance, doesn't grow.
+     */
+    @Test
+    public void whenExpectedSize() {
+        LongHashSet set = new LongHashSet(VALUES);
+        int capacity = set.capacity();
+        for (long i = 1; i <= VALUES; i++) {
+            set.add(i * Integer.MAX_VALUE);
+        }
+        assertEquals(VALUES, set.size());
+        assertEquals(capacity, set.capacity());
+    }
+
+    /**
+     * Tests, that feeds, sharing a set of ids, drop duplicates across each
+     * other.
+     *
+     * @throws Exception if a feed throws it.
+     */
+    @Test
+    public void whenDistinctFeeds() throws Exception {
+        LongHashSet ids = new LongHashSet();
+        DistinctCitiesFeed first = new DistinctCitiesFeed(feed(1, 2, 2, 3),
+                ids);
+        assertEquals(Arrays.asList(1L, 2L, 3L), drain(first));
+        assertEquals(1, first.getDropped());
+        DistinctCitiesFeed second = new DistinctCitiesFeed(feed(3, 4, 1),
+                ids);
+        assertEquals(Arrays.asList(4L), drain(second));
+        assertEquals(2, second.getDropped());
+    }
+
+    /**
+     * Creates a feed of cities with given ids.
+     *
+     * @param aIds Ids of cities.
+     * @return A feed of cities.
+     */
+    private static CitiesFeed feed(final long... aIds) {
+        Iterator<Long> ids = Arrays.stream(aIds).boxed().iterator();
+        return () -> ids.hasNext() ? Optional.of(new City(ids.next(), "City",
+                null, 0, 0)) : Optional.empty();
+    }
+
+    /**
+     * Pulls ids of all cities from a feed.
+     *
+     * @param aFeed A feed to be drained.
+     * @return Ids of pulled cities.
+     * @throws Exception if the feed throws it.
+     */
+    private static List<Long> drain(final CitiesFeed aFeed)
+            throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (Optional<City> city = aFeed.pull(); city.isPresent();
+                city = aFeed.pull()) {
+            ids.add(city.get().getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Number of test values.
+     */
+    private static final int VALUES = 100000;
+    /**
+     * Random seed.
+     */
+    private static final long SEED = 42;
+}
@@ -0,0 +1,209 @@
+package com.bearsoft.citiesfetcher.geo;
+
+import com.bearsoft.citiesfetcher.JsonCitiesFeed;
+import com.bearsoft.citiesfetcher.model.City;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for {@code KdTree}. It checks results of the tree against a
+ * linear scan.
+ *
+ * @author mg
+ */
+public final class KdTreeTest {
+
+    /**
+     * Generates cities, spread over the globe, with some of them at the same
+     * place.
+     *
+     * @return Generated cities.
+     */
+    private static List<City> cities() {
+        Random random = new Random(SEED);
+        List<City> cities = new ArrayList<>();
+        for (int i = 0; i < CITIES_COUNT; i++) {
+            cities.add(new City(i, "City " + i, null,
+                    random.nextDouble() * 2 * MAX_LATITUDE - MAX_LATITUDE,
+                    random.nextDouble() * 2 * MAX_LONGITUDE - MAX_LONGITUDE));
+        }
+        for (int i = 0; i < DUPLICATES_COUNT; i++) {
+            cities.add(new City(CITIES_COUNT + i, "Same place", null,
+                    BERLIN_LATITUDE, BERLIN_LONGITUDE));
+        }
+        return cities;
+    }
+
+    /**
+     * Orders cities by distance to a point with a linear scan.
+     *
+     * @param aCities Cities to be scanned.
+     * @param aLatitude Latitude of the point.
+     * @param aLongitude Longitude of the point.
+     * @return Distances to cities in ascending order.
+     */
+    private static List<Double> scan(final List<City> aCities,
+            final double aLatitude, final double aLongitude) {
+        return aCities.stream()
+                .map(city -> distance(city, aLatitude, aLongitude))
+                .sorted(Comparator.naturalOrder())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Calculates distance from a city to a point.
+     *
+     * @param aCity A city.
+     * @param aLatitude Latitude of the point.
+     * @param aLongitude Longitude of the point.
+     * @return Distance in kilometres.
+     */
+    private static double distance(final City aCity, final double aLatitude,
+            final double aLongitude) {
+        return KdTree.distance(aCity.getLatitude(), aCity.getlongitude(),
+                aLatitude, aLongitude);
+    }
+
+    /**
+     * Tests nearest cities against a linear scan, including points near the
+     * poles and the antimeridian.
+     */
+    @Test
+    public void whenNearest() {
+        List<City> cities = cities();
+        KdTree tree = new KdTree(cities);
+        assertEquals(cities.size(), tree.size());
+        double[][] points = {{BERLIN_LATITUDE, BERLIN_LONGITUDE},
+            {0, MAX_LONGITUDE}, {0, -MAX_LONGITUDE + 0.1}, {MAX_LATITUDE, 0},
+            {-89.9, 45}, {-33.9, 151.2}};
+        for (double[] point : points) {
+            List<Double> expected = scan(cities, point[0], point[1]);
+            List<City> nearest = tree.nearest(point[0], point[1], NEAREST);
+            assertEquals(NEAREST, nearest.size());
+            for (int i = 0; i < NEAREST; i++) {
+                assertEquals(expected.get(i), distance(nearest.get(i),
+                        point[0], point[1]), DELTA);
+            }
+        }
+        assertEquals(cities.size(), tree.nearest(0, 0,
+                cities.size() * 2).size());
+        assertTrue(tree.nearest(0, 0, 0).isEmpty());
+    }
+
+    /**
+     * Tests cities within radius against a linear scan.
+     */
+    @Test
+    public void whenWithin() {
+        List<City> cities = cities();
+        KdTree tree = new KdTree(cities);
+        Random random = new Random(SEED);
+        for (int i = 0; i < QUERIES_COUNT; i++) {
+            double latitude = random.nextDouble() * 2 * MAX_LATITUDE
+                    - MAX_LATITUDE;
+            double longitude = random.nextDouble() * 2 * MAX_LONGITUDE
+                    - MAX_LONGITUDE;
+            double radius = random.nextDouble() * MAX_RADIUS;
+            List<Double> expected = scan(cities, latitude, longitude)
+                    .stream().filter(d -> d <= radius)
+                    .collect(Collectors.toList());
+            List<City> within = tree.within(latitude, longitude, radius);
+            assertEquals(expected.size(), within.size());
+            for (int j = 0; j < within.size(); j++) {
+                assertEquals(expected.get(j), distance(within.get(j),
+                        latitude, longitude), DELTA);
+            }
+        }
+        assertEquals(DUPLICATES_COUNT, tree.within(BERLIN_LATITUDE,
+                BERLIN_LONGITUDE, 0).size());
+        assertEquals(cities.size(), tree.within(0, 0,
+                Math.PI * KdTree.EARTH_RADIUS).size());
+    }
+
+    /**
+     * Tests a tree, built from a feed.
+     *
+     * @throws Exception if the feed throws it.
+     */
+    @Test
+    public void whenBuiltFromFeed() throws Exception {
+        KdTree tree = KdTree.build(JsonCitiesFeed.create(new StringReader(""
+                + "[{\"_id\": 1, \"name\": \"Berlin\", \"geo_position\":"
+                + " {\"latitude\": 52.52, \"longitude\": 13.405}},"
+                + "{\"_id\": 2, \"name\": \"Potsdam\", \"geo_position\":"
+                + " {\"latitude\": 52.391, \"longitude\": 13.064}},"
+                + "{\"_id\": 3, \"name\": \"Munich\", \"geo_position\":"
+                + " {\"latitude\": 48.137, \"longitude\": 11.575}}]")));
+        List<City> within = tree.within(BERLIN_LATITUDE, BERLIN_LONGITUDE,
+                POTSDAM_RADIUS);
+        assertEquals(2, within.size());
+        assertEquals("Berlin", within.get(0).getName());
+        assertEquals("Potsdam", within.get(1).getName());
+        assertEquals("Munich", tree.nearest(MUNICH_LATITUDE,
+                MUNICH_LONGITUDE, 1).get(0).getName());
+    }
+
+    /**
+     * Random seed.
+     */
+    private static final long SEED = 42;
+    /**
+     * Number of random cities.
+     */
+    private static final int CITIES_COUNT = 20000;
+    /**
+     * Number of cities at the same place.
+     */
+    private static final int DUPLICATES_COUNT = 5;
+    /**
+     * Number of random radius queries.
+     */
+    private static final int QUERIES_COUNT = 50;
+    /**
+     * Number of nearest cities to be found.
+     */
+    private static final int NEAREST = 25;
+    /**
+     * Maximum radius of random queries in kilometres.
+     */
+    private static final double MAX_RADIUS = 1500;
+    /**
+     * Radius around Berlin, covering Potsdam.
+     */
+    private static final double POTSDAM_RADIUS = 30;
+    /**
+     * Tolerance of distances in kilometres.
+     */
+    private static final double DELTA = 1e-6;
+    /**
+     * Maximum latitude.
+     */
+    private static final double MAX_LATITUDE = 90;
+    /**
+     * Maximum longitude.
+     */
+    private static final double MAX_LONGITUDE = 180;
+    /**
+     * Latitude of Berlin.
+     */
+    private static final double BERLIN_LATITUDE = 52.52;
+    /**
+     * Longitude of Berlin.
+     */
+    private static final double BERLIN_LONGITUDE = 13.405;
+    /**
+     * Latitude of Munich.
+     */
+    private static final double MUNICH_LATITUDE = 48.1;
+    /**
+     * Longitude of Munich.
+     */
+    private static final double MUNICH_LONGITUDE = 11.6;
+}
@@ -0,0 +1,4 @@
+/**
+ * Contains tests for spatial index of cities.
+ */
+package com.bearsoft.citiesfetcher.geo;
@@ -0,0 +1,245 @@
+package com.bearsoft.citiesfetcher.http;
+
+import com.bearsoft.citiesfetcher.StubEndpoint;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test suite for {@code CachingTransport}.
+ *
+ * @author mg
+ */
+public final class CachingTransportTest {
+
+    /**
+     * Temporary folder for cache directories.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reads a response body to the end.
+     *
+     * @param aResponse A response to read.
+     * @return Body as a string.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static String read(final Response aResponse) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = aResponse.getBody()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read = in.read(buffer);
+            while (read != -1) {
+                body.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Performs a request and reads the body.
+     *
+     * @param aTransport A transport to perform the request with.
+     * @param aEndpoint Stand-in endpoint.
+     * @param aQuery A city name.
+     * @return Body as a string.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static String get(final Transport aTransport,
+            final StubEndpoint aEndpoint, final String aQuery)
+            throws IOException {
+        try (Response response = aTransport.get(new URL(String.format(
+                aEndpoint.getTemplate(), aQuery)), Collections.emptyMap())) {
+            assertEquals(Http.OK, response.getStatus());
+            return read(response);
+        }
+    }
+
+    /**
+     * Creates a caching transport over a pooled one.
+     *
+     * @param aDirectory Cache directory.
+     * @param aTtl Time to live in millis.
+     * @param aMaxSize Maximum size of the cache.
+     * @return New transport.
+     * @throws IOException if the cache can't be loaded.
+     */
+    private static CachingTransport transport(final File aDirectory,
+            final long aTtl, final long aMaxSize) throws IOException {
+        return new CachingTransport(new PooledTransport(
+                new ConnectionPool(1, TIMEOUT), TIMEOUT, TIMEOUT),
+                aDirectory, aTtl, aMaxSize);
+    }
+
+    /**
+     * Tests, that fresh entries are served without network access, also
+     * after restart.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenFresh() throws IOException {
+        File directory = folder.newFolder();
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            try (CachingTransport transport = transport(directory, TIMEOUT,
+                    MAX_SIZE)) {
+                assertEquals(JSON, get(transport, endpoint, "Berlin"));
+                assertEquals(JSON, get(transport, endpoint, "Berlin"));
+                assertEquals(1, transport.getMisses());
+                assertEquals(1, transport.getHits());
+            }
+            try (CachingTransport transport = transport(directory, TIMEOUT,
+                    MAX_SIZE)) {
+                assertEquals(JSON, get(transport, endpoint, "Berlin"));
+                assertEquals(1, transport.getHits());
+            }
+            assertEquals(1, endpoint.getRequests());
+        }
+    }
+
+    /**
+     * Tests revalidation of stale entries with 'ETag' and 'Last-Modified'
+     * validators.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenStale() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                CachingTransport transport = transport(folder.newFolder(), 0,
+                        MAX_SIZE)) {
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                if (ETAG.equals(aExchange.getRequestHeaders()
+                        .getFirst(CachingTransport.IF_NONE_MATCH))) {
+                    aExchange.sendResponseHeaders(Http.NOT_MODIFIED, -1);
+                } else {
+                    aExchange.getResponseHeaders().set(CachingTransport.ETAG,
+                            ETAG);
+                    StubEndpoint.json(JSON.getBytes(StandardCharsets.UTF_8))
+                            .handle(aExchange);
+                }
+            });
+            endpoint.serve("Paris", (HttpExchange aExchange) -> {
+                if (LAST_MODIFIED.equals(aExchange.getRequestHeaders()
+                        .getFirst(CachingTransport.IF_MODIFIED_SINCE))) {
+                    aExchange.sendResponseHeaders(Http.NOT_MODIFIED, -1);
+                } else {
+                    aExchange.getResponseHeaders().set(
+                            CachingTransport.LAST_MODIFIED, LAST_MODIFIED);
+                    StubEndpoint.json(JSON.getBytes(StandardCharsets.UTF_8))
+                            .handle(aExchange);
+                }
+            });
+            for (String query : new String[]{"Berlin", "Paris"}) {
+                for (int i = 0; i < REQUESTS; i++) {
+                    assertEquals(JSON, get(transport, endpoint, query));
+                }
+            }
+            assertEquals(2, transport.getMisses());
+            assertEquals(2 * (REQUESTS - 1), transport.getHits());
+            assertEquals(2 * (REQUESTS - 1), transport.getRevalidations());
+            assertEquals(2 * REQUESTS, endpoint.getRequests());
+        }
+    }
+
+    /**
+     * Tests, that least recently used entries are evicted when the cache is
+     * too large.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenTooLarge() throws IOException {
+        File directory = folder.newFolder();
+        try (StubEndpoint endpoint = new StubEndpoint()) {
+            endpoint.serve("Berlin", JSON);
+            endpoint.serve("Moscow", JSON);
+            endpoint.serve("Madrid", JSON);
+            long entrySize;
+            try (CachingTransport transport = transport(folder.newFolder(),
+                    TIMEOUT, MAX_SIZE)) {
+                get(transport, endpoint, "Berlin");
+                entrySize = transport.getSize();
+            }
+            try (CachingTransport transport = transport(directory, TIMEOUT,
+                    entrySize * 2 + entrySize / 2)) {
+                get(transport, endpoint, "Berlin");
+                get(transport, endpoint, "Moscow");
+                get(transport, endpoint, "Berlin");
+                get(transport, endpoint, "Madrid");
+                assertEquals(entrySize * 2, transport.getSize());
+                assertEquals(2 * 2, directory.list().length);
+                get(transport, endpoint, "Madrid");
+                get(transport, endpoint, "Moscow");
+                assertEquals(2, transport.getHits());
+                assertEquals(2 * 2, transport.getMisses());
+            }
+        }
+    }
+
+    /**
+     * Tests, that a body, closed before its end, is not cached.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenClosedBeforeEnd() throws IOException {
+        File directory = folder.newFolder();
+        try (StubEndpoint endpoint = new StubEndpoint();
+                CachingTransport transport = transport(directory, TIMEOUT,
+                        MAX_SIZE)) {
+            endpoint.serve("Berlin", StubEndpoint.json(
+                    new byte[BUFFER_SIZE * BUFFER_SIZE]));
+            try (Response response = transport.get(new URL(String.format(
+                    endpoint.getTemplate(), "Berlin")),
+                    Collections.emptyMap())) {
+                assertEquals(0, response.getBody().read());
+            }
+            assertEquals(0, transport.getSize());
+            assertEquals(0, directory.list().length);
+        }
+    }
+
+    /**
+     * Test Json.
+     */
+    private static final String JSON = StubEndpoint.cities(1, "Berlin",
+            "Berlin Mitte", "Berlin Tegel");
+    /**
+     * Test entity tag.
+     */
+    private static final String ETAG = "\"v1\"";
+    /**
+     * Test last modification date.
+     */
+    private static final String LAST_MODIFIED
+            = "Fri, 01 Jul 2016 12:00:00 GMT";
+    /**
+     * Test timeouts and time to live in millis.
+     */
+    private static final int TIMEOUT = 10000;
+    /**
+     * Number of requests in a test.
+     */
+    private static final int REQUESTS = 3;
+    /**
+     * Generous cache size.
+     */
+    private static final long MAX_SIZE = 1024 * 1024;
+    /**
+     * Read buffer size.
+     */
+    private static final int BUFFER_SIZE = 1024;
+}
@@ -0,0 +1,84 @@
+package com.bearsoft.citiesfetcher.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test suite for {@code ChunkedInputStream}.
+ *
+ * @author mg
+ */
+public final class ChunkedInputStreamTest {
+
+    /**
+     * Decodes a chunked body.
+     *
+     * @param aChunked The chunked body.
+     * @return Decoded body as a string.
+     * @throws IOException if chunks are malformed.
+     */
+    private static String decode(final String aChunked) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = new ChunkedInputStream(new ByteArrayInputStream(
+                aChunked.getBytes(StandardCharsets.US_ASCII)))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read = in.read(buffer);
+            while (read != -1) {
+                body.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Tests decoding of chunks with extensions and trailers.
+     *
+     * @throws IOException if chunks are rejected.
+     */
+    @Test
+    public void whenChunked() throws IOException {
+        assertEquals("Berlin Mitte", decode("6;name=value\r\nBerlin\r\n"
+                + "6\r\n Mitte\r\n0\r\nX-Trailer: 1\r\n\r\n"));
+    }
+
+    /**
+     * Tests, that a negative chunk size is rejected.
+     *
+     * @throws IOException if chunks are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void whenNegativeSize() throws IOException {
+        decode("-5\r\nBerlin\r\n0\r\n\r\n");
+    }
+
+    /**
+     * Tests, that a signed chunk size is rejected.
+     *
+     * @throws IOException if chunks are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void whenSignedSize() throws IOException {
+        decode("+6\r\nBerlin\r\n0\r\n\r\n");
+    }
+
+    /**
+     * Tests, that a chunk size, missing before extensions, is rejected.
+     *
+     * @throws IOException if chunks are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void whenExtensionWithoutSize() throws IOException {
+        decode(";name=value\r\nBerlin\r\n0\r\n\r\n");
+    }
+
+    /**
+     * Size of a read buffer.
+     */
+    private static final int BUFFER_SIZE = 4;
+}
@@ -0,0 +1,175 @@
+package com.bearsoft.citiesfetcher.http;
+
+import com.bearsoft.citiesfetcher.StubEndpoint;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for {@code LimitingTransport} and {@code AdaptiveLimiter}.
+ *
+ * @author mg
+ */
+public final class LimitingTransportTest {
+
+    /**
+     * Creates a limiting transport over a pooled one.
+     *
+     * @param aLimiter Limiter of concurrent requests or null.
+     * @param aRps Maximum number of requests per second or 0.
+     * @return New transport.
+     */
+    private static LimitingTransport transport(final AdaptiveLimiter aLimiter,
+            final int aRps) {
+        return new LimitingTransport(new PooledTransport(
+                new ConnectionPool(CONNECTIONS, TIMEOUT), TIMEOUT, TIMEOUT),
+                aLimiter, aRps);
+    }
+
+    /**
+     * Tests, that the limit grows while it is in use and responses are
+     * fast, and decreases after a drop or a slow response.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    @Test
+    public void whenLimiterAdjusts() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 3);
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(MILLI, false);
+        limiter.release(MILLI, false);
+        assertEquals(3, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(MILLI, true);
+        assertEquals(2, limiter.getLimit());
+        // 2.7 decreases below 2 after three slow requests.
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+            limiter.release(MILLI * 10, false);
+        }
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * Tests, that server errors decrease the limit and the number of
+     * requests in flight doesn't exceed it.
+     *
+     * @throws Exception if a request fails.
+     */
+    @Test
+    public void whenServerOverloaded() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        AdaptiveLimiter limiter = new AdaptiveLimiter(THREADS, THREADS);
+        try (StubEndpoint endpoint = new StubEndpoint();
+                LimitingTransport transport = transport(limiter, 0)) {
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(),
+                        Math::max);
+                try {
+                    Thread.sleep(DELAY);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                aExchange.sendResponseHeaders(SERVICE_UNAVAILABLE, -1);
+            });
+            URL url = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                statuses.add(executor.submit(() -> {
+                    try (Response response = transport.get(url,
+                            Collections.emptyMap())) {
+                        return response.getStatus();
+                    }
+                }));
+            }
+            for (Future<Integer> status : statuses) {
+                assertEquals(SERVICE_UNAVAILABLE, (int) status.get(TIMEOUT,
+                        TimeUnit.MILLISECONDS));
+            }
+            assertTrue(transport.getLimit() < THREADS);
+            assertEquals(REQUESTS, transport.getDrops());
+            assertTrue(maxInFlight.get() <= THREADS);
+            assertTrue(transport.getQueueNanos() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests, that requests are spaced by the rate limit.
+     *
+     * @throws IOException if a request fails.
+     */
+    @Test
+    public void whenRateLimited() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                LimitingTransport transport = transport(null, RPS)) {
+            endpoint.serve("Berlin", StubEndpoint.json("[]".getBytes(
+                    StandardCharsets.UTF_8)));
+            URL url = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            long started = System.nanoTime();
+            for (int i = 0; i < RPS / 2 + 1; i++) {
+                transport.get(url, Collections.emptyMap()).close();
+            }
+            assertTrue(System.nanoTime() - started
+                    >= TimeUnit.MILLISECONDS.toNanos(MIN_ELAPSED));
+            assertEquals(0, transport.getLimit());
+        }
+    }
+
+    /**
+     * Number of client threads.
+     */
+    private static final int THREADS = 8;
+    /**
+     * Number of concurrent requests.
+     */
+    private static final int REQUESTS = 32;
+    /**
+     * Maximum number of pooled connections.
+     */
+    private static final int CONNECTIONS = 16;
+    /**
+     * Http timeouts in millis.
+     */
+    private static final int TIMEOUT = 10000;
+    /**
+     * Delay of a server response in millis.
+     */
+    private static final long DELAY = 20;
+    /**
+     * Requests per second of the rate limit.
+     */
+    private static final int RPS = 20;
+    /**
+     * Minimal time of half a second of rate limited requests in millis.
+     */
+    private static final long MIN_ELAPSED = 450;
+    /**
+     * Nanos in a milli.
+     */
+    private static final long MILLI = 1000000;
+    /**
+     * Http service unavailable status code.
+     */
+    private static final int SERVICE_UNAVAILABLE = 503;
+}
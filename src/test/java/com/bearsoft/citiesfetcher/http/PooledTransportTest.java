@@ -0,0 +1,191 @@
+package com.bearsoft.citiesfetcher.http;
+
+import com.bearsoft.citiesfetcher.StubEndpoint;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test suite for {@code PooledTransport}.
+ *
+ * @author mg
+ */
+public final class PooledTransportTest {
+
+    /**
+     * Reads a response body to the end.
+     *
+     * @param aResponse A response to read.
+     * @return Body as a string.
+     * @throws IOException if a problem with IO occurs.
+     */
+    private static String read(final Response aResponse) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = aResponse.getBody()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read = in.read(buffer);
+            while (read != -1) {
+                body.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a transport with test settings.
+     *
+     * @param aIdleTimeout Idle timeout in millis.
+     * @return New transport.
+     */
+    private static PooledTransport transport(final long aIdleTimeout) {
+        return new PooledTransport(new ConnectionPool(2, aIdleTimeout),
+                TIMEOUT, TIMEOUT);
+    }
+
+    /**
+     * Tests, that sequential requests reuse single warm connection.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenSequentialRequests() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                PooledTransport transport = transport(TIMEOUT)) {
+            endpoint.serve("Berlin", "[]");
+            URL url = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            for (int i = 0; i < REQUESTS; i++) {
+                try (Response response = transport.get(url,
+                        Collections.emptyMap())) {
+                    assertEquals(Http.OK, response.getStatus());
+                    assertEquals(StubEndpoint.JSON_UTF_8, response
+                            .getHeader("content-type").get());
+                    assertEquals("[]", read(response));
+                }
+            }
+            assertEquals(REQUESTS, endpoint.getRequests());
+            assertEquals(1, endpoint.getConnections());
+            assertEquals(1, transport.getPool().getIdleCount());
+        }
+    }
+
+    /**
+     * Tests chunked responses and connection reuse after them.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenChunkedResponses() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                PooledTransport transport = transport(TIMEOUT)) {
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                aExchange.sendResponseHeaders(StubEndpoint.OK, 0);
+                try (OutputStream out = aExchange.getResponseBody()) {
+                    for (int i = 0; i < REQUESTS; i++) {
+                        out.write("chunk".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                }
+            });
+            URL url = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            for (int i = 0; i < 2; i++) {
+                try (Response response = transport.get(url,
+                        Collections.emptyMap())) {
+                    assertEquals("chunkchunkchunkchunkchunk", read(response));
+                }
+            }
+            assertEquals(1, endpoint.getConnections());
+        }
+    }
+
+    /**
+     * Tests, that idle connections are evicted.
+     *
+     * @throws IOException if a problem with IO occurs.
+     * @throws InterruptedException if the test is interrupted.
+     */
+    @Test
+    public void whenIdleTooLong() throws IOException, InterruptedException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                PooledTransport transport = transport(1)) {
+            endpoint.serve("Berlin", "[]");
+            URL url = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            try (Response response = transport.get(url,
+                    Collections.emptyMap())) {
+                read(response);
+            }
+            assertEquals(1, transport.getPool().getIdleCount());
+            Thread.sleep(2);
+            transport.getPool().evictExpired();
+            assertEquals(0, transport.getPool().getIdleCount());
+        }
+    }
+
+    /**
+     * Tests, that response, closed before end of body, doesn't return its
+     * connection to the pool.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenClosedBeforeEnd() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                PooledTransport transport = transport(TIMEOUT)) {
+            endpoint.serve("Berlin", StubEndpoint.json(
+                    new byte[BUFFER_SIZE * BUFFER_SIZE]));
+            URL url = new URL(String.format(endpoint.getTemplate(),
+                    "Berlin"));
+            try (Response response = transport.get(url,
+                    Collections.emptyMap())) {
+                assertEquals(0, response.getBody().read());
+            }
+            assertEquals(0, transport.getPool().getIdleCount());
+        }
+    }
+
+    /**
+     * Tests read timeout.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test(expected = SocketTimeoutException.class)
+    public void whenSlowServer() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                PooledTransport transport = new PooledTransport(
+                        new ConnectionPool(1, TIMEOUT), TIMEOUT, 1)) {
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                try {
+                    Thread.sleep(TIMEOUT);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            transport.get(new URL(String.format(endpoint.getTemplate(),
+                    "Berlin")), Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Test timeouts in millis.
+     */
+    private static final int TIMEOUT = 1000;
+    /**
+     * Number of requests in a test.
+     */
+    private static final int REQUESTS = 5;
+    /**
+     * Read buffer size.
+     */
+    private static final int BUFFER_SIZE = 1024;
+}
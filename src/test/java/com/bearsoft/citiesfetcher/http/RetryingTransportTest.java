@@ -0,0 +1,286 @@
+package com.bearsoft.citiesfetcher.http;
+
+import com.bearsoft.citiesfetcher.StubEndpoint;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test suite for {@code RetryingTransport}.
+ *
+ * @author mg
+ */
+public final class RetryingTransportTest {
+
+    /**
+     * Creates a retrying transport over a pooled one.
+     *
+     * @param aHedge Flag of hedging.
+     * @return New transport.
+     */
+    private static RetryingTransport transport(final boolean aHedge) {
+        return new RetryingTransport(new PooledTransport(
+                new ConnectionPool(2, TIMEOUT), TIMEOUT, TIMEOUT),
+                ATTEMPTS, BACKOFF, aHedge);
+    }
+
+    /**
+     * Serves a status for a number of requests and cities after them.
+     *
+     * @param aEndpoint An endpoint to serve with.
+     * @param aStatus A status to respond with.
+     * @param aTimes Number of requests to respond with the status.
+     */
+    private static void serve(final StubEndpoint aEndpoint, final int aStatus,
+            final int aTimes) {
+        AtomicInteger served = new AtomicInteger();
+        aEndpoint.serve("Berlin", (HttpExchange aExchange) -> {
+            if (served.getAndIncrement() < aTimes) {
+                aExchange.sendResponseHeaders(aStatus, -1);
+            } else {
+                StubEndpoint.json("[]".getBytes(StandardCharsets.UTF_8))
+                        .handle(aExchange);
+            }
+        });
+    }
+
+    /**
+     * Tests, that server errors are retried.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenServerErrors() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                RetryingTransport transport = transport(false)) {
+            serve(endpoint, SERVICE_UNAVAILABLE, ATTEMPTS - 1);
+            try (Response response = transport.get(url(endpoint),
+                    Collections.emptyMap())) {
+                assertEquals(Http.OK, response.getStatus());
+            }
+            assertEquals(ATTEMPTS, endpoint.getRequests());
+            assertEquals(ATTEMPTS - 1, transport.getRetries());
+        }
+    }
+
+    /**
+     * Tests, that the last server error is returned if all attempts failed.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenAttemptsExhausted() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                RetryingTransport transport = transport(false)) {
+            serve(endpoint, SERVICE_UNAVAILABLE, ATTEMPTS);
+            try (Response response = transport.get(url(endpoint),
+                    Collections.emptyMap())) {
+                assertEquals(SERVICE_UNAVAILABLE, response.getStatus());
+            }
+            assertEquals(ATTEMPTS, endpoint.getRequests());
+        }
+    }
+
+    /**
+     * Tests, that client errors are not retried.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenClientError() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                RetryingTransport transport = transport(false)) {
+            try (Response response = transport.get(url(endpoint),
+                    Collections.emptyMap())) {
+                assertEquals(StubEndpoint.NOT_FOUND, response.getStatus());
+            }
+            assertEquals(1, endpoint.getRequests());
+            assertEquals(0, transport.getRetries());
+        }
+    }
+
+    /**
+     * Tests, that connection errors are retried and the last one is thrown.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenConnectionRefused() throws IOException {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+        try (RetryingTransport transport = transport(false)) {
+            transport.get(new URL("http", InetAddress.getLoopbackAddress()
+                    .getHostAddress(), port, "/suggest/Berlin"),
+                    Collections.emptyMap()).close();
+            fail("Connection should be refused");
+        } catch (IOException ex) {
+            // Refused after all attempts.
+        }
+    }
+
+    /**
+     * Tests, that a slow request is hedged and the fast duplicate wins.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenSlowResponse() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                RetryingTransport transport = transport(true)) {
+            AtomicBoolean slow = new AtomicBoolean();
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                if (slow.getAndSet(false)) {
+                    try {
+                        Thread.sleep(SLOW);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                StubEndpoint.json("[]".getBytes(StandardCharsets.UTF_8))
+                        .handle(aExchange);
+            });
+            URL url = url(endpoint);
+            for (int i = 0; i < WARM_UP; i++) {
+                transport.get(url, Collections.emptyMap()).close();
+            }
+            // Warm up requests, slower than 95 percentile, may be hedged.
+            long hedges = transport.getHedges();
+            slow.set(true);
+            long started = System.currentTimeMillis();
+            try (Response response = transport.get(url,
+                    Collections.emptyMap())) {
+                assertEquals(Http.OK, response.getStatus());
+            }
+            assertTrue(System.currentTimeMillis() - started < SLOW);
+            assertEquals(hedges + 1, transport.getHedges());
+            assertEquals(0, transport.getRetries());
+        }
+    }
+
+    /**
+     * Tests, that a read timeout is retried.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenReadTimeout() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                RetryingTransport transport = new RetryingTransport(
+                        new PooledTransport(new ConnectionPool(2, TIMEOUT),
+                                TIMEOUT, SHORT_TIMEOUT), ATTEMPTS, BACKOFF,
+                        false)) {
+            AtomicInteger served = new AtomicInteger();
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                if (served.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(SHORT_TIMEOUT * 2);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                StubEndpoint.json("[]".getBytes(StandardCharsets.UTF_8))
+                        .handle(aExchange);
+            });
+            try (Response response = transport.get(url(endpoint),
+                    Collections.emptyMap())) {
+                assertEquals(Http.OK, response.getStatus());
+            }
+            assertEquals(1, transport.getRetries());
+        }
+    }
+
+    /**
+     * Tests, that a fast server error of a duplicate request doesn't win
+     * over a slow successful response.
+     *
+     * @throws IOException if a problem with IO occurs.
+     */
+    @Test
+    public void whenHedgeFailsFast() throws IOException {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                RetryingTransport transport = new RetryingTransport(
+                        new PooledTransport(new ConnectionPool(2, TIMEOUT),
+                                TIMEOUT, TIMEOUT), 1, BACKOFF, true)) {
+            AtomicInteger served = new AtomicInteger();
+            endpoint.serve("Berlin", (HttpExchange aExchange) -> {
+                int request = served.get() > 0 ? served.getAndIncrement() : 0;
+                if (request == 1) {
+                    try {
+                        Thread.sleep(SHORT_TIMEOUT * 2);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else if (request == 2) {
+                    aExchange.sendResponseHeaders(SERVICE_UNAVAILABLE, -1);
+                    return;
+                }
+                StubEndpoint.json("[]".getBytes(StandardCharsets.UTF_8))
+                        .handle(aExchange);
+            });
+            URL url = url(endpoint);
+            for (int i = 0; i < WARM_UP; i++) {
+                transport.get(url, Collections.emptyMap()).close();
+            }
+            long hedges = transport.getHedges();
+            served.set(1);
+            try (Response response = transport.get(url,
+                    Collections.emptyMap())) {
+                assertEquals(Http.OK, response.getStatus());
+            }
+            assertEquals(hedges + 1, transport.getHedges());
+        }
+    }
+
+    /**
+     * Builds an url of the test endpoint.
+     *
+     * @param aEndpoint The endpoint.
+     * @return Url of 'Berlin' query.
+     * @throws IOException if the url is malformed.
+     */
+    private static URL url(final StubEndpoint aEndpoint) throws IOException {
+        return new URL(String.format(aEndpoint.getTemplate(), "Berlin"));
+    }
+
+    /**
+     * Maximum number of attempts.
+     */
+    private static final int ATTEMPTS = 3;
+    /**
+     * Base backoff delay in millis.
+     */
+    private static final long BACKOFF = 1;
+    /**
+     * Http timeouts in millis.
+     */
+    private static final int TIMEOUT = 10000;
+    /**
+     * Short read timeout in millis.
+     */
+    private static final int SHORT_TIMEOUT = 500;
+    /**
+     * Http service unavailable status code.
+     */
+    private static final int SERVICE_UNAVAILABLE = 503;
+    /**
+     * Number of requests, observed before hedging.
+     */
+    private static final int WARM_UP = 30;
+    /**
+     * Delay of a slow response in millis.
+     */
+    private static final long SLOW = 3000;
+}
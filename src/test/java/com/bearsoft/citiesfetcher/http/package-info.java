@@ -0,0 +1,4 @@
+/**
+ * Contains tests for http transport.
+ */
+package com.bearsoft.citiesfetcher.http;
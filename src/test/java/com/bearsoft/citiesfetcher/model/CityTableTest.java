@@ -0,0 +1,141 @@
+package com.bearsoft.citiesfetcher.model;
+
+import com.bearsoft.citiesfetcher.CsvWriter;
+import com.bearsoft.citiesfetcher.JsonCitiesFeed;
+import com.bearsoft.citiesfetcher.feed.BadCitiesJsonException;
+import com.bearsoft.citiesfetcher.feed.CitiesFeed;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test suite for {@code CityTable}.
+ *
+ * @author mg
+ */
+public final class CityTableTest {
+
+    /**
+     * Tests growth of columns, dictionary encoding and flyweight rows.
+     */
+    @Test
+    public void whenManyRows() {
+        CityTable table = new CityTable(1);
+        for (int i = 0; i < ROWS; i++) {
+            table.add(i, NAMES[i % NAMES.length], i % 2 == 0 ? "location"
+                    : null, i / 2d, -i / 2d);
+        }
+        assertEquals(ROWS, table.size());
+        assertEquals(NAMES.length, table.getDistinctNames());
+        assertEquals(1, table.getDistinctTypes());
+        CityTable.Row row = table.row();
+        for (int i = 0; i < ROWS; i++) {
+            assertSame(row, row.moveTo(i));
+            assertEquals(i, row.getId());
+            assertEquals(NAMES[i % NAMES.length], row.getName());
+            assertEquals(i % 2 == 0 ? "location" : null, row.getType());
+            assertEquals(i / 2d, row.getLatitude(), 0);
+            assertEquals(-i / 2d, row.getlongitude(), 0);
+        }
+        assertNull(table.getType(1));
+        assertEquals(table.getName(0), table.get(NAMES.length).getName());
+    }
+
+    /**
+     * Tests, that rows out of the table are rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void whenRowOutOfTable() {
+        CityTable table = new CityTable();
+        table.add(1, "Berlin", null, 0, 0);
+        table.row().moveTo(1);
+    }
+
+    /**
+     * Tests filling of a table by {@code JsonCitiesFeed} and reading it back
+     * with a feed and as CSV.
+     *
+     * @throws IOException if Json parser throws it.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test
+    public void whenFilledByJsonFeed() throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        CityTable table = new CityTable();
+        assertEquals(2, JsonCitiesFeed.create(new StringReader(JSON))
+                .drainTo(table));
+        assertEquals(2, table.size());
+        assertEquals(1, table.getDistinctTypes());
+
+        ByteArrayOutputStream fromTable = new ByteArrayOutputStream();
+        try (CsvWriter csv = new CsvWriter(fromTable)) {
+            for (int i = 0; i < table.size(); i++) {
+                csv.write(table, i);
+            }
+        }
+        ByteArrayOutputStream fromCities = new ByteArrayOutputStream();
+        try (CsvWriter csv = new CsvWriter(fromCities)) {
+            CitiesFeed feed = JsonCitiesFeed.create(new StringReader(JSON));
+            for (Optional<City> city = feed.pull(); city.isPresent();
+                    city = feed.pull()) {
+                csv.write(city.get());
+            }
+        }
+        assertArrayEquals(fromCities.toByteArray(), fromTable.toByteArray());
+
+        CitiesFeed feed = table.feed();
+        assertEquals("Dusseldorf", feed.pull().get().getName());
+        assertEquals("Koln, Deutz", feed.pull().get().getName());
+        assertFalse(feed.pull().isPresent());
+    }
+
+    /**
+     * Tests, that partial cities are rejected and not added to a table.
+     *
+     * @throws IOException if Json parser throws it.
+     * @throws PartialCityJsonException If some part of mandatory data is
+     * absent.
+     * @throws BadCitiesJsonException if some bad structure discovered while
+     * parsing process.
+     */
+    @Test(expected = PartialCityJsonException.class)
+    public void whenPartialCity() throws IOException,
+            PartialCityJsonException, BadCitiesJsonException {
+        CityTable table = new CityTable();
+        try {
+            JsonCitiesFeed.create(new StringReader(
+                    "[{\"_id\": 45, \"name\": \"Dusseldorf\"}]"))
+                    .pullInto(table);
+        } finally {
+            assertEquals(0, table.size());
+        }
+    }
+
+    /**
+     * Number of rows, forcing columns to grow.
+     */
+    private static final int ROWS = 1000;
+    /**
+     * Names of rows.
+     */
+    private static final String[] NAMES = {"Berlin", "Köln", "Ulm"};
+    /**
+     * Test Json.
+     */
+    private static final String JSON = "["
+            + "{\"_id\": 45, \"name\": \"Dusseldorf\", \"type\": \"location\","
+            + " \"geo_position\": {\"latitude\": 51.2, \"longitude\": 6.7}},"
+            + "{\"_id\": 46, \"name\": \"Koln, Deutz\", \"type\": \"location\","
+            + " \"geo_position\": {\"latitude\": 50.9, \"longitude\": 6.9}}"
+            + "]";
+}
@@ -0,0 +1,249 @@
+package com.bearsoft.citiesfetcher.suggest;
+
+import com.bearsoft.citiesfetcher.Application;
+import com.bearsoft.citiesfetcher.Settings;
+import com.bearsoft.citiesfetcher.StubEndpoint;
+import com.bearsoft.citiesfetcher.model.City;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test suite for {@code PrefixIndex}. It checks results of the index against
+ * a linear scan.
+ *
+ * @author mg
+ */
+public final class PrefixIndexTest {
+
+    /**
+     * Creates a city with a name.
+     *
+     * @param aId Id of the city.
+     * @param aName Name of the city.
+     * @return The city.
+     */
+    private static City city(final long aId, final String aName) {
+        return new City(aId, aName, "location", 0, 0);
+    }
+
+    /**
+     * Extracts names of suggested cities.
+     *
+     * @param aSuggestions Suggestions.
+     * @return Names in rank order.
+     */
+    private static List<String> names(final Suggestions aSuggestions) {
+        return aSuggestions.getCities().stream().map(City::getName)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Tests, that cities are found case insensitively and ranked by number
+     * of additions, then by length of names.
+     */
+    @Test
+    public void whenRanked() {
+        PrefixIndex index = new PrefixIndex(CAPACITY, 2);
+        index.add(city(1, "Bernau"));
+        index.add(city(2, "Bern"));
+        index.add(city(3, "Berlin"));
+        index.add(city(3, "Berlin"));
+        index.add(city(4, "Bergen"));
+        index.add(city(5, "Hamburg"));
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList("Berlin", "Bern"),
+                names(index.lookup("BER", 2)));
+        assertEquals(Arrays.asList("Berlin", "Bern", "Bergen", "Bernau"),
+                names(index.lookup("b", 10)));
+        assertEquals(Arrays.asList("Bern", "Bernau"), names(index.lookup("bern",
+                10)));
+        assertEquals(Arrays.asList("Hamburg"), names(index.lookup("", 10))
+                .subList(4, 5));
+        assertTrue(index.lookup("Berx", 10).getCities().isEmpty());
+        assertFalse(index.lookup("ber", 10).isComplete());
+    }
+
+    /**
+     * Tests, that covered prefixes and their extensions are complete and
+     * that eviction of a city drops coverage of its prefixes.
+     */
+    @Test
+    public void whenCovered() {
+        PrefixIndex index = new PrefixIndex(3, 2);
+        index.add(city(1, "Berlin"));
+        index.add(city(2, "Bern"));
+        assertTrue(index.cover("Ber", index.epoch()));
+        assertTrue(index.lookup("ber", 10).isComplete());
+        assertTrue(index.lookup("Berl", 10).isComplete());
+        assertTrue(index.lookup("Berx", 10).isComplete());
+        assertFalse(index.lookup("Be", 10).isComplete());
+        assertFalse(index.lookup("Hamburg", 10).isComplete());
+        index.add(city(3, "Hamburg"));
+        assertTrue(index.lookup("Berl", 10).isComplete());
+        index.add(city(4, "Hannover"));
+        // Berlin is evicted, so "Ber" is not complete any more.
+        assertEquals(3, index.size());
+        assertFalse(index.lookup("Ber", 10).isComplete());
+        assertEquals(Arrays.asList("Bern"), names(index.lookup("Ber", 10)));
+        assertEquals(4, index.getCompleteLookups());
+    }
+
+    /**
+     * Tests, that a prefix is not covered, if some of its cities were
+     * evicted while it was fetched.
+     */
+    @Test
+    public void whenFetchedOverCapacity() {
+        PrefixIndex index = new PrefixIndex(10, 5);
+        long epoch = index.epoch();
+        for (int i = 0; i < 50; i++) {
+            index.add(city(i, "ab" + i));
+        }
+        assertFalse(index.cover("ab", epoch));
+        Suggestions suggestions = index.lookup("ab", 100);
+        assertFalse(suggestions.isComplete());
+        assertEquals(10, suggestions.getCities().size());
+        index.add(city(100, "xy"));
+        assertFalse(index.cover("ab", epoch));
+        epoch = index.epoch();
+        index.add(city(101, "cd"));
+        assertTrue(index.cover("c", epoch));
+        assertTrue(index.lookup("cd", 10).isComplete());
+    }
+
+    /**
+     * Tests lookups of random names against a linear scan, while cities are
+     * added, renamed and evicted.
+     */
+    @Test
+    public void whenRandom() {
+        Random random = new Random(SEED);
+        PrefixIndex index = new PrefixIndex(CAPACITY, TOP_SIZE);
+        Map<Long, String> named = new LinkedHashMap<>();
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < ADDITIONS; i++) {
+            long id = random.nextInt(IDS);
+            String name = name(random, id);
+            if (!name.equals(named.get(id))) {
+                counts.remove(id);
+            }
+            named.remove(id);
+            named.put(id, name);
+            counts.merge(id, 1, Integer::sum);
+            if (named.size() > CAPACITY) {
+                long eldest = named.keySet().iterator().next();
+                named.remove(eldest);
+                counts.remove(eldest);
+            }
+            index.add(city(id, name));
+        }
+        assertEquals(named.size(), index.size());
+        for (int i = 0; i < LOOKUPS; i++) {
+            String prefix = name(random, random.nextInt(IDS)).substring(0,
+                    1 + random.nextInt(3)).toUpperCase(Locale.ROOT);
+            int limit = 1 + random.nextInt(TOP_SIZE * 2);
+            List<String> expected = named.entrySet().stream()
+                    .filter(entry -> entry.getValue().startsWith(
+                            prefix.toLowerCase(Locale.ROOT)))
+                    .sorted(Comparator.comparingInt(
+                            (Map.Entry<Long, String> entry)
+                            -> -counts.get(entry.getKey()))
+                            .thenComparingInt(entry -> entry.getValue()
+                                    .length())
+                            .thenComparing(Map.Entry::getValue)
+                            .thenComparingLong(Map.Entry::getKey))
+                    .limit(limit)
+                    .map(Map.Entry::getValue)
+                    .collect(Collectors.toList());
+            assertEquals(expected, names(index.lookup(prefix, limit)));
+        }
+    }
+
+    /**
+     * Generates a name of a city. Names mostly stay with ids, but sometimes
+     * a city is renamed.
+     *
+     * @param aRandom Random source.
+     * @param aId Id of the city.
+     * @return Lower cased name over a small alphabet.
+     */
+    private static String name(final Random aRandom, final long aId) {
+        Random stable = new Random(aId * (aRandom.nextInt(RENAMES) == 0
+                ? 2 : 1));
+        StringBuilder name = new StringBuilder();
+        int length = 3 + stable.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            name.append((char) ('a' + stable.nextInt(ALPHABET)));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Tests, that the application serves complete prefixes from the index
+     * without network requests.
+     *
+     * @throws Exception if a fetch fails.
+     */
+    @Test
+    public void whenSuggestedByApplication() throws Exception {
+        try (StubEndpoint endpoint = new StubEndpoint();
+                Application application = new Application(Settings.parse(
+                        endpoint.getEndpointOption(), "--autocomplete",
+                        "Berlin", "-"))) {
+            endpoint.serve("Ber", StubEndpoint.cities(1, "Bern", "Berlin",
+                    "Bergen"));
+            assertEquals(Arrays.asList("Bern", "Bergen"), names(application
+                    .suggest("Ber", 2)));
+            assertEquals(1, endpoint.getRequests());
+            Suggestions local = application.suggest("berl", 2);
+            assertTrue(local.isComplete());
+            assertEquals(Arrays.asList("Berlin"), names(local));
+            assertTrue(application.suggest("Berx", 2).getCities()
+                    .isEmpty());
+            assertEquals(1, endpoint.getRequests());
+        }
+    }
+
+    /**
+     * Maximum number of cities in the index.
+     */
+    private static final int CAPACITY = 500;
+    /**
+     * Number of best ranked cities, kept by nodes.
+     */
+    private static final int TOP_SIZE = 5;
+    /**
+     * Number of random additions.
+     */
+    private static final int ADDITIONS = 5000;
+    /**
+     * Number of distinct ids.
+     */
+    private static final int IDS = 800;
+    /**
+     * Number of random lookups.
+     */
+    private static final int LOOKUPS = 2000;
+    /**
+     * Size of the alphabet of names.
+     */
+    private static final int ALPHABET = 4;
+    /**
+     * One of this number of additions renames a city.
+     */
+    private static final int RENAMES = 20;
+    /**
+     * Seed of random cities.
+     */
+    private static final long SEED = 20161017L;
+}
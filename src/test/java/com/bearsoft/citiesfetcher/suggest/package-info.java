@@ -0,0 +1,4 @@
+/**
+ * Contains tests for prefix index of city names.
+ */
+package com.bearsoft.citiesfetcher.suggest;